@@ -0,0 +1,72 @@
+package com.barterhouse.storage;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara storage.parallel_loading activado y desactivado: decodifica con {@link ChunkedLoader}
+ * un conjunto sintético de registros binarios de ofertas, igual que la carga del backend SQLite
+ * (una fila = un registro de {@link BinaryOfferFormat}).
+ *
+ * Solo mide la decodificación de los registros; la resolución de items contra el registro
+ * de Forge necesita el juego y queda fuera.
+ *
+ * Ejecutar con: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkedLoaderBenchmark {
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    @Param({"512", "2048"})
+    public int chunkSize;
+
+    @Param({"50000"})
+    public int offers;
+
+    private List<byte[]> rows;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(1);
+        UUID[] players = new UUID[500];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = UUID.randomUUID();
+        }
+        rows = new ArrayList<>(offers);
+        for (int i = 0; i < offers; i++) {
+            int player = random.nextInt(players.length);
+            byte[] tag = null;
+            if (random.nextInt(4) == 0) {
+                tag = new byte[24 + random.nextInt(200)];
+                random.nextBytes(tag);
+            }
+            rows.add(BinaryOfferFormat.encode(new OfferRecord(UUID.randomUUID(), players[player], "Player" + player,
+                    "minecraft:item_" + random.nextInt(200), 1 + random.nextInt(64), tag,
+                    "minecraft:item_" + random.nextInt(200), 1 + random.nextInt(999), null,
+                    System.currentTimeMillis())));
+        }
+    }
+
+    @Benchmark
+    public List<OfferRecord> load() {
+        ChunkedLoader<byte[], OfferRecord> loader = new ChunkedLoader<>(chunkSize, parallel,
+                BinaryOfferFormat::decode,
+                (row, e) -> {
+                    throw new IllegalStateException(e);
+                });
+        for (byte[] row : rows) {
+            loader.add(row);
+        }
+        return loader.finish();
+    }
+}
@@ -0,0 +1,99 @@
+package com.barterhouse.storage;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara las opciones de storage.compression sobre un archivo de ofertas sintético:
+ * latencia de escritura, latencia de lectura y tamaño (se imprime en el setup).
+ *
+ * Ejecutar con: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"none", "deflate-1", "deflate-6", "deflate-9", "lz4"})
+    public String compression;
+
+    @Param({"binary", "json"})
+    public String format;
+
+    @Param({"50000"})
+    public int offers;
+
+    private DataCompression codec;
+    private byte[] raw;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] parts = compression.split("-");
+        int level = parts.length > 1 ? Integer.parseInt(parts[1]) : 6;
+        codec = new DataCompression(DataCompression.Codec.fromName(parts[0]), level);
+
+        Random random = new Random(1);
+        UUID[] players = new UUID[500];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = UUID.randomUUID();
+        }
+        List<OfferRecord> records = new ArrayList<>(offers);
+        for (int i = 0; i < offers; i++) {
+            int player = random.nextInt(players.length);
+            byte[] tag = random.nextInt(4) == 0 ? new byte[24] : null;
+            records.add(new OfferRecord(UUID.randomUUID(), players[player], "Player" + player,
+                    "minecraft:item_" + random.nextInt(200), 1 + random.nextInt(64), null,
+                    "minecraft:item_" + random.nextInt(200), 1 + random.nextInt(999), tag,
+                    System.currentTimeMillis()));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encode(records, bytes);
+        raw = bytes.toByteArray();
+        compressed = compress();
+        System.out.println(format + " / " + compression + ": " + raw.length + " -> " + compressed.length + " bytes");
+    }
+
+    private void encode(List<OfferRecord> records, OutputStream out) throws IOException {
+        if (format.equals("json")) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            JsonOfferFormat.write(writer, records);
+            writer.flush();
+        } else {
+            BinaryOfferFormat.write(out, records);
+        }
+    }
+
+    private byte[] compress() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length);
+        try (OutputStream out = codec.compress(bytes)) {
+            out.write(raw);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return compress();
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) throws IOException {
+        try (InputStream in = DataCompression.decompress(new ByteArrayInputStream(compressed))) {
+            if (format.equals("json")) {
+                JsonOfferFormat.read(new InputStreamReader(in, StandardCharsets.UTF_8), blackhole::consume);
+            } else {
+                BinaryOfferFormat.read(in, blackhole::consume);
+            }
+        }
+    }
+}
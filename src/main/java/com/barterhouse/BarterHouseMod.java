@@ -80,7 +80,13 @@ public class BarterHouseMod {
                 
                 // Inicializar DiscordConfig
                 com.barterhouse.config.DiscordConfig.getInstance().initializeWithLevel(overworld);
-                
+
+                // Inicializar StorageConfig (antes de los managers, elige el backend)
+                com.barterhouse.config.StorageConfig.getInstance().initializeWithLevel(overworld);
+
+                // Blobs de NBT (antes de las ofertas y la bodega, que guardan sus hashes)
+                com.barterhouse.manager.NbtBlobManager.getInstance().initializeWithLevel(overworld);
+
                 // Inicializar TradeOfferManager
                 TradeOfferManager.getInstance().initializeWithLevel(overworld);
                 LoggerUtil.info("Trade offer manager initialized with " + 
@@ -89,6 +95,9 @@ public class BarterHouseMod {
                 // Inicializar WarehouseManager
                 WarehouseManager.getInstance().initializeWithLevel(overworld);
                 LoggerUtil.info("Warehouse manager initialized");
+
+                // Copias de seguridad (si están habilitadas en config.yml)
+                com.barterhouse.manager.BackupManager.getInstance().initializeWithLevel(overworld);
             } else {
                 LoggerUtil.error("Failed to get overworld level for manager initialization");
             }
@@ -100,8 +109,11 @@ public class BarterHouseMod {
         @SubscribeEvent
         public static void onServerStopping(ServerStoppingEvent event) {
             LoggerUtil.info(MOD_NAME + " server stopping");
-            TradeOfferManager.getInstance().saveOffers();
+            com.barterhouse.manager.BackupManager.getInstance().shutdown();
+            TradeOfferManager.getInstance().shutdown();
             LoggerUtil.info("Trade offers saved successfully");
+            WarehouseManager.getInstance().shutdown();
+            com.barterhouse.manager.NbtBlobManager.getInstance().shutdown();
         }
     }
 }
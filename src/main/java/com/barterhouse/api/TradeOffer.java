@@ -1,8 +1,11 @@
 package com.barterhouse.api;
 
+import com.barterhouse.util.LoggerUtil;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.registries.ForgeRegistries;
 
+import java.io.IOException;
 import java.util.UUID;
 
 /**
@@ -14,10 +17,34 @@ public class TradeOffer {
     private final UUID offerId;
     private final UUID creatorUUID;
     private final String creatorName;
-    private final ItemStack offeredItem;
-    private final ItemStack requestedItem;
+    private ItemStack offeredItem;
+    private ItemStack requestedItem;
     private final long creationTime;
-    private static final long EXPIRATION_TIME = 7 * 24 * 60 * 60 * 1000; // 7 días en milisegundos
+    public static final long EXPIRATION_TIME = 7 * 24 * 60 * 60 * 1000; // 7 días en milisegundos
+
+    // Datos sin decodificar de una oferta cargada en modo diferido; null una vez hidratada
+    private volatile ItemData pendingItems;
+
+    /**
+     * Datos de los items de una oferta que todavía no se convirtieron en ItemStacks.
+     * Guarda solo ids y cantidades; el NBT se decodifica en {@link #decode()}.
+     */
+    public interface ItemData {
+        String getOfferedItemId();
+
+        int getOfferedCount();
+
+        String getRequestedItemId();
+
+        int getRequestedCount();
+
+        /**
+         * Construye los ItemStacks con su NBT completo.
+         *
+         * @return {ofrecido, solicitado}
+         */
+        ItemStack[] decode() throws IOException;
+    }
 
     /**
      * Constructor para crear una nueva oferta de trueque.
@@ -56,6 +83,54 @@ public class TradeOffer {
         this.creationTime = creationTime;
     }
 
+    private TradeOffer(UUID offerId, UUID creatorUUID, String creatorName, long creationTime, ItemData items) {
+        this.offerId = offerId;
+        this.creatorUUID = creatorUUID;
+        this.creatorName = creatorName;
+        this.creationTime = creationTime;
+        this.pendingItems = items;
+    }
+
+    /**
+     * Crea una oferta cuyos ItemStacks se construyen recién la primera vez que se usan
+     * (al mostrarla, aceptarla o serializarla).
+     *
+     * @param items Ids, cantidades y NBT sin decodificar
+     */
+    public static TradeOffer lazy(UUID offerId, UUID creatorUUID, String creatorName, long creationTime, ItemData items) {
+        return new TradeOffer(offerId, creatorUUID, creatorName, creationTime, items);
+    }
+
+    /**
+     * Construye los ItemStacks de una oferta cargada en modo diferido.
+     */
+    private synchronized void hydrate() {
+        ItemData items = pendingItems;
+        if (items == null) {
+            return;
+        }
+        try {
+            ItemStack[] stacks = items.decode();
+            offeredItem = stacks[0];
+            requestedItem = stacks[1];
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to decode items of offer " + offerId + ": " + e.getMessage());
+            offeredItem = ItemStack.EMPTY;
+            requestedItem = ItemStack.EMPTY;
+        }
+        pendingItems = null;
+    }
+
+    /**
+     * Devuelve los datos sin decodificar si la oferta todavía no se hidrató, para poder
+     * guardarla sin construir sus ItemStacks. Puede llamarse desde cualquier hilo.
+     *
+     * @return Los datos pendientes, o null si la oferta ya tiene sus ItemStacks
+     */
+    public ItemData getPendingItems() {
+        return pendingItems;
+    }
+
     // Getters
     public UUID getOfferId() {
         return offerId;
@@ -70,13 +145,56 @@ public class TradeOffer {
     }
 
     public ItemStack getOfferedItem() {
+        if (pendingItems != null) {
+            hydrate();
+        }
         return offeredItem.copy();
     }
 
     public ItemStack getRequestedItem() {
+        if (pendingItems != null) {
+            hydrate();
+        }
         return requestedItem.copy();
     }
 
+    /**
+     * ID de registro del item ofrecido ("minecraft:diamond"). No hidrata la oferta, así que
+     * sirve para filtrar el libro antes de construir los ItemStacks.
+     */
+    public String getOfferedItemId() {
+        ItemData items = pendingItems;
+        return items != null ? items.getOfferedItemId() : itemId(offeredItem);
+    }
+
+    /**
+     * Cantidad del stack ofrecido (sin ActualCount). No hidrata la oferta.
+     */
+    public int getOfferedCount() {
+        ItemData items = pendingItems;
+        return items != null ? items.getOfferedCount() : offeredItem.getCount();
+    }
+
+    /**
+     * ID de registro del item solicitado. No hidrata la oferta.
+     */
+    public String getRequestedItemId() {
+        ItemData items = pendingItems;
+        return items != null ? items.getRequestedItemId() : itemId(requestedItem);
+    }
+
+    /**
+     * Cantidad del stack solicitado (sin ActualCount). No hidrata la oferta.
+     */
+    public int getRequestedCount() {
+        ItemData items = pendingItems;
+        return items != null ? items.getRequestedCount() : requestedItem.getCount();
+    }
+
+    private static String itemId(ItemStack stack) {
+        return String.valueOf(ForgeRegistries.ITEMS.getKey(stack.getItem()));
+    }
+
     public long getCreationTime() {
         return creationTime;
     }
@@ -110,6 +228,9 @@ public class TradeOffer {
      * @return CompoundTag con los datos de la oferta
      */
     public CompoundTag serializeNBT() {
+        if (pendingItems != null) {
+            hydrate();
+        }
         CompoundTag tag = new CompoundTag();
         tag.putString("OfferId", offerId.toString());
         tag.putString("CreatorUUID", creatorUUID.toString());
@@ -133,12 +254,18 @@ public class TradeOffer {
         ItemStack offeredItem = ItemStack.of(tag.getCompound("OfferedItem"));
         ItemStack requestedItem = ItemStack.of(tag.getCompound("RequestedItem"));
 
-        TradeOffer offer = new TradeOffer(offerId, creatorUUID, creatorName, offeredItem, requestedItem);
+        // Conservar el tiempo de creación original si fue guardado
+        long creationTime = tag.contains("CreationTime") ? tag.getLong("CreationTime") : System.currentTimeMillis();
+
+        TradeOffer offer = new TradeOffer(offerId, creatorUUID, creatorName, offeredItem, requestedItem, creationTime);
         return offer;
     }
 
     @Override
     public String toString() {
+        if (pendingItems != null) {
+            hydrate();
+        }
         return "TradeOffer{" +
                 "offerId=" + offerId +
                 ", creatorName='" + creatorName + '\'' +
@@ -3,13 +3,24 @@ package com.barterhouse.commands;
 import com.barterhouse.api.TradeOffer;
 import com.barterhouse.event.SignInteractionHandler;
 import com.barterhouse.handler.TradeItemHandler;
+import com.barterhouse.manager.NbtBlobManager;
 import com.barterhouse.manager.TradeOfferManager;
+import com.barterhouse.manager.WarehouseManager;
+import com.barterhouse.storage.TradeLedger;
+import com.barterhouse.storage.TradeRecord;
 import com.barterhouse.util.LoggerUtil;
+import com.mojang.authlib.GameProfile;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.entity.player.Player;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Comando principal /barter para abrir GUI y gestionar ofertas
@@ -65,11 +76,62 @@ public class BarterCommand {
                 LoggerUtil.info("Executing: cancel " + args[1]);
                 handleCancel(player, args[1]);
                 break;
+            case "history":
+                LoggerUtil.info("Executing: history");
+                handleHistory(source, player, args);
+                break;
+            case "stats":
+                LoggerUtil.info("Executing: stats");
+                handleStats(source, player);
+                break;
+            case "reload":
+                LoggerUtil.info("Executing: reload");
+                handleReload(source, player);
+                break;
             default:
-                player.displayClientMessage(Component.literal("§cComando desconocido. Usa: /barter, /barter create, /barter list"), false);
+                player.displayClientMessage(Component.literal("§cComando desconocido. Usa: /barter, /barter create, /barter list, /barter history"), false);
         }
     }
 
+    /**
+     * Muestra estadísticas del mercado y de las bodegas (solo operadores). Lee los totales
+     * que mantienen los managers, sin recorrer las bodegas.
+     */
+    private static void handleStats(CommandSourceStack source, Player player) {
+        if (!source.hasPermission(2)) {
+            player.displayClientMessage(Component.literal("§cSolo los operadores pueden ver las estadísticas"), false);
+            return;
+        }
+        WarehouseManager warehouses = WarehouseManager.getInstance();
+        Map<String, Long> totals = warehouses.getServerItemTotals();
+        long items = totals.values().stream().mapToLong(Long::longValue).sum();
+
+        player.displayClientMessage(Component.literal("§6=== BarterHouse ==="), false);
+        player.displayClientMessage(Component.literal("§7Ofertas activas: §e" + TradeOfferManager.getInstance().getTotalActiveOffers()), false);
+        player.displayClientMessage(Component.literal("§7Bodegas: §e" + items + " items§7, §e"
+                + warehouses.getLoadedWarehouses() + "§7 cargadas en memoria"), false);
+        player.displayClientMessage(Component.literal("§7NBT: §e" + NbtBlobManager.getInstance().getBlobCount()
+                + "§7 blobs, §e" + NbtBlobManager.getInstance().getReferencedCount() + "§7 en uso"), false);
+        totals.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(STATS_TOP_ITEMS)
+                .forEach(entry -> player.displayClientMessage(Component.literal("§7  " + entry.getKey() + ": §e" + entry.getValue()), false));
+    }
+
+    /**
+     * Recarga ofertas y bodegas desde disco (solo operadores). La carga es en segundo plano
+     * y el mercado sigue abierto mientras tanto.
+     */
+    private static void handleReload(CommandSourceStack source, Player player) {
+        if (!source.hasPermission(2)) {
+            player.displayClientMessage(Component.literal("§cSolo los operadores pueden recargar los datos"), false);
+            return;
+        }
+        TradeOfferManager.getInstance().reload();
+        WarehouseManager.getInstance().reload();
+        player.displayClientMessage(Component.literal("§aRecargando ofertas y bodegas en segundo plano..."), false);
+    }
+
     /**
      * Abre el flow de creación de oferta.
      */
@@ -132,7 +194,6 @@ public class BarterCommand {
 
             // Remover la oferta
             manager.removeOffer(offerUUID);
-            manager.saveOffers();
 
             player.displayClientMessage(Component.literal("§a✓ Oferta cancelada exitosamente"), false);
             LoggerUtil.info("Oferta cancelada por " + player.getName().getString() + ": " + offerId);
@@ -144,4 +205,63 @@ public class BarterCommand {
             player.displayClientMessage(Component.literal("§cError al cancelar la oferta"), false);
         }
     }
+
+    private static final int HISTORY_LIMIT = 10;
+    private static final int STATS_TOP_ITEMS = 10;
+
+    /**
+     * Muestra el historial de trueques completados:
+     * /barter history (propios), /barter history item <item> [horas],
+     * /barter history player <nombre> [horas] (solo operadores).
+     * La consulta lee de disco, así que se hace fuera del hilo del servidor.
+     */
+    private static void handleHistory(CommandSourceStack source, Player player, String[] args) {
+        long now = System.currentTimeMillis();
+        TradeLedger.Query query;
+        String title;
+
+        if (args.length >= 3 && args[1].equals("item")) {
+            int hours = args.length >= 4 ? Integer.parseInt(args[3]) : 24;
+            query = new TradeLedger.Query(now - hours * 3600000L, now, null, args[2], HISTORY_LIMIT);
+            title = "Trueques de " + args[2] + " (últimas " + hours + " h)";
+        } else if (args.length >= 3 && args[1].equals("player")) {
+            if (!source.hasPermission(2)) {
+                player.displayClientMessage(Component.literal("§cSolo los operadores pueden ver el historial de otros jugadores"), false);
+                return;
+            }
+            Optional<GameProfile> profile = player.getServer().getProfileCache().get(args[2]);
+            if (profile.isEmpty()) {
+                player.displayClientMessage(Component.literal("§cJugador no encontrado: " + args[2]), false);
+                return;
+            }
+            long from = args.length >= 4 ? now - Integer.parseInt(args[3]) * 3600000L : 0;
+            query = new TradeLedger.Query(from, now, profile.get().getId(), null, HISTORY_LIMIT);
+            title = "Trueques de " + profile.get().getName();
+        } else {
+            query = new TradeLedger.Query(0, now, player.getUUID(), null, HISTORY_LIMIT);
+            title = "Tus últimos trueques";
+        }
+
+        CompletableFuture.supplyAsync(() -> TradeOfferManager.getInstance().queryTrades(query))
+                .thenAccept(trades -> player.getServer().execute(() -> showHistory(player, title, trades)))
+                .exceptionally(e -> {
+                    LoggerUtil.error("Error al consultar el historial: " + e.getMessage());
+                    return null;
+                });
+    }
+
+    private static void showHistory(Player player, String title, List<TradeRecord> trades) {
+        player.displayClientMessage(Component.literal("§6=== " + title + " ==="), false);
+        if (trades.isEmpty()) {
+            player.displayClientMessage(Component.literal("§7No hay trueques registrados"), false);
+            return;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("dd/MM HH:mm");
+        for (TradeRecord trade : trades) {
+            player.displayClientMessage(Component.literal("§7[" + format.format(new Date(trade.timestamp)) + "] §e"
+                    + trade.sellerName + " §7→ §e" + trade.buyerName + "§7: §f"
+                    + trade.offeredCount + "x " + trade.offeredItem + " §7por §f"
+                    + trade.requestedCount + "x " + trade.requestedItem), false);
+        }
+    }
 }
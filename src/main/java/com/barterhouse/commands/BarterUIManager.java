@@ -23,6 +23,8 @@ public class BarterUIManager {
 
     // Rastreador de qué menú tiene abierto cada jugador
     private static final HashMap<UUID, String> playerMenus = new HashMap<>();
+    // Handle de la entrada de bodega mostrada en cada slot del menú abierto de cada jugador
+    private static final HashMap<UUID, long[]> warehouseSlots = new HashMap<>();
 
     /**
      * Obtiene la cantidad real de un ItemStack, considerando el NBT ActualCount si existe
@@ -191,10 +193,8 @@ public class BarterUIManager {
             
             SimpleContainer container = new SimpleContainer(54);
             
-            List<TradeOffer> myOffers = TradeOfferManager.getInstance().getAllActiveOffers()
-                .stream()
-                .filter(offer -> offer.getCreatorUUID().equals(player.getUUID()))
-                .collect(java.util.stream.Collectors.toList());
+            // Mismo orden que usa el menú al hacer click en una oferta
+            List<TradeOffer> myOffers = TradeOfferManager.getInstance().getPlayerOffers(player.getUUID());
             
             LoggerUtil.info("Player has " + myOffers.size() + " offers");
             
@@ -244,36 +244,55 @@ public class BarterUIManager {
         try {
             ServerPlayer serverPlayer = (ServerPlayer) player;
             
+            // La bodega se carga al conectarse; si todavía no está lista, se abre cuando termine
+            com.barterhouse.manager.WarehouseManager warehouseManager = com.barterhouse.manager.WarehouseManager.getInstance();
+            if (!warehouseManager.isLoaded(player.getUUID())) {
+                player.displayClientMessage(net.minecraft.network.chat.Component.literal("§7Cargando bodega..."), true);
+                warehouseManager.ensureLoaded(player.getUUID(), () -> {
+                    if (!serverPlayer.hasDisconnected()) {
+                        openWarehouseGUI(serverPlayer);
+                    }
+                });
+                return;
+            }
+            
             // Crear un contenedor de cofre GRANDE (6 filas = 54 slots)
             SimpleContainer container = new SimpleContainer(54);
             
             // Cargar items de la bodega
-            java.util.List<com.barterhouse.manager.WarehouseManager.StoredItem> warehouseItems = 
+            java.util.Collection<com.barterhouse.manager.WarehouseManager.StoredItem> warehouseItems = 
                 com.barterhouse.manager.WarehouseManager.getInstance().getPlayerWarehouse(player.getUUID());
             
             LoggerUtil.info("Loading " + warehouseItems.size() + " items from warehouse");
             
-            // Llenar la bodega con los items (primeras 4 filas = slots 0-35)
+            // Llenar la bodega con los items (primeras 4 filas = slots 0-35). Cada slot recuerda
+            // el handle de su entrada, así el click no depende de la posición en la bodega
+            long[] slotHandles = new long[36];
             int slot = 0;
             for (com.barterhouse.manager.WarehouseManager.StoredItem storedItem : warehouseItems) {
                 if (slot >= 36) break;
                 
                 try {
-                    // Crear un ItemStack desde el nombre registrado
-                    net.minecraft.world.item.Item item = net.minecraftforge.registries.ForgeRegistries.ITEMS
-                        .getValue(new net.minecraft.resources.ResourceLocation(storedItem.itemName));
-                    
-                    if (item != null) {
-                        ItemStack displayStack = new ItemStack(item, Math.min(storedItem.count, 64));
-                        
-                        // Mostrar información del item
-                        String displayName = "§e" + storedItem.count + "x §7" + item.getDescription().getString() +
-                                           "\n§7De: §6" + storedItem.sourcePlayer;
-                        displayStack.setHoverName(net.minecraft.network.chat.Component.literal(displayName));
-                        
-                        container.setItem(slot, displayStack);
-                        slot++;
+                    // El item y su NBT ya vienen resueltos desde la carga
+                    ItemStack displayStack;
+                    String displayName;
+                    if (storedItem.isAvailable()) {
+                        displayStack = storedItem.toStack(Math.min(storedItem.count, 64));
+                        displayName = "§e" + storedItem.count + "x §7" + storedItem.item.getDescription().getString() +
+                                      "\n§7De: §6" + storedItem.sourcePlayer;
+                    } else {
+                        // Item de un mod que ya no está: se muestra igual para que cada slot siga
+                        // correspondiendo a su entrada de la bodega
+                        displayStack = new ItemStack(Items.BARRIER);
+                        displayName = "§c" + storedItem.count + "x " + storedItem.itemName + " §7(no disponible)";
                     }
+                    
+                    // Mostrar información del item
+                    displayStack.setHoverName(net.minecraft.network.chat.Component.literal(displayName));
+                    
+                    container.setItem(slot, displayStack);
+                    slotHandles[slot] = storedItem.handle;
+                    slot++;
                 } catch (Exception e) {
                     LoggerUtil.error("Error loading warehouse item: " + storedItem.itemName);
                 }
@@ -284,14 +303,28 @@ public class BarterUIManager {
             backButton.setHoverName(net.minecraft.network.chat.Component.literal("§e§lVOLVER"));
             container.setItem(45, backButton);
             
+            // Slot 47: Retirar todo; slot 49: Retirar lo que quepa en el inventario
+            ItemStack withdrawAllButton = new ItemStack(Items.CHEST);
+            withdrawAllButton.setHoverName(net.minecraft.network.chat.Component.literal(
+                "§a§lRETIRAR TODO\n§7Lo que no quepa se dropea\n§7Shift+click en un item: retirar todo ese item"
+                + "\n§7Click derecho en un item: ofrecerlo sin retirarlo"));
+            container.setItem(47, withdrawAllButton);
+            
+            ItemStack withdrawFittingButton = new ItemStack(Items.HOPPER);
+            withdrawFittingButton.setHoverName(net.minecraft.network.chat.Component.literal(
+                "§e§lRETIRAR LO QUE QUEPA\n§7Solo llena el espacio libre del inventario"));
+            container.setItem(49, withdrawFittingButton);
+            
             // Marcar que este jugador tiene el menú de bodega abierto
             playerMenus.put(player.getUUID(), "warehouse");
+            warehouseSlots.put(player.getUUID(), slotHandles);
             
             // Abrir menú con BarterChestMenu personalizado
             serverPlayer.openMenu(new net.minecraft.world.SimpleMenuProvider(
                 (windowId, playerInventory, playerEntity) -> 
                     new BarterChestMenu(net.minecraft.world.inventory.MenuType.GENERIC_9x6, windowId, playerInventory, container, 6, serverPlayer, "warehouse"),
-                net.minecraft.network.chat.Component.literal("§7Bodega (" + warehouseItems.size() + " tipos de items)")
+                net.minecraft.network.chat.Component.literal("§7Bodega (" + warehouseItems.size() + " tipos, "
+                    + com.barterhouse.manager.WarehouseManager.getInstance().getTotalItems(player.getUUID()) + " items)")
             ));
             
             LoggerUtil.info("Warehouse menu opened successfully!");
@@ -307,6 +340,17 @@ public class BarterUIManager {
     
     public static void removePlayerMenu(UUID playerUUID) {
         playerMenus.remove(playerUUID);
+        warehouseSlots.remove(playerUUID);
+    }
+
+    /**
+     * Handle de la entrada de bodega que se mostró en un slot del menú de bodega.
+     *
+     * @return El handle, o 0 si el slot estaba vacío
+     */
+    public static long getWarehouseHandle(UUID playerUUID, int slot) {
+        long[] handles = warehouseSlots.get(playerUUID);
+        return handles != null && slot >= 0 && slot < handles.length ? handles[slot] : 0;
     }
 }
 
@@ -1,9 +1,11 @@
 package com.barterhouse.commands;
 
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
+import net.minecraft.commands.arguments.ResourceLocationArgument;
 
 /**
  * Registrador de comandos para /barter
@@ -47,6 +49,46 @@ public class CommandRegistry {
                         })
                     )
                 )
+                .then(Commands.literal("history")
+                    .executes(ctx -> {
+                        BarterCommand.execute(ctx.getSource(), new String[]{"history"});
+                        return 1;
+                    })
+                    .then(Commands.literal("item")
+                        .then(Commands.argument("item", ResourceLocationArgument.id())
+                            .executes(ctx -> {
+                                BarterCommand.execute(ctx.getSource(),
+                                    new String[]{"history", "item", ResourceLocationArgument.getId(ctx, "item").toString()});
+                                return 1;
+                            })
+                            .then(Commands.argument("hours", IntegerArgumentType.integer(1))
+                                .executes(ctx -> {
+                                    BarterCommand.execute(ctx.getSource(),
+                                        new String[]{"history", "item", ResourceLocationArgument.getId(ctx, "item").toString(),
+                                            String.valueOf(IntegerArgumentType.getInteger(ctx, "hours"))});
+                                    return 1;
+                                })
+                            )
+                        )
+                    )
+                    .then(Commands.literal("player")
+                        .then(Commands.argument("name", StringArgumentType.word())
+                            .executes(ctx -> {
+                                BarterCommand.execute(ctx.getSource(),
+                                    new String[]{"history", "player", StringArgumentType.getString(ctx, "name")});
+                                return 1;
+                            })
+                            .then(Commands.argument("hours", IntegerArgumentType.integer(1))
+                                .executes(ctx -> {
+                                    BarterCommand.execute(ctx.getSource(),
+                                        new String[]{"history", "player", StringArgumentType.getString(ctx, "name"),
+                                            String.valueOf(IntegerArgumentType.getInteger(ctx, "hours"))});
+                                    return 1;
+                                })
+                            )
+                        )
+                    )
+                )
         );
     }
 }
@@ -0,0 +1,313 @@
+package com.barterhouse.config;
+
+import com.barterhouse.storage.DataCompression;
+import com.barterhouse.util.LoggerUtil;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Configuración de almacenamiento (sección "storage" de config.yml).
+ */
+public class StorageConfig {
+
+    public static final String BACKEND_FILE = "file";
+    public static final String BACKEND_MMAP = "mmap";
+    public static final String BACKEND_SHARDED = "sharded";
+    public static final String BACKEND_SQLITE = "sqlite";
+    public static final String BACKEND_JSON = "json";
+    public static final String FORMAT_BINARY = "binary";
+    public static final String FORMAT_JSON = "json";
+
+    private static StorageConfig instance;
+    private Path configFile;
+    private String offersBackend = BACKEND_FILE;
+    private String offersFormat = FORMAT_BINARY;
+    private int offerShards = 16;
+    private String warehouseBackend = BACKEND_JSON;
+    private boolean lazyOfferLoading = false;
+    private boolean parallelLoading = true;
+    private DataCompression compression = new DataCompression(DataCompression.Codec.NONE, 6);
+    private boolean archiveOffers = true;
+    private int archiveRetentionDays = 90;
+    private int archiveCompactAfterDays = 7;
+    private boolean tradeLedger = true;
+    private boolean backups = false;
+    private int backupIntervalMinutes = 5;
+    private int backupFullEvery = 12;
+    private int backupKeepBases = 3;
+    private int backupMaxKbPerSecond = 4096;
+    private int warehouseIdleMinutes = 10;
+    private int blobGcGraceMinutes = 30;
+
+    private StorageConfig() {
+    }
+
+    public static synchronized StorageConfig getInstance() {
+        if (instance == null) {
+            instance = new StorageConfig();
+        }
+        return instance;
+    }
+
+    public void initializeWithLevel(net.minecraft.world.level.Level level) {
+        if (this.configFile == null && level != null) {
+            try {
+                Path worldPath = level.getServer().getServerDirectory().toPath();
+                Path barterhouseDir = worldPath.resolve("barterhouse");
+                Files.createDirectories(barterhouseDir);
+
+                this.configFile = barterhouseDir.resolve("config.yml");
+                loadConfig();
+            } catch (IOException e) {
+                LoggerUtil.error("Error al inicializar configuración de almacenamiento: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Agrega la sección storage con valores por defecto a un config.yml que no la tenga.
+     */
+    private void appendDefaultSection() throws IOException {
+        String defaultYaml = "\n# Configuración de almacenamiento\n" +
+            "storage:\n" +
+            "  # Backend de ofertas: \"file\" (snapshot + journal), \"sharded\" (un archivo por grupo de creadores),\n" +
+            "  # \"mmap\" (archivo mapeado en memoria) o \"sqlite\" (barterhouse.db)\n" +
+            "  offers_backend: \"file\"\n" +
+            "  # Formato del snapshot del backend \"file\": \"binary\" (offers.dat) o \"json\" (offers.json)\n" +
+            "  offers_format: \"binary\"\n" +
+            "  # Cantidad de archivos del backend \"sharded\"\n" +
+            "  offer_shards: 16\n" +
+            "  # Backend de la bodega: \"json\" (un archivo por jugador en warehouse/) o \"sqlite\" (barterhouse.db)\n" +
+            "  warehouse_backend: \"json\"\n" +
+            "  # Al arrancar, cargar solo el índice de ofertas y construir los items cuando se usen\n" +
+            "  lazy_offer_loading: false\n" +
+            "  # Decodificar ofertas y bodega en varios hilos al arrancar (false = un solo hilo)\n" +
+            "  parallel_loading: true\n" +
+            "  # Compresión de los archivos de datos: \"none\", \"deflate\" o \"lz4\"\n" +
+            "  compression: \"none\"\n" +
+            "  # Nivel de deflate, de 1 (rápido) a 9 (más pequeño)\n" +
+            "  compression_level: 6\n" +
+            "  # Guardar las ofertas eliminadas y expiradas en archive/ (un segmento por día)\n" +
+            "  archive_offers: true\n" +
+            "  # Días que se conservan las ofertas archivadas\n" +
+            "  archive_retention_days: 90\n" +
+            "  # Días tras los cuales los segmentos diarios se juntan en un segmento mensual\n" +
+            "  archive_compact_after_days: 7\n" +
+            "  # Registrar los trueques completados en ledger/ (consultables con /barter history)\n" +
+            "  trade_ledger: true\n" +
+            "  # Copias de seguridad incrementales en backups/: una base completa y, entre bases, deltas\n" +
+            "  # con solo las ofertas y bodegas que cambiaron\n" +
+            "  backups: false\n" +
+            "  # Minutos entre copias\n" +
+            "  backup_interval_minutes: 5\n" +
+            "  # Cada cuántas copias se escribe una base completa en lugar de un delta\n" +
+            "  backup_full_every: 12\n" +
+            "  # Bases que se conservan, cada una con sus deltas\n" +
+            "  backup_keep_bases: 3\n" +
+            "  # Velocidad máxima de escritura de las copias en KB/s (0 = sin límite)\n" +
+            "  backup_max_kb_per_second: 4096\n" +
+            "  # Minutos que la bodega de un jugador desconectado sigue en memoria antes de liberarse\n" +
+            "  warehouse_idle_minutes: 10\n" +
+            "  # Minutos que un blob de NBT sin referencias se conserva antes de borrarse\n" +
+            "  blob_gc_grace_minutes: 30\n";
+
+        Files.write(configFile, defaultYaml.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadConfig() {
+        try {
+            Map<String, Object> data = null;
+            if (Files.exists(configFile)) {
+                try (InputStream input = Files.newInputStream(configFile)) {
+                    data = new Yaml().load(input);
+                }
+            }
+
+            if (data == null || !data.containsKey("storage")) {
+                appendDefaultSection();
+                LoggerUtil.info("Sección storage agregada a config.yml");
+                return;
+            }
+
+            Map<String, Object> storageConfig = (Map<String, Object>) data.get("storage");
+            if (storageConfig == null) {
+                return;
+            }
+
+            if (storageConfig.containsKey("offers_backend")) {
+                this.offersBackend = String.valueOf(storageConfig.get("offers_backend")).toLowerCase();
+            }
+
+            if (storageConfig.containsKey("offers_format")) {
+                this.offersFormat = String.valueOf(storageConfig.get("offers_format")).toLowerCase();
+            }
+
+            if (storageConfig.containsKey("offer_shards")) {
+                this.offerShards = ((Number) storageConfig.get("offer_shards")).intValue();
+            }
+
+            if (storageConfig.containsKey("warehouse_backend")) {
+                this.warehouseBackend = String.valueOf(storageConfig.get("warehouse_backend")).toLowerCase();
+            }
+
+            if (storageConfig.containsKey("lazy_offer_loading")) {
+                this.lazyOfferLoading = Boolean.parseBoolean(String.valueOf(storageConfig.get("lazy_offer_loading")));
+            }
+
+            if (storageConfig.containsKey("parallel_loading")) {
+                this.parallelLoading = Boolean.parseBoolean(String.valueOf(storageConfig.get("parallel_loading")));
+            }
+
+            if (storageConfig.containsKey("compression")) {
+                int level = 6;
+                if (storageConfig.containsKey("compression_level")) {
+                    level = ((Number) storageConfig.get("compression_level")).intValue();
+                }
+                this.compression = new DataCompression(
+                        DataCompression.Codec.fromName(String.valueOf(storageConfig.get("compression"))), level);
+            }
+
+            if (storageConfig.containsKey("archive_offers")) {
+                this.archiveOffers = Boolean.parseBoolean(String.valueOf(storageConfig.get("archive_offers")));
+            }
+
+            if (storageConfig.containsKey("archive_retention_days")) {
+                this.archiveRetentionDays = ((Number) storageConfig.get("archive_retention_days")).intValue();
+            }
+
+            if (storageConfig.containsKey("archive_compact_after_days")) {
+                this.archiveCompactAfterDays = ((Number) storageConfig.get("archive_compact_after_days")).intValue();
+            }
+
+            if (storageConfig.containsKey("trade_ledger")) {
+                this.tradeLedger = Boolean.parseBoolean(String.valueOf(storageConfig.get("trade_ledger")));
+            }
+
+            if (storageConfig.containsKey("backups")) {
+                this.backups = Boolean.parseBoolean(String.valueOf(storageConfig.get("backups")));
+            }
+
+            if (storageConfig.containsKey("backup_interval_minutes")) {
+                this.backupIntervalMinutes = Math.max(1, ((Number) storageConfig.get("backup_interval_minutes")).intValue());
+            }
+
+            if (storageConfig.containsKey("backup_full_every")) {
+                this.backupFullEvery = Math.max(1, ((Number) storageConfig.get("backup_full_every")).intValue());
+            }
+
+            if (storageConfig.containsKey("backup_keep_bases")) {
+                this.backupKeepBases = Math.max(1, ((Number) storageConfig.get("backup_keep_bases")).intValue());
+            }
+
+            if (storageConfig.containsKey("backup_max_kb_per_second")) {
+                this.backupMaxKbPerSecond = Math.max(0, ((Number) storageConfig.get("backup_max_kb_per_second")).intValue());
+            }
+
+            if (storageConfig.containsKey("warehouse_idle_minutes")) {
+                this.warehouseIdleMinutes = Math.max(0, ((Number) storageConfig.get("warehouse_idle_minutes")).intValue());
+            }
+
+            if (storageConfig.containsKey("blob_gc_grace_minutes")) {
+                this.blobGcGraceMinutes = Math.max(1, ((Number) storageConfig.get("blob_gc_grace_minutes")).intValue());
+            }
+
+            LoggerUtil.info("Storage config loaded - Offers backend: " + offersBackend + ", format: " + offersFormat
+                    + ", warehouse backend: " + warehouseBackend + ", compression: " + compression.getCodec());
+        } catch (Exception e) {
+            LoggerUtil.error("Error cargando configuración de almacenamiento: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public String getOffersBackend() {
+        return offersBackend;
+    }
+
+    public String getOffersFormat() {
+        return offersFormat;
+    }
+
+    public int getOfferShards() {
+        return offerShards;
+    }
+
+    public String getWarehouseBackend() {
+        return warehouseBackend;
+    }
+
+    public boolean isLazyOfferLoading() {
+        return lazyOfferLoading;
+    }
+
+    public boolean isParallelLoading() {
+        return parallelLoading;
+    }
+
+    /**
+     * Compresión con la que se escriben los archivos de datos. La lectura detecta el
+     * algoritmo de cada archivo por su cabecera.
+     */
+    public DataCompression getCompression() {
+        return compression;
+    }
+
+    public boolean isArchiveOffers() {
+        return archiveOffers;
+    }
+
+    public int getArchiveRetentionDays() {
+        return archiveRetentionDays;
+    }
+
+    public int getArchiveCompactAfterDays() {
+        return archiveCompactAfterDays;
+    }
+
+    public boolean isTradeLedger() {
+        return tradeLedger;
+    }
+
+    public boolean isBackups() {
+        return backups;
+    }
+
+    public int getBackupIntervalMinutes() {
+        return backupIntervalMinutes;
+    }
+
+    public int getBackupFullEvery() {
+        return backupFullEvery;
+    }
+
+    public int getBackupKeepBases() {
+        return backupKeepBases;
+    }
+
+    public int getBackupMaxKbPerSecond() {
+        return backupMaxKbPerSecond;
+    }
+
+    /**
+     * Minutos que una bodega sin cambios pendientes sigue cargada después de su último uso
+     * si el jugador no está conectado.
+     */
+    public int getWarehouseIdleMinutes() {
+        return warehouseIdleMinutes;
+    }
+
+    /**
+     * Minutos que un blob de NBT sin referencias se conserva antes de que la limpieza lo borre.
+     */
+    public int getBlobGcGraceMinutes() {
+        return blobGcGraceMinutes;
+    }
+}
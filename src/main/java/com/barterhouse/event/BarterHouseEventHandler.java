@@ -1,9 +1,14 @@
 package com.barterhouse.event;
 
 import com.barterhouse.handler.TradeItemHandler;
+import com.barterhouse.manager.BackupManager;
+import com.barterhouse.manager.NbtBlobManager;
 import com.barterhouse.manager.TradeOfferManager;
+import com.barterhouse.manager.WarehouseManager;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.level.LevelEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraft.world.entity.player.Player;
@@ -17,10 +22,36 @@ import net.minecraft.world.level.block.Blocks;
 public class BarterHouseEventHandler {
 
     /**
-     * Maneja los ticks del servidor para limpiar ofertas expiradas.
+     * Maneja los ticks del servidor para limpiar ofertas expiradas, terminar recargas y hacer las copias de seguridad.
      */
     @SubscribeEvent
     public static void onServerTick(TickEvent.ServerTickEvent event) {
         TradeOfferManager.getInstance().onServerTick(event);
+        WarehouseManager.getInstance().onServerTick(event);
+        BackupManager.getInstance().onServerTick(event);
+        NbtBlobManager.getInstance().onServerTick(event);
+    }
+
+    /**
+     * Empieza a cargar la bodega del jugador al conectarse, para que esté lista cuando la abra.
+     */
+    @SubscribeEvent
+    public static void onPlayerLogin(PlayerEvent.PlayerLoggedInEvent event) {
+        WarehouseManager.getInstance().loadWarehouse(event.getEntity().getUUID());
+    }
+
+    /**
+     * Guarda las ofertas modificadas junto con el guardado del mundo (autosave y /save-all).
+     * Solo se usa el overworld para no escribir una vez por dimensión.
+     */
+    @SubscribeEvent
+    public static void onLevelSave(LevelEvent.Save event) {
+        if (!(event.getLevel() instanceof net.minecraft.server.level.ServerLevel)) {
+            return;
+        }
+        net.minecraft.server.level.ServerLevel level = (net.minecraft.server.level.ServerLevel) event.getLevel();
+        if (level.dimension() == net.minecraft.world.level.Level.OVERWORLD) {
+            TradeOfferManager.getInstance().saveOffers();
+        }
     }
 }
@@ -109,6 +109,9 @@ public class SignEditHandler {
     // Almacena el item que el jugador está ofreciendo (el del slot central)
     private static final HashMap<UUID, ItemStack> offeredItems = new HashMap<>();
     
+    // Almacena la entrada de la bodega que el jugador está ofreciendo (en lugar de un item del slot central)
+    private static final HashMap<UUID, Long> warehouseOffers = new HashMap<>();
+    
     // Almacena la oferta seleccionada para confirmación
     private static final HashMap<UUID, com.barterhouse.api.TradeOffer> selectedOffers = new HashMap<>();
     
@@ -128,6 +131,19 @@ public class SignEditHandler {
         offeredItems.remove(playerUUID);
     }
     
+    public static void setWarehouseOffer(UUID playerUUID, long handle) {
+        warehouseOffers.put(playerUUID, handle);
+        LoggerUtil.info("Stored warehouse entry " + handle + " as offered item for player " + playerUUID);
+    }
+    
+    public static Long getWarehouseOffer(UUID playerUUID) {
+        return warehouseOffers.get(playerUUID);
+    }
+    
+    public static void clearWarehouseOffer(UUID playerUUID) {
+        warehouseOffers.remove(playerUUID);
+    }
+    
     public static void setSelectedOffer(UUID playerUUID, com.barterhouse.api.TradeOffer offer) {
         selectedOffers.put(playerUUID, offer);
         LoggerUtil.info("Stored selected offer for player " + playerUUID);
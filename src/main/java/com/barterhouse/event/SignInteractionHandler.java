@@ -180,8 +180,8 @@ public class SignInteractionHandler {
                 return false;
             }
 
-            // Remover la oferta
-            TradeOfferManager.getInstance().removeOffer(offerId);
+            // Registrar el trueque en el historial y remover la oferta
+            TradeOfferManager.getInstance().completeTrade(offer, buyer.getUUID(), buyer.getName().getString());
 
             // Notificar a ambos jugadores
             buyer.displayClientMessage(
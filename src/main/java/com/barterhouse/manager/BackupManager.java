@@ -0,0 +1,256 @@
+package com.barterhouse.manager;
+
+import com.barterhouse.api.TradeOffer;
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.manager.WarehouseManager.StoredItem;
+import com.barterhouse.storage.DataBackup;
+import com.barterhouse.storage.OfferRecords;
+import com.barterhouse.storage.PersistenceWorker;
+import com.barterhouse.storage.StoredWarehouse;
+import com.barterhouse.storage.WarehouseStore;
+import com.barterhouse.util.LoggerUtil;
+import com.google.gson.Gson;
+import net.minecraft.world.level.Level;
+import net.minecraftforge.event.TickEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Programa las copias de seguridad incrementales ({@link DataBackup}).
+ * Los managers avisan qué ofertas y bodegas cambian; en cada intervalo lo cambiado se copia
+ * en el hilo del servidor y el archivo se escribe en un hilo aparte, con la escritura limitada.
+ * Las bodegas que no están cargadas en memoria se leen del backend en ese mismo hilo.
+ */
+public class BackupManager {
+
+    private static BackupManager instance;
+    private static final Gson GSON = new Gson();
+
+    private DataBackup backup;
+    private PersistenceWorker persistenceWorker;
+    private int intervalTicks;
+    private int fullEvery;
+    private int keepBases;
+    private int tickCounter = 0;
+    private int deltasSinceBase = 0;
+
+    // Cambios desde la última copia (solo hilo del servidor)
+    private final Set<UUID> changedOffers = new HashSet<>();
+    private final Set<UUID> changedWarehouses = new HashSet<>();
+
+    // La próxima copia tiene que ser una base: al arrancar no se sabe qué cambió desde la
+    // última copia, y después de un error o una recarga los deltas ya no encadenan
+    private volatile boolean needsBase = true;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private BackupManager() {
+    }
+
+    public static synchronized BackupManager getInstance() {
+        if (instance == null) {
+            instance = new BackupManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Activa las copias si están habilitadas en config.yml. Debe llamarse después de
+     * inicializar StorageConfig.
+     */
+    public void initializeWithLevel(Level level) {
+        StorageConfig config = StorageConfig.getInstance();
+        if (backup != null || level == null || !config.isBackups()) {
+            return;
+        }
+        Path dataDirectory = level.getServer().getServerDirectory().toPath().resolve("barterhouse");
+        this.backup = new DataBackup(dataDirectory, config.getCompression(), config.getBackupMaxKbPerSecond() * 1024L);
+        this.persistenceWorker = new PersistenceWorker("BarterHouse-Backup");
+        this.intervalTicks = config.getBackupIntervalMinutes() * 20 * 60;
+        this.fullEvery = config.getBackupFullEvery();
+        this.keepBases = config.getBackupKeepBases();
+        LoggerUtil.info("Backups enabled every " + config.getBackupIntervalMinutes() + " minutes in " + backup.getDirectory());
+    }
+
+    /**
+     * Anota una oferta creada o eliminada para el próximo delta.
+     */
+    public void offerChanged(UUID offerId) {
+        if (backup != null) {
+            changedOffers.add(offerId);
+        }
+    }
+
+    /**
+     * Anota una bodega modificada para el próximo delta.
+     */
+    public void warehouseChanged(UUID playerUUID) {
+        if (backup != null) {
+            changedWarehouses.add(playerUUID);
+        }
+    }
+
+    /**
+     * Hace que la próxima copia sea una base (por ejemplo, después de recargar los datos).
+     */
+    public void requestBase() {
+        needsBase = true;
+    }
+
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || backup == null) return;
+
+        tickCounter++;
+        if (tickCounter >= intervalTicks) {
+            tickCounter = 0;
+            runBackup();
+        }
+    }
+
+    /**
+     * Copia lo necesario en el hilo del servidor y programa la escritura.
+     */
+    private void runBackup() {
+        if (!running.compareAndSet(false, true)) {
+            // Los cambios siguen acumulándose para la próxima copia
+            LoggerUtil.warn("Previous backup is still being written, skipping this one");
+            return;
+        }
+
+        long time = System.currentTimeMillis();
+        TradeOfferManager offers = TradeOfferManager.getInstance();
+        WarehouseManager warehouses = WarehouseManager.getInstance();
+
+        if (needsBase || deltasSinceBase + 1 >= fullEvery) {
+            List<TradeOffer> snapshot = offers.snapshotOffers();
+            Map<UUID, List<StoredItem>> warehouseCopy = warehouses.copyWarehouses();
+            WarehouseStore store = warehouses.getStore();
+            changedOffers.clear();
+            changedWarehouses.clear();
+            needsBase = false;
+            deltasSinceBase = 0;
+            persistenceWorker.submit("backup", () -> write(true, time, snapshot, Collections.emptyList(),
+                    warehouseCopy, store, Collections.emptyList()));
+            return;
+        }
+
+        if (changedOffers.isEmpty() && changedWarehouses.isEmpty()) {
+            running.set(false);
+            return;
+        }
+        List<TradeOffer> changed = new ArrayList<>();
+        List<UUID> removed = new ArrayList<>();
+        for (UUID offerId : changedOffers) {
+            TradeOffer offer = offers.getOffer(offerId);
+            if (offer != null) {
+                changed.add(offer);
+            } else {
+                removed.add(offerId);
+            }
+        }
+        Map<UUID, List<StoredItem>> warehouseCopy = new HashMap<>();
+        List<UUID> unloaded = new ArrayList<>();
+        for (UUID playerUUID : changedWarehouses) {
+            if (warehouses.isLoaded(playerUUID)) {
+                warehouseCopy.put(playerUUID, warehouses.copyWarehouse(playerUUID));
+            } else {
+                // Recibió créditos sin tener la bodega cargada
+                unloaded.add(playerUUID);
+            }
+        }
+        WarehouseStore store = warehouses.getStore();
+        changedOffers.clear();
+        changedWarehouses.clear();
+        deltasSinceBase++;
+        persistenceWorker.submit("backup", () -> write(false, time, changed, removed, warehouseCopy, store, unloaded));
+    }
+
+    /**
+     * Copia de las entradas con el NBT en texto en lugar del hash de su blob, para que la
+     * copia de seguridad se pueda restaurar sin los blobs. No modifica las entradas recibidas,
+     * que pueden ser las que el backend tiene pendientes de escribir.
+     */
+    private static List<StoredItem> inlineNbt(List<StoredItem> items) throws IOException {
+        List<StoredItem> copy = new ArrayList<>(items.size());
+        for (StoredItem item : items) {
+            StoredItem stored = new StoredItem();
+            stored.itemName = item.itemName;
+            stored.count = item.count;
+            stored.receivedTime = item.receivedTime;
+            stored.sourcePlayer = item.sourcePlayer;
+            stored.nbtData = item.nbtHash != null ? NbtBlobManager.getInstance().snbt(item.nbtHash) : item.nbtData;
+            copy.add(stored);
+        }
+        return copy;
+    }
+
+    /**
+     * Escribe una copia en el hilo de copias. Si falla, la próxima será una base.
+     *
+     * @param warehouses Copias de las bodegas cargadas
+     * @param store Backend del que se leen las demás: todas en una base, las de {@code unloaded} en un delta
+     */
+    private void write(boolean base, long time, List<TradeOffer> offers, List<UUID> removed,
+                       Map<UUID, List<StoredItem>> warehouses, WarehouseStore store, List<UUID> unloaded) {
+        DataBackup.Writer writer = null;
+        try {
+            writer = base ? backup.startBase(time) : backup.startDelta(time);
+            for (TradeOffer offer : offers) {
+                writer.offer(OfferRecords.fromOfferInline(offer));
+            }
+            for (UUID offerId : removed) {
+                writer.offerRemoved(offerId);
+            }
+            for (Map.Entry<UUID, List<StoredItem>> entry : warehouses.entrySet()) {
+                writer.warehouse(entry.getKey(), GSON.toJson(inlineNbt(entry.getValue())));
+            }
+            if (base && store != null) {
+                DataBackup.Writer target = writer;
+                store.forEachPlayer((playerUUID, items) -> {
+                    if (!warehouses.containsKey(playerUUID)) {
+                        try {
+                            target.warehouse(playerUUID, GSON.toJson(inlineNbt(items)));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            }
+            for (UUID playerUUID : store != null ? unloaded : Collections.<UUID>emptyList()) {
+                StoredWarehouse stored = store.loadPlayer(playerUUID).join();
+                List<StoredItem> items = new ArrayList<>(stored.items);
+                items.addAll(stored.credits);
+                writer.warehouse(playerUUID, GSON.toJson(inlineNbt(items)));
+            }
+            writer.commit();
+            if (base) {
+                backup.prune(keepBases);
+            }
+        } catch (Exception e) {
+            LoggerUtil.error("Backup failed: " + e.getMessage());
+            e.printStackTrace();
+            if (writer != null) {
+                writer.abort();
+            }
+            needsBase = true;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Espera la copia en curso y escribe una última con los cambios pendientes.
+     */
+    public void shutdown() {
+        if (backup == null) {
+            return;
+        }
+        persistenceWorker.awaitIdle();
+        runBackup();
+        persistenceWorker.shutdown();
+        backup = null;
+    }
+}
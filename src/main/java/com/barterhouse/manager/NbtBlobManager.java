@@ -0,0 +1,237 @@
+package com.barterhouse.manager;
+
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.storage.NbtBlobStore;
+import com.barterhouse.storage.NbtBlobStore.Owner;
+import com.barterhouse.storage.PersistenceWorker;
+import com.barterhouse.util.LoggerUtil;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.world.level.Level;
+import net.minecraftforge.event.TickEvent;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * NBT compartido por las ofertas y la bodega ({@link NbtBlobStore}): cada compound distinto
+ * se guarda una vez y se interpreta una vez; las ofertas y las entradas de la bodega guardan
+ * solo su hash y comparten el mismo {@link CompoundTag} en memoria.
+ *
+ * Los blobs sin referencias se borran en segundo plano cada tanto, solo cuando ofertas y
+ * bodega ya contaron sus referencias (al arrancar y después de cada recarga).
+ */
+public class NbtBlobManager {
+
+    private static NbtBlobManager instance;
+
+    private static final int GC_INTERVAL = 20 * 60 * 10; // Buscar blobs sin uso cada 10 minutos
+
+    private NbtBlobStore store;
+    private PersistenceWorker persistenceWorker;
+    private int gcCounter = 0;
+    private long graceMillis;
+
+    // Compounds ya interpretados, compartidos entre ofertas y entradas. No se modifican: quien
+    // necesita un stack usa una copia. Se sacan cuando el blob se queda sin referencias.
+    private final Map<String, CompoundTag> tags = new ConcurrentHashMap<>();
+
+    // Dueños que todavía no terminaron de contar sus referencias; mientras haya alguno no se borra nada
+    private final Set<Owner> counting = ConcurrentHashMap.newKeySet();
+
+    private NbtBlobManager() {
+        counting.addAll(EnumSet.allOf(Owner.class));
+    }
+
+    public static synchronized NbtBlobManager getInstance() {
+        if (instance == null) {
+            instance = new NbtBlobManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Abre el almacén de blobs. Debe llamarse antes de inicializar las ofertas y la bodega.
+     */
+    public void initializeWithLevel(Level level) {
+        if (store != null || level == null) {
+            return;
+        }
+        try {
+            Path dataDirectory = level.getServer().getServerDirectory().toPath().resolve("barterhouse");
+            NbtBlobStore opened = new NbtBlobStore(dataDirectory);
+            int blobs = opened.open();
+            this.graceMillis = StorageConfig.getInstance().getBlobGcGraceMinutes() * 60_000L;
+            this.persistenceWorker = new PersistenceWorker("BarterHouse-Blobs");
+            this.store = opened;
+            LoggerUtil.info("NBT blob store opened: " + blobs + " blobs");
+        } catch (Exception e) {
+            LoggerUtil.error("Error opening NBT blob store, NBT will be stored inline: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Indica si el almacén está abierto. Si no, el NBT se sigue guardando dentro de cada registro.
+     */
+    public boolean isAvailable() {
+        return store != null;
+    }
+
+    /**
+     * Guarda un compound (si todavía no existe) y devuelve su hash. El blob queda escrito
+     * antes de volver, así que un registro con el hash nunca apunta a un blob que falta.
+     * Puede llamarse desde cualquier hilo.
+     *
+     * @throws IOException si no se pudo escribir el blob
+     */
+    public String put(CompoundTag tag) throws IOException {
+        String hash = NbtBlobStore.hash(tag.getAsString());
+        store.put(hash, () -> toBytes(tag));
+        tags.computeIfAbsent(hash, k -> tag.copy());
+        return hash;
+    }
+
+    /**
+     * Guarda un compound leído de un registro con el NBT en texto (datos anteriores a los
+     * blobs), con el hash de ese texto.
+     */
+    public String putLegacy(String snbt, CompoundTag tag) throws IOException {
+        String hash = NbtBlobStore.hash(snbt);
+        store.put(hash, () -> toBytes(tag));
+        tags.putIfAbsent(hash, tag);
+        return hash;
+    }
+
+    /**
+     * Compound compartido de un hash, leído del disco la primera vez. No debe modificarse.
+     *
+     * @throws IOException si el blob no existe o está dañado
+     */
+    public CompoundTag getTag(String hash) throws IOException {
+        CompoundTag tag = tags.get(hash);
+        if (tag != null) {
+            return tag;
+        }
+        if (store == null) {
+            throw new IOException("NBT blob store not available for " + hash);
+        }
+        tag = NbtIo.read(new DataInputStream(new ByteArrayInputStream(store.read(hash))));
+        CompoundTag previous = tags.putIfAbsent(hash, tag);
+        return previous != null ? previous : tag;
+    }
+
+    /**
+     * NBT de un hash en texto, para las copias de seguridad, que no dependen de los blobs.
+     */
+    public String snbt(String hash) throws IOException {
+        return getTag(hash).getAsString();
+    }
+
+    /**
+     * Suma referencias de un dueño a un blob.
+     */
+    public void retain(Owner owner, String hash, long count) {
+        if (store != null && hash != null) {
+            store.addRefs(owner, hash, count);
+        }
+    }
+
+    /**
+     * Resta referencias de un dueño a un blob. Si ya nadie lo usa, se olvida su compound.
+     */
+    public void release(Owner owner, String hash, long count) {
+        if (store != null && hash != null && store.addRefs(owner, hash, -count)) {
+            tags.remove(hash);
+        }
+    }
+
+    /**
+     * Avisa que un dueño va a volver a contar sus referencias (una recarga): hasta que llame
+     * a {@link #setRefs} o {@link #cancelCount} no se borra ningún blob.
+     */
+    public void beginCount(Owner owner) {
+        counting.add(owner);
+    }
+
+    /**
+     * Reemplaza las referencias de un dueño por las recién contadas.
+     */
+    public void setRefs(Owner owner, Map<String, Long> counts) {
+        if (store != null) {
+            store.setRefs(owner, counts);
+            tags.keySet().removeIf(hash -> !store.isReferenced(hash));
+        }
+        counting.remove(owner);
+    }
+
+    /**
+     * Termina un recuento que falló, conservando las referencias anteriores.
+     */
+    public void cancelCount(Owner owner) {
+        counting.remove(owner);
+    }
+
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || store == null) return;
+
+        gcCounter++;
+        if (gcCounter >= GC_INTERVAL) {
+            gcCounter = 0;
+            if (counting.isEmpty()) {
+                collect();
+            }
+        }
+    }
+
+    /**
+     * Borra en el hilo de blobs los que no tienen referencias. Cada blob se vuelve a
+     * comprobar justo antes de borrarlo, así que no importa que cambien mientras tanto.
+     */
+    private void collect() {
+        NbtBlobStore blobs = store;
+        persistenceWorker.submit("gc", () -> {
+            long start = System.currentTimeMillis();
+            int deleted = blobs.sweep(graceMillis);
+            if (deleted > 0) {
+                LoggerUtil.info("Deleted " + deleted + " unreferenced NBT blobs, " + blobs.size() + " left ("
+                        + (System.currentTimeMillis() - start) + " ms)");
+            }
+        });
+    }
+
+    /**
+     * Blobs guardados y blobs en uso (para estadísticas).
+     */
+    public int getBlobCount() {
+        return store != null ? store.size() : 0;
+    }
+
+    public int getReferencedCount() {
+        return store != null ? store.referencedCount() : 0;
+    }
+
+    /**
+     * Espera a que termine la limpieza en curso y cierra el almacén. Se llama al detener el
+     * servidor, después de los demás managers.
+     */
+    public void shutdown() {
+        if (persistenceWorker != null) {
+            persistenceWorker.shutdown();
+            persistenceWorker = null;
+        }
+        store = null;
+        tags.clear();
+        counting.addAll(EnumSet.allOf(Owner.class));
+    }
+
+    private static byte[] toBytes(CompoundTag tag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        NbtIo.write(tag, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -1,20 +1,30 @@
 package com.barterhouse.manager;
 
 import com.barterhouse.api.TradeOffer;
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.storage.FileOfferStore;
+import com.barterhouse.storage.MappedOfferStore;
+import com.barterhouse.storage.NbtBlobStore;
+import com.barterhouse.storage.OfferArchive;
+import com.barterhouse.storage.OfferRecords;
+import com.barterhouse.storage.OfferStore;
+import com.barterhouse.storage.ShardedOfferStore;
+import com.barterhouse.storage.SqliteOfferStore;
+import com.barterhouse.storage.TradeLedger;
+import com.barterhouse.storage.TradeRecord;
 import com.barterhouse.util.LoggerUtil;
-import net.minecraft.nbt.CompoundTag;
-import net.minecraft.nbt.ListTag;
-import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
 import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.registries.ForgeRegistries;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -24,15 +34,56 @@ import java.util.stream.Collectors;
 public class TradeOfferManager {
 
     private static TradeOfferManager instance;
-    private final Map<UUID, TradeOffer> activeOffers;
+    // Se reemplaza entero al terminar una recarga
+    private Map<UUID, TradeOffer> activeOffers;
     private Path dataDirectory;
-    private static final String OFFERS_FILE = "offers.json";
+    private OfferStore store;
+    private OfferArchive archive;
+    private TradeLedger ledger;
 
-    private static final int SAVE_INTERVAL = 20 * 60; // Guardar cada 60 segundos (20 ticks * 60)
-    private int saveCounter = 0;
+    private static final int CLEAN_INTERVAL = 20 * 60; // Limpiar expiradas cada 60 segundos (20 ticks * 60)
+    private int cleanCounter = 0;
+
+    // Versión de los datos en memoria; se incrementa con cada mutación
+    private long version = 0;
+    private long snapshotVersion = 0;
+
+    // Recarga en curso: el libro nuevo se carga en otro hilo mientras el actual sigue en uso.
+    // Los cambios hechos mientras tanto se anotan para repetirlos sobre el libro cargado.
+    private CompletableFuture<LoadedOffers> pendingReload;
+    private final List<PendingChange> pendingChanges = new ArrayList<>();
+    private long reloadStartTime;
     
     private Level serverLevel;
 
+    /**
+     * Resultado de la carga en segundo plano de una recarga.
+     */
+    private static class LoadedOffers {
+        final OfferStore store;
+        final Map<UUID, TradeOffer> offers = new HashMap<>();
+        Exception failure;
+
+        LoadedOffers(OfferStore store) {
+            this.store = store;
+        }
+    }
+
+    /**
+     * Alta o baja de una oferta hecha durante una recarga.
+     */
+    private static class PendingChange {
+        final TradeOffer offer;
+        final boolean created;
+        final boolean expired;
+
+        PendingChange(TradeOffer offer, boolean created, boolean expired) {
+            this.offer = offer;
+            this.created = created;
+            this.expired = expired;
+        }
+    }
+
     /**
      * Constructor privado para el patrón Singleton.
      */
@@ -80,12 +131,42 @@ public class TradeOfferManager {
             // Crear directorio barterhouse dentro de la carpeta del mundo
             this.dataDirectory = worldPath.resolve("barterhouse");
             Files.createDirectories(dataDirectory);
+            this.store = createStore(dataDirectory);
+            StorageConfig config = StorageConfig.getInstance();
+            if (config.isArchiveOffers()) {
+                this.archive = new OfferArchive(dataDirectory, config.getArchiveRetentionDays(), config.getArchiveCompactAfterDays());
+            }
+            if (config.isTradeLedger()) {
+                this.ledger = new TradeLedger(dataDirectory);
+            }
             LoggerUtil.info("Data directory initialized at: " + dataDirectory.toAbsolutePath());
         } catch (IOException e) {
             LoggerUtil.error("Failed to create data directory: " + e.getMessage());
         }
     }
 
+    /**
+     * Crea el backend de persistencia configurado en config.yml.
+     */
+    private static OfferStore createStore(Path dataDirectory) {
+        String backend = StorageConfig.getInstance().getOffersBackend();
+        if (StorageConfig.BACKEND_MMAP.equals(backend)) {
+            LoggerUtil.info("Using memory-mapped offer storage");
+            return new MappedOfferStore(dataDirectory);
+        }
+        if (StorageConfig.BACKEND_SQLITE.equals(backend)) {
+            LoggerUtil.info("Using SQLite offer storage");
+            return new SqliteOfferStore(dataDirectory);
+        }
+        if (StorageConfig.BACKEND_SHARDED.equals(backend)) {
+            int shards = StorageConfig.getInstance().getOfferShards();
+            LoggerUtil.info("Using sharded offer storage (" + shards + " shards)");
+            return new ShardedOfferStore(dataDirectory, shards);
+        }
+        boolean json = StorageConfig.FORMAT_JSON.equals(StorageConfig.getInstance().getOffersFormat());
+        return new FileOfferStore(dataDirectory, json);
+    }
+
     /**
      * Crea una nueva oferta de trueque.
      *
@@ -101,13 +182,58 @@ public class TradeOfferManager {
         UUID offerId = UUID.randomUUID();
         TradeOffer offer = new TradeOffer(offerId, creatorUUID, creatorName, offeredItem, requestedItem);
         activeOffers.put(offerId, offer);
+        version++;
+        BackupManager.getInstance().offerChanged(offerId);
+        retainBlobs(offer);
         
         LoggerUtil.info("New trade offer created: " + offer);
-        saveOffers();
+        if (pendingReload != null) {
+            pendingChanges.add(new PendingChange(offer, true, false));
+        } else if (store != null) {
+            store.offerCreated(offer);
+            checkpointIfNeeded();
+        }
         
         return offerId;
     }
 
+    /**
+     * Crea una oferta con un stack sacado directamente de la bodega del creador, sin pasar
+     * por su inventario: la bodega se guarda una vez y la oferta se escribe una vez.
+     *
+     * @param handle Handle de la entrada de la bodega que se ofrece
+     * @return UUID de la oferta creada, o null si la entrada ya no está en la bodega
+     */
+    public UUID createOfferFromWarehouse(UUID creatorUUID, String creatorName, long handle, ItemStack requestedItem) {
+        ItemStack offeredItem = WarehouseManager.getInstance().takeStack(creatorUUID, handle);
+        if (offeredItem.isEmpty()) {
+            return null;
+        }
+        return createOffer(creatorUUID, creatorName, offeredItem, requestedItem);
+    }
+
+    /**
+     * Acepta una oferta pagando {@code fromWarehouse} unidades de lo pedido con la bodega del
+     * comprador (solo entradas iguales a lo pedido). El pago y el item recibido se aplican a
+     * su bodega como un solo cambio; lo pedido va a la bodega del creador y la oferta sale del
+     * libro. Quien llama ya descontó el resto del pago del inventario, y lo devuelve si esto
+     * devuelve false.
+     *
+     * @return false, sin cambiar nada, si la oferta ya no está activa o la bodega no alcanza
+     */
+    public boolean acceptOffer(TradeOffer offer, UUID buyerUUID, String buyerName, int fromWarehouse) {
+        if (activeOffers.get(offer.getOfferId()) == null || offer.isExpired()) {
+            return false;
+        }
+        WarehouseManager warehouses = WarehouseManager.getInstance();
+        ItemStack requested = offer.getRequestedItem();
+        if (!warehouses.exchange(buyerUUID, requested, fromWarehouse, offer.getOfferedItem(), offer.getCreatorName())) {
+            return false;
+        }
+        warehouses.addItem(offer.getCreatorUUID(), requested, buyerName);
+        return completeTrade(offer, buyerUUID, buyerName);
+    }
+
     /**
      * Obtiene una oferta por su ID.
      *
@@ -139,12 +265,68 @@ public class TradeOfferManager {
      * @return true si se eliminó exitosamente, false si no existía
      */
     public boolean removeOffer(UUID offerId) {
-        boolean removed = activeOffers.remove(offerId) != null;
-        if (removed) {
+        return removeOffer(offerId, OfferArchive.Reason.REMOVED);
+    }
+
+    private boolean removeOffer(UUID offerId, OfferArchive.Reason reason) {
+        TradeOffer removed = activeOffers.remove(offerId);
+        if (removed != null) {
+            version++;
+            BackupManager.getInstance().offerChanged(offerId);
             LoggerUtil.info("Trade offer removed: " + offerId);
-            saveOffers();
+            archiveOffer(removed, reason);
+            releaseBlobs(removed);
+            if (pendingReload != null) {
+                pendingChanges.add(new PendingChange(removed, false, false));
+            } else if (store != null) {
+                store.offerRemoved(removed, false);
+                checkpointIfNeeded();
+            }
+        }
+        return removed != null;
+    }
+
+    /**
+     * Registra un trueque completado en el historial y saca la oferta del libro activo.
+     * Debe llamarse una vez que los items ya se entregaron.
+     *
+     * @param offer Oferta aceptada
+     * @param buyerUUID UUID del jugador que aceptó la oferta
+     * @param buyerName Nombre del jugador que aceptó la oferta
+     * @return true si la oferta seguía activa
+     */
+    public boolean completeTrade(TradeOffer offer, UUID buyerUUID, String buyerName) {
+        if (ledger != null) {
+            ItemStack offered = offer.getOfferedItem();
+            ItemStack requested = offer.getRequestedItem();
+            ledger.record(new TradeRecord(offer.getOfferId(), offer.getCreatorUUID(), offer.getCreatorName(),
+                    buyerUUID, buyerName,
+                    itemId(offered), getActualCount(offered),
+                    itemId(requested), getActualCount(requested),
+                    System.currentTimeMillis()));
         }
-        return removed;
+        return removeOffer(offer.getOfferId(), OfferArchive.Reason.TRADED);
+    }
+
+    /**
+     * Busca trueques completados, del más reciente al más antiguo. Lee de disco, así que
+     * debe llamarse fuera del hilo del servidor.
+     *
+     * @return Trueques que cumplen la consulta, o una lista vacía si el historial está desactivado
+     */
+    public List<TradeRecord> queryTrades(TradeLedger.Query query) {
+        return ledger != null ? ledger.query(query) : Collections.emptyList();
+    }
+
+    private static String itemId(ItemStack stack) {
+        return String.valueOf(ForgeRegistries.ITEMS.getKey(stack.getItem()));
+    }
+
+    private static int getActualCount(ItemStack stack) {
+        if (stack.hasTag() && stack.getTag().contains("ActualCount")) {
+            return stack.getTag().getInt("ActualCount");
+        }
+        return stack.getCount();
     }
 
     /**
@@ -168,28 +350,41 @@ public class TradeOfferManager {
     }
 
     /**
-     * Obtiene todas las ofertas de un jugador específico.
+     * Obtiene todas las ofertas de un jugador específico, de la más vieja a la más nueva.
+     * Con un backend indexado la búsqueda la resuelve el almacenamiento.
      *
      * @param playerUUID UUID del jugador
      * @return Lista de ofertas del jugador
      */
     public List<TradeOffer> getPlayerOffers(UUID playerUUID) {
+        OfferStore indexed = indexedStore();
+        List<UUID> ids = indexed != null ? indexed.findByCreator(playerUUID) : null;
+        if (ids != null) {
+            return activeOffersOf(ids);
+        }
         return getActiveOffers().stream()
                 .filter(offer -> offer.getCreatorUUID().equals(playerUUID))
+                .sorted(Comparator.comparingLong(TradeOffer::getCreationTime))
                 .collect(Collectors.toList());
     }
 
     /**
-     * Busca ofertas que requieran un item específico.
+     * Busca ofertas que requieran un item específico. El texto se compara con el ID y el
+     * nombre de cada item registrado, y las ofertas se filtran por el ID guardado del item
+     * solicitado, sin construir sus ItemStacks.
      *
      * @param itemName Nombre del item a buscar
      * @return Lista de ofertas que buscan ese item
      */
     public List<TradeOffer> searchOffersByRequest(String itemName) {
-        String lowerName = itemName.toLowerCase();
+        Set<String> itemIds = matchingItemIds(itemName.toLowerCase());
+        OfferStore indexed = indexedStore();
+        List<UUID> ids = indexed != null ? indexed.findByItems(itemIds, true) : null;
+        if (ids != null) {
+            return activeOffersOf(ids);
+        }
         return getActiveOffers().stream()
-                .filter(offer -> offer.getRequestedItem().getHoverName().getString()
-                        .toLowerCase().contains(lowerName))
+                .filter(offer -> itemIds.contains(offer.getRequestedItemId()))
                 .collect(Collectors.toList());
     }
 
@@ -197,243 +392,244 @@ public class TradeOfferManager {
      * Limpia las ofertas expiradas.
      */
     public void cleanExpiredOffers() {
-        List<UUID> expiredOffers = activeOffers.values().stream()
+        OfferStore indexed = indexedStore();
+        List<UUID> ids = indexed != null ? indexed.findExpired(System.currentTimeMillis()) : null;
+        List<TradeOffer> expiredOffers = (ids != null ? ids.stream().map(activeOffers::get).filter(Objects::nonNull)
+                : activeOffers.values().stream())
                 .filter(TradeOffer::isExpired)
-                .map(TradeOffer::getOfferId)
                 .collect(Collectors.toList());
 
-        expiredOffers.forEach(offerId -> {
-            activeOffers.remove(offerId);
-            LoggerUtil.info("Expired offer cleaned: " + offerId);
+        expiredOffers.forEach(offer -> {
+            activeOffers.remove(offer.getOfferId());
+            version++;
+            BackupManager.getInstance().offerChanged(offer.getOfferId());
+            archiveOffer(offer, OfferArchive.Reason.EXPIRED);
+            releaseBlobs(offer);
+            if (pendingReload != null) {
+                pendingChanges.add(new PendingChange(offer, false, true));
+            } else if (store != null) {
+                store.offerRemoved(offer, true);
+            }
+            LoggerUtil.info("Expired offer cleaned: " + offer.getOfferId());
         });
-
         if (!expiredOffers.isEmpty()) {
-            saveOffers();
+            checkpointIfNeeded();
         }
     }
 
     /**
-     * Guarda todas las ofertas en archivo JSON.
+     * @return El backend si puede resolver búsquedas con sus índices; null durante una
+     *         recarga, porque los cambios de ese momento todavía no llegaron al almacenamiento
      */
-    public void saveOffers() {
-        if (dataDirectory == null) {
-            LoggerUtil.error("Cannot save offers: data directory not initialized");
-            return;
+    private OfferStore indexedStore() {
+        return pendingReload == null ? store : null;
+    }
+
+    /**
+     * Ofertas activas (no expiradas) con los IDs que devolvió una búsqueda del backend.
+     */
+    private List<TradeOffer> activeOffersOf(List<UUID> ids) {
+        return ids.stream()
+                .map(activeOffers::get)
+                .filter(offer -> offer != null && !offer.isExpired())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * IDs de registro de los items cuyo ID o nombre contiene el texto buscado.
+     *
+     * @param lowerName Texto buscado, en minúsculas
+     */
+    private static Set<String> matchingItemIds(String lowerName) {
+        Set<String> ids = new HashSet<>();
+        for (Map.Entry<ResourceKey<Item>, Item> entry : ForgeRegistries.ITEMS.getEntries()) {
+            String id = entry.getKey().location().toString();
+            if (id.contains(lowerName)
+                    || entry.getValue().getDescription().getString().toLowerCase().contains(lowerName)) {
+                ids.add(id);
+            }
         }
-        
+        return ids;
+    }
+
+    /**
+     * Suma las referencias de una oferta nueva a los blobs de su NBT.
+     */
+    private static void retainBlobs(TradeOffer offer) {
         try {
-            Path filePath = dataDirectory.resolve(OFFERS_FILE);
-            
-            // Crear JSON manualmente
-            StringBuilder json = new StringBuilder();
-            json.append("{\n");
-            json.append("  \"offers\": [\n");
-            
-            List<TradeOffer> offersList = new ArrayList<>(activeOffers.values());
-            for (int i = 0; i < offersList.size(); i++) {
-                TradeOffer offer = offersList.get(i);
-                json.append("    {\n");
-                json.append("      \"offerId\": \"").append(offer.getOfferId()).append("\",\n");
-                json.append("      \"creatorUUID\": \"").append(offer.getCreatorUUID()).append("\",\n");
-                json.append("      \"creatorName\": \"").append(offer.getCreatorName()).append("\",\n");
-                json.append("      \"offeredItem\": \"").append(offer.getOfferedItem().getItem().toString()).append("\",\n");
-                
-                // Para offeredItem, primero verificar si tiene ActualCount en NBT
-                ItemStack offeredStack = offer.getOfferedItem();
-                int offeredCount = offeredStack.hasTag() && offeredStack.getTag().contains("ActualCount") 
-                    ? offeredStack.getTag().getInt("ActualCount") 
-                    : offeredStack.getCount();
-                json.append("      \"offeredCount\": ").append(offeredCount).append(",\n");
-                
-                json.append("      \"requestedItem\": \"").append(offer.getRequestedItem().getItem().toString()).append("\",\n");
-                
-                // Para requestedItem, primero verificar si tiene ActualCount en NBT
-                ItemStack requestedStack = offer.getRequestedItem();
-                int requestedCount = requestedStack.hasTag() && requestedStack.getTag().contains("ActualCount") 
-                    ? requestedStack.getTag().getInt("ActualCount") 
-                    : requestedStack.getCount();
-                json.append("      \"requestedCount\": ").append(requestedCount).append(",\n");
-                
-                json.append("      \"createdTime\": ").append(offer.getCreatedTime()).append("\n");
-                json.append("    }");
-                if (i < offersList.size() - 1) {
-                    json.append(",");
-                }
-                json.append("\n");
+            for (String hash : OfferRecords.blobHashes(offer)) {
+                NbtBlobManager.getInstance().retain(NbtBlobStore.Owner.OFFERS, hash, 1);
             }
-            
-            json.append("  ]\n");
-            json.append("}\n");
-            
-            Files.write(filePath, json.toString().getBytes(StandardCharsets.UTF_8));
-            LoggerUtil.info("Saved " + activeOffers.size() + " trade offers to " + filePath.toAbsolutePath());
         } catch (IOException e) {
-            LoggerUtil.error("Failed to save trade offers: " + e.getMessage());
-            e.printStackTrace();
+            LoggerUtil.error("Failed to count NBT blobs of offer " + offer.getOfferId() + ": " + e.getMessage());
         }
     }
 
     /**
-     * Carga todas las ofertas desde archivo JSON usando NBT como respaldo.
+     * Resta las referencias de una oferta que sale del libro activo.
      */
-    public void loadOffers() {
-        if (dataDirectory == null) {
-            LoggerUtil.info("Data directory not initialized yet, offers will be loaded later");
-            return;
-        }
-        
+    private static void releaseBlobs(TradeOffer offer) {
         try {
-            Path jsonPath = dataDirectory.resolve(OFFERS_FILE);
-            Path nbtPath = dataDirectory.resolve("trade_offers.nbt");
-            
-            // Intentar cargar desde JSON primero
-            if (Files.exists(jsonPath)) {
-                loadFromJson(jsonPath);
-                return;
-            }
-            
-            // Si no existe JSON, intentar migrar desde NBT
-            if (Files.exists(nbtPath)) {
-                LoggerUtil.info("Migrating from NBT format to JSON...");
-                loadFromNBT(nbtPath);
-                // Guardar en formato JSON
-                saveOffers();
-                // Eliminar archivo NBT viejo
-                Files.delete(nbtPath);
-                LoggerUtil.info("Migration completed");
-                return;
+            for (String hash : OfferRecords.blobHashes(offer)) {
+                NbtBlobManager.getInstance().release(NbtBlobStore.Owner.OFFERS, hash, 1);
             }
-            
-            LoggerUtil.info("No previous trade offers found");
-        } catch (Exception e) {
-            LoggerUtil.error("Failed to load trade offers: " + e.getMessage());
-            e.printStackTrace();
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to count NBT blobs of offer " + offer.getOfferId() + ": " + e.getMessage());
         }
     }
-    
-    private void loadFromJson(Path filePath) throws IOException {
-        String content = new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
-        
-        // Parse JSON manualmente (simple)
-        String[] lines = content.split("\n");
-        UUID currentOfferId = null;
-        UUID currentCreatorUUID = null;
-        String currentCreatorName = null;
-        String currentOfferedItem = null;
-        int currentOfferedCount = 1;
-        String currentRequestedItem = null;
-        int currentRequestedCount = 1;
-        long currentCreatedTime = 0;
-        
-        for (String line : lines) {
-            line = line.trim();
-            
-            if (line.contains("\"offerId\"")) {
-                String value = extractJsonValue(line);
-                currentOfferId = UUID.fromString(value);
-            } else if (line.contains("\"creatorUUID\"")) {
-                String value = extractJsonValue(line);
-                currentCreatorUUID = UUID.fromString(value);
-            } else if (line.contains("\"creatorName\"")) {
-                currentCreatorName = extractJsonValue(line);
-            } else if (line.contains("\"offeredItem\"")) {
-                currentOfferedItem = extractJsonValue(line);
-            } else if (line.contains("\"offeredCount\"")) {
-                currentOfferedCount = Integer.parseInt(extractJsonValue(line));
-            } else if (line.contains("\"requestedItem\"")) {
-                currentRequestedItem = extractJsonValue(line);
-            } else if (line.contains("\"requestedCount\"")) {
-                currentRequestedCount = Integer.parseInt(extractJsonValue(line));
-            } else if (line.contains("\"createdTime\"")) {
-                currentCreatedTime = Long.parseLong(extractJsonValue(line));
-                
-                // Crear oferta cuando tenemos todos los datos
-                if (currentOfferId != null && currentCreatorUUID != null && currentOfferedItem != null && currentRequestedItem != null) {
-                    try {
-                        net.minecraft.world.item.Item offeredItemObj = net.minecraftforge.registries.ForgeRegistries.ITEMS.getValue(new net.minecraft.resources.ResourceLocation(currentOfferedItem));
-                        net.minecraft.world.item.Item requestedItemObj = net.minecraftforge.registries.ForgeRegistries.ITEMS.getValue(new net.minecraft.resources.ResourceLocation(currentRequestedItem));
-                        
-                        if (offeredItemObj != null && requestedItemObj != null) {
-                            net.minecraft.world.item.ItemStack offeredStack = new net.minecraft.world.item.ItemStack(offeredItemObj, currentOfferedCount);
-                            net.minecraft.world.item.ItemStack requestedStack = new net.minecraft.world.item.ItemStack(requestedItemObj, currentRequestedCount);
-                            
-                            TradeOffer offer = new TradeOffer(currentOfferId, currentCreatorUUID, currentCreatorName, offeredStack, requestedStack, currentCreatedTime);
-                            
-                            if (!offer.isExpired()) {
-                                activeOffers.put(currentOfferId, offer);
-                            }
-                        }
-                    } catch (Exception e) {
-                        LoggerUtil.error("Failed to load offer " + currentOfferId + ": " + e.getMessage());
-                    }
-                    
-                    // Reset para la siguiente oferta
-                    currentOfferId = null;
-                    currentCreatorUUID = null;
-                    currentCreatorName = null;
-                    currentOfferedItem = null;
-                    currentOfferedCount = 1;
-                    currentRequestedItem = null;
-                    currentRequestedCount = 1;
-                    currentCreatedTime = 0;
+
+    /**
+     * Cuenta las referencias de todo el libro activo a los blobs y reemplaza las anteriores.
+     */
+    private void countBlobs() {
+        Map<String, Long> counts = new HashMap<>();
+        for (TradeOffer offer : activeOffers.values()) {
+            try {
+                for (String hash : OfferRecords.blobHashes(offer)) {
+                    counts.merge(hash, 1L, Long::sum);
                 }
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to count NBT blobs of offer " + offer.getOfferId() + ": " + e.getMessage());
             }
         }
-        
-        LoggerUtil.info("Loaded " + activeOffers.size() + " trade offers from JSON");
+        NbtBlobManager.getInstance().setRefs(NbtBlobStore.Owner.OFFERS, counts);
     }
-    
-    private String extractJsonValue(String line) {
-        // Extrae el valor de "key": "value" o "key": value
-        int colonIndex = line.indexOf(":");
-        if (colonIndex == -1) return "";
-        
-        String value = line.substring(colonIndex + 1).trim();
-        // Remover comas y comillas
-        value = value.replace(",", "").replace("\"", "").trim();
-        return value;
+
+    /**
+     * Guarda en el archivo frío una oferta que sale del libro activo.
+     */
+    private void archiveOffer(TradeOffer offer, OfferArchive.Reason reason) {
+        if (archive == null) {
+            return;
+        }
+        try {
+            archive.archive(OfferRecords.fromOfferInline(offer), reason);
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to archive offer " + offer.getOfferId() + ": " + e.getMessage());
+        }
     }
-    
-    private void loadFromNBT(Path filePath) throws IOException {
-        byte[] data = Files.readAllBytes(filePath);
-        ByteArrayInputStream bais = new ByteArrayInputStream(data);
-        DataInputStream dis = new DataInputStream(bais);
-        CompoundTag rootTag = net.minecraft.nbt.NbtIo.read(dis);
-        dis.close();
-
-        if (rootTag != null && rootTag.contains("Offers")) {
-            ListTag offersList = rootTag.getList("Offers", Tag.TAG_COMPOUND);
-            
-            for (int i = 0; i < offersList.size(); i++) {
-                CompoundTag offerTag = offersList.getCompound(i);
-                TradeOffer offer = TradeOffer.deserializeNBT(offerTag);
-                
-                // Solo cargar si no ha expirado
-                if (!offer.isExpired()) {
-                    activeOffers.put(offer.getOfferId(), offer);
-                }
-            }
-            
-            LoggerUtil.info("Loaded " + activeOffers.size() + " trade offers from NBT");
+
+    /**
+     * Busca una oferta eliminada o expirada en el archivo. Lee de disco, así que es
+     * para consultas puntuales (soporte), no para el libro activo.
+     *
+     * @param offerId UUID de la oferta
+     * @return La oferta archivada, o null si no está archivada
+     */
+    public OfferArchive.ArchivedOffer getArchivedOffer(UUID offerId) {
+        return archive != null ? archive.find(offerId) : null;
+    }
+
+    /**
+     * Lista las ofertas archivadas de un jugador, de la más reciente a la más antigua.
+     *
+     * @param playerUUID UUID del creador
+     * @param limit Cantidad máxima de resultados
+     */
+    public List<OfferArchive.ArchivedOffer> getArchivedOffers(UUID playerUUID, int limit) {
+        return archive != null ? archive.findByCreator(playerUUID, limit) : Collections.emptyList();
+    }
+
+    /**
+     * Hace un checkpoint anticipado si el backend lo pide (por ejemplo, journal muy grande).
+     */
+    private void checkpointIfNeeded() {
+        if (pendingReload == null && store.needsCheckpoint()) {
+            saveOffers();
+        }
+    }
+
+    /**
+     * Indica si hay cambios en memoria que aún no están en un snapshot.
+     */
+    public boolean isDirty() {
+        return version != snapshotVersion || (store != null && pendingReload == null && store.needsCheckpoint());
+    }
+
+    /**
+     * Pide un checkpoint al backend si hubo cambios desde el último.
+     * La copia se toma en el hilo del servidor; la serialización y la escritura
+     * ocurren en el hilo de persistencia del backend.
+     */
+    public void saveOffers() {
+        if (store == null) {
+            LoggerUtil.error("Cannot save offers: data directory not initialized");
+            return;
         }
+        // Durante una recarga los cambios se guardan al terminarla, en el backend nuevo
+        if (pendingReload != null || !isDirty()) {
+            return;
+        }
+
+        // TradeOffer es inmutable, así que basta con copiar la lista
+        List<TradeOffer> snapshot = List.copyOf(activeOffers.values());
+        snapshotVersion = version;
+        store.checkpoint(snapshot);
     }
 
     /**
-     * Maneja el guardado periódico durante los ticks del servidor.
+     * Escribe el snapshot pendiente y espera a que termine.
+     */
+    public void flushOffers() {
+        if (store == null || pendingReload != null) {
+            return;
+        }
+        saveOffers();
+        store.flush();
+    }
+
+    /**
+     * Carga todas las ofertas desde el backend de persistencia.
+     */
+    public void loadOffers() {
+        if (dataDirectory == null || store == null) {
+            LoggerUtil.info("Data directory not initialized yet, offers will be loaded later");
+            return;
+        }
+
+        try {
+            store.load(activeOffers);
+            snapshotVersion = version;
+            // Archivar las ofertas que expiraron mientras el servidor estaba apagado
+            cleanExpiredOffers();
+            countBlobs();
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to load trade offers: " + e.getMessage());
+            e.printStackTrace();
+            NbtBlobManager.getInstance().cancelCount(NbtBlobStore.Owner.OFFERS);
+        }
+    }
+
+    /**
+     * Limpia periódicamente las ofertas expiradas durante los ticks del servidor.
+     * El guardado se hace junto con el guardado del mundo (ver {@link #saveOffers()}).
      *
      * @param event Evento de tick
      */
     public void onServerTick(TickEvent.ServerTickEvent event) {
         if (event.phase != TickEvent.Phase.END) return;
 
-        saveCounter++;
-        if (saveCounter >= SAVE_INTERVAL) {
-            saveCounter = 0;
+        if (pendingReload != null && pendingReload.isDone()) {
+            finishReload();
+        }
+
+        cleanCounter++;
+        if (cleanCounter >= CLEAN_INTERVAL) {
+            cleanCounter = 0;
             cleanExpiredOffers();
-            saveOffers();
+            if (archive != null) {
+                archive.maintainIfDue();
+            }
         }
     }
 
+    /**
+     * Copia de todas las ofertas en memoria, incluidas las expiradas que todavía no se limpiaron.
+     */
+    List<TradeOffer> snapshotOffers() {
+        return List.copyOf(activeOffers.values());
+    }
+
     /**
      * Obtiene el número total de ofertas activas.
      *
@@ -444,11 +640,132 @@ public class TradeOfferManager {
     }
 
     /**
-     * Reinicia el manager (útil para recargar datos).
+     * Vuelve a leer las ofertas desde disco (por ejemplo, después de reparar los archivos con la herramienta de datos).
+     *
+     * El backend actual se vacía a disco y el nuevo se carga en otro hilo, en un mapa aparte;
+     * el mercado sigue funcionando con el libro actual mientras tanto. Al terminar, en el hilo
+     * del servidor, los cambios hechos durante la carga se repiten sobre el libro cargado y
+     * este reemplaza al actual de una vez (ver {@link #finishReload()}). El backend actual
+     * se cierra recién entonces; si la carga falla, se sigue usando.
      */
     public void reload() {
-        activeOffers.clear();
-        loadOffers();
-        LoggerUtil.info("Trade offer manager reloaded");
+        if (dataDirectory == null || store == null) {
+            LoggerUtil.info("Data directory not initialized yet, nothing to reload");
+            return;
+        }
+        if (pendingReload != null) {
+            LoggerUtil.warn("Trade offer reload already in progress");
+            return;
+        }
+
+        // La copia se toma aquí; el último checkpoint del backend anterior se escribe en el otro hilo
+        OfferStore previous = store;
+        List<TradeOffer> snapshot = isDirty() ? List.copyOf(activeOffers.values()) : null;
+        snapshotVersion = version;
+        reloadStartTime = System.currentTimeMillis();
+        NbtBlobManager.getInstance().beginCount(NbtBlobStore.Owner.OFFERS);
+
+        pendingReload = CompletableFuture.supplyAsync(() -> {
+            try {
+                if (snapshot != null) {
+                    previous.checkpoint(snapshot);
+                }
+                previous.flush();
+            } catch (Exception e) {
+                LoggerUtil.error("Error flushing offer storage before reload: " + e.getMessage());
+                e.printStackTrace();
+            }
+
+            LoadedOffers loaded = new LoadedOffers(createStore(dataDirectory));
+            try {
+                loaded.store.load(loaded.offers);
+            } catch (Exception e) {
+                loaded.failure = e;
+            }
+            return loaded;
+        });
+        LoggerUtil.info("Reloading trade offers in the background");
+    }
+
+    /**
+     * Termina una recarga cuya carga ya acabó: repite los cambios pendientes sobre el libro
+     * cargado, lo pone en lugar del actual y adopta el backend nuevo. Si la carga falló, el
+     * backend nuevo se descarta y los cambios pendientes se escriben en el actual.
+     */
+    private void finishReload() {
+        LoadedOffers loaded = pendingReload.join();
+        pendingReload = null;
+
+        if (loaded.failure != null) {
+            // El backend nuevo puede haber quedado a medio abrir; se siguen usando el libro y el backend actuales
+            LoggerUtil.error("Failed to reload trade offers, keeping the current ones: " + loaded.failure.getMessage());
+            loaded.failure.printStackTrace();
+            closeStore(loaded.store);
+            for (PendingChange change : pendingChanges) {
+                if (change.created) {
+                    store.offerCreated(change.offer);
+                } else {
+                    store.offerRemoved(change.offer, change.expired);
+                }
+            }
+            pendingChanges.clear();
+            checkpointIfNeeded();
+            NbtBlobManager.getInstance().cancelCount(NbtBlobStore.Owner.OFFERS);
+            return;
+        }
+
+        closeStore(store);
+        store = loaded.store;
+        Map<UUID, TradeOffer> offers = loaded.offers;
+        snapshotVersion = version;
+        for (PendingChange change : pendingChanges) {
+            if (change.created) {
+                offers.put(change.offer.getOfferId(), change.offer);
+                store.offerCreated(change.offer);
+                version++;
+            } else if (offers.remove(change.offer.getOfferId()) != null) {
+                store.offerRemoved(change.offer, change.expired);
+                version++;
+            }
+        }
+        int replayed = pendingChanges.size();
+        pendingChanges.clear();
+
+        activeOffers = offers;
+        BackupManager.getInstance().requestBase();
+        cleanExpiredOffers();
+        countBlobs();
+        checkpointIfNeeded();
+        LoggerUtil.info("Trade offer manager reloaded: " + activeOffers.size() + " offers, "
+                + replayed + " changes replayed (" + (System.currentTimeMillis() - reloadStartTime) + " ms)");
+    }
+
+    private static void closeStore(OfferStore closing) {
+        try {
+            closing.close();
+        } catch (Exception e) {
+            LoggerUtil.error("Error closing offer storage: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Guarda el estado final y cierra el backend de persistencia al detener el servidor.
+     */
+    public void shutdown() {
+        if (store == null) {
+            return;
+        }
+        if (pendingReload != null) {
+            finishReload();
+        }
+        flushOffers();
+        store.close();
+        if (archive != null) {
+            archive.close();
+        }
+        if (ledger != null) {
+            ledger.close();
+        }
     }
 }
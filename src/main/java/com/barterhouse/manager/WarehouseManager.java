@@ -1,19 +1,29 @@
 package com.barterhouse.manager;
 
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.storage.ItemIdTable;
+import com.barterhouse.storage.JsonWarehouseStore;
+import com.barterhouse.storage.NbtBlobStore;
+import com.barterhouse.storage.SqliteWarehouseStore;
+import com.barterhouse.storage.StoredWarehouse;
+import com.barterhouse.storage.WarehouseStore;
 import com.barterhouse.util.LoggerUtil;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.TagParser;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.registries.ForgeRegistries;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 /**
  * Gestor de bodega - Almacena los items que los jugadores han recibido de transacciones
@@ -21,9 +31,68 @@ import java.util.*;
 public class WarehouseManager {
     
     private static WarehouseManager instance;
-    private Path warehouseFile;
-    private final Map<UUID, List<StoredItem>> playerWarehouses = new HashMap<>();
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private Path dataDirectory;
+    private WarehouseStore store;
+    private MinecraftServer server;
+    private ItemIdTable itemIds;
+
+    // Bodegas cargadas en memoria: solo las de los jugadores activos. Se cargan al conectarse
+    // el jugador y se liberan cuando quedan sin uso. Se reemplaza entero al terminar una recarga.
+    // Cada bodega es un mapa handle -> entrada que conserva el orden de llegada, así una entrada
+    // se busca y se saca sin recorrer ni desplazar las demás
+    private Map<UUID, Map<Long, StoredItem>> playerWarehouses = new HashMap<>();
+    private long nextHandle = 1;
+
+    // Bodegas que se están cargando, con los items que recibieron mientras tanto (se suman al
+    // terminar la carga), y lo que espera a que cada una termine de cargarse
+    private final Map<UUID, List<StoredItem>> loading = new HashMap<>();
+    private final Map<UUID, List<Runnable>> loadCallbacks = new HashMap<>();
+
+    // Último uso de cada bodega cargada
+    private final Map<UUID, Long> lastAccess = new HashMap<>();
+    private long idleMillis;
+    private static final int EVICTION_INTERVAL = 20 * 60; // Buscar bodegas sin uso cada minuto
+    private int evictionCounter = 0;
+
+    // Índice de apilado por jugador: clave del item -> su entrada en la bodega. Se arma la
+    // primera vez que el jugador recibe un item y se mantiene con cada cambio; la lista
+    // sigue dando el orden en que se muestran los items.
+    private final Map<UUID, Map<StackKey, StoredItem>> stackIndex = new HashMap<>();
+
+    // Totales acumulados, actualizados con cada cambio: items por jugador y por jugador e
+    // item (de las bodegas cargadas), y por item en todo el servidor (de todas las bodegas,
+    // contadas al abrir el backend). Se revisan cada tanto.
+    private final Map<UUID, Long> playerTotals = new HashMap<>();
+    private final Map<UUID, Map<String, Long>> playerItemTotals = new HashMap<>();
+    private Map<String, Long> serverItemTotals = new HashMap<>();
+
+    private static final int CONSISTENCY_CHECK_INTERVAL = 20 * 60 * 10; // Revisar los totales cada 10 minutos
+    private int checkCounter = 0;
+
+    // Recarga en curso: las bodegas se cargan en otro hilo mientras las actuales siguen en uso.
+    // La bodega actual de los jugadores que cambian mientras tanto reemplaza a la cargada.
+    // Mientras dura no se cargan ni se liberan bodegas.
+    private CompletableFuture<LoadedWarehouses> pendingReload;
+    private final Set<UUID> changedDuringReload = new HashSet<>();
+    private final Map<String, Long> totalsDuringReload = new HashMap<>();
+    private final Map<String, Long> blobRefsDuringReload = new HashMap<>();
+    private long reloadStartTime;
+
+    /**
+     * Resultado de la carga en segundo plano de una recarga.
+     */
+    private static class LoadedWarehouses {
+        final WarehouseStore store;
+        final Map<UUID, List<StoredItem>> warehouses = new HashMap<>();
+        final Map<UUID, List<StoredItem>> credits = new HashMap<>();
+        final Map<String, Long> serverItemTotals = new HashMap<>();
+        final Map<String, Long> blobRefs = new HashMap<>();
+        Exception failure;
+
+        LoadedWarehouses(WarehouseStore store) {
+            this.store = store;
+        }
+    }
     
     /**
      * Clase para almacenar items en la bodega
@@ -33,21 +102,136 @@ public class WarehouseManager {
         public int count;
         public long receivedTime;
         public String sourcePlayer; // Nombre del jugador que realizó la transacción
-        public String nbtData; // NBT del item (para items con datos especiales)
+        public String nbtHash; // Hash del blob con el NBT del item (para items con datos especiales)
+        public String nbtData; // NBT en texto: datos anteriores a los blobs y copias de seguridad
+
+        // Item ya resuelto y NBT ya interpretado, para no consultar el registro ni volver a
+        // leer el blob cada vez que se muestra o se retira la entrada. No se guardan. El
+        // compound es el mismo para todas las entradas con el mismo NBT y no se modifica.
+        public transient Item item; // null si el item ya no está registrado (mod quitado)
+        public transient CompoundTag tag;
+
+        // Identificador de la entrada mientras su bodega está cargada; no cambia aunque lleguen
+        // o se retiren otras entradas, y no se reutiliza. No se guarda (0 fuera de una bodega).
+        public transient long handle;
         
         public StoredItem(ItemStack stack, String sourcePlayer) {
             this.itemName = net.minecraftforge.registries.ForgeRegistries.ITEMS.getKey(stack.getItem()).toString();
             this.count = stack.getCount();
             this.receivedTime = System.currentTimeMillis();
             this.sourcePlayer = sourcePlayer;
+            this.item = stack.getItem();
             
-            // Guardar NBT si el item tiene datos
+            // Guardar NBT si el item tiene datos: en su blob, o en texto si no hay almacén de blobs
             if (stack.hasTag()) {
+                NbtBlobManager blobs = NbtBlobManager.getInstance();
+                if (blobs.isAvailable()) {
+                    try {
+                        this.nbtHash = blobs.put(stack.getTag());
+                        this.tag = blobs.getTag(nbtHash);
+                        return;
+                    } catch (IOException e) {
+                        LoggerUtil.error("Error storing NBT blob of " + itemName + ", keeping it inline: " + e.getMessage());
+                    }
+                }
                 this.nbtData = stack.getTag().getAsString();
+                this.tag = stack.getTag().copy();
             }
         }
         
         public StoredItem() {} // Para GSON
+
+        /**
+         * Resuelve el item y el NBT a partir de la forma guardada. Una entrada con el NBT en
+         * texto (datos anteriores a los blobs) pasa a usar su blob; se guarda así con el
+         * próximo cambio de la bodega.
+         *
+         * @return false si el item ya no está registrado
+         */
+        boolean resolve(ItemIdTable items) {
+            item = items.get(itemName);
+            tag = null;
+            NbtBlobManager blobs = NbtBlobManager.getInstance();
+            if (nbtHash != null) {
+                try {
+                    tag = blobs.getTag(nbtHash);
+                } catch (IOException e) {
+                    LoggerUtil.error("Missing NBT blob " + nbtHash + " of warehouse item " + itemName + ": " + e.getMessage());
+                }
+            } else if (nbtData != null) {
+                try {
+                    tag = TagParser.parseTag(nbtData);
+                    if (blobs.isAvailable()) {
+                        nbtHash = blobs.putLegacy(nbtData, tag);
+                        nbtData = null;
+                    }
+                } catch (CommandSyntaxException e) {
+                    LoggerUtil.warn("Invalid NBT in warehouse item " + itemName + ": " + e.getMessage());
+                } catch (IOException e) {
+                    LoggerUtil.error("Error storing NBT blob of warehouse item " + itemName + ": " + e.getMessage());
+                }
+            }
+            return item != null;
+        }
+
+        /**
+         * Hash del blob de esta entrada, también para las que todavía tienen el NBT en texto
+         * (sin interpretarlo). Null si el item no tiene NBT.
+         */
+        String blobHash() {
+            if (nbtHash != null) {
+                return nbtHash;
+            }
+            return nbtData != null ? NbtBlobStore.hash(nbtData) : null;
+        }
+
+        /**
+         * Indica si el item existe en este servidor y se puede retirar.
+         */
+        public boolean isAvailable() {
+            return item != null;
+        }
+
+        /**
+         * Crea un stack de esta entrada con la cantidad indicada. Solo para entradas disponibles.
+         */
+        public ItemStack toStack(int amount) {
+            ItemStack stack = new ItemStack(item, amount);
+            if (tag != null) {
+                stack.setTag(tag.copy());
+            }
+            return stack;
+        }
+    }
+
+    /**
+     * Clave con la que se apilan los items: id de registro y hash del blob del NBT (o el NBT
+     * en texto, si no hay almacén de blobs). El hash se calcula una sola vez.
+     */
+    private static final class StackKey {
+        private final String itemName;
+        private final String nbt;
+        private final int hash;
+
+        StackKey(StoredItem item) {
+            this.itemName = item.itemName;
+            this.nbt = item.nbtHash != null ? item.nbtHash : item.nbtData;
+            this.hash = 31 * itemName.hashCode() + Objects.hashCode(nbt);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof StackKey)) {
+                return false;
+            }
+            StackKey key = (StackKey) other;
+            return hash == key.hash && itemName.equals(key.itemName) && Objects.equals(nbt, key.nbt);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
     
     /**
@@ -61,24 +245,27 @@ public class WarehouseManager {
     }
     
     /**
-     * Inicializa el manager con el nivel del servidor
+     * Inicializa el manager con el nivel del servidor. Las bodegas no se cargan aquí sino
+     * cuando cada jugador se conecta; al abrir el backend solo se cuentan los totales por item.
      */
     public void initializeWithLevel(Level level) {
-        if (this.warehouseFile == null && level != null) {
+        if (this.store == null && level != null) {
             try {
                 Path worldPath = level.getServer().getServerDirectory().toPath();
                 Path barterhouseDir = worldPath.resolve("barterhouse");
                 Files.createDirectories(barterhouseDir);
                 
-                this.warehouseFile = barterhouseDir.resolve("warehouse.json");
-                
-                // Cargar la bodega si existe
-                if (Files.exists(warehouseFile)) {
-                    loadWarehouse();
-                    LoggerUtil.info("Warehouse loaded from: " + warehouseFile.toAbsolutePath());
-                } else {
-                    LoggerUtil.info("New warehouse created at: " + warehouseFile.toAbsolutePath());
-                }
+                this.dataDirectory = barterhouseDir;
+                this.server = level.getServer();
+                this.itemIds = ItemIdTable.resolve();
+                this.idleMillis = StorageConfig.getInstance().getWarehouseIdleMinutes() * 60_000L;
+                WarehouseStore opened = createStore(barterhouseDir);
+                opened.open();
+                Map<String, Long> blobRefs = new HashMap<>();
+                int players = countStored(opened, serverItemTotals, blobRefs);
+                NbtBlobManager.getInstance().setRefs(NbtBlobStore.Owner.WAREHOUSE, blobRefs);
+                this.store = opened;
+                LoggerUtil.info("Warehouse storage opened: " + players + " players with items, loaded when they join");
             } catch (Exception e) {
                 LoggerUtil.error("Error initializing warehouse: " + e.getMessage());
                 e.printStackTrace();
@@ -87,27 +274,245 @@ public class WarehouseManager {
     }
     
     /**
-     * Agrega un item a la bodega del jugador
+     * Crea el backend de persistencia configurado en config.yml.
+     */
+    private static WarehouseStore createStore(Path dataDirectory) {
+        if (StorageConfig.BACKEND_SQLITE.equals(StorageConfig.getInstance().getWarehouseBackend())) {
+            LoggerUtil.info("Using SQLite warehouse storage");
+            return new SqliteWarehouseStore(dataDirectory);
+        }
+        return new JsonWarehouseStore(dataDirectory);
+    }
+
+    /**
+     * Cuenta los items de todas las bodegas guardadas, de a un jugador por vez, y las
+     * referencias a cada blob de NBT (una por unidad).
+     *
+     * @return Jugadores con items
+     */
+    private static int countStored(WarehouseStore store, Map<String, Long> totals, Map<String, Long> blobRefs) throws IOException {
+        int[] players = {0};
+        store.forEachPlayer((playerUUID, items) -> {
+            if (!items.isEmpty()) {
+                players[0]++;
+            }
+            for (StoredItem item : items) {
+                addTotal(totals, item.itemName, item.count);
+                String hash = item.blobHash();
+                if (hash != null) {
+                    addTotal(blobRefs, hash, item.count);
+                }
+            }
+        });
+        return players[0];
+    }
+    
+    /**
+     * Resuelve el item y el NBT de las entradas cargadas. Las entradas de items que ya no
+     * están registrados se conservan (por si el mod vuelve), pero se avisan una sola vez aquí.
+     */
+    private static void resolveItems(Collection<List<StoredItem>> warehouses, ItemIdTable items) {
+        Set<String> missing = new TreeSet<>();
+        int unavailable = 0;
+        for (List<StoredItem> warehouse : warehouses) {
+            for (StoredItem item : warehouse) {
+                if (!item.resolve(items)) {
+                    missing.add(item.itemName);
+                    unavailable++;
+                }
+            }
+        }
+        if (unavailable > 0) {
+            LoggerUtil.warn(unavailable + " warehouse entries reference items that are not registered and cannot be withdrawn: "
+                    + String.join(", ", missing));
+        }
+    }
+
+    /**
+     * Espera las escrituras pendientes y libera el backend. Se llama al detener el servidor.
+     * Los items recibidos por bodegas que todavía se estaban cargando quedan como créditos.
+     */
+    public void shutdown() {
+        if (pendingReload != null) {
+            finishReload();
+        }
+        if (store != null) {
+            for (Map.Entry<UUID, List<StoredItem>> entry : loading.entrySet()) {
+                for (StoredItem item : entry.getValue()) {
+                    store.appendCredit(entry.getKey(), item);
+                }
+            }
+            loading.clear();
+            loadCallbacks.clear();
+            store.flush();
+            for (UUID playerUUID : playerWarehouses.keySet()) {
+                if (!store.isSaved(playerUUID)) {
+                    LoggerUtil.error("Warehouse of " + playerUUID + " could not be saved before shutdown");
+                }
+            }
+            store.close();
+            // Las cargas que terminen después se descartan
+            store = null;
+        }
+    }
+
+    /**
+     * Indica si la bodega del jugador está cargada en memoria.
+     */
+    public boolean isLoaded(UUID playerUUID) {
+        return playerWarehouses.containsKey(playerUUID);
+    }
+
+    /**
+     * Empieza a cargar la bodega de un jugador (al conectarse), si no está cargada.
+     */
+    public void loadWarehouse(UUID playerUUID) {
+        ensureLoaded(playerUUID, null);
+    }
+
+    /**
+     * Carga la bodega de un jugador si hace falta y ejecuta {@code whenLoaded} en el hilo del
+     * servidor cuando está lista; enseguida si ya estaba cargada. Si la carga falla no se ejecuta.
+     */
+    public void ensureLoaded(UUID playerUUID, Runnable whenLoaded) {
+        if (playerWarehouses.containsKey(playerUUID)) {
+            touch(playerUUID);
+            if (whenLoaded != null) {
+                whenLoaded.run();
+            }
+            return;
+        }
+        if (store == null) {
+            return;
+        }
+        if (whenLoaded != null) {
+            loadCallbacks.computeIfAbsent(playerUUID, k -> new ArrayList<>()).add(whenLoaded);
+        }
+        if (loading.containsKey(playerUUID)) {
+            return;
+        }
+        loading.put(playerUUID, new ArrayList<>());
+        if (pendingReload == null) {
+            startLoad(playerUUID);
+        }
+        // Durante una recarga la bodega se pide al backend nuevo cuando termine
+    }
+
+    /**
+     * Pide la bodega al backend; el resultado se aplica en el hilo del servidor.
+     */
+    private void startLoad(UUID playerUUID) {
+        WarehouseStore source = store;
+        source.loadPlayer(playerUUID).whenComplete(
+                (stored, error) -> server.execute(() -> finishLoad(source, playerUUID, stored, error)));
+    }
+
+    /**
+     * Pone en memoria una bodega recién leída y le suma los créditos pendientes y los items
+     * recibidos durante la carga. Si hubo créditos, la bodega se guarda con ellos y el
+     * backend los borra del archivo de créditos recién cuando esa escritura terminó bien.
+     */
+    private void finishLoad(WarehouseStore source, UUID playerUUID, StoredWarehouse stored, Throwable error) {
+        if (source != store || pendingReload != null || !loading.containsKey(playerUUID)) {
+            // El backend cambió o va a cambiar con una recarga, que vuelve a pedir la bodega
+            return;
+        }
+        List<StoredItem> received = loading.remove(playerUUID);
+        List<Runnable> callbacks = loadCallbacks.remove(playerUUID);
+
+        if (error != null) {
+            LoggerUtil.error("Error loading warehouse of " + playerUUID + ": " + error.getMessage());
+            error.printStackTrace();
+            // Lo recibido durante la carga no se pierde
+            for (StoredItem item : received) {
+                store.appendCredit(playerUUID, item);
+            }
+            return;
+        }
+
+        resolveItems(List.of(stored.items, stored.credits), itemIds);
+        Map<Long, StoredItem> warehouse = entries(stored.items);
+        playerWarehouses.put(playerUUID, warehouse);
+        touch(playerUUID);
+        for (StoredItem item : warehouse.values()) {
+            countPlayer(playerUUID, item.itemName, item.count);
+        }
+        // Ya contados en los totales del servidor al anotarse
+        for (StoredItem item : stored.credits) {
+            stack(playerUUID, warehouse, item);
+            countPlayer(playerUUID, item.itemName, item.count);
+        }
+        for (StoredItem item : received) {
+            stack(playerUUID, warehouse, item);
+            countPlayer(playerUUID, item.itemName, item.count);
+        }
+        if (!stored.credits.isEmpty() || !received.isEmpty()) {
+            saveWarehouse(playerUUID, !stored.credits.isEmpty());
+            if (!stored.credits.isEmpty()) {
+                LoggerUtil.info("Applied " + stored.credits.size() + " pending warehouse credits of " + playerUUID);
+            }
+        }
+
+        if (callbacks != null) {
+            callbacks.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Marca el uso de una bodega cargada.
+     */
+    private void touch(UUID playerUUID) {
+        lastAccess.put(playerUUID, System.currentTimeMillis());
+    }
+
+    /**
+     * Libera las bodegas de los jugadores desconectados que no se usaron en el tiempo
+     * configurado. Cada cambio ya se entregó al backend al hacerse; las bodegas que el backend
+     * todavía no escribió (o no pudo escribir) se conservan hasta que estén escritas, porque
+     * sus créditos ya aplicados podrían no estar borrados. Si el jugador vuelve, la carga se
+     * ejecuta después de las escrituras pendientes.
+     */
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        Iterator<UUID> iterator = playerWarehouses.keySet().iterator();
+        while (iterator.hasNext()) {
+            UUID playerUUID = iterator.next();
+            if (lastAccess.getOrDefault(playerUUID, 0L) > cutoff || server.getPlayerList().getPlayer(playerUUID) != null
+                    || !store.isSaved(playerUUID)) {
+                continue;
+            }
+            iterator.remove();
+            lastAccess.remove(playerUUID);
+            stackIndex.remove(playerUUID);
+            playerTotals.remove(playerUUID);
+            playerItemTotals.remove(playerUUID);
+            evicted++;
+        }
+        if (evicted > 0) {
+            LoggerUtil.debug("Released " + evicted + " idle warehouses, " + playerWarehouses.size() + " still loaded");
+        }
+    }
+    
+    /**
+     * Agrega un item a la bodega del jugador. Si la bodega no está cargada, el item se anota
+     * como crédito pendiente y se suma cuando se cargue.
      */
     public void addItem(UUID playerUUID, ItemStack stack, String sourcePlayerName) {
         try {
-            List<StoredItem> warehouse = playerWarehouses.computeIfAbsent(playerUUID, k -> new ArrayList<>());
-            
-            // Buscar si ya existe el mismo item para apilarlo
-            for (StoredItem stored : warehouse) {
-                if (stored.itemName.equals(net.minecraftforge.registries.ForgeRegistries.ITEMS.getKey(stack.getItem()).toString()) &&
-                    Objects.equals(stored.nbtData, (stack.hasTag() ? stack.getTag().getAsString() : null))) {
-                    stored.count += stack.getCount();
-                    saveWarehouse();
-                    LoggerUtil.info("Added " + stack.getCount() + "x " + stack.getDisplayName().getString() + 
-                                   " to warehouse of " + playerUUID);
-                    return;
-                }
+            StoredItem added = new StoredItem(stack, sourcePlayerName);
+            Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+            if (warehouse == null) {
+                credit(playerUUID, added);
+                LoggerUtil.info("Added " + stack.getCount() + "x " + stack.getDisplayName().getString() +
+                               " to pending warehouse credits of " + playerUUID);
+                return;
             }
-            
-            // Si no existe, crear nuevo
-            warehouse.add(new StoredItem(stack, sourcePlayerName));
-            saveWarehouse();
+
+            touch(playerUUID);
+            stack(playerUUID, warehouse, added);
+            count(playerUUID, added, added.count);
+            saveWarehouse(playerUUID);
             LoggerUtil.info("Added " + stack.getCount() + "x " + stack.getDisplayName().getString() + 
                            " to warehouse of " + playerUUID);
             
@@ -116,23 +521,385 @@ public class WarehouseManager {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Anota un item para un jugador cuya bodega no está cargada: se agrega a la carga en curso
+     * o al archivo de créditos del backend.
+     */
+    private void credit(UUID playerUUID, StoredItem item) {
+        addServerTotal(item, item.count);
+        BackupManager.getInstance().warehouseChanged(playerUUID);
+        List<StoredItem> received = loading.get(playerUUID);
+        if (received != null) {
+            received.add(item);
+        } else if (pendingReload != null) {
+            // El backend se está cambiando: la bodega se carga al terminar la recarga
+            loading.put(playerUUID, new ArrayList<>(List.of(item)));
+        } else if (store != null) {
+            store.appendCredit(playerUUID, item);
+        }
+    }
+
+    /**
+     * Apila un item sobre la entrada igual de la bodega, o lo agrega como entrada nueva.
+     */
+    private void stack(UUID playerUUID, Map<Long, StoredItem> warehouse, StoredItem added) {
+        Map<StackKey, StoredItem> index = stackIndex(playerUUID, warehouse);
+        StackKey key = new StackKey(added);
+        StoredItem stored = index.get(key);
+        if (stored != null) {
+            stored.count += added.count;
+        } else {
+            addEntry(warehouse, added);
+            index.put(key, added);
+        }
+    }
+
+    /**
+     * Agrega una entrada al final de la bodega con un handle nuevo.
+     */
+    private void addEntry(Map<Long, StoredItem> warehouse, StoredItem item) {
+        item.handle = nextHandle++;
+        warehouse.put(item.handle, item);
+    }
+
+    /**
+     * Arma una bodega en memoria con las entradas leídas, en su orden.
+     */
+    private Map<Long, StoredItem> entries(List<StoredItem> items) {
+        Map<Long, StoredItem> warehouse = new LinkedHashMap<>(Math.max(16, items.size() * 2));
+        for (StoredItem item : items) {
+            addEntry(warehouse, item);
+        }
+        return warehouse;
+    }
     
     /**
-     * Obtiene la bodega de un jugador
+     * Índice de apilado de un jugador, armado a partir de su bodega si todavía no existe.
+     * Si hay entradas repetidas (datos anteriores al índice), se apila sobre la primera.
      */
-    public List<StoredItem> getPlayerWarehouse(UUID playerUUID) {
-        return playerWarehouses.getOrDefault(playerUUID, new ArrayList<>());
+    private Map<StackKey, StoredItem> stackIndex(UUID playerUUID, Map<Long, StoredItem> warehouse) {
+        return stackIndex.computeIfAbsent(playerUUID, k -> {
+            Map<StackKey, StoredItem> index = new HashMap<>(Math.max(16, warehouse.size() * 2));
+            for (StoredItem item : warehouse.values()) {
+                index.putIfAbsent(new StackKey(item), item);
+            }
+            return index;
+        });
+    }
+
+    /**
+     * Saca del índice una entrada que salió de la bodega.
+     */
+    private void unindex(UUID playerUUID, StoredItem item) {
+        Map<StackKey, StoredItem> index = stackIndex.get(playerUUID);
+        if (index != null) {
+            index.remove(new StackKey(item), item);
+        }
+    }
+
+    /**
+     * Obtiene la bodega de un jugador, en orden (vista de solo lectura; vacía si no está cargada)
+     */
+    public Collection<StoredItem> getPlayerWarehouse(UUID playerUUID) {
+        Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+        if (warehouse == null) {
+            return Collections.emptyList();
+        }
+        touch(playerUUID);
+        return Collections.unmodifiableCollection(warehouse.values());
+    }
+
+    /**
+     * Busca una entrada de la bodega por su handle.
+     *
+     * @return La entrada, o null si ya no está (se retiró o la bodega se volvió a cargar)
+     */
+    public StoredItem getEntry(UUID playerUUID, long handle) {
+        Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+        return warehouse != null ? warehouse.get(handle) : null;
     }
     
+    /**
+     * Resultado de un retiro: los stacks a entregar, ya divididos según el tamaño máximo
+     * de cada item.
+     */
+    public static class Withdrawal {
+        public final List<ItemStack> stacks = new ArrayList<>();
+        public long items;
+        public int entries;
+
+        public boolean isEmpty() {
+            return stacks.isEmpty();
+        }
+    }
+
+    /**
+     * Retira completa una entrada de la bodega (el click en un item).
+     */
+    public Withdrawal withdrawEntry(UUID playerUUID, long handle) {
+        Withdrawal withdrawal = new Withdrawal();
+        Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+        StoredItem entry = warehouse != null ? warehouse.get(handle) : null;
+        if (entry == null || !entry.isAvailable()) {
+            return withdrawal;
+        }
+        touch(playerUUID);
+        if (take(playerUUID, entry, null, withdrawal)) {
+            warehouse.remove(handle);
+        }
+        saveWarehouse(playerUUID);
+        LoggerUtil.info("Withdrew " + withdrawal.items + " items (1 entry) from warehouse of " + playerUUID);
+        return withdrawal;
+    }
+
+    /**
+     * Retira todos los items de la bodega.
+     */
+    public Withdrawal withdrawAll(UUID playerUUID) {
+        return withdraw(playerUUID, item -> true, null);
+    }
+
+    /**
+     * Retira todas las entradas de un item (id de registro), con cualquier NBT.
+     */
+    public Withdrawal withdrawItem(UUID playerUUID, String itemName) {
+        return withdraw(playerUUID, item -> item.itemName.equals(itemName), null);
+    }
+
+    /**
+     * Retira, en el orden de la bodega, lo que entra en el espacio libre del inventario:
+     * completando los stacks iguales que ya tiene y ocupando los slots vacíos.
+     *
+     * @param inventory Slots del inventario principal del jugador; no se modifican
+     */
+    public Withdrawal withdrawFitting(UUID playerUUID, List<ItemStack> inventory) {
+        List<ItemStack> simulated = new ArrayList<>(inventory.size());
+        for (ItemStack stack : inventory) {
+            simulated.add(stack.copy());
+        }
+        return withdraw(playerUUID, item -> true, simulated);
+    }
+
+    /**
+     * Saca de la bodega las entradas que cumplen el filtro, como un solo cambio: los totales
+     * se actualizan juntos y la bodega se guarda una sola vez.
+     *
+     * @param space Copia del inventario en la que se simula dónde entra cada stack, o null sin límite
+     */
+    private Withdrawal withdraw(UUID playerUUID, Predicate<StoredItem> filter, List<ItemStack> space) {
+        Withdrawal withdrawal = new Withdrawal();
+        Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+        if (warehouse == null) {
+            return withdrawal;
+        }
+        touch(playerUUID);
+
+        Iterator<StoredItem> iterator = warehouse.values().iterator();
+        while (iterator.hasNext()) {
+            StoredItem item = iterator.next();
+            if (item.isAvailable() && filter.test(item) && take(playerUUID, item, space, withdrawal)) {
+                iterator.remove();
+            }
+        }
+
+        if (!withdrawal.isEmpty()) {
+            saveWarehouse(playerUUID);
+            LoggerUtil.info("Withdrew " + withdrawal.items + " items (" + withdrawal.entries + " entries) from warehouse of " + playerUUID);
+        }
+        return withdrawal;
+    }
+
+    /**
+     * Saca de una entrada lo que entra en {@code space} (todo si es null), dividido en stacks,
+     * y actualiza los totales. No guarda la bodega.
+     *
+     * @return true si la entrada quedó vacía y hay que sacarla de la bodega
+     */
+    private boolean take(UUID playerUUID, StoredItem item, List<ItemStack> space, Withdrawal withdrawal) {
+        ItemStack prototype = item.toStack(1);
+        int maxStack = prototype.getMaxStackSize();
+        int amount = space != null ? fit(space, prototype, item.count) : item.count;
+        if (amount <= 0) {
+            return false;
+        }
+
+        for (int remaining = amount; remaining > 0; remaining -= maxStack) {
+            withdrawal.stacks.add(item.toStack(Math.min(remaining, maxStack)));
+        }
+        withdrawal.items += amount;
+        withdrawal.entries++;
+        count(playerUUID, item, -amount);
+        item.count -= amount;
+        if (item.count > 0) {
+            return false;
+        }
+        unindex(playerUUID, item);
+        return true;
+    }
+
+    /**
+     * Saca de una entrada un stack (hasta el tamaño máximo del item) para publicarlo en una
+     * oferta. La bodega se guarda una vez.
+     *
+     * @return El stack, o vacío si la entrada ya no está o su item no existe
+     */
+    public ItemStack takeStack(UUID playerUUID, long handle) {
+        Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+        StoredItem entry = warehouse != null ? warehouse.get(handle) : null;
+        if (entry == null || !entry.isAvailable()) {
+            return ItemStack.EMPTY;
+        }
+        touch(playerUUID);
+        ItemStack stack = entry.toStack(1);
+        int amount = Math.min(entry.count, stack.getMaxStackSize());
+        stack.setCount(amount);
+        count(playerUUID, entry, -amount);
+        entry.count -= amount;
+        if (entry.count <= 0) {
+            warehouse.remove(handle);
+            unindex(playerUUID, entry);
+        }
+        saveWarehouse(playerUUID);
+        LoggerUtil.info("Took " + amount + "x " + entry.itemName + " from warehouse of " + playerUUID + " for an offer");
+        return stack;
+    }
+
+    /**
+     * Paga con la bodega: saca {@code amount} unidades iguales a {@code payment} y agrega
+     * {@code received}, como un solo cambio que se guarda una vez. Solo se usan las entradas
+     * con el mismo item y el mismo NBT que lo pedido (sin contar ActualCount), así un item
+     * encantado o con nombre nunca paga por uno común.
+     *
+     * @param payment Item pedido por la oferta; su cantidad no se usa
+     * @return false, sin cambiar nada, si la bodega no está cargada o no alcanza
+     */
+    public boolean exchange(UUID playerUUID, ItemStack payment, int amount, ItemStack received, String sourcePlayerName) {
+        Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+        if (warehouse == null) {
+            if (amount > 0) {
+                return false;
+            }
+            addItem(playerUUID, received, sourcePlayerName);
+            return true;
+        }
+        if (getAvailableTotal(playerUUID, payment) < amount) {
+            return false;
+        }
+        touch(playerUUID);
+
+        String itemName = ForgeRegistries.ITEMS.getKey(payment.getItem()).toString();
+        consume(playerUUID, warehouse, itemName, paymentTag(payment), amount);
+        if (!received.isEmpty()) {
+            StoredItem added = new StoredItem(received, sourcePlayerName);
+            stack(playerUUID, warehouse, added);
+            count(playerUUID, added, added.count);
+        }
+        saveWarehouse(playerUUID);
+        LoggerUtil.info("Paid " + amount + "x " + itemName + " from warehouse of " + playerUUID
+                + (received.isEmpty() ? "" : " and received " + received.getCount() + "x " + received.getDisplayName().getString()));
+        return true;
+    }
+
+    /**
+     * Unidades de la bodega que pueden pagar por {@code payment}: entradas con el item
+     * registrado y el mismo NBT que lo pedido.
+     */
+    public long getAvailableTotal(UUID playerUUID, ItemStack payment) {
+        String itemName = ForgeRegistries.ITEMS.getKey(payment.getItem()).toString();
+        CompoundTag tag = paymentTag(payment);
+        long total = 0;
+        for (StoredItem item : entriesOf(playerUUID)) {
+            if (item.isAvailable() && item.itemName.equals(itemName) && sameTag(item.tag, tag)) {
+                total += item.count;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * NBT que debe tener un item para pagar por lo pedido en una oferta: el del item pedido
+     * sin ActualCount, que solo guarda la cantidad. Null si no queda nada.
+     */
+    private static CompoundTag paymentTag(ItemStack payment) {
+        if (!payment.hasTag()) {
+            return null;
+        }
+        CompoundTag tag = payment.getTag().copy();
+        tag.remove("ActualCount");
+        return tag.isEmpty() ? null : tag;
+    }
+
+    private static boolean sameTag(CompoundTag stored, CompoundTag wanted) {
+        return Objects.equals(stored != null && !stored.isEmpty() ? stored : null, wanted);
+    }
+
+    /**
+     * Descuenta hasta {@code amount} unidades de las entradas con el item y el NBT dados,
+     * en orden, sin guardar.
+     *
+     * @return Unidades que faltaron
+     */
+    private int consume(UUID playerUUID, Map<Long, StoredItem> warehouse, String itemName, CompoundTag tag, int amount) {
+        Iterator<StoredItem> iterator = warehouse.values().iterator();
+        while (amount > 0 && iterator.hasNext()) {
+            StoredItem item = iterator.next();
+            if (!item.isAvailable() || !item.itemName.equals(itemName) || !sameTag(item.tag, tag)) {
+                continue;
+            }
+            int taken = Math.min(item.count, amount);
+            count(playerUUID, item, -taken);
+            item.count -= taken;
+            amount -= taken;
+            if (item.count <= 0) {
+                iterator.remove();
+                unindex(playerUUID, item);
+            }
+        }
+        return amount;
+    }
+
+    /**
+     * Ubica hasta {@code amount} unidades en el inventario simulado.
+     *
+     * @return Unidades que entraron
+     */
+    private static int fit(List<ItemStack> space, ItemStack prototype, int amount) {
+        int maxStack = prototype.getMaxStackSize();
+        int placed = 0;
+        // Primero completar los stacks iguales, después los slots vacíos
+        for (ItemStack slot : space) {
+            if (placed >= amount) break;
+            if (!slot.isEmpty() && ItemStack.isSameItemSameTags(slot, prototype) && slot.getCount() < maxStack) {
+                int moved = Math.min(maxStack - slot.getCount(), amount - placed);
+                slot.grow(moved);
+                placed += moved;
+            }
+        }
+        for (int i = 0; i < space.size() && placed < amount; i++) {
+            if (space.get(i).isEmpty()) {
+                int moved = Math.min(maxStack, amount - placed);
+                ItemStack filled = prototype.copy();
+                filled.setCount(moved);
+                space.set(i, filled);
+                placed += moved;
+            }
+        }
+        return placed;
+    }
+
     /**
      * Elimina un item de la bodega
      */
-    public void removeItem(UUID playerUUID, int index) {
+    public void removeItem(UUID playerUUID, long handle) {
         try {
-            List<StoredItem> warehouse = playerWarehouses.get(playerUUID);
-            if (warehouse != null && index >= 0 && index < warehouse.size()) {
-                warehouse.remove(index);
-                saveWarehouse();
+            Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+            StoredItem removed = warehouse != null ? warehouse.remove(handle) : null;
+            if (removed != null) {
+                touch(playerUUID);
+                unindex(playerUUID, removed);
+                count(playerUUID, removed, -removed.count);
+                saveWarehouse(playerUUID);
                 LoggerUtil.info("Removed item from warehouse of " + playerUUID);
             }
         } catch (Exception e) {
@@ -144,16 +911,19 @@ public class WarehouseManager {
     /**
      * Reduce la cantidad de un item en la bodega
      */
-    public void reduceItem(UUID playerUUID, int index, int amount) {
+    public void reduceItem(UUID playerUUID, long handle, int amount) {
         try {
-            List<StoredItem> warehouse = playerWarehouses.get(playerUUID);
-            if (warehouse != null && index >= 0 && index < warehouse.size()) {
-                StoredItem item = warehouse.get(index);
+            Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+            StoredItem item = warehouse != null ? warehouse.get(handle) : null;
+            if (item != null) {
+                touch(playerUUID);
+                count(playerUUID, item, -Math.min(amount, item.count));
                 item.count -= amount;
                 if (item.count <= 0) {
-                    warehouse.remove(index);
+                    warehouse.remove(handle);
+                    unindex(playerUUID, item);
                 }
-                saveWarehouse();
+                saveWarehouse(playerUUID);
                 LoggerUtil.info("Reduced item in warehouse of " + playerUUID);
             }
         } catch (Exception e) {
@@ -163,72 +933,370 @@ public class WarehouseManager {
     }
     
     /**
-     * Guarda la bodega en archivo JSON
+     * Guarda la bodega de un jugador después de un cambio
      */
-    private void saveWarehouse() {
-        if (warehouseFile == null) return;
-        
-        try {
-            JsonObject root = new JsonObject();
-            
-            for (Map.Entry<UUID, List<StoredItem>> entry : playerWarehouses.entrySet()) {
-                JsonArray itemsArray = new JsonArray();
-                for (StoredItem item : entry.getValue()) {
-                    itemsArray.add(gson.toJsonTree(item));
-                }
-                root.add(entry.getKey().toString(), itemsArray);
-            }
-            
-            Files.write(warehouseFile, gson.toJson(root).getBytes(StandardCharsets.UTF_8));
-        } catch (IOException e) {
-            LoggerUtil.error("Error saving warehouse: " + e.getMessage());
-            e.printStackTrace();
+    private void saveWarehouse(UUID playerUUID) {
+        saveWarehouse(playerUUID, false);
+    }
+
+    /**
+     * @param creditsApplied La bodega ya incluye los créditos pendientes del jugador
+     */
+    private void saveWarehouse(UUID playerUUID, boolean creditsApplied) {
+        BackupManager.getInstance().warehouseChanged(playerUUID);
+        if (store == null) return;
+        if (pendingReload != null) {
+            // Se guarda al terminar la recarga, en el backend nuevo
+            changedDuringReload.add(playerUUID);
+            return;
         }
+        store.save(playerUUID, entriesOf(playerUUID), creditsApplied);
     }
-    
+
     /**
-     * Carga la bodega desde archivo JSON
+     * Entradas de una bodega cargada, para entregarlas al backend.
      */
-    private void loadWarehouse() {
-        if (warehouseFile == null || !Files.exists(warehouseFile)) {
+    private Collection<StoredItem> entriesOf(UUID playerUUID) {
+        Map<Long, StoredItem> warehouse = playerWarehouses.get(playerUUID);
+        return warehouse != null ? warehouse.values() : Collections.emptyList();
+    }
+
+    /**
+     * Vuelve a leer las bodegas desde disco sin detener el servidor.
+     *
+     * El backend actual se vacía a disco y el nuevo se abre en otro hilo, donde se cuentan los
+     * totales y se leen las bodegas que están cargadas, en un mapa aparte; los jugadores siguen
+     * usando las bodegas actuales mientras tanto. El cambio se hace en el hilo del servidor, en
+     * el primer tick después de que termine la carga; el backend actual se cierra recién
+     * entonces, y si la carga falla se sigue usando.
+     */
+    public void reload() {
+        if (dataDirectory == null || store == null) {
+            LoggerUtil.info("Warehouse not initialized yet, nothing to reload");
             return;
         }
-        
-        try {
-            String content = Files.readString(warehouseFile, StandardCharsets.UTF_8);
-            JsonObject root = gson.fromJson(content, JsonObject.class);
-            
-            if (root == null) return;
-            
-            for (String uuidStr : root.keySet()) {
-                try {
-                    UUID playerUUID = UUID.fromString(uuidStr);
-                    JsonArray itemsArray = root.getAsJsonArray(uuidStr);
-                    List<StoredItem> warehouse = new ArrayList<>();
-                    
-                    for (int i = 0; i < itemsArray.size(); i++) {
-                        StoredItem item = gson.fromJson(itemsArray.get(i), StoredItem.class);
-                        warehouse.add(item);
+        if (pendingReload != null) {
+            LoggerUtil.warn("Warehouse reload already in progress");
+            return;
+        }
+
+        WarehouseStore previous = store;
+        ItemIdTable items = ItemIdTable.resolve();
+        itemIds = items;
+        Set<UUID> loaded = new HashSet<>(playerWarehouses.keySet());
+        reloadStartTime = System.currentTimeMillis();
+        totalsDuringReload.clear();
+        blobRefsDuringReload.clear();
+        NbtBlobManager.getInstance().beginCount(NbtBlobStore.Owner.WAREHOUSE);
+        pendingReload = CompletableFuture.supplyAsync(() -> {
+            try {
+                previous.flush();
+            } catch (Exception e) {
+                LoggerUtil.error("Error flushing warehouse storage before reload: " + e.getMessage());
+                e.printStackTrace();
+            }
+
+            LoadedWarehouses result = new LoadedWarehouses(createStore(dataDirectory));
+            // Una bodega que el backend anterior no pudo escribir no está en disco: el backend
+            // nuevo leería la versión vieja y créditos ya aplicados, así que se sigue con el anterior
+            for (UUID playerUUID : loaded) {
+                if (!previous.isSaved(playerUUID)) {
+                    result.failure = new IOException("Warehouse of " + playerUUID + " could not be saved to the current storage");
+                    return result;
+                }
+            }
+            try {
+                result.store.open();
+                countStored(result.store, result.serverItemTotals, result.blobRefs);
+                for (UUID playerUUID : loaded) {
+                    StoredWarehouse stored = result.store.loadPlayer(playerUUID).join();
+                    result.warehouses.put(playerUUID, new ArrayList<>(stored.items));
+                    if (!stored.credits.isEmpty()) {
+                        result.credits.put(playerUUID, stored.credits);
                     }
-                    
-                    playerWarehouses.put(playerUUID, warehouse);
-                } catch (IllegalArgumentException e) {
-                    LoggerUtil.error("Invalid UUID in warehouse file: " + uuidStr);
                 }
+                resolveItems(result.warehouses.values(), items);
+                resolveItems(result.credits.values(), items);
+            } catch (Exception e) {
+                result.failure = e;
             }
-            
-            LoggerUtil.info("Loaded warehouse data for " + playerWarehouses.size() + " players");
+            return result;
+        });
+        LoggerUtil.info("Reloading warehouses in the background");
+    }
+
+    /**
+     * Termina una recarga pendiente si la carga ya acabó y libera las bodegas sin uso.
+     *
+     * @param event Evento de tick
+     */
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) return;
+
+        if (pendingReload != null && pendingReload.isDone()) {
+            finishReload();
+        }
+
+        evictionCounter++;
+        if (evictionCounter >= EVICTION_INTERVAL) {
+            evictionCounter = 0;
+            if (pendingReload == null && server != null) {
+                evictIdle();
+            }
+        }
+
+        checkCounter++;
+        if (checkCounter >= CONSISTENCY_CHECK_INTERVAL) {
+            checkCounter = 0;
+            checkTotals();
+        }
+    }
+
+    /**
+     * Pone las bodegas cargadas en lugar de las actuales, conservando la bodega actual de los
+     * jugadores que cambiaron durante la carga, y guarda esas bodegas en el backend nuevo.
+     * Las bodegas pedidas durante la recarga se cargan desde el backend nuevo. Si la carga
+     * falló, el backend nuevo se descarta y todo eso se hace sobre el actual.
+     */
+    private void finishReload() {
+        LoadedWarehouses loaded = pendingReload.join();
+        pendingReload = null;
+
+        if (loaded.failure != null) {
+            // El backend nuevo puede haber quedado a medio abrir; se siguen usando las bodegas y el backend actuales
+            LoggerUtil.error("Failed to reload warehouses, keeping the current ones: " + loaded.failure.getMessage());
+            loaded.failure.printStackTrace();
+            closeStore(loaded.store);
+            NbtBlobManager.getInstance().cancelCount(NbtBlobStore.Owner.WAREHOUSE);
+        } else {
+            closeStore(store);
+            store = loaded.store;
+            Map<UUID, Map<Long, StoredItem>> reloaded = new HashMap<>();
+            for (Map.Entry<UUID, List<StoredItem>> entry : loaded.warehouses.entrySet()) {
+                reloaded.put(entry.getKey(), entries(entry.getValue()));
+            }
+            for (UUID playerUUID : changedDuringReload) {
+                reloaded.put(playerUUID, playerWarehouses.get(playerUUID));
+            }
+            playerWarehouses = reloaded;
+            stackIndex.clear();
+            rebuildPlayerTotals();
+            // Los totales contados en disco más lo que cambió mientras tanto
+            serverItemTotals = loaded.serverItemTotals;
+            totalsDuringReload.forEach((itemName, delta) -> addTotal(serverItemTotals, itemName, delta));
+            blobRefsDuringReload.forEach((hash, delta) -> addTotal(loaded.blobRefs, hash, delta));
+            NbtBlobManager.getInstance().setRefs(NbtBlobStore.Owner.WAREHOUSE, loaded.blobRefs);
+
+            // Créditos que quedaron en disco para bodegas cargadas
+            for (Map.Entry<UUID, List<StoredItem>> entry : loaded.credits.entrySet()) {
+                Map<Long, StoredItem> warehouse = playerWarehouses.get(entry.getKey());
+                for (StoredItem item : entry.getValue()) {
+                    stack(entry.getKey(), warehouse, item);
+                    countPlayer(entry.getKey(), item.itemName, item.count);
+                }
+                store.save(entry.getKey(), entriesOf(entry.getKey()), true);
+                BackupManager.getInstance().warehouseChanged(entry.getKey());
+            }
+            BackupManager.getInstance().requestBase();
+        }
+        totalsDuringReload.clear();
+        blobRefsDuringReload.clear();
+
+        for (UUID playerUUID : changedDuringReload) {
+            store.save(playerUUID, entriesOf(playerUUID));
+        }
+        for (UUID playerUUID : loading.keySet()) {
+            startLoad(playerUUID);
+        }
+        if (loaded.failure == null) {
+            LoggerUtil.info("Warehouse manager reloaded: " + playerWarehouses.size() + " loaded players, "
+                    + changedDuringReload.size() + " changed during reload (" + (System.currentTimeMillis() - reloadStartTime) + " ms)");
+        }
+        changedDuringReload.clear();
+    }
+
+    private static void closeStore(WarehouseStore closing) {
+        try {
+            closing.close();
         } catch (Exception e) {
-            LoggerUtil.error("Error loading warehouse: " + e.getMessage());
+            LoggerUtil.error("Error closing warehouse storage: " + e.getMessage());
             e.printStackTrace();
         }
     }
+
+    /**
+     * Backend actual, para que las copias de seguridad lean las bodegas que no están cargadas.
+     */
+    WarehouseStore getStore() {
+        return store;
+    }
     
     /**
-     * Obtiene el total de items en la bodega de un jugador
+     * Copia de la bodega de un jugador, para escribirla fuera del hilo del servidor.
+     */
+    List<StoredItem> copyWarehouse(UUID playerUUID) {
+        List<StoredItem> copy = new ArrayList<>();
+        for (StoredItem item : entriesOf(playerUUID)) {
+            StoredItem stored = new StoredItem();
+            stored.itemName = item.itemName;
+            stored.count = item.count;
+            stored.receivedTime = item.receivedTime;
+            stored.sourcePlayer = item.sourcePlayer;
+            stored.nbtHash = item.nbtHash;
+            stored.nbtData = item.nbtData;
+            copy.add(stored);
+        }
+        return copy;
+    }
+
+    /**
+     * Copia de todas las bodegas cargadas.
+     */
+    Map<UUID, List<StoredItem>> copyWarehouses() {
+        Map<UUID, List<StoredItem>> copy = new HashMap<>();
+        for (UUID playerUUID : playerWarehouses.keySet()) {
+            copy.put(playerUUID, copyWarehouse(playerUUID));
+        }
+        return copy;
+    }
+
+    /**
+     * Obtiene el total de items en la bodega de un jugador (0 si no está cargada)
      */
     public int getTotalItems(UUID playerUUID) {
-        List<StoredItem> warehouse = getPlayerWarehouse(playerUUID);
-        return warehouse.stream().mapToInt(item -> item.count).sum();
+        return (int) Math.min(Integer.MAX_VALUE, playerTotals.getOrDefault(playerUUID, 0L));
+    }
+
+    /**
+     * Cantidad de un item (id de registro) en la bodega cargada de un jugador, sumando todas sus variantes de NBT.
+     */
+    public long getItemTotal(UUID playerUUID, String itemName) {
+        Map<String, Long> totals = playerItemTotals.get(playerUUID);
+        return totals != null ? totals.getOrDefault(itemName, 0L) : 0L;
+    }
+
+    /**
+     * Cantidad de un item en las bodegas de todo el servidor, cargadas o no.
+     */
+    public long getServerItemTotal(String itemName) {
+        return serverItemTotals.getOrDefault(itemName, 0L);
+    }
+
+    /**
+     * Copia de los totales por item de todo el servidor (para estadísticas).
+     */
+    public Map<String, Long> getServerItemTotals() {
+        return new HashMap<>(serverItemTotals);
+    }
+
+    /**
+     * Bodegas cargadas en memoria.
+     */
+    public int getLoadedWarehouses() {
+        return playerWarehouses.size();
+    }
+
+    /**
+     * Suma {@code delta} unidades de una entrada a los totales del jugador y del servidor.
+     */
+    private void count(UUID playerUUID, StoredItem item, long delta) {
+        countPlayer(playerUUID, item.itemName, delta);
+        addServerTotal(item, delta);
+    }
+
+    /**
+     * Suma {@code delta} unidades de un item solo a los totales del jugador (items que ya
+     * estaban contados en el servidor, como los que llegan al cargar la bodega).
+     */
+    private void countPlayer(UUID playerUUID, String itemName, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        addTotal(playerTotals, playerUUID, delta);
+        Map<String, Long> items = playerItemTotals.computeIfAbsent(playerUUID, k -> new HashMap<>());
+        addTotal(items, itemName, delta);
+        if (items.isEmpty()) {
+            playerItemTotals.remove(playerUUID);
+        }
+    }
+
+    private void addServerTotal(String itemName, long delta) {
+        addTotal(serverItemTotals, itemName, delta);
+        if (pendingReload != null) {
+            addTotal(totalsDuringReload, itemName, delta);
+        }
+    }
+
+    /**
+     * Suma {@code delta} unidades de una entrada a los totales del servidor y a las
+     * referencias a su blob de NBT.
+     */
+    private void addServerTotal(StoredItem item, long delta) {
+        addServerTotal(item.itemName, delta);
+        String hash = item.blobHash();
+        if (hash == null || delta == 0) {
+            return;
+        }
+        if (delta > 0) {
+            NbtBlobManager.getInstance().retain(NbtBlobStore.Owner.WAREHOUSE, hash, delta);
+        } else {
+            NbtBlobManager.getInstance().release(NbtBlobStore.Owner.WAREHOUSE, hash, -delta);
+        }
+        if (pendingReload != null) {
+            addTotal(blobRefsDuringReload, hash, delta);
+        }
+    }
+
+    private static <K> void addTotal(Map<K, Long> totals, K key, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        totals.compute(key, (k, total) -> {
+            long value = (total != null ? total : 0L) + delta;
+            return value != 0 ? value : null;
+        });
+    }
+
+    /**
+     * Recalcula los totales por jugador desde el contenido de las bodegas cargadas.
+     */
+    private void rebuildPlayerTotals() {
+        playerTotals.clear();
+        playerItemTotals.clear();
+        for (Map.Entry<UUID, Map<Long, StoredItem>> entry : playerWarehouses.entrySet()) {
+            for (StoredItem item : entry.getValue().values()) {
+                countPlayer(entry.getKey(), item.itemName, item.count);
+            }
+        }
+    }
+
+    /**
+     * Compara los totales acumulados de las bodegas cargadas con su contenido real y los
+     * corrige si no coinciden (lo que indicaría un cambio que no pasó por este manager). La
+     * diferencia se corrige también en los totales del servidor.
+     */
+    private void checkTotals() {
+        int fixed = 0;
+        for (Map.Entry<UUID, Map<Long, StoredItem>> entry : playerWarehouses.entrySet()) {
+            Map<String, Long> expected = new HashMap<>();
+            for (StoredItem item : entry.getValue().values()) {
+                addTotal(expected, item.itemName, item.count);
+            }
+            Map<String, Long> current = playerItemTotals.getOrDefault(entry.getKey(), Collections.emptyMap());
+            if (expected.equals(current)) {
+                continue;
+            }
+            fixed++;
+            Set<String> itemNames = new HashSet<>(expected.keySet());
+            itemNames.addAll(current.keySet());
+            for (String itemName : itemNames) {
+                long delta = expected.getOrDefault(itemName, 0L) - current.getOrDefault(itemName, 0L);
+                countPlayer(entry.getKey(), itemName, delta);
+                addServerTotal(itemName, delta);
+            }
+        }
+        if (fixed > 0) {
+            LoggerUtil.warn("Warehouse totals of " + fixed + " players were out of sync with the warehouse contents, fixed them");
+        }
     }
 }
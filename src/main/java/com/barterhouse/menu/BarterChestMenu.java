@@ -57,6 +57,7 @@ public class BarterChestMenu extends ChestMenu {
             if (slotId == 45) {
                 // Botón Crear Oferta (Esmeralda)
                 LoggerUtil.info("Opening Create Offer menu");
+                com.barterhouse.event.SignEditHandler.clearWarehouseOffer(player.getUUID());
                 player.closeContainer();
                 player.getServer().execute(() -> BarterUIManager.openCreateOfferGUI(player));
                 return; // Cancelar el click para que no tome el item
@@ -132,10 +133,16 @@ public class BarterChestMenu extends ChestMenu {
             }
         } else if (menuType.equals("confirm_offer")) {
             if (slotId == 10) {
-                // Botón Aceptar
+                // Botón Aceptar: paga con el inventario
                 LoggerUtil.info("Player accepted offer");
                 player.closeContainer();
-                player.getServer().execute(() -> acceptOffer((ServerPlayer) player));
+                player.getServer().execute(() -> acceptOffer((ServerPlayer) player, false));
+                return;
+            } else if (slotId == 13) {
+                // Botón Aceptar pagando con la bodega
+                LoggerUtil.info("Player accepted offer paying with warehouse");
+                player.closeContainer();
+                player.getServer().execute(() -> acceptOffer((ServerPlayer) player, true));
                 return;
             } else if (slotId == 16) {
                 // Botón Cancelar
@@ -171,13 +178,35 @@ public class BarterChestMenu extends ChestMenu {
                 player.closeContainer();
                 player.getServer().execute(() -> BarterUIManager.openOffersListGUI(player));
                 return;
+            } else if (slotId == 47) {
+                // Botón Retirar todo
+                LoggerUtil.info("Player withdrawing everything from warehouse");
+                player.closeContainer();
+                player.getServer().execute(() -> withdrawAllFromWarehouse((ServerPlayer) player, false));
+                return;
+            } else if (slotId == 49) {
+                // Botón Retirar lo que quepa en el inventario
+                LoggerUtil.info("Player withdrawing what fits from warehouse");
+                player.closeContainer();
+                player.getServer().execute(() -> withdrawAllFromWarehouse((ServerPlayer) player, true));
+                return;
             } else if (slotId < 36) {
-                // Click en un item de la bodega para sacarlo
+                // Click en un item de la bodega para sacarlo; con shift, todas las entradas de ese item
                 ItemStack clickedItem = this.getSlot(slotId).getItem();
                 if (!clickedItem.isEmpty()) {
-                    LoggerUtil.info("Player withdrawing item from warehouse at slot " + slotId);
+                    boolean allOfItem = clickType == ClickType.QUICK_MOVE;
+                    // El handle se toma antes de cerrar, que olvida los slots del menú
+                    long handle = BarterUIManager.getWarehouseHandle(player.getUUID(), slotId);
+                    if (clickType == ClickType.PICKUP && button == 1) {
+                        // Click derecho: ofrecer el item directamente desde la bodega
+                        LoggerUtil.info("Player listing warehouse item at slot " + slotId);
+                        player.closeContainer();
+                        player.getServer().execute(() -> startWarehouseOffer((ServerPlayer) player, handle));
+                        return;
+                    }
+                    LoggerUtil.info("Player withdrawing " + (allOfItem ? "all of item" : "item") + " from warehouse at slot " + slotId);
                     player.closeContainer();
-                    player.getServer().execute(() -> withdrawFromWarehouse((ServerPlayer) player, slotId));
+                    player.getServer().execute(() -> withdrawFromWarehouse((ServerPlayer) player, handle, allOfItem));
                     return;
                 }
             }
@@ -247,10 +276,12 @@ public class BarterChestMenu extends ChestMenu {
                 
                 LoggerUtil.info("Player confirmed quantity: " + quantity);
                 
-                // Obtener el item ofrecido guardado
+                // Obtener el item ofrecido guardado, o la entrada de la bodega que se ofrece
                 ItemStack offeredItem = com.barterhouse.event.SignEditHandler.getOfferedItem(player.getUUID());
+                Long warehouseHandle = com.barterhouse.event.SignEditHandler.getWarehouseOffer(player.getUUID());
+                boolean fromWarehouse = (offeredItem == null || offeredItem.isEmpty()) && warehouseHandle != null;
                 
-                if (offeredItem == null || offeredItem.isEmpty()) {
+                if (!fromWarehouse && (offeredItem == null || offeredItem.isEmpty())) {
                     player.displayClientMessage(Component.literal(MessageConfig.getInstance().get("errors.offered_item_error")), true);
                     player.closeContainer();
                     playerQuantities.remove(player.getUUID());
@@ -277,7 +308,11 @@ public class BarterChestMenu extends ChestMenu {
                 // Crear la oferta
                 player.closeContainer();
                 ServerPlayer serverPlayer = (ServerPlayer) player;
-                serverPlayer.getServer().execute(() -> createOffer(serverPlayer, offeredItem, requestedItem));
+                if (fromWarehouse) {
+                    serverPlayer.getServer().execute(() -> createOfferFromWarehouse(serverPlayer, warehouseHandle, requestedItem));
+                } else {
+                    serverPlayer.getServer().execute(() -> createOffer(serverPlayer, offeredItem, requestedItem));
+                }
                 com.barterhouse.event.SignEditHandler.clearSelectedSearchItem(player.getUUID());
                 playerQuantities.remove(player.getUUID());
                 return;
@@ -405,6 +440,7 @@ public class BarterChestMenu extends ChestMenu {
             
             // Limpiar el item guardado (memoria)
             com.barterhouse.event.SignEditHandler.clearOfferedItem(player.getUUID());
+            com.barterhouse.event.SignEditHandler.clearWarehouseOffer(player.getUUID());
             
             // Mensaje de confirmación
             player.displayClientMessage(Component.literal("§a¡Oferta creada exitosamente!"), false);
@@ -426,6 +462,73 @@ public class BarterChestMenu extends ChestMenu {
         }
     }
     
+    /**
+     * Empieza a crear una oferta con un item de la bodega: se recuerda la entrada y se abre
+     * la búsqueda del item pedido. El item no sale de la bodega hasta confirmar la oferta.
+     */
+    private void startWarehouseOffer(ServerPlayer player, long handle) {
+        com.barterhouse.manager.WarehouseManager.StoredItem storedItem =
+            com.barterhouse.manager.WarehouseManager.getInstance().getEntry(player.getUUID(), handle);
+        
+        if (storedItem == null || !storedItem.isAvailable()) {
+            player.displayClientMessage(Component.literal(MessageConfig.getInstance().get("errors.warehouse_item_not_found")), true);
+            BarterUIManager.openWarehouseGUI(player);
+            return;
+        }
+        
+        // Si quedó guardado un item del slot central de otra oferta sin terminar, se devuelve
+        ItemStack savedItem = com.barterhouse.event.SignEditHandler.getOfferedItem(player.getUUID());
+        if (savedItem != null && !savedItem.isEmpty() && !player.getInventory().add(savedItem.copy())) {
+            player.drop(savedItem.copy(), false);
+        }
+        com.barterhouse.event.SignEditHandler.clearOfferedItem(player.getUUID());
+        com.barterhouse.event.SignEditHandler.setWarehouseOffer(player.getUUID(), handle);
+        
+        int amount = Math.min(storedItem.count, storedItem.toStack(1).getMaxStackSize());
+        player.sendSystemMessage(Component.literal("§7Ofreces desde tu bodega: §e" + amount + "x "
+            + storedItem.item.getDescription().getString() + "§7. Escribe en el letrero el item que pides."));
+        openSignEditor(player);
+    }
+    
+    /**
+     * Crea la oferta con el stack de la bodega elegido en {@link #startWarehouseOffer}.
+     */
+    private void createOfferFromWarehouse(ServerPlayer player, long handle, ItemStack requestedItem) {
+        try {
+            com.barterhouse.event.SignEditHandler.clearWarehouseOffer(player.getUUID());
+            
+            com.barterhouse.manager.TradeOfferManager offers = com.barterhouse.manager.TradeOfferManager.getInstance();
+            UUID offerId = offers.createOfferFromWarehouse(
+                player.getUUID(),
+                player.getName().getString(),
+                handle,
+                requestedItem.copy()
+            );
+            
+            if (offerId == null) {
+                player.displayClientMessage(Component.literal(MessageConfig.getInstance().get("errors.warehouse_item_not_found")), true);
+                BarterUIManager.openWarehouseGUI(player);
+                return;
+            }
+            
+            ItemStack offeredItem = offers.getOffer(offerId).getOfferedItem();
+            player.displayClientMessage(Component.literal("§a¡Oferta creada exitosamente desde tu bodega!"), false);
+            player.displayClientMessage(Component.literal("§7Ofreces: §e" + getActualCount(offeredItem) + "x " + offeredItem.getDisplayName().getString()), false);
+            player.displayClientMessage(Component.literal("§7Pides: §e" + getActualCount(requestedItem) + "x " + requestedItem.getDisplayName().getString()), false);
+            
+            LoggerUtil.info("Offer created from warehouse for player " + player.getName().getString() + " with ID: " + offerId);
+            
+            sendDiscordNotification(player, offeredItem, requestedItem);
+            
+            BarterUIManager.openOffersListGUI(player);
+            
+        } catch (Exception e) {
+            LoggerUtil.error("Error creating offer from warehouse: " + e.getMessage());
+            e.printStackTrace();
+            player.displayClientMessage(Component.literal("§cError al crear la oferta"), true);
+        }
+    }
+    
     private void openSignEditor(ServerPlayer player) {
         // Crear un letrero temporal en el mundo en la posición del jugador
         BlockPos signPos = player.blockPosition().above(10); // Alto para que no interfiera
@@ -566,6 +669,13 @@ public class BarterChestMenu extends ChestMenu {
         acceptButton.setHoverName(Component.literal(config.get("buttons.accept")));
         container.setItem(10, acceptButton);
         
+        // Botón Aceptar pagando con la bodega (Cofre)
+        ItemStack warehouseButton = new ItemStack(Items.CHEST);
+        warehouseButton.setHoverName(Component.literal("§6§lAceptar pagando con la bodega\\n"
+            + "§7Usa los items de tu bodega iguales a lo pedido\\n"
+            + "§7y completa el resto con tu inventario"));
+        container.setItem(13, warehouseButton);
+        
         // Botón Cancelar (Rojo)
         ItemStack cancelButton = new ItemStack(Items.RED_CONCRETE);
         cancelButton.setHoverName(Component.literal(config.get("buttons.cancel")));
@@ -588,7 +698,13 @@ public class BarterChestMenu extends ChestMenu {
         ));
     }
     
-    private void acceptOffer(ServerPlayer player) {
+    /**
+     * Acepta la oferta seleccionada.
+     *
+     * @param payWithWarehouse true si el jugador eligió pagar con la bodega: se usan las
+     *                         entradas iguales a lo pedido y el resto sale del inventario
+     */
+    private void acceptOffer(ServerPlayer player, boolean payWithWarehouse) {
         try {
             MessageConfig config = MessageConfig.getInstance();
             
@@ -608,26 +724,43 @@ public class BarterChestMenu extends ChestMenu {
                 return;
             }
             
+            // La bodega se carga al conectarse; si todavía no está lista, se acepta cuando termine
+            com.barterhouse.manager.WarehouseManager warehouse = com.barterhouse.manager.WarehouseManager.getInstance();
+            if (!warehouse.isLoaded(player.getUUID())) {
+                player.displayClientMessage(Component.literal("§7Cargando bodega..."), true);
+                warehouse.ensureLoaded(player.getUUID(), () -> {
+                    if (!player.hasDisconnected()) {
+                        acceptOffer(player, payWithWarehouse);
+                    }
+                });
+                return;
+            }
+            
             // Obtener el item que el jugador necesita tener
             ItemStack requiredItem = offer.getRequestedItem().copy();
+            int required = getActualCount(requiredItem);
             
             // Verificar que el jugador tiene el item
-            int itemCount = 0;
+            int inventoryCount = 0;
             for (ItemStack stack : player.getInventory().items) {
                 if (!stack.isEmpty() && stack.sameItem(requiredItem)) {
-                    itemCount += stack.getCount();
+                    inventoryCount += stack.getCount();
                 }
             }
             
             // También verificar en el cursor del jugador
             ItemStack cursorItem = player.containerMenu.getCarried();
             if (!cursorItem.isEmpty() && cursorItem.sameItem(requiredItem)) {
-                itemCount += cursorItem.getCount();
+                inventoryCount += cursorItem.getCount();
             }
             
-            int required = getActualCount(requiredItem);
+            // Con la bodega solo paga lo que el jugador eligió, y solo con items iguales a lo pedido
+            long inWarehouse = warehouse.getAvailableTotal(player.getUUID(), requiredItem);
+            int fromWarehouse = payWithWarehouse ? (int) Math.min(required, inWarehouse) : 0;
+            int fromInventory = required - fromWarehouse;
+            int itemCount = inventoryCount + fromWarehouse;
             
-            if (itemCount < required) {
+            if (inventoryCount < fromInventory) {
                 // Cerrar menú primero
                 player.closeContainer();
                 
@@ -643,6 +776,9 @@ public class BarterChestMenu extends ChestMenu {
                 player.sendSystemMessage(Component.literal(config.get("errors.insufficient_items_required", "required", required)));
                 player.sendSystemMessage(Component.literal(config.get("errors.insufficient_items_have", "have", itemCount)));
                 player.sendSystemMessage(Component.literal(config.get("errors.insufficient_items_missing", "missing", (required - itemCount), "item", itemName)));
+                if (!payWithWarehouse && inWarehouse > 0) {
+                    player.sendSystemMessage(Component.literal("§7Tienes §e" + inWarehouse + "x§7 en tu bodega: usa el botón §6Aceptar pagando con la bodega"));
+                }
                 player.sendSystemMessage(Component.literal(""));
                 player.sendSystemMessage(Component.literal("§c" + separator));
                 player.sendSystemMessage(Component.literal(""));
@@ -661,44 +797,51 @@ public class BarterChestMenu extends ChestMenu {
                 return;
             }
             
-            // Remover el item requerido del inventario
-            ItemStack toRemove = requiredItem.copy();
-            int remaining = getActualCount(requiredItem);
+            // Descontar primero la parte del inventario; si no se puede completar, no se toca nada más
+            java.util.List<ItemStack> takenFromInventory = new java.util.ArrayList<>();
+            int remaining = fromInventory;
             
             for (int i = 0; i < player.getInventory().items.size() && remaining > 0; i++) {
                 ItemStack stack = player.getInventory().items.get(i);
-                if (!stack.isEmpty() && stack.sameItem(toRemove)) {
+                if (!stack.isEmpty() && stack.sameItem(requiredItem)) {
                     int taken = Math.min(stack.getCount(), remaining);
+                    ItemStack removed = stack.copy();
+                    removed.setCount(taken);
+                    takenFromInventory.add(removed);
                     stack.shrink(taken);
                     remaining -= taken;
                 }
             }
             
             // Si aún queda, remover del cursor
-            if (remaining > 0 && !cursorItem.isEmpty() && cursorItem.sameItem(toRemove)) {
+            if (remaining > 0 && !cursorItem.isEmpty() && cursorItem.sameItem(requiredItem)) {
                 int taken = Math.min(cursorItem.getCount(), remaining);
+                ItemStack removed = cursorItem.copy();
+                removed.setCount(taken);
+                takenFromInventory.add(removed);
                 cursorItem.shrink(taken);
                 remaining -= taken;
             }
             
-            // Agregar el item ofrecido a la BODEGA del comprador (NO al inventario)
-            ItemStack offeredItem = offer.getOfferedItem().copy();
-            com.barterhouse.manager.WarehouseManager.getInstance().addItem(
-                player.getUUID(), 
-                offeredItem, 
-                offer.getCreatorName()
-            );
-            
-            // Agregar el item solicitado (que el comprador dio) a la BODEGA del vendedor
-            ItemStack requestedItem = offer.getRequestedItem().copy();
-            com.barterhouse.manager.WarehouseManager.getInstance().addItem(
-                offer.getCreatorUUID(),
-                requestedItem,
-                player.getName().getString()
-            );
+            // Pago con la bodega, item recibido, bodega del creador y oferta: todo de una vez,
+            // y solo si el inventario pagó su parte completa y la oferta sigue activa
+            if (remaining > 0 || !com.barterhouse.manager.TradeOfferManager.getInstance().acceptOffer(
+                    offer, player.getUUID(), player.getName().getString(), fromWarehouse)) {
+                for (ItemStack removed : takenFromInventory) {
+                    player.getInventory().placeItemBackInInventory(removed);
+                }
+                player.displayClientMessage(Component.literal(config.get(remaining > 0 ? "errors.accept_error" : "errors.offer_not_found")), true);
+                com.barterhouse.event.SignEditHandler.clearSelectedOffer(player.getUUID());
+                BarterUIManager.openOffersListGUI(player);
+                return;
+            }
             
-            // Registrar la transacción (marcar la oferta como aceptada o eliminarla)
-            com.barterhouse.manager.TradeOfferManager.getInstance().removeOffer(offer.getOfferId());
+            // El item ofrecido ya quedó en la BODEGA del comprador (NO en el inventario)
+            ItemStack offeredItem = offer.getOfferedItem().copy();
+            if (fromWarehouse > 0) {
+                player.sendSystemMessage(Component.literal("§7Pagaste §e" + fromWarehouse + "x " + requiredItem.getItem().getDescription().getString()
+                    + "§7 con tu bodega"));
+            }
             
             // Limpiar la oferta guardada
             com.barterhouse.event.SignEditHandler.clearSelectedOffer(player.getUUID());
@@ -845,52 +988,44 @@ public class BarterChestMenu extends ChestMenu {
     
     /**
      * Retira un item de la bodega y lo da al jugador
+     *
+     * @param handle Handle de la entrada clickeada
+     * @param allOfItem true para retirar todas las entradas de ese item, no solo la del slot
      */
-    private void withdrawFromWarehouse(ServerPlayer player, int slotId) {
+    private void withdrawFromWarehouse(ServerPlayer player, long handle, boolean allOfItem) {
         try {
             MessageConfig config = MessageConfig.getInstance();
             
-            // Obtener items de la bodega
-            java.util.List<com.barterhouse.manager.WarehouseManager.StoredItem> warehouseItems = 
-                com.barterhouse.manager.WarehouseManager.getInstance().getPlayerWarehouse(player.getUUID());
+            // Buscar la entrada que se mostró en el slot por su handle: si llegó o se retiró otra
+            // entrada mientras el menú estaba abierto, el click sigue apuntando a la misma
+            com.barterhouse.manager.WarehouseManager.StoredItem storedItem =
+                com.barterhouse.manager.WarehouseManager.getInstance().getEntry(player.getUUID(), handle);
             
-            if (slotId >= warehouseItems.size()) {
+            if (storedItem == null) {
                 player.displayClientMessage(Component.literal(config.get("errors.warehouse_item_not_found")), true);
                 BarterUIManager.openWarehouseGUI(player);
                 return;
             }
             
-            // Obtener el item
-            com.barterhouse.manager.WarehouseManager.StoredItem storedItem = warehouseItems.get(slotId);
-            
-            // Crear el ItemStack
-            net.minecraft.world.item.Item item = net.minecraftforge.registries.ForgeRegistries.ITEMS
-                .getValue(new net.minecraft.resources.ResourceLocation(storedItem.itemName));
-            
-            if (item == null) {
+            // El item y su NBT ya vienen resueltos en la entrada
+            if (!storedItem.isAvailable()) {
                 player.displayClientMessage(Component.literal(config.get("errors.warehouse_item_error")), true);
                 BarterUIManager.openWarehouseGUI(player);
                 return;
             }
+            net.minecraft.world.item.Item item = storedItem.item;
             
-            ItemStack itemStack = new ItemStack(item, storedItem.count);
-            
-            // Dar el item al jugador
-            boolean added = player.addItem(itemStack);
-            
-            if (!added) {
-                // Si el inventario está lleno, dropear el item
-                player.drop(itemStack, false);
-                player.sendSystemMessage(Component.literal(config.get("success.inventory_full")));
-            }
-            
-            // Remover el item de la bodega
-            com.barterhouse.manager.WarehouseManager.getInstance().removeItem(player.getUUID(), slotId);
+            // Sacar de la bodega (dividido en stacks válidos) y dar los items al jugador
+            com.barterhouse.manager.WarehouseManager warehouse = com.barterhouse.manager.WarehouseManager.getInstance();
+            com.barterhouse.manager.WarehouseManager.Withdrawal withdrawal = allOfItem
+                    ? warehouse.withdrawItem(player.getUUID(), storedItem.itemName)
+                    : warehouse.withdrawEntry(player.getUUID(), handle);
+            giveWithdrawal(player, withdrawal);
             
             // Mensaje de confirmación
-            player.sendSystemMessage(Component.literal(config.get("success.warehouse_withdrawn", "count", storedItem.count, "item", item.getDescription().getString())));
+            player.sendSystemMessage(Component.literal(config.get("success.warehouse_withdrawn", "count", withdrawal.items, "item", item.getDescription().getString())));
             
-            LoggerUtil.info("Player " + player.getName().getString() + " withdrew " + storedItem.count + "x " + storedItem.itemName + " from warehouse");
+            LoggerUtil.info("Player " + player.getName().getString() + " withdrew " + withdrawal.items + "x " + storedItem.itemName + " from warehouse");
             
             // Volver a la bodega
             BarterUIManager.openWarehouseGUI(player);
@@ -903,6 +1038,51 @@ public class BarterChestMenu extends ChestMenu {
         }
     }
     
+    /**
+     * Retira toda la bodega, o solo lo que entra en el inventario, como un solo cambio.
+     */
+    private void withdrawAllFromWarehouse(ServerPlayer player, boolean onlyWhatFits) {
+        try {
+            com.barterhouse.manager.WarehouseManager warehouse = com.barterhouse.manager.WarehouseManager.getInstance();
+            com.barterhouse.manager.WarehouseManager.Withdrawal withdrawal = onlyWhatFits
+                    ? warehouse.withdrawFitting(player.getUUID(), player.getInventory().items)
+                    : warehouse.withdrawAll(player.getUUID());
+            
+            if (withdrawal.isEmpty()) {
+                player.displayClientMessage(Component.literal(onlyWhatFits
+                        ? "§cNo hay espacio en tu inventario" : "§7No hay items para retirar"), true);
+            } else {
+                giveWithdrawal(player, withdrawal);
+                player.sendSystemMessage(Component.literal("§aRetiraste §e" + withdrawal.items + " items §a("
+                        + withdrawal.entries + " tipos)"));
+                LoggerUtil.info("Player " + player.getName().getString() + " withdrew " + withdrawal.items + " items in bulk from warehouse");
+            }
+            
+            BarterUIManager.openWarehouseGUI(player);
+        } catch (Exception e) {
+            LoggerUtil.error("Error withdrawing from warehouse: " + e.getMessage());
+            e.printStackTrace();
+            MessageConfig configErr = MessageConfig.getInstance();
+            player.displayClientMessage(Component.literal(configErr.get("errors.warehouse_error")), true);
+        }
+    }
+    
+    /**
+     * Entrega los stacks de un retiro; lo que no entra en el inventario se dropea.
+     */
+    private void giveWithdrawal(ServerPlayer player, com.barterhouse.manager.WarehouseManager.Withdrawal withdrawal) {
+        boolean dropped = false;
+        for (ItemStack stack : withdrawal.stacks) {
+            if (!player.getInventory().add(stack)) {
+                player.drop(stack, false);
+                dropped = true;
+            }
+        }
+        if (dropped) {
+            player.sendSystemMessage(Component.literal(MessageConfig.getInstance().get("success.inventory_full")));
+        }
+    }
+    
     /**
      * Envía notificación de Discord cuando se crea una oferta
      */
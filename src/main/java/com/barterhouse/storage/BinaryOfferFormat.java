@@ -0,0 +1,355 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Formato binario compacto y versionado para el archivo de ofertas ("offers.dat").
+ *
+ * Estructura (versión 2):
+ * <pre>
+ * int     magic ("BHOF")
+ * byte    versión
+ * registros en {@link RecordFrame} (longitud + CRC32C), el primer byte indica el tipo:
+ *   'P' paleta: varint tamaño + ids de item (UTF), varint cantidad de ofertas
+ *   'O' oferta:
+ *     long x2  offerId, long x2 creatorUUID, long createdTime, UTF creatorName,
+ *     varint índice de paleta, varint cantidad, varint longitud NBT + bytes (ofrecido),
+ *     varint índice de paleta, varint cantidad, varint longitud NBT + bytes (solicitado)
+ *   'P' copia de la paleta al final, por si la primera está dañada
+ * </pre>
+ * Un registro dañado se salta (y se copia a la cuarentena) sin perder el resto. La versión 1,
+ * sin checksums (varint longitud + cuerpo), se sigue leyendo.
+ */
+public class BinaryOfferFormat {
+
+    public static final int MAGIC = 0x42484F46; // "BHOF"
+    public static final int VERSION = 2;
+
+    private static final byte TYPE_PALETTE = 'P';
+    private static final byte TYPE_OFFER = 'O';
+
+    /**
+     * Escribe todas las ofertas en el stream.
+     *
+     * @param output Stream de destino (no se cierra)
+     * @param records Ofertas a escribir
+     */
+    public static void write(OutputStream output, Collection<OfferRecord> records) throws IOException {
+        // Construir la paleta de ids de item de este archivo
+        Set<String> itemIds = new LinkedHashSet<>();
+        for (OfferRecord record : records) {
+            itemIds.add(record.offeredItem);
+            itemIds.add(record.requestedItem);
+        }
+
+        Writer writer = new Writer(output, itemIds, records.size());
+        for (OfferRecord record : records) {
+            writer.write(record);
+        }
+        writer.finish();
+    }
+
+    /**
+     * Escritura oferta por oferta, para archivos que no entran en memoria. La paleta y la
+     * cantidad de ofertas se indican de antemano (por ejemplo, con una primera pasada de lectura).
+     */
+    public static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> palette = new HashMap<>();
+        private final byte[] paletteRecord;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+        private final DataOutputStream bodyOut = new DataOutputStream(body);
+
+        /**
+         * Escribe la cabecera y la paleta.
+         *
+         * @param output Stream de destino (no se cierra)
+         * @param itemIds Ids de item de todas las ofertas que se van a escribir
+         * @param count Cantidad de ofertas que se van a escribir
+         */
+        public Writer(OutputStream output, Collection<String> itemIds, int count) throws IOException {
+            out = new DataOutputStream(output);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+
+            ByteArrayOutputStream paletteBytes = new ByteArrayOutputStream();
+            DataOutputStream paletteOut = new DataOutputStream(paletteBytes);
+            paletteOut.writeByte(TYPE_PALETTE);
+            writeVarInt(paletteOut, itemIds.size());
+            for (String itemId : itemIds) {
+                palette.put(itemId, palette.size());
+                paletteOut.writeUTF(itemId);
+            }
+            writeVarInt(paletteOut, count);
+            paletteRecord = paletteBytes.toByteArray();
+            RecordFrame.write(out, paletteRecord);
+        }
+
+        public void write(OfferRecord record) throws IOException {
+            if (!palette.containsKey(record.offeredItem) || !palette.containsKey(record.requestedItem)) {
+                throw new IOException("Item of offer " + record.offerId + " is missing from the palette");
+            }
+            body.reset();
+            bodyOut.writeByte(TYPE_OFFER);
+            writeRecord(bodyOut, record, palette);
+            bodyOut.flush();
+            RecordFrame.write(out, body.toByteArray(), body.size());
+        }
+
+        /**
+         * Escribe la copia final de la paleta. El stream no se cierra.
+         */
+        public void finish() throws IOException {
+            RecordFrame.write(out, paletteRecord);
+            out.flush();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, OfferRecord record, Map<String, Integer> palette) throws IOException {
+        out.writeLong(record.offerId.getMostSignificantBits());
+        out.writeLong(record.offerId.getLeastSignificantBits());
+        out.writeLong(record.creatorUUID.getMostSignificantBits());
+        out.writeLong(record.creatorUUID.getLeastSignificantBits());
+        out.writeLong(record.createdTime);
+        out.writeUTF(record.creatorName != null ? record.creatorName : "");
+        writeItemId(out, record.offeredItem, palette);
+        writeVarInt(out, record.offeredCount);
+        writeBytes(out, record.offeredTag);
+        writeItemId(out, record.requestedItem, palette);
+        writeVarInt(out, record.requestedCount);
+        writeBytes(out, record.requestedTag);
+    }
+
+    /**
+     * Serializa un único registro con los ids de item escritos en línea (sin paleta),
+     * para almacenes que guardan cada oferta por separado.
+     */
+    public static byte[] encode(OfferRecord record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeRecord(out, record, null);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Lee un registro escrito con {@link #encode}.
+     */
+    public static OfferRecord decode(byte[] bytes) throws IOException {
+        return readRecord(new DataInputStream(new ByteArrayInputStream(bytes)), null);
+    }
+
+    private static void writeItemId(DataOutputStream out, String itemId, Map<String, Integer> palette) throws IOException {
+        if (palette == null) {
+            out.writeUTF(itemId);
+        } else {
+            writeVarInt(out, palette.get(itemId));
+        }
+    }
+
+    private static String readItemId(DataInputStream in, String[] palette) throws IOException {
+        return palette == null ? in.readUTF() : palette[readVarInt(in)];
+    }
+
+    /**
+     * Lee el archivo de ofertas registro por registro.
+     *
+     * @param input Stream de origen (no se cierra)
+     * @param sink Receptor de cada oferta leída
+     * @return Cantidad de registros leídos correctamente
+     */
+    public static int read(InputStream input, Consumer<OfferRecord> sink) throws IOException {
+        return read(input, sink, null);
+    }
+
+    /**
+     * Lee el archivo de ofertas registro por registro, verificando el checksum de cada uno.
+     *
+     * @param source Archivo de origen, para copiar los registros dañados a la cuarentena (puede ser null)
+     */
+    public static int read(InputStream input, Consumer<OfferRecord> sink, Path source) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a BarterHouse offers file");
+        }
+        int version = in.readUnsignedByte();
+        if (version > VERSION) {
+            throw new IOException("Unsupported offers file version " + version);
+        }
+        if (version == 1) {
+            return readVersion1(in, sink);
+        }
+
+        RecordFrame.Reader reader = new RecordFrame.Reader(in, source);
+        String[] palette = null;
+        int expected = -1;
+        List<byte[]> waiting = new ArrayList<>(); // Ofertas leídas antes de una paleta válida
+        int loaded = 0;
+        int index = 0;
+        byte[] payload;
+        while ((payload = reader.next()) != null) {
+            if (payload.length == 0) {
+                continue;
+            }
+            if (payload[0] == TYPE_PALETTE) {
+                if (palette == null) {
+                    DataInputStream paletteIn = new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1));
+                    palette = new String[readVarInt(paletteIn)];
+                    for (int i = 0; i < palette.length; i++) {
+                        palette[i] = paletteIn.readUTF();
+                    }
+                    expected = readVarInt(paletteIn);
+                    for (byte[] body : waiting) {
+                        loaded += readOffer(body, palette, index++, sink);
+                    }
+                    waiting.clear();
+                }
+            } else if (payload[0] == TYPE_OFFER) {
+                if (palette == null) {
+                    waiting.add(payload);
+                } else {
+                    loaded += readOffer(payload, palette, index++, sink);
+                }
+            }
+        }
+
+        if (!waiting.isEmpty()) {
+            LoggerUtil.error("Lost " + waiting.size() + " offer records: the item palette of the file is damaged");
+        }
+        if (reader.getDamagedRegions() > 0 || (expected >= 0 && index < expected)) {
+            LoggerUtil.warn("Recovered " + loaded + " of " + (expected >= 0 ? expected : "?") + " offer records; skipped "
+                    + reader.getDamagedRegions() + " damaged regions (" + reader.getDamagedBytes() + " bytes)");
+        }
+        return loaded;
+    }
+
+    private static int readOffer(byte[] payload, String[] palette, int index, Consumer<OfferRecord> sink) {
+        OfferRecord record;
+        try {
+            record = readRecord(new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1)), palette);
+        } catch (Exception e) {
+            LoggerUtil.error("Skipping unreadable offer record #" + index + ": " + e.getMessage());
+            return 0;
+        }
+        // Los errores del receptor no son registros ilegibles: se propagan
+        sink.accept(record);
+        return 1;
+    }
+
+    /**
+     * Verifica los checksums de un archivo de ofertas sin decodificar las ofertas.
+     *
+     * @return Cantidad de registros intactos (incluidas las paletas)
+     */
+    public static int verify(InputStream input, Path source) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a BarterHouse offers file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Offers file version " + version + " has no checksums");
+        }
+        RecordFrame.Reader reader = new RecordFrame.Reader(in, source);
+        int intact = 0;
+        while (reader.next() != null) {
+            intact++;
+        }
+        return intact;
+    }
+
+    /**
+     * Lee el formato anterior, sin checksums.
+     */
+    private static int readVersion1(DataInputStream in, Consumer<OfferRecord> sink) throws IOException {
+        int paletteSize = readVarInt(in);
+        String[] palette = new String[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = in.readUTF();
+        }
+
+        int count = readVarInt(in);
+        int loaded = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] body = new byte[readVarInt(in)];
+            in.readFully(body);
+            OfferRecord record;
+            try {
+                record = readRecord(new DataInputStream(new ByteArrayInputStream(body)), palette);
+            } catch (Exception e) {
+                LoggerUtil.error("Skipping unreadable offer record #" + i + ": " + e.getMessage());
+                continue;
+            }
+            sink.accept(record);
+            loaded++;
+        }
+        return loaded;
+    }
+
+    private static OfferRecord readRecord(DataInputStream in, String[] palette) throws IOException {
+        UUID offerId = new UUID(in.readLong(), in.readLong());
+        UUID creatorUUID = new UUID(in.readLong(), in.readLong());
+        long createdTime = in.readLong();
+        String creatorName = in.readUTF();
+        String offeredItem = readItemId(in, palette);
+        int offeredCount = readVarInt(in);
+        byte[] offeredTag = readBytes(in);
+        String requestedItem = readItemId(in, palette);
+        int requestedCount = readVarInt(in);
+        byte[] requestedTag = readBytes(in);
+        return new OfferRecord(offerId, creatorUUID, creatorName,
+                offeredItem, offeredCount, offeredTag,
+                requestedItem, requestedCount, requestedTag,
+                createdTime);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Escribe un entero no negativo en formato varint (7 bits por byte).
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Lee un entero escrito con {@link #writeVarInt}.
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,75 @@
+package com.barterhouse.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Filtro de Bloom de tamaño fijo sobre cadenas. Indica con seguridad que un valor no
+ * está en el conjunto; un resultado positivo puede ser un falso positivo.
+ */
+public class BloomFilter {
+
+    private static final int HASHES = 4;
+
+    private final long[] bits;
+
+    /**
+     * @param words Tamaño en longs (64 bits cada uno)
+     */
+    public BloomFilter(int words) {
+        this.bits = new long[words];
+    }
+
+    public void add(String value) {
+        int h1 = value.hashCode();
+        int h2 = mix(h1);
+        int size = bits.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, size);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String value) {
+        int h1 = value.hashCode();
+        int h2 = mix(h1);
+        int size = bits.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, size);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    public static BloomFilter read(DataInput in) throws IOException {
+        int words = in.readInt();
+        if (words <= 0 || words > 1 << 16) {
+            throw new IOException("Invalid bloom filter size " + words);
+        }
+        BloomFilter filter = new BloomFilter(words);
+        for (int i = 0; i < words; i++) {
+            filter.bits[i] = in.readLong();
+        }
+        return filter;
+    }
+
+    private static int mix(int h) {
+        // Finalizador de MurmurHash3; el resultado se fuerza impar para recorrer todos los bits
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
@@ -0,0 +1,146 @@
+package com.barterhouse.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Decodifica registros en paralelo durante la carga. El hilo que lee el archivo agrega
+ * registros con {@link #add}; cada bloque de {@code chunkSize} registros se decodifica en
+ * un pool de hilos y {@link #finish} junta los resultados en el orden original.
+ *
+ * Con {@code parallel = false} cada registro se decodifica en el momento, en el mismo hilo.
+ *
+ * @param <T> Registro leído del archivo
+ * @param <R> Resultado decodificado
+ */
+public class ChunkedLoader<T, R> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 2048;
+
+    /**
+     * Conversión de un registro. Puede ejecutarse en cualquier hilo del pool.
+     */
+    public interface Decoder<T, R> {
+        /**
+         * @return El resultado, o null para descartar el registro
+         */
+        R decode(T input) throws Exception;
+    }
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final int chunkSize;
+    private final Decoder<T, R> decoder;
+    private final BiConsumer<T, Exception> onError;
+    private final ExecutorService executor;
+    private final List<Future<List<R>>> chunks = new ArrayList<>();
+    private final List<R> inlineResults = new ArrayList<>();
+    private List<T> currentChunk;
+
+    /**
+     * @param parallel false para decodificar todo en el hilo que llama
+     * @param decoder Conversión de cada registro
+     * @param onError Recibe los registros que no se pudieron decodificar
+     */
+    public ChunkedLoader(boolean parallel, Decoder<T, R> decoder, BiConsumer<T, Exception> onError) {
+        this(DEFAULT_CHUNK_SIZE, parallel, decoder, onError);
+    }
+
+    public ChunkedLoader(int chunkSize, boolean parallel, Decoder<T, R> decoder, BiConsumer<T, Exception> onError) {
+        this.chunkSize = chunkSize;
+        this.decoder = decoder;
+        this.onError = onError;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        if (parallel && threads > 1) {
+            int pool = POOL_COUNTER.incrementAndGet();
+            AtomicInteger threadCounter = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "BarterHouse-Loader-" + pool + "-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.executor = null;
+        }
+        this.currentChunk = new ArrayList<>(chunkSize);
+    }
+
+    public boolean isParallel() {
+        return executor != null;
+    }
+
+    /**
+     * Agrega un registro leído. Se llama siempre desde el mismo hilo.
+     */
+    public void add(T input) {
+        if (executor == null) {
+            R result = decodeOne(input);
+            if (result != null) {
+                inlineResults.add(result);
+            }
+            return;
+        }
+        currentChunk.add(input);
+        if (currentChunk.size() >= chunkSize) {
+            submitChunk();
+        }
+    }
+
+    private void submitChunk() {
+        List<T> chunk = currentChunk;
+        currentChunk = new ArrayList<>(chunkSize);
+        chunks.add(executor.submit(() -> {
+            List<R> results = new ArrayList<>(chunk.size());
+            for (T input : chunk) {
+                R result = decodeOne(input);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+            return results;
+        }));
+    }
+
+    private R decodeOne(T input) {
+        try {
+            return decoder.decode(input);
+        } catch (Exception e) {
+            onError.accept(input, e);
+            return null;
+        }
+    }
+
+    /**
+     * Espera a que terminen todos los bloques y libera el pool.
+     *
+     * @return Los resultados en el orden en que se agregaron los registros
+     */
+    public List<R> finish() {
+        if (executor == null) {
+            return inlineResults;
+        }
+        if (!currentChunk.isEmpty()) {
+            submitChunk();
+        }
+        List<R> results = new ArrayList<>();
+        try {
+            for (Future<List<R>> chunk : chunks) {
+                results.addAll(chunk.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // decodeOne ya atrapa los errores de cada registro; esto solo ocurre con errores graves
+            throw new IllegalStateException("Record decoding failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+}
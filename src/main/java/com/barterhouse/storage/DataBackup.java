@@ -0,0 +1,395 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Copias de seguridad incrementales en "backups/".
+ *
+ * Cada cierto tiempo se escribe una copia base con todas las ofertas y bodegas
+ * ("base-000007.bhb"), y entre bases, deltas con solo lo que cambió desde la copia anterior
+ * ("delta-000007-0003.bhb"). Para volver a un momento dado se aplica la última base anterior
+ * a ese momento y después, en orden, sus deltas hasta ese momento (ver {@link #restore}).
+ *
+ * Cada archivo es [int "BHBK"][byte versión][byte tipo][long fecha][int base][int delta]
+ * seguido de registros de {@link RecordFrame}, todo comprimido con {@link DataCompression}:
+ * 'O' oferta (como en BinaryOfferFormat), 'R' oferta eliminada (UUID) y 'W' bodega completa
+ * de un jugador (UUID y JSON de los items; una lista vacía es una bodega vaciada).
+ * Se escribe en un temporal que se renombra al terminar, así que una copia cortada no se ve.
+ */
+public class DataBackup {
+
+    public static final String DIRECTORY = "backups";
+    public static final int MAGIC = 0x4248424B; // "BHBK"
+    public static final int VERSION = 1;
+
+    private static final String SUFFIX = ".bhb";
+    private static final String BASE_PREFIX = "base-";
+    private static final String DELTA_PREFIX = "delta-";
+    private static final byte TYPE_BASE = 'B';
+    private static final byte TYPE_DELTA = 'D';
+    private static final byte RECORD_OFFER = 'O';
+    private static final byte RECORD_REMOVED = 'R';
+    private static final byte RECORD_WAREHOUSE = 'W';
+
+    /**
+     * Cabecera de un archivo de copia.
+     */
+    public static class Entry {
+        public final Path file;
+        public final boolean base;
+        public final long time;
+        public final int baseSequence;
+        public final int deltaSequence;
+
+        Entry(Path file, boolean base, long time, int baseSequence, int deltaSequence) {
+            this.file = file;
+            this.base = base;
+            this.time = time;
+            this.baseSequence = baseSequence;
+            this.deltaSequence = deltaSequence;
+        }
+    }
+
+    /**
+     * Estado reconstruido por {@link #restore}.
+     */
+    public static class State {
+        public final Map<UUID, OfferRecord> offers = new LinkedHashMap<>();
+        // JSON de los items de cada jugador (sin las bodegas vacías)
+        public final Map<UUID, String> warehouses = new LinkedHashMap<>();
+        public final List<Entry> applied = new ArrayList<>();
+        public int damagedRegions;
+    }
+
+    private final Path directory;
+    private final DataCompression compression;
+    private final long bytesPerSecond;
+    private int baseSequence;
+    private int deltaSequence;
+
+    /**
+     * @param dataDirectory Directorio de datos de BarterHouse
+     * @param compression Compresión de los archivos nuevos
+     * @param bytesPerSecond Límite de escritura a disco, 0 para no limitar
+     */
+    public DataBackup(Path dataDirectory, DataCompression compression, long bytesPerSecond) {
+        this.directory = dataDirectory.resolve(DIRECTORY);
+        this.compression = compression;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Empieza una copia base. Los deltas siguientes dependen de ella.
+     */
+    public Writer startBase(long time) throws IOException {
+        if (baseSequence == 0) {
+            baseSequence = lastBaseSequence(directory);
+        }
+        baseSequence++;
+        deltaSequence = 0;
+        return new Writer(directory.resolve(String.format("%s%06d%s", BASE_PREFIX, baseSequence, SUFFIX)),
+                TYPE_BASE, time, baseSequence, 0);
+    }
+
+    /**
+     * Empieza un delta sobre la última copia escrita por esta instancia.
+     *
+     * @throws IllegalStateException Si todavía no se escribió una base
+     */
+    public Writer startDelta(long time) throws IOException {
+        if (baseSequence == 0) {
+            throw new IllegalStateException("A delta backup needs a base written first");
+        }
+        deltaSequence++;
+        return new Writer(directory.resolve(String.format("%s%06d-%04d%s", DELTA_PREFIX, baseSequence, deltaSequence, SUFFIX)),
+                TYPE_DELTA, time, baseSequence, deltaSequence);
+    }
+
+    /**
+     * Borra las bases más antiguas, con sus deltas, dejando las {@code keepBases} más recientes.
+     */
+    public void prune(int keepBases) throws IOException {
+        List<Entry> entries = list(directory);
+        List<Integer> bases = entries.stream().filter(entry -> entry.base)
+                .map(entry -> entry.baseSequence).distinct().sorted().collect(Collectors.toList());
+        if (bases.size() <= keepBases) {
+            return;
+        }
+        int oldestKept = bases.get(bases.size() - Math.max(1, keepBases));
+        for (Entry entry : entries) {
+            if (entry.baseSequence < oldestKept) {
+                Files.deleteIfExists(entry.file);
+            }
+        }
+    }
+
+    /**
+     * Escritor de un archivo de copia. Hay que terminarlo con {@link #commit()} o {@link #abort()}.
+     */
+    public class Writer implements Closeable {
+        private final Path target;
+        private final Path temp;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        private final DataOutputStream recordOut = new DataOutputStream(record);
+        private boolean finished;
+        private int offers;
+        private int removed;
+        private int warehouses;
+
+        Writer(Path target, byte type, long time, int baseSequence, int deltaSequence) throws IOException {
+            Files.createDirectories(directory);
+            this.target = target;
+            this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+            OutputStream file = new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024);
+            if (bytesPerSecond > 0) {
+                file = new ThrottledOutputStream(file, bytesPerSecond);
+            }
+            this.out = new DataOutputStream(new BufferedOutputStream(compression.compress(file), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(type);
+            out.writeLong(time);
+            out.writeInt(baseSequence);
+            out.writeInt(deltaSequence);
+        }
+
+        public void offer(OfferRecord offer) throws IOException {
+            record.reset();
+            recordOut.writeByte(RECORD_OFFER);
+            recordOut.write(BinaryOfferFormat.encode(offer));
+            writeRecord();
+            offers++;
+        }
+
+        public void offerRemoved(UUID offerId) throws IOException {
+            record.reset();
+            recordOut.writeByte(RECORD_REMOVED);
+            recordOut.writeLong(offerId.getMostSignificantBits());
+            recordOut.writeLong(offerId.getLeastSignificantBits());
+            writeRecord();
+            removed++;
+        }
+
+        /**
+         * @param itemsJson Arreglo JSON con los items de la bodega del jugador
+         */
+        public void warehouse(UUID playerUUID, String itemsJson) throws IOException {
+            record.reset();
+            recordOut.writeByte(RECORD_WAREHOUSE);
+            recordOut.writeLong(playerUUID.getMostSignificantBits());
+            recordOut.writeLong(playerUUID.getLeastSignificantBits());
+            recordOut.write(itemsJson.getBytes(StandardCharsets.UTF_8));
+            writeRecord();
+            warehouses++;
+        }
+
+        private void writeRecord() throws IOException {
+            RecordFrame.write(out, record.toByteArray());
+        }
+
+        /**
+         * Cierra el archivo y lo deja visible con su nombre definitivo.
+         */
+        public Path commit() throws IOException {
+            finished = true;
+            out.close();
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LoggerUtil.info("Backup " + target.getFileName() + " written: " + offers + " offers, " + removed
+                    + " removed offers, " + warehouses + " warehouses (" + Files.size(target) + " bytes)");
+            return target;
+        }
+
+        /**
+         * Descarta una copia a medio escribir.
+         */
+        public void abort() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to delete " + temp.getFileName() + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            abort();
+        }
+    }
+
+    /**
+     * Stream que limita la velocidad de escritura para que una copia grande no compita con
+     * el servidor por el disco.
+     */
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private static final int CHUNK = 16 * 1024;
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long written;
+
+        ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            account(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, CHUNK);
+                out.write(b, off, chunk);
+                account(chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        private void account(int bytes) throws IOException {
+            written += bytes;
+            long aheadNanos = written * 1_000_000_000L / bytesPerSecond - (System.nanoTime() - start);
+            if (aheadNanos > 1_000_000L) {
+                try {
+                    Thread.sleep(aheadNanos / 1_000_000L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Backup interrupted");
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- lectura
+
+    /**
+     * Lista las copias de un directorio ordenadas por base y delta. Los archivos que no se
+     * pueden leer se saltan con un aviso.
+     */
+    public static List<Entry> list(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().collect(Collectors.toList())) {
+                try (DataInputStream in = new DataInputStream(DataCompression.decompress(Files.newInputStream(file)))) {
+                    entries.add(readHeader(file, in));
+                } catch (IOException e) {
+                    LoggerUtil.warn("Skipping unreadable backup " + file.getFileName() + ": " + e.getMessage());
+                }
+            }
+        }
+        entries.sort(Comparator.comparingInt((Entry entry) -> entry.baseSequence).thenComparingInt(entry -> entry.deltaSequence));
+        return entries;
+    }
+
+    private static int lastBaseSequence(Path directory) throws IOException {
+        int last = 0;
+        for (Entry entry : list(directory)) {
+            last = Math.max(last, entry.baseSequence);
+        }
+        return last;
+    }
+
+    private static Entry readHeader(Path file, DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a BarterHouse backup");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported backup version " + version);
+        }
+        int type = in.readUnsignedByte();
+        if (type != TYPE_BASE && type != TYPE_DELTA) {
+            throw new IOException("unknown backup type " + type);
+        }
+        return new Entry(file, type == TYPE_BASE, in.readLong(), in.readInt(), in.readInt());
+    }
+
+    /**
+     * Reconstruye ofertas y bodegas tal como estaban en un momento dado: la última base
+     * escrita hasta {@code pointInTime} más sus deltas hasta ese momento.
+     *
+     * @param directory Directorio "backups/"
+     * @param pointInTime Fecha en milisegundos; Long.MAX_VALUE para la copia más reciente
+     * @return El estado, o null si no hay ninguna base anterior a esa fecha
+     */
+    public static State restore(Path directory, long pointInTime) throws IOException {
+        List<Entry> entries = list(directory);
+        Entry base = null;
+        for (Entry entry : entries) {
+            if (entry.base && entry.time <= pointInTime && (base == null || entry.baseSequence > base.baseSequence)) {
+                base = entry;
+            }
+        }
+        if (base == null) {
+            return null;
+        }
+
+        State state = new State();
+        for (Entry entry : entries) {
+            if (entry.baseSequence == base.baseSequence && entry.time <= pointInTime) {
+                apply(entry, state);
+                state.applied.add(entry);
+            }
+        }
+        return state;
+    }
+
+    private static void apply(Entry entry, State state) throws IOException {
+        try (DataInputStream in = new DataInputStream(DataCompression.decompress(Files.newInputStream(entry.file)))) {
+            readHeader(entry.file, in);
+            RecordFrame.Reader reader = new RecordFrame.Reader(in, null);
+            byte[] payload;
+            while ((payload = reader.next()) != null) {
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                int type = record.readUnsignedByte();
+                if (type == RECORD_OFFER) {
+                    OfferRecord offer = BinaryOfferFormat.decode(Arrays.copyOfRange(payload, 1, payload.length));
+                    state.offers.put(offer.offerId, offer);
+                } else if (type == RECORD_REMOVED) {
+                    state.offers.remove(new UUID(record.readLong(), record.readLong()));
+                } else if (type == RECORD_WAREHOUSE) {
+                    UUID player = new UUID(record.readLong(), record.readLong());
+                    String items = new String(payload, 17, payload.length - 17, StandardCharsets.UTF_8);
+                    if (items.equals("[]")) {
+                        state.warehouses.remove(player);
+                    } else {
+                        state.warehouses.put(player, items);
+                    }
+                } else {
+                    throw new IOException("Unknown backup record type " + type + " in " + entry.file.getFileName());
+                }
+            }
+            if (reader.getDamagedRegions() > 0) {
+                LoggerUtil.warn("Skipped " + reader.getDamagedRegions() + " damaged regions of " + entry.file.getFileName());
+                state.damagedRegions += reader.getDamagedRegions();
+            }
+        }
+    }
+}
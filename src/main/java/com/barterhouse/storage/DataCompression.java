@@ -0,0 +1,158 @@
+package com.barterhouse.storage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresión opcional de los archivos de datos de BarterHouse.
+ *
+ * Un archivo comprimido empieza con la cabecera [int magic "BHZC"][byte algoritmo]; al leer
+ * se detecta la cabecera, así que los archivos sin comprimir (y los anteriores a esta
+ * opción) se siguen leyendo sin cambios y se puede cambiar de algoritmo en cualquier momento.
+ */
+public class DataCompression {
+
+    public static final int MAGIC = 0x42485A43; // "BHZC"
+
+    /**
+     * Algoritmos disponibles.
+     */
+    public enum Codec {
+        NONE(0),
+        DEFLATE(1),
+        LZ4(2);
+
+        private final int id;
+
+        Codec(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Busca un algoritmo por su nombre en config.yml.
+         *
+         * @return El algoritmo, o NONE si el nombre no se reconoce
+         */
+        public static Codec fromName(String name) {
+            for (Codec codec : values()) {
+                if (codec.name().equalsIgnoreCase(name)) {
+                    return codec;
+                }
+            }
+            return NONE;
+        }
+
+        static Codec fromId(int id) throws IOException {
+            for (Codec codec : values()) {
+                if (codec.id == id) {
+                    return codec;
+                }
+            }
+            throw new IOException("Unknown compression " + id);
+        }
+    }
+
+    private final Codec codec;
+    private final int level;
+
+    /**
+     * @param codec Algoritmo para escribir
+     * @param level Nivel de deflate (1-9); se ignora con los demás algoritmos
+     */
+    public DataCompression(Codec codec, int level) {
+        this.codec = codec;
+        this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Envuelve un stream de escritura con el algoritmo configurado. Hay que cerrar el stream
+     * devuelto para terminar de escribir los datos comprimidos.
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        if (codec == Codec.NONE) {
+            return out;
+        }
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(codec.id);
+        if (codec == Codec.DEFLATE) {
+            Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+        return new Lz4.Lz4OutputStream(out);
+    }
+
+    /**
+     * Envuelve un stream de lectura, descomprimiendo si el contenido tiene cabecera de
+     * compresión. Sin cabecera devuelve los datos tal cual.
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = in instanceof BufferedInputStream ? (BufferedInputStream) in : new BufferedInputStream(in);
+        buffered.mark(5);
+        DataInputStream header = new DataInputStream(buffered);
+        int magic;
+        try {
+            magic = header.readInt();
+        } catch (EOFException e) {
+            buffered.reset();
+            return buffered;
+        }
+        if (magic != MAGIC) {
+            buffered.reset();
+            return buffered;
+        }
+
+        switch (Codec.fromId(header.readUnsignedByte())) {
+            case DEFLATE:
+                Inflater inflater = new Inflater();
+                return new BufferedInputStream(new InflaterInputStream(buffered, inflater, 8192) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                });
+            case LZ4:
+                return new BufferedInputStream(new Lz4.Lz4InputStream(buffered));
+            default:
+                return buffered;
+        }
+    }
+
+    /**
+     * Algoritmo con que está comprimido un archivo.
+     *
+     * @return NONE si el archivo no tiene cabecera de compresión
+     */
+    public static Codec codecOf(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                return Codec.NONE;
+            }
+            return Codec.fromId(in.readUnsignedByte());
+        } catch (EOFException e) {
+            return Codec.NONE;
+        }
+    }
+}
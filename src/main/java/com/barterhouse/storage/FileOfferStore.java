@@ -0,0 +1,327 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.api.TradeOffer;
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.util.LoggerUtil;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Backend de ofertas basado en archivos: un snapshot binario ("offers.dat") o JSON
+ * ("offers.json") más un journal append-only con las mutaciones posteriores. El snapshot se reescribe en el
+ * hilo de persistencia en cada checkpoint, y entonces se descarta el journal cubierto.
+ */
+public class FileOfferStore implements OfferStore {
+
+    static final String BINARY_FILE = "offers.dat";
+    static final String JSON_FILE = "offers.json";
+    static final String LEGACY_NBT_FILE = "trade_offers.nbt";
+
+    // Pedir un checkpoint cuando el segmento actual del journal supera este tamaño
+    private static final long JOURNAL_COMPACT_THRESHOLD = 1024 * 1024;
+
+    private final Path dataDirectory;
+    private final boolean jsonSnapshot;
+    private final String snapshotFile;
+    private final OfferJournal journal;
+    private final PersistenceWorker persistenceWorker;
+    // Espera antes de reintentar un snapshot que falló. Mientras tanto las mutaciones no piden
+    // checkpoints; el próximo guardado del mundo lo reintenta igual si hubo cambios
+    private static final long SNAPSHOT_RETRY_DELAY_MS = 60 * 1000;
+
+    private volatile boolean snapshotFailed = false;
+    private volatile long retryAfter;
+    // Segmento rotado para un snapshot que no se pudo escribir (0 si no hay): el reintento
+    // cubre los mismos segmentos, sin volver a rotar. Solo lo cambia el hilo de persistencia
+    private volatile long unsavedSequence = 0;
+    // false si la última carga falló: el snapshot en disco no se reemplaza por el libro parcial
+    private boolean loaded = false;
+
+    /**
+     * @param dataDirectory Directorio de datos del mod
+     * @param jsonSnapshot true para escribir el snapshot en JSON ("offers.json") en lugar de binario
+     */
+    public FileOfferStore(Path dataDirectory, boolean jsonSnapshot) {
+        this.dataDirectory = dataDirectory;
+        this.jsonSnapshot = jsonSnapshot;
+        this.snapshotFile = jsonSnapshot ? JSON_FILE : BINARY_FILE;
+        this.journal = new OfferJournal(dataDirectory);
+        this.persistenceWorker = new PersistenceWorker("BarterHouse-Offer-Persistence");
+    }
+
+    @Override
+    public void load(Map<UUID, TradeOffer> offers) throws IOException {
+        loaded = false;
+        snapshotFailed = false;
+        unsavedSequence = 0;
+        loadSnapshot(offers);
+
+        boolean hadJournal = journal.hasSegments();
+        int replayed = journal.replay(new OfferJournal.ReplayHandler() {
+            @Override
+            public void onCreate(byte[] payload) throws IOException {
+                CompoundTag tag = net.minecraft.nbt.NbtIo.read(new DataInputStream(new ByteArrayInputStream(payload)));
+                TradeOffer offer = TradeOffer.deserializeNBT(tag);
+                offers.put(offer.getOfferId(), offer);
+            }
+
+            @Override
+            public void onRemove(UUID offerId, boolean expired) {
+                offers.remove(offerId);
+            }
+        });
+        journal.open();
+        loaded = true;
+        if (hadJournal) {
+            LoggerUtil.info("Replayed " + replayed + " journal records, " + offers.size() + " offers active");
+            // Consolidar el journal reproducido en un snapshot nuevo
+            checkpoint(List.copyOf(offers.values()));
+        }
+    }
+
+    @Override
+    public void offerCreated(TradeOffer offer) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream dos = new DataOutputStream(bytes);
+            net.minecraft.nbt.NbtIo.write(offer.serializeNBT(), dos);
+            dos.close();
+            journal.appendCreate(bytes.toByteArray());
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to journal offer " + offer.getOfferId() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void offerRemoved(TradeOffer offer, boolean expired) {
+        journal.appendRemove(offer.getOfferId(), expired);
+    }
+
+    @Override
+    public boolean needsCheckpoint() {
+        if (snapshotFailed) {
+            return System.currentTimeMillis() >= retryAfter;
+        }
+        return journal.getSegmentSize() >= JOURNAL_COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Rota el journal y escribe el snapshot en el hilo de persistencia. Varias llamadas
+     * seguidas se agrupan en una sola escritura. Si el snapshot anterior falló, el journal no
+     * se rota otra vez: el reintento cubre los segmentos que ya esperaban ese snapshot.
+     */
+    @Override
+    public void checkpoint(List<TradeOffer> snapshot) {
+        if (!loaded) {
+            LoggerUtil.error("Skipping offer checkpoint: " + snapshotFile + " could not be loaded");
+            return;
+        }
+        if (snapshotFailed) {
+            retryAfter = System.currentTimeMillis() + SNAPSHOT_RETRY_DELAY_MS;
+        }
+        long sequence = unsavedSequence;
+        if (sequence == 0) {
+            try {
+                sequence = journal.rotate();
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to rotate offer journal: " + e.getMessage());
+                markSnapshotFailed();
+                return;
+            }
+        }
+        long covered = sequence;
+        persistenceWorker.submit(snapshotFile, () -> {
+            if (writeSnapshot(snapshot)) {
+                journal.deleteSegmentsBefore(covered);
+                unsavedSequence = 0;
+                snapshotFailed = false;
+            } else {
+                unsavedSequence = covered;
+                markSnapshotFailed();
+            }
+        });
+    }
+
+    private void markSnapshotFailed() {
+        retryAfter = System.currentTimeMillis() + SNAPSHOT_RETRY_DELAY_MS;
+        snapshotFailed = true;
+    }
+
+    @Override
+    public void flush() {
+        persistenceWorker.awaitIdle();
+        journal.sync();
+    }
+
+    @Override
+    public void close() {
+        persistenceWorker.shutdown();
+        journal.close();
+    }
+
+    /**
+     * Escribe el snapshot de ofertas en el formato configurado. Se escribe primero a un archivo
+     * temporal y luego se renombra, para no dejar un snapshot a medias.
+     * Puede ejecutarse fuera del hilo del servidor.
+     *
+     * @param offersList Copia de las ofertas a guardar
+     * @return true si el snapshot se escribió correctamente
+     */
+    private boolean writeSnapshot(List<TradeOffer> offersList) {
+        try {
+            Path filePath = dataDirectory.resolve(snapshotFile);
+            Path tempPath = dataDirectory.resolve(snapshotFile + ".tmp");
+
+            List<OfferRecord> records = new ArrayList<>(offersList.size());
+            for (TradeOffer offer : offersList) {
+                records.add(OfferRecords.fromOffer(offer));
+            }
+
+            DataCompression compression = StorageConfig.getInstance().getCompression();
+            try (OutputStream out = compression.compress(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                if (jsonSnapshot) {
+                    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    JsonOfferFormat.write(writer, records);
+                    writer.flush();
+                } else {
+                    BinaryOfferFormat.write(out, records);
+                }
+            }
+            Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LoggerUtil.info("Saved " + offersList.size() + " trade offers to " + filePath.toAbsolutePath());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LoggerUtil.error("Failed to save trade offers: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Carga el último snapshot de ofertas. Si solo existe el snapshot en el otro formato
+     * (o el antiguo trade_offers.nbt), se carga y se migra al formato configurado.
+     *
+     * @throws IOException Si el snapshot existe pero no se pudo leer; la carga se corta antes
+     *                     de reproducir el journal, para no reemplazar el snapshot por uno parcial
+     */
+    private void loadSnapshot(Map<UUID, TradeOffer> offers) throws IOException {
+        Path snapshotPath = dataDirectory.resolve(snapshotFile);
+        Path otherPath = dataDirectory.resolve(jsonSnapshot ? BINARY_FILE : JSON_FILE);
+        Path nbtPath = dataDirectory.resolve(LEGACY_NBT_FILE);
+
+        // Intentar cargar desde el formato configurado primero
+        if (Files.exists(snapshotPath)) {
+            readSnapshot(snapshotPath, offers);
+            return;
+        }
+
+        // Si no existe, intentar migrar desde el otro formato
+        if (Files.exists(otherPath)) {
+            LoggerUtil.info("Migrating " + otherPath.getFileName() + " to " + snapshotFile + "...");
+            readSnapshot(otherPath, offers);
+            if (!writeSnapshot(new ArrayList<>(offers.values()))) {
+                return;
+            }
+            Files.delete(otherPath);
+            LoggerUtil.info("Migration completed");
+            return;
+        }
+
+        // Si tampoco existe, intentar migrar desde NBT
+        if (Files.exists(nbtPath)) {
+            LoggerUtil.info("Migrating from NBT format to " + snapshotFile + "...");
+            readSnapshot(nbtPath, offers);
+            if (!writeSnapshot(new ArrayList<>(offers.values()))) {
+                return;
+            }
+            // Eliminar archivo NBT viejo
+            Files.delete(nbtPath);
+            LoggerUtil.info("Migration completed");
+            return;
+        }
+
+        LoggerUtil.info("No previous trade offers found");
+    }
+
+    /**
+     * Lee un snapshot en cualquiera de los formatos. Los errores de formato (JSON o NBT
+     * inválidos) se informan como IOException, igual que los de lectura.
+     */
+    private static void readSnapshot(Path filePath, Map<UUID, TradeOffer> offers) throws IOException {
+        try {
+            if (filePath.getFileName().toString().equals(LEGACY_NBT_FILE)) {
+                loadFromNBT(filePath, offers);
+            } else {
+                loadFromFile(filePath, offers);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Failed to load trade offers from " + filePath.getFileName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    static void loadFromFile(Path filePath, Map<UUID, TradeOffer> offers) throws IOException {
+        loadFromFile(filePath, offers, ItemIdTable.resolve(), StorageConfig.getInstance().isParallelLoading());
+    }
+
+    /**
+     * Lee un snapshot de ofertas. La lectura del archivo es secuencial; la conversión de
+     * cada registro (items, NBT) se reparte en bloques entre varios hilos si {@code parallel}.
+     *
+     * @param items Tabla de items resuelta en el hilo del servidor
+     * @param parallel false para decodificar todo en el hilo que llama
+     */
+    static void loadFromFile(Path filePath, Map<UUID, TradeOffer> offers, ItemIdTable items, boolean parallel) throws IOException {
+        long start = System.currentTimeMillis();
+        // Las expiradas también se cargan: el manager las archiva y las elimina
+        ChunkedLoader<OfferRecord, TradeOffer> loader = new ChunkedLoader<>(parallel,
+                record -> OfferRecords.load(record, items),
+                (record, e) -> LoggerUtil.error("Failed to load offer " + record.offerId + ": " + e.getMessage()));
+
+        int loaded = 0;
+        try {
+            try (InputStream in = DataCompression.decompress(Files.newInputStream(filePath))) {
+                if (filePath.getFileName().toString().endsWith(".json")) {
+                    JsonOfferFormat.read(new InputStreamReader(in, StandardCharsets.UTF_8), loader::add);
+                } else {
+                    BinaryOfferFormat.read(in, loader::add, filePath);
+                }
+            }
+        } finally {
+            // Conservar lo decodificado aunque la lectura se haya cortado
+            for (TradeOffer offer : loader.finish()) {
+                offers.put(offer.getOfferId(), offer);
+                loaded++;
+            }
+        }
+        LoggerUtil.info("Loaded " + loaded + " trade offers from " + filePath.getFileName() + " in "
+                + (System.currentTimeMillis() - start) + " ms" + (loader.isParallel() ? " (parallel)" : ""));
+    }
+
+    static void loadFromNBT(Path filePath, Map<UUID, TradeOffer> offers) throws IOException {
+        byte[] data = Files.readAllBytes(filePath);
+        ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        DataInputStream dis = new DataInputStream(bais);
+        CompoundTag rootTag = net.minecraft.nbt.NbtIo.read(dis);
+        dis.close();
+
+        if (rootTag != null && rootTag.contains("Offers")) {
+            ListTag offersList = rootTag.getList("Offers", Tag.TAG_COMPOUND);
+            
+            for (int i = 0; i < offersList.size(); i++) {
+                CompoundTag offerTag = offersList.getCompound(i);
+                TradeOffer offer = TradeOffer.deserializeNBT(offerTag);
+                offers.put(offer.getOfferId(), offer);
+            }
+            
+            LoggerUtil.info("Loaded " + offers.size() + " trade offers from NBT");
+        }
+    }
+}
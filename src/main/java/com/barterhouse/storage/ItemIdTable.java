@@ -0,0 +1,51 @@
+package com.barterhouse.storage;
+
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.Item;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copia inmutable de la tabla id -> Item del registro de Forge. Se construye en el hilo
+ * del servidor antes de una carga paralela, para que los hilos de decodificación no
+ * consulten {@link ForgeRegistries} directamente.
+ */
+public class ItemIdTable {
+
+    private final Map<String, Item> items;
+
+    private ItemIdTable(Map<String, Item> items) {
+        this.items = items;
+    }
+
+    /**
+     * Resuelve todos los items registrados. Debe llamarse desde el hilo del servidor.
+     */
+    public static ItemIdTable resolve() {
+        Map<String, Item> items = new HashMap<>();
+        for (Map.Entry<ResourceKey<Item>, Item> entry : ForgeRegistries.ITEMS.getEntries()) {
+            items.put(entry.getKey().location().toString(), entry.getValue());
+        }
+        return new ItemIdTable(items);
+    }
+
+    /**
+     * Busca un item por id. Acepta ids sin namespace ("diamond"), como los de los
+     * archivos JSON antiguos.
+     *
+     * @return El item, o null si no está registrado
+     */
+    public Item get(String itemId) {
+        Item item = items.get(itemId);
+        if (item == null) {
+            ResourceLocation location = ResourceLocation.tryParse(itemId);
+            if (location != null) {
+                item = items.get(location.toString());
+            }
+        }
+        return item;
+    }
+}
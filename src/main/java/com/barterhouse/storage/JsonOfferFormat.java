@@ -0,0 +1,226 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.util.LoggerUtil;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Lectura y escritura en streaming del archivo de ofertas en JSON ("offers.json"),
+ * usando {@link JsonReader}/{@link JsonWriter} de Gson. Nunca se carga el archivo completo
+ * en memoria: cada oferta se escribe o se entrega al receptor en cuanto se procesa.
+ *
+ * Estructura:
+ * <pre>
+ * {
+ *   "version": 1,
+ *   "offers": [
+ *     { "offerId", "creatorUUID", "creatorName", "createdTime",
+ *       "offeredItem", "offeredCount", "offeredNbt",
+ *       "requestedItem", "requestedCount", "requestedNbt" }
+ *   ]
+ * }
+ * </pre>
+ * El NBT completo de cada item se guarda en Base64 (formato binario de NbtIo), así no se
+ * pierde ningún tag. Los archivos antiguos, sin "version" ni NBT, se leen igual.
+ */
+public class JsonOfferFormat {
+
+    public static final int VERSION = 1;
+
+    /**
+     * Escribe todas las ofertas en el stream.
+     *
+     * @param output Stream de destino (no se cierra)
+     * @param records Ofertas a escribir
+     */
+    public static void write(Writer output, Iterable<OfferRecord> records) throws IOException {
+        RecordWriter writer = new RecordWriter(output);
+        for (OfferRecord record : records) {
+            writer.write(record);
+        }
+        writer.finish();
+    }
+
+    /**
+     * Escritura oferta por oferta, para quien no tiene todas las ofertas en una colección.
+     */
+    public static class RecordWriter {
+        private final JsonWriter writer;
+
+        /**
+         * @param output Stream de destino (no se cierra)
+         */
+        public RecordWriter(Writer output) throws IOException {
+            writer = new JsonWriter(output);
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("version").value(VERSION);
+            writer.name("offers").beginArray();
+        }
+
+        public void write(OfferRecord record) throws IOException {
+            writer.beginObject();
+            writer.name("offerId").value(record.offerId.toString());
+            writer.name("creatorUUID").value(record.creatorUUID.toString());
+            writer.name("creatorName").value(record.creatorName);
+            writer.name("createdTime").value(record.createdTime);
+            writer.name("offeredItem").value(record.offeredItem);
+            writer.name("offeredCount").value(record.offeredCount);
+            if (record.offeredTag != null) {
+                writer.name("offeredNbt").value(Base64.getEncoder().encodeToString(record.offeredTag));
+            }
+            writer.name("requestedItem").value(record.requestedItem);
+            writer.name("requestedCount").value(record.requestedCount);
+            if (record.requestedTag != null) {
+                writer.name("requestedNbt").value(Base64.getEncoder().encodeToString(record.requestedTag));
+            }
+            writer.endObject();
+        }
+
+        /**
+         * Cierra el arreglo y el objeto raíz. El stream no se cierra.
+         */
+        public void finish() throws IOException {
+            writer.endArray();
+            writer.endObject();
+            writer.flush();
+        }
+    }
+
+    /**
+     * Lee el archivo de ofertas registro por registro. Un registro con datos inválidos
+     * se informa y se salta sin afectar al resto; solo un error de sintaxis JSON detiene
+     * la lectura (los registros anteriores ya se entregaron al receptor).
+     *
+     * @param input Stream de origen (no se cierra)
+     * @param sink Receptor de cada oferta leída
+     * @return Cantidad de registros leídos correctamente
+     * @throws IOException si el archivo no es JSON válido
+     */
+    public static int read(Reader input, Consumer<OfferRecord> sink) throws IOException {
+        JsonReader reader = new JsonReader(input);
+        int[] counts = new int[2]; // [leídos, índice actual]
+
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            readOffers(reader, sink, counts);
+            return counts[0];
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("version") && reader.peek() == JsonToken.NUMBER) {
+                int version = reader.nextInt();
+                if (version > VERSION) {
+                    throw new IOException("Unsupported offers file version " + version);
+                }
+            } else if (name.equals("offers") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readOffers(reader, sink, counts);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return counts[0];
+    }
+
+    private static void readOffers(JsonReader reader, Consumer<OfferRecord> sink, int[] counts) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int index = counts[1]++;
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                LoggerUtil.error("Skipping offer record #" + index + ": not a JSON object");
+                continue;
+            }
+
+            Map<String, String> fields = readFields(reader);
+            OfferRecord record;
+            try {
+                record = toRecord(fields);
+            } catch (Exception e) {
+                String offerId = fields.get("offerId");
+                LoggerUtil.error("Skipping offer record #" + index
+                        + (offerId != null ? " (" + offerId + ")" : "") + ": " + e.getMessage());
+                continue;
+            }
+            // Los errores del receptor no son registros inválidos: se propagan
+            sink.accept(record);
+            counts[0]++;
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Lee los campos simples de un objeto como texto. Los valores anidados se saltan.
+     */
+    private static Map<String, String> readFields(JsonReader reader) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (reader.peek()) {
+                case STRING:
+                case NUMBER:
+                    fields.put(name, reader.nextString());
+                    break;
+                case BOOLEAN:
+                    fields.put(name, String.valueOf(reader.nextBoolean()));
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    private static OfferRecord toRecord(Map<String, String> fields) throws IOException {
+        return new OfferRecord(
+                UUID.fromString(required(fields, "offerId")),
+                UUID.fromString(required(fields, "creatorUUID")),
+                fields.getOrDefault("creatorName", ""),
+                required(fields, "offeredItem"),
+                parseCount(fields.get("offeredCount")),
+                decodeNbt(fields.get("offeredNbt")),
+                required(fields, "requestedItem"),
+                parseCount(fields.get("requestedCount")),
+                decodeNbt(fields.get("requestedNbt")),
+                Long.parseLong(required(fields, "createdTime")));
+    }
+
+    private static String required(Map<String, String> fields, String name) throws IOException {
+        String value = fields.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IOException("missing field " + name);
+        }
+        return value;
+    }
+
+    private static int parseCount(String value) throws IOException {
+        if (value == null) {
+            return 1;
+        }
+        int count = Integer.parseInt(value);
+        if (count <= 0) {
+            throw new IOException("invalid count " + count);
+        }
+        return count;
+    }
+
+    private static byte[] decodeNbt(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return Base64.getDecoder().decode(value);
+    }
+}
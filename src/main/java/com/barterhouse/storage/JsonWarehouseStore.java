@@ -0,0 +1,432 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.manager.WarehouseManager.StoredItem;
+import com.barterhouse.util.LoggerUtil;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Backend de bodega en JSON con un archivo por jugador ("warehouse/&lt;uuid&gt;.jsonl"), de
+ * modo que un cambio reescribe solo la bodega de ese jugador.
+ *
+ * Cada archivo tiene una línea precedida por su CRC32C ({@link WarehouseLines}):
+ * {@code <crc hex> {"player":"<uuid>","items":[...]}}. Un archivo dañado se copia a la
+ * cuarentena y se salta sin perder los demás.
+ *
+ * Los cambios se copian en el hilo del servidor y se escriben en lotes en el hilo de
+ * persistencia: los jugadores modificados quedan marcados hasta que el escritor los toma,
+ * así que varios cambios seguidos del mismo jugador terminan en una sola escritura. Si la
+ * escritura de un jugador falla, su copia vuelve a quedar marcada y se repite en el
+ * próximo lote (o en {@link #flush}); sus créditos se borran recién después de una
+ * escritura que terminó bien ({@link PendingWarehouseWrites}).
+ *
+ * Los formatos anteriores, "warehouse.jsonl" (todas las bodegas en un archivo) y
+ * "warehouse.json" (un solo objeto JSON), se leen si todavía no existe el directorio y se
+ * pasan al nuevo al abrir.
+ *
+ * Las bodegas se cargan de a un jugador ({@link #loadPlayer}), en el mismo hilo que las
+ * escrituras; los créditos de jugadores sin bodega cargada van a {@link WarehouseCredits}.
+ */
+public class JsonWarehouseStore implements WarehouseStore {
+
+    public static final String WAREHOUSE_DIRECTORY = "warehouse";
+    public static final String WAREHOUSE_FILE = "warehouse.jsonl";
+    public static final String LEGACY_WAREHOUSE_FILE = "warehouse.json";
+    private static final String PLAYER_SUFFIX = ".jsonl";
+
+    // Jugadores por bloque en la carga paralela
+    private static final int PLAYER_CHUNK_SIZE = 64;
+
+    private final Path warehouseDirectory;
+    private final Path singleFile;
+    private final Path legacyFile;
+    private final Gson gson = new Gson();
+    private final PersistenceWorker persistenceWorker;
+    private final WarehouseCredits credits;
+
+    // Bodegas modificadas que todavía no se escribieron (copias tomadas en el hilo del servidor)
+    private final PendingWarehouseWrites dirty = new PendingWarehouseWrites();
+
+    public JsonWarehouseStore(Path dataDirectory) {
+        this.warehouseDirectory = dataDirectory.resolve(WAREHOUSE_DIRECTORY);
+        this.singleFile = dataDirectory.resolve(WAREHOUSE_FILE);
+        this.legacyFile = dataDirectory.resolve(LEGACY_WAREHOUSE_FILE);
+        this.persistenceWorker = new PersistenceWorker("BarterHouse-Warehouse-Persistence");
+        this.credits = new WarehouseCredits(dataDirectory);
+    }
+
+    /**
+     * Indica si hay datos de bodega guardados en este formato o en alguno anterior.
+     */
+    public static boolean exists(Path dataDirectory) {
+        return Files.isDirectory(dataDirectory.resolve(WAREHOUSE_DIRECTORY))
+                || Files.exists(dataDirectory.resolve(WAREHOUSE_FILE))
+                || Files.exists(dataDirectory.resolve(LEGACY_WAREHOUSE_FILE));
+    }
+
+    /**
+     * Pasa a un archivo por jugador los datos de un formato anterior, si los hay. Las bodegas
+     * leídas para la migración no se conservan.
+     */
+    @Override
+    public void open() {
+        if (!Files.isDirectory(warehouseDirectory) && (Files.exists(singleFile) || Files.exists(legacyFile))) {
+            load(new HashMap<>());
+        }
+    }
+
+    /**
+     * Carga las bodegas de todos los jugadores.
+     */
+    @Override
+    public void load(Map<UUID, List<StoredItem>> warehouses) {
+        if (!Files.isDirectory(warehouseDirectory)) {
+            if (Files.exists(singleFile)) {
+                loadSingleFile(warehouses);
+            } else if (Files.exists(legacyFile)) {
+                loadLegacy(warehouses);
+            } else {
+                LoggerUtil.info("New warehouse created at: " + warehouseDirectory.toAbsolutePath());
+                return;
+            }
+            migrate(warehouses);
+            return;
+        }
+
+        try {
+            // Los archivos se leen y verifican en este hilo; la conversión de cada jugador se reparte entre varios hilos
+            ChunkedLoader<JsonObject, Map.Entry<UUID, List<StoredItem>>> loader = playerLoader();
+
+            int damaged = 0;
+            for (Path file : playerFiles()) {
+                String line = readPlayerFile(file);
+                JsonObject entry = line != null ? parseLine(line) : null;
+                if (entry == null) {
+                    damaged++;
+                    byte[] bytes = Files.readAllBytes(file);
+                    RecordFrame.quarantine(file, bytes, 0, bytes.length);
+                    continue;
+                }
+                loader.add(entry);
+            }
+            for (Map.Entry<UUID, List<StoredItem>> entry : loader.finish()) {
+                warehouses.put(entry.getKey(), entry.getValue());
+            }
+
+            if (damaged > 0) {
+                LoggerUtil.warn("Skipped " + damaged + " damaged warehouse files");
+            }
+            LoggerUtil.info("Loaded warehouse data for " + warehouses.size() + " players from " + warehouseDirectory.toAbsolutePath());
+        } catch (Exception e) {
+            LoggerUtil.error("Error loading warehouse: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private List<Path> playerFiles() throws IOException {
+        try (Stream<Path> list = Files.list(warehouseDirectory)) {
+            return list.filter(file -> file.getFileName().toString().endsWith(PLAYER_SUFFIX)).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Lee la bodega de un jugador y sus créditos en el hilo de persistencia. Si tiene una
+     * copia marcada que todavía no se pudo escribir, se usa esa.
+     */
+    @Override
+    public CompletableFuture<StoredWarehouse> loadPlayer(UUID playerUUID) {
+        return persistenceWorker.call(() -> {
+            try {
+                List<StoredItem> pending = dirty.get(playerUUID);
+                List<StoredItem> items = pending != null ? new ArrayList<>(pending) : readPlayer(playerUUID, true);
+                return new StoredWarehouse(items, credits.read(playerUUID, true));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Lee el archivo de un jugador.
+     *
+     * @param quarantine Copiar a la cuarentena el archivo si está dañado
+     * @return Sus items; vacío si no tiene archivo o está dañado
+     */
+    private List<StoredItem> readPlayer(UUID playerUUID, boolean quarantine) throws IOException {
+        Path file = warehouseDirectory.resolve(playerUUID + PLAYER_SUFFIX);
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        String line = readPlayerFile(file);
+        JsonObject entry = line != null ? parseLine(line) : null;
+        if (entry == null) {
+            LoggerUtil.error("Damaged warehouse file of " + playerUUID + ", skipping it");
+            if (quarantine) {
+                byte[] bytes = Files.readAllBytes(file);
+                RecordFrame.quarantine(file, bytes, 0, bytes.length);
+            }
+            return new ArrayList<>();
+        }
+        return readItems(entry.getAsJsonArray("items"));
+    }
+
+    @Override
+    public void appendCredit(UUID playerUUID, StoredItem item) {
+        persistenceWorker.execute("warehouse credit", () -> {
+            try {
+                credits.append(playerUUID, item);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Recorre los archivos de a uno en el hilo que llama. Las bodegas marcadas que todavía
+     * no se escribieron se toman de su copia pendiente.
+     */
+    @Override
+    public void forEachPlayer(BiConsumer<UUID, List<StoredItem>> visitor) throws IOException {
+        Map<UUID, List<StoredItem>> pending = dirty.snapshot();
+        Set<UUID> players = new LinkedHashSet<>();
+        if (Files.isDirectory(warehouseDirectory)) {
+            for (Path file : playerFiles()) {
+                String name = file.getFileName().toString();
+                try {
+                    players.add(UUID.fromString(name.substring(0, name.length() - PLAYER_SUFFIX.length())));
+                } catch (IllegalArgumentException e) {
+                    LoggerUtil.warn("Ignoring unexpected file in " + WAREHOUSE_DIRECTORY + "/: " + name);
+                }
+            }
+        }
+        players.addAll(pending.keySet());
+        players.addAll(credits.players());
+
+        for (UUID playerUUID : players) {
+            List<StoredItem> items = pending.containsKey(playerUUID)
+                    ? new ArrayList<>(pending.get(playerUUID)) : readPlayer(playerUUID, false);
+            items.addAll(credits.read(playerUUID, false));
+            visitor.accept(playerUUID, items);
+        }
+    }
+
+    private ChunkedLoader<JsonObject, Map.Entry<UUID, List<StoredItem>>> playerLoader() {
+        return new ChunkedLoader<>(
+                PLAYER_CHUNK_SIZE, StorageConfig.getInstance().isParallelLoading(),
+                line -> Map.entry(UUID.fromString(line.get("player").getAsString()), readItems(line.getAsJsonArray("items"))),
+                (line, e) -> LoggerUtil.error(e instanceof IllegalArgumentException
+                        ? "Invalid UUID in warehouse file: " + line.get("player")
+                        : "Invalid warehouse of " + line.get("player") + ": " + e.getMessage()));
+    }
+
+    /**
+     * @return La primera línea del archivo, o null si está vacío
+     */
+    private static String readPlayerFile(Path file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                DataCompression.decompress(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            return reader.readLine();
+        }
+    }
+
+    /**
+     * Verifica el checksum de una línea y la interpreta.
+     *
+     * @return El objeto de la línea, o null si está dañada
+     */
+    private JsonObject parseLine(String line) {
+        String json = WarehouseLines.decode(line);
+        if (json == null) {
+            return null;
+        }
+        try {
+            return gson.fromJson(json, JsonObject.class);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private List<StoredItem> readItems(JsonArray itemsArray) {
+        List<StoredItem> warehouse = new ArrayList<>(itemsArray.size());
+        for (int i = 0; i < itemsArray.size(); i++) {
+            warehouse.add(gson.fromJson(itemsArray.get(i), StoredItem.class));
+        }
+        return warehouse;
+    }
+
+    /**
+     * Carga "warehouse.jsonl" (todas las bodegas en un archivo, una línea por jugador).
+     */
+    private void loadSingleFile(Map<UUID, List<StoredItem>> warehouses) {
+        try {
+            ChunkedLoader<JsonObject, Map.Entry<UUID, List<StoredItem>>> loader = playerLoader();
+
+            int damaged = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    DataCompression.decompress(Files.newInputStream(singleFile)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    JsonObject entry = parseLine(line);
+                    if (entry == null) {
+                        damaged++;
+                        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                        RecordFrame.quarantine(singleFile, bytes, 0, bytes.length);
+                        continue;
+                    }
+                    loader.add(entry);
+                }
+            }
+            for (Map.Entry<UUID, List<StoredItem>> entry : loader.finish()) {
+                warehouses.put(entry.getKey(), entry.getValue());
+            }
+
+            if (damaged > 0) {
+                LoggerUtil.warn("Skipped " + damaged + " damaged lines of " + WAREHOUSE_FILE);
+            }
+            LoggerUtil.info("Loaded warehouse data for " + warehouses.size() + " players from " + singleFile.toAbsolutePath());
+        } catch (Exception e) {
+            LoggerUtil.error("Error loading warehouse: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Carga "warehouse.json" (formato anterior, un solo objeto JSON).
+     */
+    private void loadLegacy(Map<UUID, List<StoredItem>> warehouses) {
+        try {
+            JsonObject root;
+            try (Reader reader = new InputStreamReader(DataCompression.decompress(Files.newInputStream(legacyFile)), StandardCharsets.UTF_8)) {
+                root = gson.fromJson(reader, JsonObject.class);
+            }
+
+            if (root == null) return;
+
+            ChunkedLoader<Map.Entry<String, JsonElement>, Map.Entry<UUID, List<StoredItem>>> loader = new ChunkedLoader<>(
+                    PLAYER_CHUNK_SIZE, StorageConfig.getInstance().isParallelLoading(),
+                    entry -> Map.entry(UUID.fromString(entry.getKey()), readItems(entry.getValue().getAsJsonArray())),
+                    (entry, e) -> LoggerUtil.error(e instanceof IllegalArgumentException
+                            ? "Invalid UUID in warehouse file: " + entry.getKey()
+                            : "Invalid warehouse of " + entry.getKey() + ": " + e.getMessage()));
+
+            for (Map.Entry<String, JsonElement> entry : root.entrySet()) {
+                loader.add(entry);
+            }
+            for (Map.Entry<UUID, List<StoredItem>> entry : loader.finish()) {
+                warehouses.put(entry.getKey(), entry.getValue());
+            }
+
+            LoggerUtil.info("Loaded warehouse data for " + warehouses.size() + " players from " + legacyFile.toAbsolutePath());
+        } catch (Exception e) {
+            LoggerUtil.error("Error loading warehouse: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Pasa las bodegas leídas de un formato anterior a un archivo por jugador. El archivo
+     * anterior se borra solo después de escribir todos los nuevos.
+     */
+    private void migrate(Map<UUID, List<StoredItem>> warehouses) {
+        try {
+            Files.createDirectories(warehouseDirectory);
+            for (Map.Entry<UUID, List<StoredItem>> entry : warehouses.entrySet()) {
+                writePlayer(entry.getKey(), entry.getValue());
+            }
+            Files.deleteIfExists(singleFile);
+            Files.deleteIfExists(legacyFile);
+            LoggerUtil.info("Moved warehouse data for " + warehouses.size() + " players to " + warehouseDirectory.toAbsolutePath());
+        } catch (IOException e) {
+            LoggerUtil.error("Error migrating warehouse to " + WAREHOUSE_DIRECTORY + "/: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Copia la bodega del jugador en el hilo del servidor y la marca para el próximo lote
+     * del hilo de persistencia.
+     */
+    @Override
+    public void save(UUID playerUUID, Collection<StoredItem> items, boolean creditsApplied) {
+        dirty.put(playerUUID, PendingWarehouseWrites.copyOf(items), creditsApplied);
+        persistenceWorker.submit(WAREHOUSE_DIRECTORY, this::writeDirty);
+    }
+
+    @Override
+    public boolean isSaved(UUID playerUUID) {
+        return dirty.isSaved(playerUUID);
+    }
+
+    /**
+     * Escribe todas las bodegas marcadas hasta ahora.
+     */
+    private void writeDirty() {
+        dirty.writeAll((playerUUID, items, clearCredits) -> {
+            writePlayer(playerUUID, items);
+            if (clearCredits) {
+                credits.clear(playerUUID);
+            }
+        });
+    }
+
+    /**
+     * Reescribe el archivo de un jugador, o lo borra si la bodega quedó vacía.
+     */
+    private void writePlayer(UUID playerUUID, List<StoredItem> items) throws IOException {
+        Path file = warehouseDirectory.resolve(playerUUID + PLAYER_SUFFIX);
+        if (items.isEmpty()) {
+            Files.deleteIfExists(file);
+            return;
+        }
+
+        JsonArray itemsArray = new JsonArray();
+        for (StoredItem item : items) {
+            itemsArray.add(gson.toJsonTree(item));
+        }
+        JsonObject line = new JsonObject();
+        line.addProperty("player", playerUUID.toString());
+        line.add("items", itemsArray);
+
+        Files.createDirectories(warehouseDirectory);
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        DataCompression compression = StorageConfig.getInstance().getCompression();
+        try (OutputStream out = compression.compress(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.write(WarehouseLines.encode(gson.toJson(line)).getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Escribe lo marcado, incluidas las escrituras que fallaron antes, y espera a que termine.
+     */
+    @Override
+    public void flush() {
+        if (!dirty.isEmpty()) {
+            persistenceWorker.submit(WAREHOUSE_DIRECTORY, this::writeDirty);
+        }
+        persistenceWorker.awaitIdle();
+    }
+
+    @Override
+    public void close() {
+        persistenceWorker.shutdown();
+    }
+}
@@ -0,0 +1,301 @@
+package com.barterhouse.storage;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Implementación en Java puro del formato de bloque LZ4, sin dependencias nativas.
+ * Prioriza la velocidad sobre la tasa de compresión (búsqueda de coincidencias por hash
+ * de 4 bytes, sin cadenas).
+ *
+ * Los streams dividen los datos en bloques de 64 KB: [int tamaño original][int tamaño
+ * comprimido][datos]. Un bloque que no se reduce se guarda tal cual (tamaño comprimido 0),
+ * y un tamaño original 0 marca el final del stream.
+ */
+public class Lz4 {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int HASH_BITS = 14;
+    private static final int MAX_OFFSET = 65535;
+
+    /**
+     * Comprime un bloque.
+     *
+     * @return Tamaño comprimido escrito en {@code dst}, o -1 si no cabe
+     */
+    static int compress(byte[] src, int srcLen, byte[] dst) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int pos = 0;
+        int out = 0;
+        int matchLimit = srcLen - LAST_LITERALS;
+
+        while (pos < srcLen - MF_LIMIT) {
+            int sequence = readInt(src, pos);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int candidate = table[hash];
+            table[hash] = pos;
+
+            if (candidate < 0 || pos - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                pos++;
+                continue;
+            }
+
+            // Extender la coincidencia hacia adelante
+            int matchLen = MIN_MATCH;
+            while (pos + matchLen < matchLimit && src[candidate + matchLen] == src[pos + matchLen]) {
+                matchLen++;
+            }
+
+            int literalLen = pos - anchor;
+            if (out + 1 + literalLen + literalLen / 255 + 2 + matchLen / 255 + 1 > dst.length) {
+                return -1;
+            }
+            int tokenPos = out++;
+            int token = Math.min(literalLen, 15) << 4;
+            if (literalLen >= 15) {
+                out = writeLength(dst, out, literalLen - 15);
+            }
+            System.arraycopy(src, anchor, dst, out, literalLen);
+            out += literalLen;
+
+            int offset = pos - candidate;
+            dst[out++] = (byte) offset;
+            dst[out++] = (byte) (offset >>> 8);
+
+            int extra = matchLen - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15) {
+                out = writeLength(dst, out, extra - 15);
+            }
+            dst[tokenPos] = (byte) token;
+
+            pos += matchLen;
+            anchor = pos;
+        }
+
+        // Literales finales
+        int literalLen = srcLen - anchor;
+        if (out + 1 + literalLen + literalLen / 255 + 1 > dst.length) {
+            return -1;
+        }
+        dst[out++] = (byte) (Math.min(literalLen, 15) << 4);
+        if (literalLen >= 15) {
+            out = writeLength(dst, out, literalLen - 15);
+        }
+        System.arraycopy(src, anchor, dst, out, literalLen);
+        return out + literalLen;
+    }
+
+    /**
+     * Descomprime un bloque.
+     *
+     * @return Tamaño descomprimido
+     */
+    static int decompress(byte[] src, int srcLen, byte[] dst) throws IOException {
+        int pos = 0;
+        int out = 0;
+        try {
+            while (pos < srcLen) {
+                int token = src[pos++] & 0xFF;
+                int literalLen = token >>> 4;
+                if (literalLen == 15) {
+                    int b;
+                    do {
+                        b = src[pos++] & 0xFF;
+                        literalLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, pos, dst, out, literalLen);
+                pos += literalLen;
+                out += literalLen;
+                if (pos >= srcLen) {
+                    break; // La última secuencia solo tiene literales
+                }
+
+                int offset = (src[pos++] & 0xFF) | ((src[pos++] & 0xFF) << 8);
+                int matchLen = token & 0x0F;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[pos++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+
+                int from = out - offset;
+                if (offset == 0 || from < 0) {
+                    throw new IOException("Corrupt LZ4 block");
+                }
+                // Copia byte a byte: la coincidencia puede solaparse con lo que se está escribiendo
+                for (int i = 0; i < matchLen; i++) {
+                    dst[out++] = dst[from + i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ4 block");
+        }
+        return out;
+    }
+
+    private static int writeLength(byte[] dst, int out, int length) {
+        while (length >= 255) {
+            dst[out++] = (byte) 255;
+            length -= 255;
+        }
+        dst[out++] = (byte) length;
+        return out;
+    }
+
+    private static int readInt(byte[] src, int pos) {
+        return (src[pos] & 0xFF) | (src[pos + 1] & 0xFF) << 8 | (src[pos + 2] & 0xFF) << 16 | (src[pos + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * Stream que comprime en bloques LZ4.
+     */
+    static class Lz4OutputStream extends FilterOutputStream {
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[BLOCK_SIZE];
+        private final DataOutputStream data;
+        private int count;
+        private boolean finished;
+
+        Lz4OutputStream(OutputStream out) {
+            super(out);
+            this.data = new DataOutputStream(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == BLOCK_SIZE) {
+                writeBlock();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == BLOCK_SIZE) {
+                    writeBlock();
+                }
+                int chunk = Math.min(len, BLOCK_SIZE - count);
+                System.arraycopy(b, off, buffer, count, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            int size = compress(buffer, count, compressed);
+            data.writeInt(count);
+            if (size < 0 || size >= count) {
+                data.writeInt(0);
+                data.write(buffer, 0, count);
+            } else {
+                data.writeInt(size);
+                data.write(compressed, 0, size);
+            }
+            count = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+            data.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                writeBlock();
+                data.writeInt(0);
+                finished = true;
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Stream que descomprime bloques escritos por {@link Lz4OutputStream}.
+     */
+    static class Lz4InputStream extends InputStream {
+        private final DataInputStream in;
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[BLOCK_SIZE];
+        private int position;
+        private int limit;
+        private boolean finished;
+
+        Lz4InputStream(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        private boolean nextBlock() throws IOException {
+            if (finished) {
+                return false;
+            }
+            int rawSize = in.readInt();
+            if (rawSize == 0) {
+                finished = true;
+                return false;
+            }
+            if (rawSize < 0 || rawSize > BLOCK_SIZE) {
+                throw new IOException("Corrupt LZ4 stream");
+            }
+            int size = in.readInt();
+            if (size == 0) {
+                in.readFully(buffer, 0, rawSize);
+            } else {
+                if (size < 0 || size > BLOCK_SIZE) {
+                    throw new IOException("Corrupt LZ4 stream");
+                }
+                in.readFully(compressed, 0, size);
+                if (decompress(compressed, size, buffer) != rawSize) {
+                    throw new IOException("Corrupt LZ4 block");
+                }
+            }
+            position = 0;
+            limit = rawSize;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !nextBlock()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !nextBlock()) {
+                return -1;
+            }
+            int chunk = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, chunk);
+            position += chunk;
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
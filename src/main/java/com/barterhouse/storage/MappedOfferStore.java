@@ -0,0 +1,434 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.api.TradeOffer;
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Backend de ofertas sobre un archivo mapeado en memoria con registros de tamaño fijo.
+ * Crear o eliminar una oferta solo modifica los bytes de su registro; nunca se reescribe
+ * el archivo completo.
+ *
+ * <ul>
+ *   <li>"offers.slots": cabecera + registros fijos de 64 bytes (id, creador, fecha y
+ *       puntero a los datos). Los slots libres forman una lista enlazada y se reutilizan.</li>
+ *   <li>"offers.blocks": área lateral de bloques de 256 bytes encadenados con la oferta
+ *       serializada (items y NBT completos). Los bloques libres también se reutilizan.</li>
+ * </ul>
+ *
+ * Al iniciar solo se recorren los campos fijos de cada slot para construir el índice;
+ * los bloques de datos se leen únicamente para las ofertas vigentes. Cada slot guarda el
+ * CRC32C de sus datos: una oferta cuyos bloques no coinciden se copia a la cuarentena y
+ * su slot se libera, sin afectar al resto.
+ */
+public class MappedOfferStore implements OfferStore {
+
+    private static final String SLOTS_FILE = "offers.slots";
+    private static final String BLOCKS_FILE = "offers.blocks";
+
+    private static final int MAGIC = 0x42484D53; // "BHMS"
+    private static final int VERSION = 2;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Cabecera del archivo de slots
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_CAPACITY = 8;
+    private static final int H_FREE_SLOT = 12;
+    private static final int H_LIVE_COUNT = 16;
+    private static final int H_BLOCK_COUNT = 20;
+    private static final int H_FREE_BLOCK = 24;
+
+    // Registro de cada slot
+    private static final int SLOT_SIZE = 64;
+    private static final int S_STATE = 0;
+    private static final int S_NEXT_FREE = 4;
+    private static final int S_OFFER_ID = 8;
+    private static final int S_CREATOR = 24;
+    private static final int S_CREATED = 40;
+    private static final int S_FIRST_BLOCK = 48;
+    private static final int S_LENGTH = 52;
+    private static final int S_CHECKSUM = 56;
+
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_LIVE = 1;
+
+    // Bloques del área lateral: [int siguiente bloque][datos]
+    private static final int BLOCK_SIZE = 256;
+    private static final int BLOCK_DATA = BLOCK_SIZE - 4;
+    private static final int NO_BLOCK = -1;
+
+    private final Path dataDirectory;
+    private final PersistenceWorker persistenceWorker;
+    private final Map<UUID, Integer> slotIndex = new HashMap<>();
+
+    private FileChannel slotsChannel;
+    private FileChannel blocksChannel;
+    private MappedByteBuffer slots;
+
+    public MappedOfferStore(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        this.persistenceWorker = new PersistenceWorker("BarterHouse-Offer-Persistence");
+    }
+
+    @Override
+    public void load(Map<UUID, TradeOffer> offers) throws IOException {
+        open();
+
+        long start = System.currentTimeMillis();
+        int capacity = slots.getInt(H_CAPACITY);
+
+        // Construir el índice leyendo solo los campos fijos
+        slotIndex.clear();
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = slotOffset(slot);
+            if (slots.get(base + S_STATE) != STATE_LIVE) {
+                continue;
+            }
+            UUID offerId = new UUID(slots.getLong(base + S_OFFER_ID), slots.getLong(base + S_OFFER_ID + 8));
+            slotIndex.put(offerId, slot);
+        }
+        LoggerUtil.info("Indexed " + slotIndex.size() + " offer slots in " + (System.currentTimeMillis() - start) + " ms");
+
+        // Los bloques se leen en este hilo; la decodificación se reparte entre varios hilos
+        ItemIdTable items = ItemIdTable.resolve();
+        ChunkedLoader<byte[], TradeOffer> loader = new ChunkedLoader<>(StorageConfig.getInstance().isParallelLoading(),
+                data -> OfferRecords.load(BinaryOfferFormat.decode(data), items),
+                (data, e) -> LoggerUtil.error("Failed to load offer record: " + e.getMessage()));
+        List<Integer> damaged = new ArrayList<>();
+        for (Map.Entry<UUID, Integer> entry : slotIndex.entrySet()) {
+            int slot = entry.getValue();
+            try {
+                byte[] data = readData(slot);
+                if (RecordFrame.checksum(data, 0, data.length) != slots.getInt(slotOffset(slot) + S_CHECKSUM)) {
+                    LoggerUtil.error("Checksum mismatch for offer " + entry.getKey() + ", moving it to quarantine");
+                    RecordFrame.quarantine(dataDirectory.resolve(BLOCKS_FILE), data, 0, data.length);
+                    damaged.add(slot);
+                    continue;
+                }
+                loader.add(data);
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to load offer " + entry.getKey() + ": " + e.getMessage());
+                damaged.add(slot);
+            }
+        }
+        for (int slot : damaged) {
+            dropDamagedSlot(slot);
+        }
+        for (TradeOffer offer : loader.finish()) {
+            offers.put(offer.getOfferId(), offer);
+        }
+        LoggerUtil.info("Loaded " + offers.size() + " trade offers from " + SLOTS_FILE);
+    }
+
+    private void open() throws IOException {
+        if (slots != null) {
+            return;
+        }
+        Path slotsPath = dataDirectory.resolve(SLOTS_FILE);
+        boolean created = !Files.exists(slotsPath);
+        slotsChannel = FileChannel.open(slotsPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        blocksChannel = FileChannel.open(dataDirectory.resolve(BLOCKS_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (created || slotsChannel.size() < HEADER_SIZE) {
+            map(HEADER_SIZE + (long) INITIAL_CAPACITY * SLOT_SIZE);
+            slots.putInt(H_MAGIC, MAGIC);
+            slots.putInt(H_VERSION, VERSION);
+            slots.putInt(H_CAPACITY, 0);
+            slots.putInt(H_FREE_SLOT, NO_BLOCK);
+            slots.putInt(H_LIVE_COUNT, 0);
+            slots.putInt(H_BLOCK_COUNT, 0);
+            slots.putInt(H_FREE_BLOCK, NO_BLOCK);
+            addFreeSlots(0, INITIAL_CAPACITY);
+            return;
+        }
+
+        map(slotsChannel.size());
+        if (slots.getInt(H_MAGIC) != MAGIC) {
+            throw new IOException(SLOTS_FILE + " is not a BarterHouse offer slot file");
+        }
+        if (slots.getInt(H_VERSION) > VERSION) {
+            throw new IOException("Unsupported " + SLOTS_FILE + " version " + slots.getInt(H_VERSION));
+        }
+        if (slots.getInt(H_VERSION) < VERSION) {
+            upgradeChecksums();
+        }
+    }
+
+    /**
+     * Los archivos de la versión 1 no tenían checksums: se calculan una vez con los datos actuales.
+     */
+    private void upgradeChecksums() throws IOException {
+        int capacity = slots.getInt(H_CAPACITY);
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = slotOffset(slot);
+            if (slots.get(base + S_STATE) != STATE_LIVE) {
+                continue;
+            }
+            try {
+                byte[] data = readData(slot);
+                slots.putInt(base + S_CHECKSUM, RecordFrame.checksum(data, 0, data.length));
+            } catch (IOException e) {
+                // Se descarta al cargar, con el resto de los slots dañados
+                LoggerUtil.error("Failed to read offer slot " + slot + " while upgrading: " + e.getMessage());
+            }
+        }
+        slots.putInt(H_VERSION, VERSION);
+        slots.force();
+        LoggerUtil.info("Upgraded " + SLOTS_FILE + " to version " + VERSION);
+    }
+
+    /**
+     * Libera el slot de una oferta dañada. Sus bloques no se devuelven a la lista de libres
+     * porque la cadena misma puede estar rota; se pierden unos pocos bloques del área lateral.
+     */
+    private void dropDamagedSlot(int slot) {
+        int base = slotOffset(slot);
+        slots.put(base + S_STATE, STATE_FREE);
+        slots.putInt(H_LIVE_COUNT, slots.getInt(H_LIVE_COUNT) - 1);
+        slots.putInt(base + S_NEXT_FREE, slots.getInt(H_FREE_SLOT));
+        slots.putInt(H_FREE_SLOT, slot);
+        slotIndex.values().remove(slot);
+    }
+
+    private void map(long size) throws IOException {
+        if (slotsChannel.size() < size) {
+            slotsChannel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        }
+        slots = slotsChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    @Override
+    public void offerCreated(TradeOffer offer) {
+        try {
+            byte[] data = BinaryOfferFormat.encode(OfferRecords.fromOffer(offer));
+            int firstBlock = writeData(data);
+            int slot = allocateSlot();
+            int base = slotOffset(slot);
+
+            slots.putLong(base + S_OFFER_ID, offer.getOfferId().getMostSignificantBits());
+            slots.putLong(base + S_OFFER_ID + 8, offer.getOfferId().getLeastSignificantBits());
+            slots.putLong(base + S_CREATOR, offer.getCreatorUUID().getMostSignificantBits());
+            slots.putLong(base + S_CREATOR + 8, offer.getCreatorUUID().getLeastSignificantBits());
+            slots.putLong(base + S_CREATED, offer.getCreatedTime());
+            slots.putInt(base + S_FIRST_BLOCK, firstBlock);
+            slots.putInt(base + S_LENGTH, data.length);
+            slots.putInt(base + S_CHECKSUM, RecordFrame.checksum(data, 0, data.length));
+            // El estado se marca al final para que un registro a medias nunca se vea como vigente
+            slots.put(base + S_STATE, STATE_LIVE);
+            slots.putInt(H_LIVE_COUNT, slots.getInt(H_LIVE_COUNT) + 1);
+
+            slotIndex.put(offer.getOfferId(), slot);
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to store offer " + offer.getOfferId() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void offerRemoved(TradeOffer offer, boolean expired) {
+        Integer slot = slotIndex.remove(offer.getOfferId());
+        if (slot == null) {
+            return;
+        }
+        try {
+            freeSlot(slot);
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to free slot of offer " + offer.getOfferId() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean needsCheckpoint() {
+        return false;
+    }
+
+    /**
+     * Los cambios ya están en los archivos; el checkpoint solo fuerza las páginas a disco.
+     */
+    @Override
+    public void checkpoint(List<TradeOffer> snapshot) {
+        MappedByteBuffer mapped = slots;
+        FileChannel blocks = blocksChannel;
+        if (mapped == null) {
+            return;
+        }
+        persistenceWorker.submit(SLOTS_FILE, () -> force(mapped, blocks));
+    }
+
+    @Override
+    public void flush() {
+        persistenceWorker.awaitIdle();
+        if (slots != null) {
+            force(slots, blocksChannel);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        persistenceWorker.shutdown();
+        try {
+            if (slotsChannel != null) {
+                slotsChannel.close();
+            }
+            if (blocksChannel != null) {
+                blocksChannel.close();
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to close offer store: " + e.getMessage());
+        }
+        slots = null;
+        slotsChannel = null;
+        blocksChannel = null;
+        slotIndex.clear();
+    }
+
+    private static void force(MappedByteBuffer mapped, FileChannel blocks) {
+        try {
+            blocks.force(false);
+            mapped.force();
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to sync offer store: " + e.getMessage());
+        } catch (Exception e) {
+            // El canal pudo cerrarse o el archivo crecer mientras tanto; el próximo checkpoint lo cubrirá
+            LoggerUtil.debug("Skipped offer store sync: " + e.getMessage());
+        }
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private int allocateSlot() throws IOException {
+        int slot = slots.getInt(H_FREE_SLOT);
+        if (slot == NO_BLOCK) {
+            // Sin slots libres: duplicar la capacidad del archivo
+            int capacity = slots.getInt(H_CAPACITY);
+            map(HEADER_SIZE + (long) capacity * 2 * SLOT_SIZE);
+            addFreeSlots(capacity, capacity * 2);
+            slot = slots.getInt(H_FREE_SLOT);
+        }
+        slots.putInt(H_FREE_SLOT, slots.getInt(slotOffset(slot) + S_NEXT_FREE));
+        return slot;
+    }
+
+    /**
+     * Agrega los slots nuevos [from, to) a la lista de libres, dejando primero los más bajos.
+     */
+    private void addFreeSlots(int from, int to) {
+        int next = slots.getInt(H_FREE_SLOT);
+        for (int slot = to - 1; slot >= from; slot--) {
+            int base = slotOffset(slot);
+            slots.put(base + S_STATE, STATE_FREE);
+            slots.putInt(base + S_NEXT_FREE, next);
+            next = slot;
+        }
+        slots.putInt(H_FREE_SLOT, next);
+        slots.putInt(H_CAPACITY, to);
+    }
+
+    private void freeSlot(int slot) throws IOException {
+        int base = slotOffset(slot);
+        // Marcar libre primero; luego devolver los bloques y el slot a sus listas
+        slots.put(base + S_STATE, STATE_FREE);
+        slots.putInt(H_LIVE_COUNT, slots.getInt(H_LIVE_COUNT) - 1);
+        releaseBlocks(slots.getInt(base + S_FIRST_BLOCK));
+        slots.putInt(base + S_NEXT_FREE, slots.getInt(H_FREE_SLOT));
+        slots.putInt(H_FREE_SLOT, slot);
+    }
+
+    /**
+     * Escribe los datos en una cadena de bloques, reutilizando bloques libres.
+     *
+     * @return Índice del primer bloque
+     */
+    private int writeData(byte[] data) throws IOException {
+        int blockCount = Math.max(1, (data.length + BLOCK_DATA - 1) / BLOCK_DATA);
+        int[] chain = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            chain[i] = allocateBlock();
+        }
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        for (int i = 0; i < blockCount; i++) {
+            block.clear();
+            block.putInt(i + 1 < blockCount ? chain[i + 1] : NO_BLOCK);
+            int offset = i * BLOCK_DATA;
+            block.put(data, offset, Math.min(BLOCK_DATA, data.length - offset));
+            block.flip();
+            blocksChannel.write(block, (long) chain[i] * BLOCK_SIZE);
+        }
+        return chain[0];
+    }
+
+    private byte[] readData(int slot) throws IOException {
+        int base = slotOffset(slot);
+        int length = slots.getInt(base + S_LENGTH);
+        int blockIndex = slots.getInt(base + S_FIRST_BLOCK);
+        if (length < 0 || (long) length > blocksChannel.size()) {
+            throw new IOException("Invalid data length " + length + " for slot " + slot);
+        }
+        byte[] data = new byte[length];
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        int read = 0;
+        while (read < length) {
+            if (blockIndex < 0 || (long) blockIndex * BLOCK_SIZE >= blocksChannel.size()) {
+                throw new IOException("Block chain ended early for slot " + slot);
+            }
+            block.clear();
+            blocksChannel.read(block, (long) blockIndex * BLOCK_SIZE);
+            block.flip();
+            blockIndex = block.getInt();
+            int chunk = Math.min(BLOCK_DATA, length - read);
+            block.get(data, read, chunk);
+            read += chunk;
+        }
+        return data;
+    }
+
+    private int allocateBlock() throws IOException {
+        int block = slots.getInt(H_FREE_BLOCK);
+        if (block == NO_BLOCK) {
+            int count = slots.getInt(H_BLOCK_COUNT);
+            slots.putInt(H_BLOCK_COUNT, count + 1);
+            return count;
+        }
+        slots.putInt(H_FREE_BLOCK, readNextBlock(block));
+        return block;
+    }
+
+    private void releaseBlocks(int firstBlock) throws IOException {
+        if (firstBlock == NO_BLOCK) {
+            return;
+        }
+        // Recorrer la cadena hasta el último bloque y enlazarla con la lista de libres
+        int last = firstBlock;
+        int next = readNextBlock(last);
+        while (next != NO_BLOCK) {
+            last = next;
+            next = readNextBlock(last);
+        }
+        ByteBuffer pointer = ByteBuffer.allocate(4);
+        pointer.putInt(slots.getInt(H_FREE_BLOCK)).flip();
+        blocksChannel.write(pointer, (long) last * BLOCK_SIZE);
+        slots.putInt(H_FREE_BLOCK, firstBlock);
+    }
+
+    private int readNextBlock(int block) throws IOException {
+        ByteBuffer pointer = ByteBuffer.allocate(4);
+        blocksChannel.read(pointer, (long) block * BLOCK_SIZE);
+        pointer.flip();
+        return pointer.getInt();
+    }
+}
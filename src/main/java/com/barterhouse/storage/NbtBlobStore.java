@@ -0,0 +1,266 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Almacén de NBT por contenido, compartido por las ofertas y la bodega. Cada NBT distinto se
+ * guarda una sola vez en "blobs/&lt;xx&gt;/&lt;hash&gt;.nbt", con su hash como nombre; los registros
+ * solo guardan el hash.
+ *
+ * El hash es SHA-256 (los primeros 16 bytes, en hex) de la forma canónica del NBT, que arma
+ * quien llama; el contenido es el NBT binario, enmarcado con {@link RecordFrame} para detectar
+ * archivos dañados.
+ *
+ * Las referencias se cuentan por dueño (ofertas y bodega), en memoria: cada dueño las cuenta
+ * al cargar sus datos y las actualiza con cada cambio (las ofertas, una por item con NBT; la
+ * bodega, una por unidad guardada). {@link #sweep} borra en segundo plano
+ * los blobs sin referencias que no se escribieron ni pidieron en el último rato.
+ */
+public class NbtBlobStore {
+
+    public static final String DIRECTORY = "blobs";
+    private static final String SUFFIX = ".nbt";
+    private static final int HASH_BYTES = 16;
+
+    // Un NBT guardado como referencia en un registro de oferta: este byte (que no puede
+    // empezar un NBT binario) seguido de los bytes del hash
+    private static final byte REFERENCE_MARKER = (byte) 0xFF;
+
+    /**
+     * Dueños de referencias. Cada uno reemplaza sus cuentas al cargar o recargar sus datos.
+     */
+    public enum Owner {
+        OFFERS,
+        WAREHOUSE
+    }
+
+    private final Path directory;
+    private final Set<String> existing = ConcurrentHashMap.newKeySet();
+    private final Map<Owner, Map<String, Long>> refs = new EnumMap<>(Owner.class);
+    // Último uso de cada blob (escritura o pedido de escritura), para no borrar uno que un
+    // registro recién escrito todavía no cuenta
+    private final Map<String, Long> lastUsed = new ConcurrentHashMap<>();
+
+    public NbtBlobStore(Path dataDirectory) {
+        this.directory = dataDirectory.resolve(DIRECTORY);
+        for (Owner owner : Owner.values()) {
+            refs.put(owner, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Lista los blobs guardados.
+     *
+     * @return Cantidad de blobs
+     */
+    public int open() throws IOException {
+        Files.createDirectories(directory);
+        existing.clear();
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    existing.add(name.substring(0, name.length() - SUFFIX.length()));
+                }
+            });
+        }
+        return existing.size();
+    }
+
+    /**
+     * Hash de la forma canónica de un NBT.
+     */
+    public static String hash(String canonical) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(HASH_BYTES * 2);
+            for (int i = 0; i < HASH_BYTES; i++) {
+                hex.append(String.format("%02x", digest[i] & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Codifica una referencia para guardarla en lugar del NBT binario de un registro de oferta.
+     */
+    public static byte[] reference(String hash) {
+        byte[] bytes = new byte[1 + HASH_BYTES];
+        bytes[0] = REFERENCE_MARKER;
+        for (int i = 0; i < HASH_BYTES; i++) {
+            bytes[1 + i] = (byte) Integer.parseInt(hash.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return El hash si {@code tag} es una referencia, o null si es NBT binario
+     */
+    public static String referencedHash(byte[] tag) {
+        if (tag == null || tag.length != 1 + HASH_BYTES || tag[0] != REFERENCE_MARKER) {
+            return null;
+        }
+        StringBuilder hex = new StringBuilder(HASH_BYTES * 2);
+        for (int i = 1; i < tag.length; i++) {
+            hex.append(String.format("%02x", tag[i] & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Guarda un blob si todavía no existe. Puede llamarse desde cualquier hilo; la escritura
+     * termina antes de volver, así un registro que lo referencia nunca queda sin su blob.
+     *
+     * @param content Supplier del NBT binario, que solo se usa si hay que escribirlo
+     */
+    public synchronized void put(String hash, ContentSupplier content) throws IOException {
+        lastUsed.put(hash, System.currentTimeMillis());
+        if (existing.contains(hash)) {
+            return;
+        }
+        Path file = file(hash);
+        Files.createDirectories(file.getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            RecordFrame.write(out, content.get());
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        existing.add(hash);
+    }
+
+    /**
+     * Contenido de un blob, para escribirlo solo cuando hace falta.
+     */
+    public interface ContentSupplier {
+        byte[] get() throws IOException;
+    }
+
+    /**
+     * Lee el NBT binario de un blob.
+     *
+     * @throws IOException si no existe o está dañado
+     */
+    public byte[] read(String hash) throws IOException {
+        Path file = file(hash);
+        if (!existing.contains(hash) && !Files.exists(file)) {
+            throw new FileNotFoundException("Missing NBT blob " + hash);
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            byte[] payload = new RecordFrame.Reader(in, file).next();
+            if (payload == null) {
+                throw new IOException("Damaged NBT blob " + hash);
+            }
+            return payload;
+        }
+    }
+
+    public boolean contains(String hash) {
+        return existing.contains(hash);
+    }
+
+    public int size() {
+        return existing.size();
+    }
+
+    /**
+     * Suma (o resta, con {@code delta} negativo) referencias de un dueño a un blob.
+     *
+     * @return true si el blob quedó sin referencias de ningún dueño
+     */
+    public boolean addRefs(Owner owner, String hash, long delta) {
+        if (delta != 0) {
+            refs.get(owner).compute(hash, (k, count) -> {
+                long value = (count != null ? count : 0L) + delta;
+                return value > 0 ? value : null;
+            });
+        }
+        return !isReferenced(hash);
+    }
+
+    /**
+     * Reemplaza las cuentas de un dueño (al cargar o recargar sus datos).
+     */
+    public void setRefs(Owner owner, Map<String, Long> counts) {
+        Map<String, Long> current = refs.get(owner);
+        current.clear();
+        counts.forEach((hash, count) -> {
+            if (count > 0) {
+                current.put(hash, count);
+            }
+        });
+    }
+
+    public boolean isReferenced(String hash) {
+        for (Map<String, Long> counts : refs.values()) {
+            if (counts.containsKey(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cantidad de blobs con al menos una referencia.
+     */
+    public int referencedCount() {
+        Set<String> referenced = new HashSet<>();
+        for (Map<String, Long> counts : refs.values()) {
+            referenced.addAll(counts.keySet());
+        }
+        return referenced.size();
+    }
+
+    /**
+     * Borra los blobs sin referencias que no se usaron en {@code graceMillis}. Se ejecuta en
+     * un hilo aparte; cada blob se vuelve a comprobar justo antes de borrarlo.
+     *
+     * @return Blobs borrados
+     */
+    public int sweep(long graceMillis) {
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        int deleted = 0;
+        for (String hash : new ArrayList<>(existing)) {
+            if (isReferenced(hash)) {
+                continue;
+            }
+            synchronized (this) {
+                if (isReferenced(hash) || lastUsed.getOrDefault(hash, 0L) > cutoff) {
+                    continue;
+                }
+                Path file = file(hash);
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() > cutoff) {
+                        continue;
+                    }
+                    Files.deleteIfExists(file);
+                    existing.remove(hash);
+                    lastUsed.remove(hash);
+                    deleted++;
+                } catch (NoSuchFileException e) {
+                    existing.remove(hash);
+                } catch (IOException e) {
+                    LoggerUtil.error("Error deleting NBT blob " + hash + ": " + e.getMessage());
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private Path file(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash + SUFFIX);
+    }
+}
@@ -0,0 +1,670 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Archivo frío de ofertas eliminadas, expiradas y completadas, separado de las ofertas activas.
+ * Las ofertas activas nunca leen el archivo; solo se consulta para soporte.
+ *
+ * Los registros se agrupan en segmentos diarios ("archive/2026-10-17.seg", fecha local del
+ * servidor) con un índice por segmento (".idx") de offer id y creador. Los segmentos de
+ * días anteriores se compactan en un segmento mensual ("2026-10.seg") y los que superan
+ * la retención se borran.
+ *
+ * Formato del segmento: [int magic "BHAR"][byte versión] y luego registros en {@link RecordFrame}
+ * (longitud + CRC32C) con [byte motivo][long fecha de archivo][oferta en {@link BinaryOfferFormat#encode}].
+ * Los segmentos de la versión 1 (registros [int longitud][payload], sin checksum) se siguen leyendo.
+ * Formato del índice: [int magic "BHAI"][int cantidad] y entradas ordenadas por offer id
+ * [long id alto][long id bajo][long creador alto][long creador bajo][long posición].
+ */
+public class OfferArchive implements Closeable {
+
+    public static final String DIRECTORY = "archive";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    public static final int SEGMENT_MAGIC = 0x42484152; // "BHAR"
+    private static final int INDEX_MAGIC = 0x42484149; // "BHAI"
+    public static final int VERSION = 2;
+    private static final int SEGMENT_HEADER_SIZE = 5;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /**
+     * Motivo por el que una oferta salió del libro activo.
+     */
+    public enum Reason {
+        REMOVED,
+        EXPIRED,
+        TRADED;
+
+        static Reason fromId(int id) throws IOException {
+            if (id < 0 || id >= values().length) {
+                throw new IOException("Unknown archive reason " + id);
+            }
+            return values()[id];
+        }
+    }
+
+    /**
+     * Oferta leída del archivo.
+     */
+    public static class ArchivedOffer {
+        public final OfferRecord record;
+        public final Reason reason;
+        public final long archivedTime;
+
+        public ArchivedOffer(OfferRecord record, Reason reason, long archivedTime) {
+            this.record = record;
+            this.reason = reason;
+            this.archivedTime = archivedTime;
+        }
+    }
+
+    private static class IndexEntry {
+        final UUID offerId;
+        final UUID creatorUUID;
+        final long position;
+
+        IndexEntry(UUID offerId, UUID creatorUUID, long position) {
+            this.offerId = offerId;
+            this.creatorUUID = creatorUUID;
+            this.position = position;
+        }
+    }
+
+    private interface SegmentVisitor {
+        void visit(long position, byte[] payload) throws IOException;
+    }
+
+    private final Path directory;
+    private final int retentionDays;
+    private final int compactAfterDays;
+    private final PersistenceWorker persistenceWorker;
+    private final List<ArchivedOffer> pending = new ArrayList<>();
+
+    // Segmento abierto para escribir (solo se toca dentro de métodos synchronized)
+    private String currentSegment;
+    private FileChannel channel;
+    private DataOutputStream out;
+    private long segmentSize;
+    private final List<IndexEntry> currentIndex = new ArrayList<>();
+    private LocalDate lastMaintenance;
+
+    /**
+     * @param dataDirectory Directorio de datos del mod
+     * @param retentionDays Días que se conservan las ofertas archivadas
+     * @param compactAfterDays Días tras los cuales un segmento diario se junta en su segmento mensual
+     */
+    public OfferArchive(Path dataDirectory, int retentionDays, int compactAfterDays) {
+        this.directory = dataDirectory.resolve(DIRECTORY);
+        this.retentionDays = retentionDays;
+        this.compactAfterDays = compactAfterDays;
+        this.persistenceWorker = new PersistenceWorker("BarterHouse-Offer-Archive");
+    }
+
+    /**
+     * Agrega una oferta al archivo. La escritura se hace en el hilo del archivo; varias
+     * ofertas archivadas seguidas se escriben en un solo lote.
+     */
+    public void archive(OfferRecord record, Reason reason) {
+        synchronized (pending) {
+            pending.add(new ArchivedOffer(record, reason, System.currentTimeMillis()));
+        }
+        persistenceWorker.submit("append", this::writePending);
+    }
+
+    private synchronized void writePending() {
+        List<ArchivedOffer> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            for (ArchivedOffer offer : batch) {
+                String segment = LocalDate.ofInstant(Instant.ofEpochMilli(offer.archivedTime), ZONE).toString();
+                if (!segment.equals(currentSegment)) {
+                    sealCurrent();
+                    openSegment(segment);
+                }
+                byte[] payload = encode(offer);
+                currentIndex.add(new IndexEntry(offer.record.offerId, offer.record.creatorUUID, segmentSize));
+                RecordFrame.write(out, payload);
+                segmentSize += RecordFrame.HEADER_SIZE + payload.length;
+            }
+            if (out != null) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to archive " + batch.size() + " offers: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abre un segmento para agregar registros. Si ya existe (reinicio en el mismo día), se
+     * retoma su índice, o se reconstruye leyendo el segmento si no se llegó a escribir.
+     */
+    private void openSegment(String name) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(name + SEGMENT_SUFFIX);
+        currentIndex.clear();
+        if (Files.exists(path) && segmentVersion(path) < VERSION) {
+            upgradeSegment(name);
+        }
+        if (Files.exists(path)) {
+            Path indexPath = directory.resolve(name + INDEX_SUFFIX);
+            long validLength = Files.exists(indexPath) ? Files.size(path) : scanSegment(path, currentIndex);
+            if (Files.exists(indexPath)) {
+                currentIndex.addAll(readIndex(indexPath));
+                currentIndex.sort(Comparator.comparingLong(entry -> entry.position));
+            }
+            // El índice se vuelve a escribir al cerrar el segmento
+            Files.deleteIfExists(indexPath);
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            channel.truncate(validLength);
+            channel.position(validLength);
+            segmentSize = validLength;
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            segmentSize = 0;
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 16 * 1024));
+        if (segmentSize == 0) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeByte(VERSION);
+            segmentSize = SEGMENT_HEADER_SIZE;
+        }
+        currentSegment = name;
+    }
+
+    /**
+     * Cierra el segmento abierto y escribe su índice.
+     */
+    private void sealCurrent() throws IOException {
+        if (out == null) {
+            return;
+        }
+        out.flush();
+        channel.force(false);
+        out.close();
+        out = null;
+        channel = null;
+        writeIndex(directory.resolve(currentSegment + INDEX_SUFFIX), currentIndex);
+        currentIndex.clear();
+        currentSegment = null;
+    }
+
+    /**
+     * Busca una oferta archivada, empezando por los segmentos más recientes.
+     * Lee de disco; no debe llamarse en cada tick.
+     *
+     * @return La oferta, o null si no está en el archivo
+     */
+    public ArchivedOffer find(UUID offerId) {
+        persistenceWorker.awaitIdle();
+        synchronized (this) {
+            try {
+                for (String segment : listSegments(true)) {
+                    // Un segmento dañado no impide buscar en los demás
+                    try {
+                        IndexEntry entry = lookup(segment, offerId);
+                        if (entry != null) {
+                            return readAt(segment, entry.position);
+                        }
+                    } catch (IOException e) {
+                        LoggerUtil.error("Failed to search archive segment " + segment + ": " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to search offer archive: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Lista las ofertas archivadas de un jugador, de la más reciente a la más antigua.
+     *
+     * @param limit Cantidad máxima de resultados
+     */
+    public List<ArchivedOffer> findByCreator(UUID creatorUUID, int limit) {
+        persistenceWorker.awaitIdle();
+        List<ArchivedOffer> results = new ArrayList<>();
+        synchronized (this) {
+            try {
+                for (String segment : listSegments(true)) {
+                    // Un segmento dañado no impide buscar en los demás
+                    try {
+                        List<IndexEntry> matches = new ArrayList<>();
+                        for (IndexEntry entry : segmentIndex(segment)) {
+                            if (entry.creatorUUID.equals(creatorUUID)) {
+                                matches.add(entry);
+                            }
+                        }
+                        matches.sort(Comparator.comparingLong((IndexEntry entry) -> entry.position).reversed());
+                        for (IndexEntry entry : matches) {
+                            if (results.size() >= limit) {
+                                return results;
+                            }
+                            results.add(readAt(segment, entry.position));
+                        }
+                    } catch (IOException e) {
+                        LoggerUtil.error("Failed to search archive segment " + segment + ": " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to search offer archive: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Índice de un segmento: el que está en memoria para el segmento abierto, o el de su
+     * archivo ".idx" (reconstruido si falta, por ejemplo tras una caída).
+     */
+    private List<IndexEntry> segmentIndex(String segment) throws IOException {
+        if (segment.equals(currentSegment)) {
+            out.flush();
+            return currentIndex;
+        }
+        Path indexPath = directory.resolve(segment + INDEX_SUFFIX);
+        if (Files.exists(indexPath)) {
+            return readIndex(indexPath);
+        }
+        List<IndexEntry> index = new ArrayList<>();
+        scanSegment(directory.resolve(segment + SEGMENT_SUFFIX), index);
+        writeIndex(indexPath, index);
+        return index;
+    }
+
+    /**
+     * Busca un offer id en el índice de un segmento. Los índices en disco están ordenados
+     * por id; el del segmento abierto está en orden de escritura.
+     */
+    private IndexEntry lookup(String segment, UUID offerId) throws IOException {
+        List<IndexEntry> index = segmentIndex(segment);
+        if (segment.equals(currentSegment)) {
+            for (IndexEntry entry : index) {
+                if (entry.offerId.equals(offerId)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+        int low = 0;
+        int high = index.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = index.get(mid).offerId.compareTo(offerId);
+            if (compare == 0) {
+                return index.get(mid);
+            } else if (compare < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return null;
+    }
+
+    private ArchivedOffer readAt(String segment, long position) throws IOException {
+        try (FileChannel file = FileChannel.open(directory.resolve(segment + SEGMENT_SUFFIX), StandardOpenOption.READ)) {
+            ByteBuffer fileHeader = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            readFully(file, fileHeader, 0);
+            if (fileHeader.get(4) == 1) {
+                ByteBuffer length = ByteBuffer.allocate(4);
+                readFully(file, length, position);
+                ByteBuffer payload = ByteBuffer.allocate(length.getInt(0));
+                readFully(file, payload, position + 4);
+                return decode(payload.array());
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(RecordFrame.HEADER_SIZE);
+            readFully(file, header, position);
+            int length = header.getInt(4);
+            if (header.getInt(0) != RecordFrame.MARKER || length < 0 || length > file.size()) {
+                throw new IOException("Damaged archive record in " + segment + SEGMENT_SUFFIX + " at " + position);
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(file, payload, position + RecordFrame.HEADER_SIZE);
+            if (RecordFrame.checksum(payload.array(), 0, length) != header.getInt(8)) {
+                throw new IOException("Checksum mismatch in " + segment + SEGMENT_SUFFIX + " at " + position);
+            }
+            return decode(payload.array());
+        }
+    }
+
+    private static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Archive record past end of segment");
+            }
+        }
+    }
+
+    /**
+     * Programa la compactación y la retención si todavía no se hicieron hoy.
+     * Se llama periódicamente desde el hilo del servidor.
+     */
+    public void maintainIfDue() {
+        LocalDate today = LocalDate.now(ZONE);
+        if (today.equals(lastMaintenance)) {
+            return;
+        }
+        lastMaintenance = today;
+        persistenceWorker.submit("maintenance", () -> maintain(today));
+    }
+
+    /**
+     * Borra los segmentos fuera de la retención y junta los segmentos diarios antiguos
+     * en su segmento mensual.
+     */
+    private synchronized void maintain(LocalDate today) {
+        LocalDate retentionStart = today.minusDays(retentionDays);
+        LocalDate compactBefore = today.minusDays(compactAfterDays);
+        try {
+            Map<YearMonth, List<String>> toCompact = new TreeMap<>();
+            for (String segment : listSegments(false)) {
+                if (segment.equals(currentSegment)) {
+                    continue;
+                }
+                YearMonth month = parseMonth(segment);
+                if (month != null) {
+                    if (month.atEndOfMonth().isBefore(retentionStart)) {
+                        deleteSegment(segment);
+                    }
+                    continue;
+                }
+                LocalDate day = parseDay(segment);
+                if (day == null) {
+                    continue;
+                }
+                if (day.isBefore(retentionStart)) {
+                    deleteSegment(segment);
+                } else if (day.isBefore(compactBefore)) {
+                    toCompact.computeIfAbsent(YearMonth.from(day), key -> new ArrayList<>()).add(segment);
+                }
+            }
+
+            long retentionMillis = retentionStart.atStartOfDay(ZONE).toInstant().toEpochMilli();
+            for (Map.Entry<YearMonth, List<String>> entry : toCompact.entrySet()) {
+                compactMonth(entry.getKey(), entry.getValue(), retentionMillis);
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to maintain offer archive: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reescribe el segmento mensual con su contenido actual más los segmentos diarios
+     * indicados. Los registros se copian en orden sin cargarlos todos en memoria; si una
+     * oferta aparece dos veces (por ejemplo, archivada de nuevo tras una caída) se
+     * conserva la primera.
+     */
+    private void compactMonth(YearMonth month, List<String> days, long retentionMillis) throws IOException {
+        String name = month.toString();
+        Path target = directory.resolve(name + SEGMENT_SUFFIX);
+        Path temp = directory.resolve(name + SEGMENT_SUFFIX + ".tmp");
+        List<String> sources = new ArrayList<>();
+        if (Files.exists(target)) {
+            sources.add(name);
+        }
+        Collections.sort(days);
+        sources.addAll(days);
+
+        Set<UUID> seen = new HashSet<>();
+        List<IndexEntry> index = new ArrayList<>();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            output.writeInt(SEGMENT_MAGIC);
+            output.writeByte(VERSION);
+            long[] position = {SEGMENT_HEADER_SIZE};
+            for (String source : sources) {
+                forEachRecord(directory.resolve(source + SEGMENT_SUFFIX), (recordPosition, payload) -> {
+                    ArchivedOffer offer = decode(payload);
+                    if (offer.archivedTime < retentionMillis || !seen.add(offer.record.offerId)) {
+                        return;
+                    }
+                    index.add(new IndexEntry(offer.record.offerId, offer.record.creatorUUID, position[0]));
+                    RecordFrame.write(output, payload);
+                    position[0] += RecordFrame.HEADER_SIZE + payload.length;
+                });
+            }
+        }
+
+        // El índice viejo apunta a posiciones del segmento viejo: se borra antes de reemplazarlo,
+        // así una caída entre los dos pasos deja el segmento sin índice y se reconstruye al leerlo
+        Path indexPath = directory.resolve(name + INDEX_SUFFIX);
+        Files.deleteIfExists(indexPath);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writeIndex(indexPath, index);
+        for (String day : days) {
+            deleteSegment(day);
+        }
+        LoggerUtil.info("Compacted " + days.size() + " archive segments into " + name + SEGMENT_SUFFIX
+                + " (" + index.size() + " offers)");
+    }
+
+    /**
+     * Reescribe con checksums un segmento de la versión 1, para poder seguir agregándole registros.
+     */
+    private void upgradeSegment(String name) throws IOException {
+        Path path = directory.resolve(name + SEGMENT_SUFFIX);
+        Path temp = directory.resolve(name + SEGMENT_SUFFIX + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            output.writeInt(SEGMENT_MAGIC);
+            output.writeByte(VERSION);
+            forEachRecord(path, (position, payload) -> RecordFrame.write(output, payload));
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(directory.resolve(name + INDEX_SUFFIX));
+    }
+
+    private static int segmentVersion(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            in.readInt();
+            return in.readUnsignedByte();
+        } catch (EOFException e) {
+            return VERSION;
+        }
+    }
+
+    private void deleteSegment(String segment) throws IOException {
+        Files.deleteIfExists(directory.resolve(segment + INDEX_SUFFIX));
+        Files.deleteIfExists(directory.resolve(segment + SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Lee un segmento completo agregando sus entradas al índice.
+     *
+     * @return Longitud válida del segmento (sin un registro final incompleto)
+     */
+    private static long scanSegment(Path path, List<IndexEntry> index) throws IOException {
+        return forEachRecord(path, (position, payload) -> {
+            OfferRecord record = decode(payload).record;
+            index.add(new IndexEntry(record.offerId, record.creatorUUID, position));
+        });
+    }
+
+    /**
+     * Recorre los registros de un segmento en orden. Los registros dañados se saltan (y
+     * quedan en la cuarentena); un registro final incompleto (caída durante la escritura) se ignora.
+     *
+     * @return Posición donde termina el último registro válido
+     */
+    private static long forEachRecord(Path path, SegmentVisitor visitor) throws IOException {
+        return forEachRecord(path, path, visitor);
+    }
+
+    /**
+     * @param quarantine Archivo al que se atribuyen los bytes dañados en la cuarentena, o null para no copiarlos
+     */
+    private static long forEachRecord(Path path, Path quarantine, SegmentVisitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SEGMENT_MAGIC) {
+                throw new IOException("Not an archive segment: " + path.getFileName());
+            }
+            int version = in.readUnsignedByte();
+            if (version > VERSION) {
+                throw new IOException("Unsupported archive version " + version + " in " + path.getFileName());
+            }
+            if (version == VERSION) {
+                RecordFrame.Reader reader = new RecordFrame.Reader(in, quarantine);
+                byte[] payload;
+                while ((payload = reader.next()) != null) {
+                    long end = SEGMENT_HEADER_SIZE + reader.getValidEnd();
+                    visitor.visit(end - RecordFrame.HEADER_SIZE - payload.length, payload);
+                }
+                return SEGMENT_HEADER_SIZE + reader.getValidEnd();
+            }
+
+            long position = SEGMENT_HEADER_SIZE;
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        throw new EOFException("Negative record length");
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return position;
+                }
+                visitor.visit(position, payload);
+                position += 4 + payload.length;
+            }
+        } catch (EOFException e) {
+            // Segmento vacío o con la cabecera cortada
+            return 0;
+        }
+    }
+
+    /**
+     * Lee todas las ofertas de un segmento en orden, sin usar el índice ni modificar nada.
+     * Pensado para herramientas que inspeccionan el directorio de datos con el servidor apagado.
+     */
+    public static void readSegment(Path path, Consumer<ArchivedOffer> sink) throws IOException {
+        forEachRecord(path, null, (position, payload) -> sink.accept(decode(payload)));
+    }
+
+    private static List<IndexEntry> readIndex(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Not an archive index: " + path.getFileName());
+            }
+            int count = in.readInt();
+            List<IndexEntry> index = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                UUID offerId = new UUID(in.readLong(), in.readLong());
+                UUID creatorUUID = new UUID(in.readLong(), in.readLong());
+                index.add(new IndexEntry(offerId, creatorUUID, in.readLong()));
+            }
+            return index;
+        }
+    }
+
+    private static void writeIndex(Path path, List<IndexEntry> entries) throws IOException {
+        List<IndexEntry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing((IndexEntry entry) -> entry.offerId));
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(sorted.size());
+            for (IndexEntry entry : sorted) {
+                out.writeLong(entry.offerId.getMostSignificantBits());
+                out.writeLong(entry.offerId.getLeastSignificantBits());
+                out.writeLong(entry.creatorUUID.getMostSignificantBits());
+                out.writeLong(entry.creatorUUID.getLeastSignificantBits());
+                out.writeLong(entry.position);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Nombres de los segmentos en disco (sin extensión).
+     *
+     * @param newestFirst true para ordenarlos del más reciente al más antiguo
+     */
+    private List<String> listSegments(boolean newestFirst) throws IOException {
+        List<String> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                segments.add(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+            }
+        }
+        // "2026-10-17" queda después de "2026-10": los días sin compactar son más recientes que su mes
+        segments.sort(newestFirst ? Comparator.reverseOrder() : Comparator.naturalOrder());
+        return segments;
+    }
+
+    private static LocalDate parseDay(String segment) {
+        try {
+            return LocalDate.parse(segment);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static YearMonth parseMonth(String segment) {
+        try {
+            return YearMonth.parse(segment);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(ArchivedOffer offer) throws IOException {
+        byte[] record = BinaryOfferFormat.encode(offer.record);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9 + record.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(offer.reason.ordinal());
+        out.writeLong(offer.archivedTime);
+        out.write(record);
+        return bytes.toByteArray();
+    }
+
+    private static ArchivedOffer decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Reason reason = Reason.fromId(in.readUnsignedByte());
+        long archivedTime = in.readLong();
+        OfferRecord record = BinaryOfferFormat.decode(Arrays.copyOfRange(payload, 9, payload.length));
+        return new ArchivedOffer(record, reason, archivedTime);
+    }
+
+    /**
+     * Escribe lo pendiente y cierra el segmento abierto.
+     */
+    @Override
+    public void close() {
+        persistenceWorker.shutdown();
+        synchronized (this) {
+            try {
+                sealCurrent();
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to close offer archive: " + e.getMessage());
+            }
+        }
+    }
+}
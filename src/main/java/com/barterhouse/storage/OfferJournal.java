@@ -0,0 +1,386 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registro append-only (write-ahead) de las mutaciones de ofertas.
+ * Cada creación, eliminación o expiración se guarda como un registro pequeño
+ * en vez de reescribir el archivo completo de ofertas.
+ *
+ * Cada segmento empieza con [int magic "BHJL"][byte versión] y cada registro se guarda en un
+ * {@link RecordFrame} (longitud + CRC32C) con [byte operación][payload]. Al reproducir se
+ * saltan los registros dañados y se descarta una cola cortada por una caída. Los segmentos
+ * anteriores a los checksums ([byte operación][int longitud][payload], sin cabecera) se
+ * siguen reproduciendo.
+ * El registro se divide en segmentos numerados ("offers.journal.N"); al compactar
+ * se abre un segmento nuevo y los anteriores se borran cuando el snapshot ya fue escrito.
+ */
+public class OfferJournal implements Closeable {
+
+    public static final byte OP_CREATE = 1;
+    public static final byte OP_REMOVE = 2;
+    public static final byte OP_EXPIRE = 3;
+
+    public static final String SEGMENT_PREFIX = "offers.journal.";
+    public static final int SEGMENT_MAGIC = 0x42484A4C; // "BHJL"
+    public static final int VERSION = 2;
+    private static final int SEGMENT_HEADER_SIZE = 5;
+    private static final int LEGACY_HEADER_SIZE = 5;
+    private static final int SYNC_BATCH = 64; // Forzar fsync cada 64 registros
+    private static final long SYNC_INTERVAL_MS = 500; // o como mucho cada medio segundo
+
+    /**
+     * Receptor de los registros leídos durante la reproducción del journal.
+     */
+    public interface ReplayHandler {
+        void onCreate(byte[] payload) throws IOException;
+
+        void onRemove(UUID offerId, boolean expired);
+    }
+
+    private final Path directory;
+    private ScheduledExecutorService syncer;
+    private FileChannel channel;
+    private DataOutputStream out;
+    private long sequence;
+    private long segmentSize;
+    private int unsyncedRecords;
+
+    public OfferJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Abre un segmento nuevo para escribir. Debe llamarse después de {@link #replay}.
+     */
+    public synchronized void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        List<Long> existing = listSegments();
+        sequence = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        openSegment();
+
+        syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "BarterHouse-Journal-Sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void openSegment() throws IOException {
+        Path path = segmentPath(sequence);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 16 * 1024));
+        segmentSize = channel.size();
+        unsyncedRecords = 0;
+        if (segmentSize == 0) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeByte(VERSION);
+            segmentSize = SEGMENT_HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Registra la creación de una oferta. El payload es la oferta serializada.
+     */
+    public synchronized void appendCreate(byte[] payload) {
+        append(OP_CREATE, payload);
+    }
+
+    /**
+     * Registra la eliminación (o expiración) de una oferta.
+     */
+    public synchronized void appendRemove(UUID offerId, boolean expired) {
+        byte[] payload = new byte[16];
+        writeLong(payload, 0, offerId.getMostSignificantBits());
+        writeLong(payload, 8, offerId.getLeastSignificantBits());
+        append(expired ? OP_EXPIRE : OP_REMOVE, payload);
+    }
+
+    private void append(byte op, byte[] payload) {
+        if (out == null) {
+            LoggerUtil.error("Cannot append to offer journal: journal is not open");
+            return;
+        }
+        try {
+            byte[] record = new byte[1 + payload.length];
+            record[0] = op;
+            System.arraycopy(payload, 0, record, 1, payload.length);
+            RecordFrame.write(out, record);
+            segmentSize += RecordFrame.HEADER_SIZE + record.length;
+            if (++unsyncedRecords >= SYNC_BATCH && syncer != null) {
+                syncer.execute(this::sync);
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to append to offer journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Vacía el buffer y fuerza los datos a disco. El fsync se hace fuera del lock
+     * para no bloquear al hilo del servidor mientras escribe registros nuevos.
+     */
+    public void sync() {
+        FileChannel toForce;
+        synchronized (this) {
+            if (out == null || unsyncedRecords == 0) {
+                return;
+            }
+            try {
+                out.flush();
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to flush offer journal: " + e.getMessage());
+                return;
+            }
+            unsyncedRecords = 0;
+            toForce = channel;
+        }
+        try {
+            toForce.force(false);
+        } catch (ClosedChannelException ignored) {
+            // El segmento se rotó mientras tanto; rotate() ya hizo el fsync
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to sync offer journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cierra el segmento actual y abre el siguiente.
+     *
+     * @return Número del segmento nuevo; todos los segmentos anteriores quedan
+     *         cubiertos por un snapshot tomado en este momento
+     */
+    public synchronized long rotate() throws IOException {
+        closeSegment();
+        sequence++;
+        openSegment();
+        return sequence;
+    }
+
+    /**
+     * Tamaño en bytes del segmento actual (lo escrito desde la última compactación).
+     */
+    public synchronized long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Borra los segmentos anteriores al indicado, ya incluidos en un snapshot.
+     */
+    public void deleteSegmentsBefore(long sequenceLimit) {
+        try {
+            for (long seq : listSegments()) {
+                if (seq < sequenceLimit) {
+                    Files.deleteIfExists(segmentPath(seq));
+                }
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to delete old journal segments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reproduce todos los segmentos existentes en orden. Los registros con checksum inválido
+     * se saltan; si el último registro de un segmento quedó incompleto (caída del servidor),
+     * se trunca el segmento en ese punto.
+     *
+     * @return Número de registros reproducidos
+     */
+    public int replay(ReplayHandler handler) throws IOException {
+        int replayed = 0;
+        for (long seq : listSegments()) {
+            Path path = segmentPath(seq);
+            replayed += hasHeader(path) ? replaySegment(path, handler, true) : replayLegacy(path, handler, true);
+        }
+        return replayed;
+    }
+
+    /**
+     * Lee un segmento sin modificarlo: no se trunca ni se copia nada a la cuarentena.
+     * Pensado para herramientas que inspeccionan el directorio de datos con el servidor apagado.
+     *
+     * @return Número de registros leídos
+     */
+    public static int readSegment(Path path, ReplayHandler handler) throws IOException {
+        return hasHeader(path) ? replaySegment(path, handler, false) : replayLegacy(path, handler, false);
+    }
+
+    private static boolean hasHeader(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readInt() == SEGMENT_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reproduce un segmento con checksums. Los registros dañados se saltan (y quedan en la
+     * cuarentena); lo que sigue al último registro válido se trunca.
+     */
+    private static int replaySegment(Path path, ReplayHandler handler, boolean repair) throws IOException {
+        int replayed = 0;
+        long validLength;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            in.skipNBytes(SEGMENT_HEADER_SIZE);
+            RecordFrame.Reader reader = new RecordFrame.Reader(in, repair ? path : null);
+            byte[] record;
+            while ((record = reader.next()) != null) {
+                if (record.length > 0) {
+                    apply(handler, record[0], Arrays.copyOfRange(record, 1, record.length), path);
+                    replayed++;
+                }
+            }
+            validLength = SEGMENT_HEADER_SIZE + reader.getValidEnd();
+        }
+        if (repair) {
+            truncate(path, validLength);
+        }
+        return replayed;
+    }
+
+    /**
+     * Reproduce un segmento sin checksums. Si el último registro quedó incompleto, se
+     * trunca el segmento en ese punto.
+     */
+    private static int replayLegacy(Path path, ReplayHandler handler, boolean repair) throws IOException {
+        int replayed = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int op = in.read();
+                if (op < 0) {
+                    break;
+                }
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        throw new EOFException("Negative record length");
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    LoggerUtil.warn("Truncated record at end of " + path.getFileName() + ", discarding it");
+                    break;
+                }
+
+                apply(handler, op, payload, path);
+                validLength += LEGACY_HEADER_SIZE + payload.length;
+                replayed++;
+            }
+        }
+        if (repair) {
+            truncate(path, validLength);
+        }
+        return replayed;
+    }
+
+    private static void truncate(Path path, long validLength) throws IOException {
+        if (validLength < Files.size(path)) {
+            try (FileChannel truncate = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncate.truncate(validLength);
+            }
+        }
+    }
+
+    private static void apply(ReplayHandler handler, int op, byte[] payload, Path path) {
+        try {
+            if (op == OP_CREATE) {
+                handler.onCreate(payload);
+            } else if (op == OP_REMOVE || op == OP_EXPIRE) {
+                UUID offerId = new UUID(readLong(payload, 0), readLong(payload, 8));
+                handler.onRemove(offerId, op == OP_EXPIRE);
+            } else {
+                LoggerUtil.warn("Unknown journal operation " + op + " in " + path.getFileName());
+            }
+        } catch (Exception e) {
+            LoggerUtil.error("Failed to replay journal record in " + path.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Indica si hay segmentos del journal en disco.
+     */
+    public boolean hasSegments() throws IOException {
+        return !listSegments().isEmpty();
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return sequences;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+            for (Path path : stream) {
+                String suffix = path.getFileName().toString().substring(SEGMENT_PREFIX.length());
+                try {
+                    sequences.add(Long.parseLong(suffix));
+                } catch (NumberFormatException ignored) {
+                    // No es un segmento del journal
+                }
+            }
+        }
+        sequences.sort(Long::compare);
+        return sequences;
+    }
+
+    private Path segmentPath(long seq) {
+        return directory.resolve(SEGMENT_PREFIX + seq);
+    }
+
+    private void closeSegment() throws IOException {
+        if (out != null) {
+            out.flush();
+            channel.force(false);
+            out.close();
+            out = null;
+            channel = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+            syncer = null;
+        }
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to close offer journal: " + e.getMessage());
+        }
+    }
+
+    private static void writeLong(byte[] buffer, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] buffer, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,38 @@
+package com.barterhouse.storage;
+
+import java.util.UUID;
+
+/**
+ * Representación de una oferta tal como se guarda en disco, sin depender de
+ * las clases de Minecraft. Los items se guardan por su id de registro
+ * ("minecraft:diamond") y su NBT ya serializado.
+ */
+public class OfferRecord {
+
+    public final UUID offerId;
+    public final UUID creatorUUID;
+    public final String creatorName;
+    public final String offeredItem;
+    public final int offeredCount;
+    public final byte[] offeredTag; // NBT binario del item, o null si no tiene
+    public final String requestedItem;
+    public final int requestedCount;
+    public final byte[] requestedTag;
+    public final long createdTime;
+
+    public OfferRecord(UUID offerId, UUID creatorUUID, String creatorName,
+                       String offeredItem, int offeredCount, byte[] offeredTag,
+                       String requestedItem, int requestedCount, byte[] requestedTag,
+                       long createdTime) {
+        this.offerId = offerId;
+        this.creatorUUID = creatorUUID;
+        this.creatorName = creatorName;
+        this.offeredItem = offeredItem;
+        this.offeredCount = offeredCount;
+        this.offeredTag = offeredTag;
+        this.requestedItem = requestedItem;
+        this.requestedCount = requestedCount;
+        this.requestedTag = requestedTag;
+        this.createdTime = createdTime;
+    }
+}
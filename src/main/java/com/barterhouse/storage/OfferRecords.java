@@ -0,0 +1,252 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.api.TradeOffer;
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.manager.NbtBlobManager;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conversión entre {@link TradeOffer} y {@link OfferRecord}.
+ * Guarda el NBT completo de cada item, incluido ActualCount: en el libro activo, como
+ * referencia a su blob ({@link NbtBlobStore}); en el archivo y las copias, completo.
+ */
+public class OfferRecords {
+
+    /**
+     * Items de una oferta cargada en modo diferido: conserva el registro tal como se leyó
+     * del disco y construye los ItemStacks solo cuando la oferta se usa.
+     */
+    private static class LazyItems implements TradeOffer.ItemData {
+        private final OfferRecord record;
+
+        LazyItems(OfferRecord record) {
+            this.record = record;
+        }
+
+        @Override
+        public String getOfferedItemId() {
+            return record.offeredItem;
+        }
+
+        @Override
+        public int getOfferedCount() {
+            return record.offeredCount;
+        }
+
+        @Override
+        public String getRequestedItemId() {
+            return record.requestedItem;
+        }
+
+        @Override
+        public int getRequestedCount() {
+            return record.requestedCount;
+        }
+
+        @Override
+        public ItemStack[] decode() throws IOException {
+            return new ItemStack[] {
+                    toStack(record.offeredItem, record.offeredCount, record.offeredTag, null),
+                    toStack(record.requestedItem, record.requestedCount, record.requestedTag, null)
+            };
+        }
+    }
+
+    /**
+     * Convierte un registro leído al arrancar. Con storage.lazy_offer_loading activo solo
+     * se comprueba que los items existan; los ItemStacks y el NBT se decodifican al usar la oferta.
+     */
+    public static TradeOffer load(OfferRecord record) throws IOException {
+        return load(record, null);
+    }
+
+    /**
+     * Igual que {@link #load(OfferRecord)}, pero resolviendo los items con una tabla
+     * ya construida. Con una tabla puede llamarse desde cualquier hilo.
+     *
+     * @param items Tabla de items, o null para consultar el registro de Forge
+     */
+    public static TradeOffer load(OfferRecord record, ItemIdTable items) throws IOException {
+        if (!StorageConfig.getInstance().isLazyOfferLoading()) {
+            return toOffer(record, items);
+        }
+        resolve(record.offeredItem, items);
+        resolve(record.requestedItem, items);
+        return TradeOffer.lazy(record.offerId, record.creatorUUID, record.creatorName,
+                record.createdTime, new LazyItems(record));
+    }
+
+    /**
+     * Convierte una oferta en su representación en disco. El NBT de cada item se guarda en
+     * su blob y el registro lleva solo la referencia (completo si no hay almacén de blobs).
+     */
+    public static OfferRecord fromOffer(TradeOffer offer) throws IOException {
+        // Una oferta que nunca se usó se guarda con el mismo registro con que se cargó
+        TradeOffer.ItemData pending = offer.getPendingItems();
+        if (pending instanceof LazyItems) {
+            return ((LazyItems) pending).record;
+        }
+        ItemStack offered = offer.getOfferedItem();
+        ItemStack requested = offer.getRequestedItem();
+        return new OfferRecord(
+                offer.getOfferId(),
+                offer.getCreatorUUID(),
+                offer.getCreatorName(),
+                itemId(offered), offered.getCount(), tagReference(offered),
+                itemId(requested), requested.getCount(), tagReference(requested),
+                offer.getCreatedTime());
+    }
+
+    /**
+     * Igual que {@link #fromOffer}, pero con el NBT completo dentro del registro, para el
+     * archivo y las copias de seguridad, que no dependen de que los blobs sigan existiendo.
+     */
+    public static OfferRecord fromOfferInline(TradeOffer offer) throws IOException {
+        TradeOffer.ItemData pending = offer.getPendingItems();
+        if (pending instanceof LazyItems) {
+            OfferRecord record = ((LazyItems) pending).record;
+            return new OfferRecord(record.offerId, record.creatorUUID, record.creatorName,
+                    record.offeredItem, record.offeredCount, inline(record.offeredTag),
+                    record.requestedItem, record.requestedCount, inline(record.requestedTag),
+                    record.createdTime);
+        }
+        ItemStack offered = offer.getOfferedItem();
+        ItemStack requested = offer.getRequestedItem();
+        return new OfferRecord(
+                offer.getOfferId(),
+                offer.getCreatorUUID(),
+                offer.getCreatorName(),
+                itemId(offered), offered.getCount(), tagBytes(offered),
+                itemId(requested), requested.getCount(), tagBytes(requested),
+                offer.getCreatedTime());
+    }
+
+    /**
+     * Hashes de los blobs que usa una oferta (0 a 2), para contar sus referencias. Las
+     * ofertas en modo diferido no se decodifican: el NBT que todavía está completo en el
+     * registro se interpreta solo para calcular su hash.
+     */
+    public static List<String> blobHashes(TradeOffer offer) throws IOException {
+        List<String> hashes = new ArrayList<>(2);
+        TradeOffer.ItemData pending = offer.getPendingItems();
+        if (pending instanceof LazyItems) {
+            OfferRecord record = ((LazyItems) pending).record;
+            addHash(hashes, record.offeredTag);
+            addHash(hashes, record.requestedTag);
+        } else {
+            addHash(hashes, offer.getOfferedItem());
+            addHash(hashes, offer.getRequestedItem());
+        }
+        return hashes;
+    }
+
+    private static void addHash(List<String> hashes, byte[] tag) throws IOException {
+        if (tag == null) {
+            return;
+        }
+        String hash = NbtBlobStore.referencedHash(tag);
+        hashes.add(hash != null ? hash : NbtBlobStore.hash(readTag(tag).getAsString()));
+    }
+
+    private static void addHash(List<String> hashes, ItemStack stack) {
+        if (stack.hasTag()) {
+            hashes.add(NbtBlobStore.hash(stack.getTag().getAsString()));
+        }
+    }
+
+    /**
+     * Reconstruye una oferta desde su representación en disco.
+     *
+     * @throws IOException si algún item ya no existe en el registro o el NBT está dañado
+     */
+    public static TradeOffer toOffer(OfferRecord record) throws IOException {
+        return toOffer(record, null);
+    }
+
+    private static TradeOffer toOffer(OfferRecord record, ItemIdTable items) throws IOException {
+        ItemStack offered = toStack(record.offeredItem, record.offeredCount, record.offeredTag, items);
+        ItemStack requested = toStack(record.requestedItem, record.requestedCount, record.requestedTag, items);
+        return new TradeOffer(record.offerId, record.creatorUUID, record.creatorName,
+                offered, requested, record.createdTime);
+    }
+
+    private static String itemId(ItemStack stack) {
+        return ForgeRegistries.ITEMS.getKey(stack.getItem()).toString();
+    }
+
+    private static byte[] tagBytes(ItemStack stack) throws IOException {
+        if (!stack.hasTag()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        NbtIo.write(stack.getTag(), out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] tagReference(ItemStack stack) throws IOException {
+        NbtBlobManager blobs = NbtBlobManager.getInstance();
+        if (!stack.hasTag() || !blobs.isAvailable()) {
+            return tagBytes(stack);
+        }
+        return NbtBlobStore.reference(blobs.put(stack.getTag()));
+    }
+
+    /**
+     * NBT binario completo de un tag de registro, resolviendo la referencia si la tiene.
+     */
+    private static byte[] inline(byte[] tag) throws IOException {
+        String hash = NbtBlobStore.referencedHash(tag);
+        if (hash == null) {
+            return tag;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        NbtIo.write(NbtBlobManager.getInstance().getTag(hash), out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static CompoundTag readTag(byte[] tag) throws IOException {
+        String hash = NbtBlobStore.referencedHash(tag);
+        if (hash != null) {
+            return NbtBlobManager.getInstance().getTag(hash).copy();
+        }
+        return NbtIo.read(new DataInputStream(new ByteArrayInputStream(tag)));
+    }
+
+    private static Item resolve(String itemId, ItemIdTable items) throws IOException {
+        Item item = null;
+        if (items != null) {
+            item = items.get(itemId);
+        } else {
+            ResourceLocation location = ResourceLocation.tryParse(itemId);
+            if (location != null && ForgeRegistries.ITEMS.containsKey(location)) {
+                item = ForgeRegistries.ITEMS.getValue(location);
+            }
+        }
+        if (item == null) {
+            throw new IOException("Unknown item " + itemId);
+        }
+        return item;
+    }
+
+    private static ItemStack toStack(String itemId, int count, byte[] tag, ItemIdTable items) throws IOException {
+        Item item = resolve(itemId, items);
+        ItemStack stack = new ItemStack(item, count);
+        if (tag != null) {
+            stack.setTag(readTag(tag));
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,96 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.api.TradeOffer;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Backend de persistencia de ofertas usado por {@link com.barterhouse.manager.TradeOfferManager}.
+ * Todos los métodos se llaman desde el hilo del servidor; cada implementación decide
+ * qué trabajo mueve a segundo plano. La excepción es la recarga: el manager vacía el backend
+ * anterior y carga el nuevo en otro hilo, sin escribir en ninguno de los dos mientras tanto.
+ * El anterior queda abierto hasta que el nuevo carga bien; si la carga falla, se cierra el
+ * nuevo y se sigue usando el anterior. Nunca hay dos hilos usando el mismo backend a la vez.
+ */
+public interface OfferStore {
+
+    /**
+     * Carga las ofertas guardadas, incluidas las que expiraron con el servidor apagado;
+     * el manager las archiva y las elimina justo después.
+     *
+     * @param offers Mapa donde se colocan las ofertas cargadas
+     */
+    void load(Map<UUID, TradeOffer> offers) throws IOException;
+
+    /**
+     * Registra una oferta recién creada.
+     */
+    void offerCreated(TradeOffer offer);
+
+    /**
+     * Registra la eliminación de una oferta.
+     *
+     * @param offer Oferta eliminada
+     * @param expired true si se eliminó por expiración
+     */
+    void offerRemoved(TradeOffer offer, boolean expired);
+
+    /**
+     * Busca en el almacenamiento las ofertas de un creador, incluidas las expiradas.
+     * Ve los cambios ya registrados aunque todavía no estén escritos.
+     *
+     * @return IDs de las ofertas, o null si el backend no tiene índices; el manager las
+     *         busca entonces entre las ofertas en memoria
+     */
+    default List<UUID> findByCreator(UUID creatorUUID) {
+        return null;
+    }
+
+    /**
+     * Busca en el almacenamiento las ofertas que ofrecen o piden alguno de los items dados.
+     *
+     * @param itemIds IDs de registro de los items ("minecraft:diamond")
+     * @param requested true para buscar por item solicitado, false por item ofrecido
+     * @return IDs de las ofertas, o null si el backend no puede resolver la búsqueda
+     */
+    default List<UUID> findByItems(Collection<String> itemIds, boolean requested) {
+        return null;
+    }
+
+    /**
+     * Busca en el almacenamiento las ofertas que expiraron antes de un instante.
+     *
+     * @param now Instante de referencia, en milisegundos
+     * @return IDs de las ofertas, o null si el backend no tiene índices
+     */
+    default List<UUID> findExpired(long now) {
+        return null;
+    }
+
+    /**
+     * Indica si el backend necesita un checkpoint antes del próximo guardado del mundo
+     * (por ejemplo, porque su journal creció demasiado).
+     */
+    boolean needsCheckpoint();
+
+    /**
+     * Consolida en disco el estado actual.
+     *
+     * @param snapshot Copia inmutable de las ofertas activas, tomada en el hilo del servidor
+     */
+    void checkpoint(List<TradeOffer> snapshot);
+
+    /**
+     * Espera a que terminen las escrituras pendientes.
+     */
+    void flush();
+
+    /**
+     * Libera archivos y recursos. El backend puede volver a usarse llamando a {@link #load}.
+     */
+    void close();
+}
@@ -0,0 +1,124 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.manager.WarehouseManager.StoredItem;
+import com.barterhouse.util.LoggerUtil;
+
+import java.util.*;
+
+/**
+ * Bodegas copiadas en el hilo del servidor que todavía no se escribieron, compartidas por los
+ * backends de bodega. El hilo de persistencia las toma en lotes con {@link #writeAll}; una
+ * escritura que falla vuelve a quedar pendiente para el próximo lote, y los créditos del
+ * jugador se borran recién cuando la escritura que los incluye terminó bien.
+ */
+class PendingWarehouseWrites {
+
+    /**
+     * Escritura de la bodega de un jugador en el hilo de persistencia.
+     */
+    interface Writer {
+        /**
+         * @param clearCredits Borrar los créditos pendientes del jugador después de escribir
+         */
+        void write(UUID playerUUID, List<StoredItem> items, boolean clearCredits) throws Exception;
+    }
+
+    private final Map<UUID, List<StoredItem>> dirty = new LinkedHashMap<>();
+    // Jugadores cuya copia pendiente ya incluye sus créditos
+    private final Set<UUID> clearCredits = new HashSet<>();
+    // Jugadores que el lote en curso está escribiendo
+    private final Set<UUID> writing = new HashSet<>();
+
+    /**
+     * Copia las entradas de una bodega, para escribirlas fuera del hilo del servidor.
+     */
+    static List<StoredItem> copyOf(Collection<StoredItem> items) {
+        List<StoredItem> copy = new ArrayList<>(items.size());
+        for (StoredItem item : items) {
+            StoredItem stored = new StoredItem();
+            stored.itemName = item.itemName;
+            stored.count = item.count;
+            stored.receivedTime = item.receivedTime;
+            stored.sourcePlayer = item.sourcePlayer;
+            stored.nbtHash = item.nbtHash;
+            stored.nbtData = item.nbtData;
+            copy.add(stored);
+        }
+        return copy;
+    }
+
+    /**
+     * Marca la copia de una bodega, reemplazando la pendiente del mismo jugador.
+     */
+    synchronized void put(UUID playerUUID, List<StoredItem> copy, boolean creditsApplied) {
+        dirty.put(playerUUID, copy);
+        if (creditsApplied) {
+            clearCredits.add(playerUUID);
+        }
+    }
+
+    /**
+     * @return La copia pendiente de un jugador, o null si no tiene
+     */
+    synchronized List<StoredItem> get(UUID playerUUID) {
+        return dirty.get(playerUUID);
+    }
+
+    /**
+     * Copia de todas las bodegas pendientes.
+     */
+    synchronized Map<UUID, List<StoredItem>> snapshot() {
+        return new HashMap<>(dirty);
+    }
+
+    synchronized boolean isEmpty() {
+        return dirty.isEmpty();
+    }
+
+    /**
+     * @return true si la bodega del jugador no tiene escrituras pendientes, en curso ni fallidas
+     */
+    synchronized boolean isSaved(UUID playerUUID) {
+        return !dirty.containsKey(playerUUID) && !writing.contains(playerUUID);
+    }
+
+    /**
+     * Escribe todas las bodegas pendientes hasta ahora. Se llama desde el hilo de persistencia.
+     * Las que fallan vuelven a quedar pendientes, salvo que mientras tanto haya llegado una
+     * copia más nueva.
+     */
+    void writeAll(Writer writer) {
+        Map<UUID, List<StoredItem>> batch;
+        Set<UUID> clearing = new HashSet<>();
+        synchronized (this) {
+            batch = new LinkedHashMap<>(dirty);
+            dirty.clear();
+            for (UUID playerUUID : batch.keySet()) {
+                if (clearCredits.remove(playerUUID)) {
+                    clearing.add(playerUUID);
+                }
+            }
+            writing.addAll(batch.keySet());
+        }
+        for (Map.Entry<UUID, List<StoredItem>> entry : batch.entrySet()) {
+            UUID playerUUID = entry.getKey();
+            boolean clear = clearing.contains(playerUUID);
+            try {
+                writer.write(playerUUID, entry.getValue(), clear);
+            } catch (Exception e) {
+                LoggerUtil.error("Error saving warehouse of " + playerUUID + ", will retry: " + e.getMessage());
+                e.printStackTrace();
+                synchronized (this) {
+                    dirty.putIfAbsent(playerUUID, entry.getValue());
+                    if (clear) {
+                        clearCredits.add(playerUUID);
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    writing.remove(playerUUID);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.util.LoggerUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hilo dedicado para escrituras a disco fuera del hilo del servidor.
+ * Las tareas se agrupan por clave: si llega una escritura nueva para una clave
+ * que todavía no empezó a ejecutarse, reemplaza a la anterior, de modo que una
+ * ráfaga de cambios termina en una sola escritura.
+ */
+public class PersistenceWorker {
+
+    private final ExecutorService executor;
+    private final Map<String, Runnable> pending = new HashMap<>();
+
+    public PersistenceWorker(String threadName) {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Programa una escritura. Reemplaza la escritura pendiente de la misma clave.
+     *
+     * @param key Identificador del archivo o recurso a escribir
+     * @param task Escritura a ejecutar en el hilo de persistencia
+     */
+    public void submit(String key, Runnable task) {
+        synchronized (pending) {
+            if (pending.put(key, task) != null) {
+                return; // Ya hay una ejecución programada que tomará la tarea nueva
+            }
+        }
+        executor.execute(() -> runPending(key));
+    }
+
+    /**
+     * Programa una tarea que no se agrupa con otras, como agregar una línea a un archivo.
+     *
+     * @param name Nombre de la tarea para los errores
+     * @param task Tarea a ejecutar en el hilo de persistencia
+     */
+    public void execute(String name, Runnable task) {
+        executor.execute(() -> run(name, task));
+    }
+
+    private void runPending(String key) {
+        Runnable task;
+        synchronized (pending) {
+            task = pending.remove(key);
+        }
+        if (task != null) {
+            run(key, task);
+        }
+    }
+
+    private static void run(String name, Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            LoggerUtil.error("Persistence task '" + name + "' failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Ejecuta una lectura en el hilo de persistencia, después de las escrituras programadas
+     * hasta ahora, de modo que ve lo último que se guardó. No se agrupa con otras tareas.
+     *
+     * @param task Lectura a ejecutar
+     * @return Resultado, completado en el hilo de persistencia
+     */
+    public <T> CompletableFuture<T> call(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    /**
+     * Bloquea hasta que todas las escrituras programadas hasta ahora terminen.
+     */
+    public void awaitIdle() {
+        Future<?> marker = executor.submit(() -> { });
+        try {
+            marker.get(60, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            LoggerUtil.error("Timed out waiting for pending writes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Espera las escrituras programadas y termina el hilo. Lo llama el {@code close()} de
+     * cada dueño; después de esto no se pueden programar más tareas.
+     */
+    public void shutdown() {
+        awaitIdle();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,216 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.zip.CRC32C;
+
+/**
+ * Encapsulado de registros con longitud y checksum, común a los archivos binarios de
+ * BarterHouse.
+ *
+ * Cada registro se escribe como [int marca "BHRF"][int longitud][int CRC32C][payload].
+ * Al leer se verifica el checksum de cada registro; si uno está dañado, el lector busca la
+ * siguiente marca con un checksum válido y sigue desde ahí, de modo que solo se pierden los
+ * registros dañados. Los bytes descartados se copian a "quarantine/" junto al archivo.
+ */
+public class RecordFrame {
+
+    public static final int MARKER = 0x42485246; // "BHRF"
+    public static final int HEADER_SIZE = 12;
+    public static final String QUARANTINE_DIRECTORY = "quarantine";
+
+    // Un registro más grande que esto se considera una longitud dañada
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Escribe un registro.
+     */
+    public static void write(DataOutput out, byte[] payload, int length) throws IOException {
+        out.writeInt(MARKER);
+        out.writeInt(length);
+        out.writeInt(checksum(payload, 0, length));
+        out.write(payload, 0, length);
+    }
+
+    public static void write(DataOutput out, byte[] payload) throws IOException {
+        write(out, payload, payload.length);
+    }
+
+    public static int checksum(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Guarda en "quarantine/" (junto al archivo de datos) bytes que no se pudieron leer,
+     * para poder revisarlos a mano.
+     *
+     * @param source Archivo del que provienen
+     * @param data Bytes descartados
+     */
+    public static void quarantine(Path source, byte[] data, int offset, int length) {
+        if (source == null || length == 0) {
+            return;
+        }
+        try {
+            Path directory = source.toAbsolutePath().getParent().resolve(QUARANTINE_DIRECTORY);
+            Files.createDirectories(directory);
+            String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            Path target = directory.resolve(source.getFileName() + "." + stamp + ".bad");
+            try (OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(data, offset, length);
+            }
+            LoggerUtil.warn("Quarantined " + length + " damaged bytes of " + source.getFileName() + " to " + target);
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to quarantine damaged data of " + source.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lector secuencial de registros con verificación y recuperación.
+     */
+    public static class Reader {
+        private final InputStream in;
+        private final Path source;
+        private byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+        private boolean eof;
+        private long consumed; // Bytes del stream anteriores a buffer[0]
+        private long validEnd;
+        private int damageStart = -1; // Inicio en el buffer de la zona dañada en curso
+        private int damagedRegions;
+        private long damagedBytes;
+
+        /**
+         * @param in Stream posicionado en el primer registro (no se cierra)
+         * @param source Archivo de origen para la cuarentena, o null para no copiar los bytes dañados
+         */
+        public Reader(InputStream in, Path source) {
+            this.in = in;
+            this.source = source;
+        }
+
+        /**
+         * Lee el siguiente registro válido, saltando las zonas dañadas.
+         *
+         * @return El payload, o null al final del stream
+         */
+        public byte[] next() throws IOException {
+            damageStart = -1;
+            while (true) {
+                if (!ensure(HEADER_SIZE)) {
+                    // Cola más corta que una cabecera: escritura cortada
+                    if (limit > position) {
+                        markDamaged(damageStart < 0 ? position : damageStart, limit);
+                        position = limit;
+                    } else if (damageStart >= 0) {
+                        markDamaged(damageStart, limit);
+                    }
+                    return null;
+                }
+                if (readInt(position) == MARKER) {
+                    int length = readInt(position + 4);
+                    if (length >= 0 && length <= MAX_RECORD_SIZE && ensure(HEADER_SIZE + length)) {
+                        int start = position + HEADER_SIZE;
+                        if (checksum(buffer, start, length) == readInt(position + 8)) {
+                            if (damageStart >= 0) {
+                                markDamaged(damageStart, position);
+                            }
+                            byte[] payload = new byte[length];
+                            System.arraycopy(buffer, start, payload, 0, length);
+                            position = start + length;
+                            validEnd = consumed + position;
+                            return payload;
+                        }
+                    }
+                }
+                // Registro dañado: buscar la siguiente marca byte a byte
+                if (damageStart < 0) {
+                    damageStart = position;
+                }
+                position++;
+                if (position - damageStart >= buffer.length / 2) {
+                    // No retener zonas dañadas enormes en memoria
+                    markDamaged(damageStart, position);
+                    damageStart = position;
+                }
+            }
+        }
+
+        /**
+         * Posición del stream donde termina el último registro válido.
+         */
+        public long getValidEnd() {
+            return validEnd;
+        }
+
+        /**
+         * Cantidad de zonas dañadas que se saltaron.
+         */
+        public int getDamagedRegions() {
+            return damagedRegions;
+        }
+
+        public long getDamagedBytes() {
+            return damagedBytes;
+        }
+
+        private void markDamaged(int from, int to) {
+            if (to <= from) {
+                return;
+            }
+            damagedRegions++;
+            damagedBytes += to - from;
+            quarantine(source, buffer, from, to - from);
+        }
+
+        /**
+         * Garantiza que haya {@code count} bytes disponibles desde {@code position}.
+         *
+         * @return false si el stream termina antes
+         */
+        private boolean ensure(int count) throws IOException {
+            if (limit - position >= count) {
+                return true;
+            }
+            // Compactar, conservando la zona dañada que todavía no se copió a la cuarentena
+            int keep = damageStart >= 0 ? damageStart : position;
+            if (keep > 0) {
+                System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+                consumed += keep;
+                limit -= keep;
+                position -= keep;
+                if (damageStart >= 0) {
+                    damageStart -= keep;
+                }
+            }
+            if (position + count > buffer.length) {
+                byte[] larger = new byte[Math.max(position + count, buffer.length * 2)];
+                System.arraycopy(buffer, 0, larger, 0, limit);
+                buffer = larger;
+            }
+            while (limit - position < count && !eof) {
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    limit += read;
+                }
+            }
+            return limit - position >= count;
+        }
+
+        private int readInt(int offset) {
+            return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16
+                    | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+        }
+    }
+}
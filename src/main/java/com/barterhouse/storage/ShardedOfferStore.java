@@ -0,0 +1,405 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.api.TradeOffer;
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.util.LoggerUtil;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Backend de ofertas repartido en N archivos ("offers/shard-NN.dat") según un hash del
+ * UUID del creador. Cada mutación solo marca su shard como sucio; en el checkpoint se
+ * reescriben únicamente los shards sucios, en paralelo sobre un fork-join pool.
+ * Entre checkpoints las mutaciones se guardan en el mismo journal que {@link FileOfferStore}.
+ */
+public class ShardedOfferStore implements OfferStore {
+
+    private static final String SHARD_DIRECTORY = "offers";
+    private static final String SHARD_PREFIX = "shard-";
+    private static final String SHARD_SUFFIX = ".dat";
+
+    // Pedir un checkpoint cuando el segmento actual del journal supera este tamaño
+    private static final long JOURNAL_COMPACT_THRESHOLD = 1024 * 1024;
+
+    private final Path dataDirectory;
+    private final Path shardDirectory;
+    private final int shardCount;
+    private final OfferJournal journal;
+    private final PersistenceWorker persistenceWorker;
+    private final ForkJoinPool shardPool;
+
+    // Shards modificados desde el último checkpoint (solo hilo del servidor)
+    private final BitSet dirtyShards = new BitSet();
+
+    // Trabajo pendiente para el hilo de persistencia; varios checkpoints se acumulan aquí
+    private final Object pendingLock = new Object();
+    private final BitSet pendingShards = new BitSet();
+    private List<TradeOffer> pendingSnapshot;
+    private long pendingSequence;
+    // Espera antes de reintentar una escritura de shards que falló (ver FileOfferStore)
+    private static final long SNAPSHOT_RETRY_DELAY_MS = 60 * 1000;
+
+    private volatile boolean snapshotFailed = false;
+    private volatile long retryAfter;
+    // Segmento rotado para shards que no se pudieron escribir (0 si no hay): el reintento
+    // cubre los mismos segmentos, sin volver a rotar. Solo lo cambia el hilo de persistencia
+    private volatile long unsavedSequence = 0;
+
+    public ShardedOfferStore(Path dataDirectory, int shardCount) {
+        this.dataDirectory = dataDirectory;
+        this.shardDirectory = dataDirectory.resolve(SHARD_DIRECTORY);
+        this.shardCount = Math.max(1, shardCount);
+        this.journal = new OfferJournal(dataDirectory);
+        this.persistenceWorker = new PersistenceWorker("BarterHouse-Offer-Persistence");
+        this.shardPool = new ForkJoinPool(Math.min(this.shardCount, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private int shardOf(UUID creatorUUID) {
+        return Math.floorMod(creatorUUID.hashCode(), shardCount);
+    }
+
+    private Path shardPath(int shard) {
+        return shardDirectory.resolve(String.format("%s%02d%s", SHARD_PREFIX, shard, SHARD_SUFFIX));
+    }
+
+    @Override
+    public void load(Map<UUID, TradeOffer> offers) throws IOException {
+        boolean resharded = false;
+        snapshotFailed = false;
+        unsavedSequence = 0;
+
+        // Los archivos anteriores se borran solo después de escribir todos los shards, así
+        // que si siguen ahí la migración no terminó y se repite desde el principio
+        boolean migrated = loadLegacy(offers);
+        Files.createDirectories(shardDirectory);
+        if (!migrated) {
+            List<Path> shardFiles = listShardFiles();
+            loadShards(shardFiles, offers);
+            // Si cambió la cantidad de shards, reescribirlos todos con la nueva distribución
+            Set<Path> expected = new HashSet<>();
+            for (int shard = 0; shard < shardCount; shard++) {
+                expected.add(shardPath(shard));
+            }
+            resharded = !expected.containsAll(shardFiles);
+        }
+
+        boolean hadJournal = journal.hasSegments();
+        int replayed = journal.replay(new OfferJournal.ReplayHandler() {
+            @Override
+            public void onCreate(byte[] payload) throws IOException {
+                CompoundTag tag = NbtIo.read(new DataInputStream(new ByteArrayInputStream(payload)));
+                TradeOffer offer = TradeOffer.deserializeNBT(tag);
+                offers.put(offer.getOfferId(), offer);
+                dirtyShards.set(shardOf(offer.getCreatorUUID()));
+            }
+
+            @Override
+            public void onRemove(UUID offerId, boolean expired) {
+                TradeOffer removed = offers.remove(offerId);
+                if (removed != null) {
+                    dirtyShards.set(shardOf(removed.getCreatorUUID()));
+                }
+            }
+        });
+        journal.open();
+        if (hadJournal) {
+            LoggerUtil.info("Replayed " + replayed + " journal records, " + offers.size() + " offers active");
+        }
+
+        if (migrated || resharded) {
+            // Escribir todos los shards antes de borrar los archivos anteriores
+            dirtyShards.set(0, shardCount);
+            long sequence = journal.rotate();
+            if (!writeShards(List.copyOf(offers.values()), (BitSet) dirtyShards.clone())) {
+                throw new IOException("Could not write offer shards");
+            }
+            dirtyShards.clear();
+            deleteStaleFiles(migrated);
+            journal.deleteSegmentsBefore(sequence);
+            LoggerUtil.info((migrated ? "Migrated " : "Resharded ") + offers.size() + " offers into " + shardCount + " shards");
+        } else if (!dirtyShards.isEmpty()) {
+            // Consolidar el journal reproducido en los shards afectados
+            checkpoint(List.copyOf(offers.values()));
+        }
+    }
+
+    /**
+     * Cuenta los archivos de shard guardados en el directorio de datos.
+     *
+     * @return 0 si nunca se usó el backend por shards
+     */
+    static int countShards(Path dataDirectory) throws IOException {
+        Path directory = dataDirectory.resolve(SHARD_DIRECTORY);
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SHARD_PREFIX + "*" + SHARD_SUFFIX)) {
+            for (Path ignored : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<Path> listShardFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(shardDirectory, SHARD_PREFIX + "*" + SHARD_SUFFIX)) {
+            for (Path path : stream) {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Lee todos los shards en paralelo.
+     */
+    private void loadShards(List<Path> shardFiles, Map<UUID, TradeOffer> offers) throws IOException {
+        long start = System.currentTimeMillis();
+        // Los shards ya se leen en paralelo; cada uno se decodifica en su propio hilo
+        ItemIdTable items = ItemIdTable.resolve();
+        List<Callable<Map<UUID, TradeOffer>>> tasks = new ArrayList<>();
+        for (Path shardFile : shardFiles) {
+            tasks.add(() -> {
+                Map<UUID, TradeOffer> shardOffers = new HashMap<>();
+                FileOfferStore.loadFromFile(shardFile, shardOffers, items, false);
+                return shardOffers;
+            });
+        }
+
+        for (Future<Map<UUID, TradeOffer>> result : shardPool.invokeAll(tasks)) {
+            try {
+                offers.putAll(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading offer shards");
+            } catch (ExecutionException e) {
+                // Un shard ilegible no impide cargar los demás
+                LoggerUtil.error("Failed to load offer shard: " + e.getCause().getMessage());
+            }
+        }
+        LoggerUtil.info("Loaded " + offers.size() + " trade offers from " + shardFiles.size()
+                + " shards in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Carga el snapshot de un solo archivo que existía antes de los shards.
+     *
+     * @return true si se encontró algún archivo para migrar
+     */
+    private boolean loadLegacy(Map<UUID, TradeOffer> offers) throws IOException {
+        Path binaryPath = dataDirectory.resolve(FileOfferStore.BINARY_FILE);
+        Path jsonPath = dataDirectory.resolve(FileOfferStore.JSON_FILE);
+        Path nbtPath = dataDirectory.resolve(FileOfferStore.LEGACY_NBT_FILE);
+
+        if (Files.exists(binaryPath)) {
+            FileOfferStore.loadFromFile(binaryPath, offers);
+        } else if (Files.exists(jsonPath)) {
+            FileOfferStore.loadFromFile(jsonPath, offers);
+        } else if (Files.exists(nbtPath)) {
+            FileOfferStore.loadFromNBT(nbtPath, offers);
+        } else {
+            return false;
+        }
+        LoggerUtil.info("Migrating trade offers into " + shardCount + " shards...");
+        return true;
+    }
+
+    private void deleteStaleFiles(boolean migrated) throws IOException {
+        if (migrated) {
+            Files.deleteIfExists(dataDirectory.resolve(FileOfferStore.BINARY_FILE));
+            Files.deleteIfExists(dataDirectory.resolve(FileOfferStore.JSON_FILE));
+            Files.deleteIfExists(dataDirectory.resolve(FileOfferStore.LEGACY_NBT_FILE));
+        }
+        for (Path shardFile : listShardFiles()) {
+            String name = shardFile.getFileName().toString();
+            String number = name.substring(SHARD_PREFIX.length(), name.length() - SHARD_SUFFIX.length());
+            try {
+                if (Integer.parseInt(number) < shardCount) {
+                    continue;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+            Files.delete(shardFile);
+        }
+    }
+
+    @Override
+    public void offerCreated(TradeOffer offer) {
+        dirtyShards.set(shardOf(offer.getCreatorUUID()));
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream dos = new DataOutputStream(bytes);
+            NbtIo.write(offer.serializeNBT(), dos);
+            dos.close();
+            journal.appendCreate(bytes.toByteArray());
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to journal offer " + offer.getOfferId() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void offerRemoved(TradeOffer offer, boolean expired) {
+        dirtyShards.set(shardOf(offer.getCreatorUUID()));
+        journal.appendRemove(offer.getOfferId(), expired);
+    }
+
+    @Override
+    public boolean needsCheckpoint() {
+        if (snapshotFailed) {
+            return System.currentTimeMillis() >= retryAfter;
+        }
+        return journal.getSegmentSize() >= JOURNAL_COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Rota el journal y programa la escritura de los shards sucios. Si el hilo de
+     * persistencia todavía no atendió un checkpoint anterior, los shards de ambos se
+     * escriben juntos con el snapshot más reciente. Si la escritura anterior falló, el
+     * journal no se rota otra vez hasta que una escritura termine bien.
+     */
+    @Override
+    public void checkpoint(List<TradeOffer> snapshot) {
+        if (snapshotFailed) {
+            retryAfter = System.currentTimeMillis() + SNAPSHOT_RETRY_DELAY_MS;
+        }
+        long sequence = unsavedSequence;
+        if (sequence == 0) {
+            try {
+                sequence = journal.rotate();
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to rotate offer journal: " + e.getMessage());
+                markSnapshotFailed();
+                return;
+            }
+        }
+        synchronized (pendingLock) {
+            pendingShards.or(dirtyShards);
+            pendingSnapshot = snapshot;
+            pendingSequence = sequence;
+        }
+        dirtyShards.clear();
+        persistenceWorker.submit(SHARD_DIRECTORY, this::writePending);
+    }
+
+    private void markSnapshotFailed() {
+        retryAfter = System.currentTimeMillis() + SNAPSHOT_RETRY_DELAY_MS;
+        snapshotFailed = true;
+    }
+
+    private void writePending() {
+        BitSet shards;
+        List<TradeOffer> snapshot;
+        long sequence;
+        synchronized (pendingLock) {
+            if (pendingSnapshot == null) {
+                return;
+            }
+            shards = (BitSet) pendingShards.clone();
+            snapshot = pendingSnapshot;
+            sequence = pendingSequence;
+            pendingShards.clear();
+            pendingSnapshot = null;
+        }
+
+        if (shards.isEmpty() || writeShards(snapshot, shards)) {
+            journal.deleteSegmentsBefore(sequence);
+            unsavedSequence = 0;
+            snapshotFailed = false;
+        } else {
+            // Volver a marcar los shards para el próximo checkpoint; el journal se conserva
+            synchronized (pendingLock) {
+                pendingShards.or(shards);
+            }
+            unsavedSequence = sequence;
+            markSnapshotFailed();
+        }
+    }
+
+    /**
+     * Serializa y escribe en paralelo los shards indicados.
+     *
+     * @return true si todos los shards se escribieron correctamente
+     */
+    private boolean writeShards(List<TradeOffer> snapshot, BitSet shards) {
+        long start = System.currentTimeMillis();
+        Map<Integer, List<TradeOffer>> byShard = new HashMap<>();
+        for (int shard = shards.nextSetBit(0); shard >= 0; shard = shards.nextSetBit(shard + 1)) {
+            byShard.put(shard, new ArrayList<>());
+        }
+        for (TradeOffer offer : snapshot) {
+            List<TradeOffer> shardOffers = byShard.get(shardOf(offer.getCreatorUUID()));
+            if (shardOffers != null) {
+                shardOffers.add(offer);
+            }
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (Map.Entry<Integer, List<TradeOffer>> entry : byShard.entrySet()) {
+            tasks.add(() -> writeShard(entry.getKey(), entry.getValue()));
+        }
+
+        boolean success = true;
+        for (Future<Boolean> result : shardPool.invokeAll(tasks)) {
+            try {
+                success &= result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                LoggerUtil.error("Failed to save offer shard: " + e.getCause().getMessage());
+                success = false;
+            }
+        }
+        LoggerUtil.debug("Saved " + byShard.size() + " offer shards in " + (System.currentTimeMillis() - start) + " ms");
+        return success;
+    }
+
+    /**
+     * Escribe un shard en un archivo temporal y luego lo renombra.
+     */
+    private boolean writeShard(int shard, List<TradeOffer> shardOffers) {
+        try {
+            Path filePath = shardPath(shard);
+            Path tempPath = shardDirectory.resolve(filePath.getFileName() + ".tmp");
+
+            List<OfferRecord> records = new ArrayList<>(shardOffers.size());
+            for (TradeOffer offer : shardOffers) {
+                records.add(OfferRecords.fromOffer(offer));
+            }
+
+            DataCompression compression = StorageConfig.getInstance().getCompression();
+            try (OutputStream out = compression.compress(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                BinaryOfferFormat.write(out, records);
+            }
+            Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to save offer shard " + shard + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void flush() {
+        persistenceWorker.awaitIdle();
+        journal.sync();
+    }
+
+    @Override
+    public void close() {
+        persistenceWorker.shutdown();
+        shardPool.shutdown();
+        journal.close();
+        dirtyShards.clear();
+    }
+}
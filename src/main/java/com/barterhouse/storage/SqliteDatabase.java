@@ -0,0 +1,85 @@
+package com.barterhouse.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.*;
+
+/**
+ * Conexión a la base SQLite embebida ("barterhouse.db") compartida por los backends
+ * SQLite de ofertas y bodega. Cada backend abre su propia conexión y la usa desde un
+ * solo hilo; el modo WAL permite que ambas convivan sobre el mismo archivo.
+ */
+public class SqliteDatabase implements AutoCloseable {
+
+    public static final String DATABASE_FILE = "barterhouse.db";
+
+    private final Connection connection;
+
+    private SqliteDatabase(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Abre (o crea) la base de datos del directorio indicado.
+     */
+    public static SqliteDatabase open(Path dataDirectory) throws IOException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dataDirectory.resolve(DATABASE_FILE).toAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("PRAGMA busy_timeout=5000");
+                statement.execute("CREATE TABLE IF NOT EXISTS meta (key TEXT PRIMARY KEY, value TEXT NOT NULL)");
+            }
+            return new SqliteDatabase(connection);
+        } catch (ClassNotFoundException | SQLException e) {
+            throw new IOException("Could not open " + DATABASE_FILE + ": " + e.getMessage(), e);
+        }
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Ejecuta varias sentencias DDL separadas.
+     */
+    public void execute(String... statements) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Lee un valor de la tabla meta (marcas de migración, versiones de esquema).
+     *
+     * @return El valor guardado o null si no existe
+     */
+    public String getMeta(String key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT value FROM meta WHERE key = ?")) {
+            statement.setString(1, key);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? result.getString(1) : null;
+            }
+        }
+    }
+
+    public void setMeta(String key, String value) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT OR REPLACE INTO meta (key, value) VALUES (?, ?)")) {
+            statement.setString(1, key);
+            statement.setString(2, value);
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
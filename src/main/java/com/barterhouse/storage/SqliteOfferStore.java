@@ -0,0 +1,281 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.api.TradeOffer;
+import com.barterhouse.config.StorageConfig;
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Backend de ofertas sobre SQLite embebido. Cada oferta es una fila; crear o eliminar una
+ * oferta es un único INSERT o DELETE ejecutado en el hilo de persistencia, sin cargar ni
+ * reescribir el resto. La tabla tiene índices por creador, item ofrecido, item solicitado
+ * y fecha de expiración, que resuelven las búsquedas del manager ({@link #findByCreator},
+ * {@link #findByItems}, {@link #findExpired}) sin recorrer el libro.
+ *
+ * Al abrirse por primera vez importa las ofertas guardadas por los backends de archivos.
+ */
+public class SqliteOfferStore implements OfferStore {
+
+    private static final String IMPORTED_KEY = "offers_imported";
+
+    // Límite de parámetros por consulta en las versiones viejas de SQLite
+    private static final int MAX_QUERY_ITEMS = 500;
+
+    private static final String INSERT_SQL = "INSERT OR REPLACE INTO offers " +
+            "(offer_id, creator_uuid, creator_name, offered_item, offered_count, requested_item, requested_count, " +
+            "created_time, expires_at, data) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final Path dataDirectory;
+    private final PersistenceWorker persistenceWorker;
+    private SqliteDatabase database;
+
+    public SqliteOfferStore(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        this.persistenceWorker = new PersistenceWorker("BarterHouse-Offer-Persistence");
+    }
+
+    @Override
+    public void load(Map<UUID, TradeOffer> offers) throws IOException {
+        database = SqliteDatabase.open(dataDirectory);
+        try {
+            database.execute(
+                    "CREATE TABLE IF NOT EXISTS offers (" +
+                            "offer_id TEXT PRIMARY KEY, " +
+                            "creator_uuid TEXT NOT NULL, " +
+                            "creator_name TEXT, " +
+                            "offered_item TEXT NOT NULL, " +
+                            "offered_count INTEGER NOT NULL, " +
+                            "requested_item TEXT NOT NULL, " +
+                            "requested_count INTEGER NOT NULL, " +
+                            "created_time INTEGER NOT NULL, " +
+                            "expires_at INTEGER NOT NULL, " +
+                            "data BLOB NOT NULL)",
+                    "CREATE INDEX IF NOT EXISTS offers_creator ON offers (creator_uuid)",
+                    "CREATE INDEX IF NOT EXISTS offers_offered_item ON offers (offered_item)",
+                    "CREATE INDEX IF NOT EXISTS offers_requested_item ON offers (requested_item)",
+                    "CREATE INDEX IF NOT EXISTS offers_expires_at ON offers (expires_at)");
+
+            if (database.getMeta(IMPORTED_KEY) == null) {
+                importFromFiles();
+            }
+
+            // Las filas se leen en este hilo; la decodificación se reparte entre varios hilos
+            ItemIdTable items = ItemIdTable.resolve();
+            ChunkedLoader<byte[], TradeOffer> loader = new ChunkedLoader<>(StorageConfig.getInstance().isParallelLoading(),
+                    data -> OfferRecords.load(BinaryOfferFormat.decode(data), items),
+                    (data, e) -> LoggerUtil.error("Failed to load offer record: " + e.getMessage()));
+            try (Statement select = database.getConnection().createStatement();
+                 ResultSet result = select.executeQuery("SELECT data FROM offers")) {
+                while (result.next()) {
+                    loader.add(result.getBytes(1));
+                }
+            } finally {
+                for (TradeOffer offer : loader.finish()) {
+                    offers.put(offer.getOfferId(), offer);
+                }
+            }
+            LoggerUtil.info("Loaded " + offers.size() + " trade offers from " + SqliteDatabase.DATABASE_FILE);
+        } catch (SQLException e) {
+            throw new IOException("Failed to load offers from " + SqliteDatabase.DATABASE_FILE + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Importa una sola vez las ofertas de los backends de archivos (shards o snapshot + journal).
+     * Los archivos originales se conservan, pero ya no se leen.
+     */
+    private void importFromFiles() throws SQLException, IOException {
+        int shards = ShardedOfferStore.countShards(dataDirectory);
+        boolean sharded = shards > 0;
+        boolean json = !Files.exists(dataDirectory.resolve(FileOfferStore.BINARY_FILE))
+                && Files.exists(dataDirectory.resolve(FileOfferStore.JSON_FILE));
+        OfferStore source = sharded ? new ShardedOfferStore(dataDirectory, shards) : new FileOfferStore(dataDirectory, json);
+
+        Map<UUID, TradeOffer> imported = new HashMap<>();
+        try {
+            if (sharded || hasOfferFiles()) {
+                source.load(imported);
+            }
+        } finally {
+            source.close();
+        }
+
+        Connection connection = database.getConnection();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_SQL)) {
+            for (TradeOffer offer : imported.values()) {
+                bindOffer(insert, OfferRecords.fromOffer(offer));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            database.setMeta(IMPORTED_KEY, String.valueOf(System.currentTimeMillis()));
+            connection.commit();
+        } catch (SQLException | IOException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        if (!imported.isEmpty()) {
+            LoggerUtil.info("Imported " + imported.size() + " trade offers into " + SqliteDatabase.DATABASE_FILE
+                    + "; the previous offer files are no longer read");
+        }
+    }
+
+    private boolean hasOfferFiles() throws IOException {
+        return Files.exists(dataDirectory.resolve(FileOfferStore.BINARY_FILE))
+                || Files.exists(dataDirectory.resolve(FileOfferStore.JSON_FILE))
+                || Files.exists(dataDirectory.resolve(FileOfferStore.LEGACY_NBT_FILE))
+                || new OfferJournal(dataDirectory).hasSegments();
+    }
+
+    private static void bindOffer(PreparedStatement statement, OfferRecord record) throws SQLException, IOException {
+        statement.setString(1, record.offerId.toString());
+        statement.setString(2, record.creatorUUID.toString());
+        statement.setString(3, record.creatorName);
+        statement.setString(4, record.offeredItem);
+        statement.setInt(5, record.offeredCount);
+        statement.setString(6, record.requestedItem);
+        statement.setInt(7, record.requestedCount);
+        statement.setLong(8, record.createdTime);
+        statement.setLong(9, record.createdTime + TradeOffer.EXPIRATION_TIME);
+        statement.setBytes(10, BinaryOfferFormat.encode(record));
+    }
+
+    /**
+     * Las escrituras se agrupan por oferta: si una oferta se crea y se elimina antes de que
+     * el hilo de persistencia llegue a ella, solo se ejecuta el DELETE.
+     */
+    @Override
+    public void offerCreated(TradeOffer offer) {
+        OfferRecord record;
+        try {
+            record = OfferRecords.fromOffer(offer);
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to store offer " + offer.getOfferId() + ": " + e.getMessage());
+            return;
+        }
+        SqliteDatabase db = database;
+        persistenceWorker.submit(offer.getOfferId().toString(), () -> {
+            try (PreparedStatement insert = db.getConnection().prepareStatement(INSERT_SQL)) {
+                bindOffer(insert, record);
+                insert.executeUpdate();
+            } catch (SQLException | IOException e) {
+                LoggerUtil.error("Failed to store offer " + record.offerId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void offerRemoved(TradeOffer offer, boolean expired) {
+        String offerId = offer.getOfferId().toString();
+        SqliteDatabase db = database;
+        persistenceWorker.submit(offerId, () -> {
+            try (PreparedStatement delete = db.getConnection().prepareStatement("DELETE FROM offers WHERE offer_id = ?")) {
+                delete.setString(1, offerId);
+                delete.executeUpdate();
+            } catch (SQLException e) {
+                LoggerUtil.error("Failed to delete offer " + offerId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public List<UUID> findByCreator(UUID creatorUUID) {
+        return queryIds("offers_creator", "SELECT offer_id FROM offers WHERE creator_uuid = ? ORDER BY created_time",
+                statement -> statement.setString(1, creatorUUID.toString()));
+    }
+
+    @Override
+    public List<UUID> findByItems(Collection<String> itemIds, boolean requested) {
+        if (itemIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (itemIds.size() > MAX_QUERY_ITEMS) {
+            return null;
+        }
+        List<String> ids = new ArrayList<>(itemIds);
+        String column = requested ? "requested_item" : "offered_item";
+        String sql = "SELECT offer_id FROM offers WHERE " + column + " IN ("
+                + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+        return queryIds("offers_" + column, sql, statement -> {
+            for (int i = 0; i < ids.size(); i++) {
+                statement.setString(i + 1, ids.get(i));
+            }
+        });
+    }
+
+    @Override
+    public List<UUID> findExpired(long now) {
+        return queryIds("offers_expires_at", "SELECT offer_id FROM offers WHERE expires_at < ?",
+                statement -> statement.setLong(1, now));
+    }
+
+    private interface Parameters {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * Ejecuta una consulta de IDs en el hilo de persistencia, después de las escrituras
+     * programadas, y espera el resultado.
+     *
+     * @return IDs encontrados, o null si la consulta falló
+     */
+    private List<UUID> queryIds(String name, String sql, Parameters parameters) {
+        SqliteDatabase db = database;
+        if (db == null) {
+            return null;
+        }
+        try {
+            return persistenceWorker.call(() -> {
+                List<UUID> ids = new ArrayList<>();
+                try (PreparedStatement select = db.getConnection().prepareStatement(sql)) {
+                    parameters.bind(select);
+                    try (ResultSet result = select.executeQuery()) {
+                        while (result.next()) {
+                            ids.add(UUID.fromString(result.getString(1)));
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+                return ids;
+            }).join();
+        } catch (RuntimeException e) {
+            LoggerUtil.error("Failed to query " + name + " in " + SqliteDatabase.DATABASE_FILE + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean needsCheckpoint() {
+        return false;
+    }
+
+    /**
+     * Cada cambio ya es una transacción propia; no hay snapshot que escribir.
+     */
+    @Override
+    public void checkpoint(List<TradeOffer> snapshot) {
+    }
+
+    @Override
+    public void flush() {
+        persistenceWorker.awaitIdle();
+    }
+
+    @Override
+    public void close() {
+        persistenceWorker.shutdown();
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+    }
+}
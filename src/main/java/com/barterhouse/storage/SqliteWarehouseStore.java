@@ -0,0 +1,333 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.manager.WarehouseManager.StoredItem;
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Backend de bodega sobre SQLite embebido. Un cambio en la bodega de un jugador reescribe
+ * solo las filas de ese jugador, en una transacción ejecutada en el hilo de persistencia.
+ * Las bodegas modificadas se escriben en lotes, igual que en el backend JSON: una escritura
+ * que falla se repite en el próximo lote y los créditos del jugador se borran recién después
+ * de una escritura que terminó bien ({@link PendingWarehouseWrites}).
+ *
+ * Al abrirse por primera vez importa la bodega en JSON.
+ *
+ * Las bodegas se leen de a un jugador en el hilo de persistencia, que es el único que usa la
+ * conexión mientras el servidor corre. Los créditos de jugadores sin bodega cargada van a
+ * archivos aparte ({@link WarehouseCredits}), igual que en el backend JSON.
+ */
+public class SqliteWarehouseStore implements WarehouseStore {
+
+    private static final String IMPORTED_KEY = "warehouse_imported";
+    private static final String NBT_HASH_KEY = "warehouse_nbt_hash";
+
+    private static final String INSERT_SQL = "INSERT INTO warehouse_items " +
+            "(player_uuid, position, item_name, count, received_time, source_player, nbt_data, nbt_hash) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final Path dataDirectory;
+    private static final String SELECT_SQL = "SELECT player_uuid, item_name, count, received_time, source_player, nbt_data, nbt_hash " +
+            "FROM warehouse_items";
+
+    private final PersistenceWorker persistenceWorker;
+    private final WarehouseCredits credits;
+    private SqliteDatabase database;
+
+    // Bodegas modificadas que todavía no se escribieron (copias tomadas en el hilo del servidor)
+    private final PendingWarehouseWrites dirty = new PendingWarehouseWrites();
+
+    public SqliteWarehouseStore(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        this.persistenceWorker = new PersistenceWorker("BarterHouse-Warehouse-Persistence");
+        this.credits = new WarehouseCredits(dataDirectory);
+    }
+
+    @Override
+    public void open() throws IOException {
+        database = SqliteDatabase.open(dataDirectory);
+        try {
+            database.execute(
+                    "CREATE TABLE IF NOT EXISTS warehouse_items (" +
+                            "player_uuid TEXT NOT NULL, " +
+                            "position INTEGER NOT NULL, " +
+                            "item_name TEXT NOT NULL, " +
+                            "count INTEGER NOT NULL, " +
+                            "received_time INTEGER NOT NULL, " +
+                            "source_player TEXT, " +
+                            "nbt_data TEXT, " +
+                            "nbt_hash TEXT, " +
+                            "PRIMARY KEY (player_uuid, position))",
+                    "CREATE INDEX IF NOT EXISTS warehouse_items_item ON warehouse_items (item_name)");
+
+            // Tablas creadas antes de los blobs de NBT: agregar la columna del hash
+            if (database.getMeta(NBT_HASH_KEY) == null) {
+                boolean present = false;
+                try (Statement info = database.getConnection().createStatement();
+                     ResultSet columns = info.executeQuery("PRAGMA table_info(warehouse_items)")) {
+                    while (columns.next()) {
+                        present |= "nbt_hash".equals(columns.getString("name"));
+                    }
+                }
+                if (!present) {
+                    database.execute("ALTER TABLE warehouse_items ADD COLUMN nbt_hash TEXT");
+                }
+                database.setMeta(NBT_HASH_KEY, "1");
+            }
+
+            if (database.getMeta(IMPORTED_KEY) == null) {
+                importFromJson();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to open warehouse in " + SqliteDatabase.DATABASE_FILE + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void load(Map<UUID, List<StoredItem>> warehouses) throws IOException {
+        open();
+        try {
+            selectAll(database.getConnection(), warehouses);
+            LoggerUtil.info("Loaded warehouse data for " + warehouses.size() + " players from " + SqliteDatabase.DATABASE_FILE);
+        } catch (SQLException e) {
+            throw new IOException("Failed to load warehouse from " + SqliteDatabase.DATABASE_FILE + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void selectAll(Connection connection, Map<UUID, List<StoredItem>> warehouses) throws SQLException {
+        try (Statement select = connection.createStatement();
+             ResultSet result = select.executeQuery(SELECT_SQL + " ORDER BY player_uuid, position")) {
+            while (result.next()) {
+                StoredItem item = readItem(result);
+                try {
+                    UUID playerUUID = UUID.fromString(result.getString(1));
+                    warehouses.computeIfAbsent(playerUUID, k -> new ArrayList<>()).add(item);
+                } catch (IllegalArgumentException e) {
+                    LoggerUtil.error("Invalid UUID in warehouse table: " + result.getString(1));
+                }
+            }
+        }
+    }
+
+    private static StoredItem readItem(ResultSet result) throws SQLException {
+        StoredItem item = new StoredItem();
+        item.itemName = result.getString(2);
+        item.count = result.getInt(3);
+        item.receivedTime = result.getLong(4);
+        item.sourcePlayer = result.getString(5);
+        item.nbtData = result.getString(6);
+        item.nbtHash = result.getString(7);
+        return item;
+    }
+
+    /**
+     * Lee las filas de un jugador y sus créditos en el hilo de persistencia. Si tiene una
+     * copia pendiente que todavía no se pudo escribir, se usa esa.
+     */
+    @Override
+    public CompletableFuture<StoredWarehouse> loadPlayer(UUID playerUUID) {
+        SqliteDatabase db = database;
+        return persistenceWorker.call(() -> {
+            List<StoredItem> pending = dirty.get(playerUUID);
+            if (pending != null) {
+                try {
+                    return new StoredWarehouse(new ArrayList<>(pending), credits.read(playerUUID, true));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            List<StoredItem> items = new ArrayList<>();
+            try (PreparedStatement select = db.getConnection().prepareStatement(SELECT_SQL + " WHERE player_uuid = ? ORDER BY position")) {
+                select.setString(1, playerUUID.toString());
+                try (ResultSet result = select.executeQuery()) {
+                    while (result.next()) {
+                        items.add(readItem(result));
+                    }
+                }
+                return new StoredWarehouse(items, credits.read(playerUUID, true));
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to load warehouse of " + playerUUID + ": " + e.getMessage(), e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void appendCredit(UUID playerUUID, StoredItem item) {
+        persistenceWorker.execute("warehouse credit", () -> {
+            try {
+                credits.append(playerUUID, item);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Lee la tabla en el hilo de persistencia (después de las escrituras programadas) y
+     * recorre los jugadores en el hilo que llama. La tabla se tiene entera en memoria solo
+     * mientras dura el recorrido; las bodegas que no se pudieron escribir se toman de su
+     * copia pendiente.
+     */
+    @Override
+    public void forEachPlayer(BiConsumer<UUID, List<StoredItem>> visitor) throws IOException {
+        SqliteDatabase db = database;
+        Map<UUID, List<StoredItem>> warehouses;
+        try {
+            warehouses = persistenceWorker.call(() -> {
+                Map<UUID, List<StoredItem>> all = new LinkedHashMap<>();
+                try {
+                    selectAll(db.getConnection(), all);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+                return all;
+            }).join();
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to read warehouse from " + SqliteDatabase.DATABASE_FILE + ": " + e.getMessage(), e);
+        }
+        for (Map.Entry<UUID, List<StoredItem>> entry : dirty.snapshot().entrySet()) {
+            warehouses.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        for (UUID playerUUID : credits.players()) {
+            warehouses.computeIfAbsent(playerUUID, k -> new ArrayList<>()).addAll(credits.read(playerUUID, false));
+        }
+        for (Map.Entry<UUID, List<StoredItem>> entry : warehouses.entrySet()) {
+            visitor.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Importa una sola vez la bodega en JSON ("warehouse/", "warehouse.jsonl" o "warehouse.json").
+     * Los archivos se conservan, pero ya no se leen.
+     */
+    private void importFromJson() throws SQLException {
+        Map<UUID, List<StoredItem>> imported = new HashMap<>();
+        if (JsonWarehouseStore.exists(dataDirectory)) {
+            JsonWarehouseStore source = new JsonWarehouseStore(dataDirectory);
+            try {
+                source.load(imported);
+            } finally {
+                source.close();
+            }
+        }
+
+        Connection connection = database.getConnection();
+        connection.setAutoCommit(false);
+        try {
+            for (Map.Entry<UUID, List<StoredItem>> entry : imported.entrySet()) {
+                writePlayer(connection, entry.getKey(), entry.getValue());
+            }
+            database.setMeta(IMPORTED_KEY, String.valueOf(System.currentTimeMillis()));
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        if (!imported.isEmpty()) {
+            LoggerUtil.info("Imported warehouse data for " + imported.size() + " players into " + SqliteDatabase.DATABASE_FILE
+                    + "; the JSON warehouse file is no longer read");
+        }
+    }
+
+    /**
+     * Reemplaza las filas de un jugador. Debe llamarse dentro de una transacción.
+     */
+    private static void writePlayer(Connection connection, UUID playerUUID, List<StoredItem> items) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM warehouse_items WHERE player_uuid = ?")) {
+            delete.setString(1, playerUUID.toString());
+            delete.executeUpdate();
+        }
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_SQL)) {
+            for (int i = 0; i < items.size(); i++) {
+                StoredItem item = items.get(i);
+                insert.setString(1, playerUUID.toString());
+                insert.setInt(2, i);
+                insert.setString(3, item.itemName);
+                insert.setInt(4, item.count);
+                insert.setLong(5, item.receivedTime);
+                insert.setString(6, item.sourcePlayer);
+                insert.setString(7, item.nbtData);
+                insert.setString(8, item.nbtHash);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Copia la bodega del jugador en el hilo del servidor y la marca para el próximo lote
+     * del hilo de persistencia. Varios cambios seguidos del mismo jugador terminan en una
+     * sola transacción.
+     */
+    @Override
+    public void save(UUID playerUUID, Collection<StoredItem> items, boolean creditsApplied) {
+        dirty.put(playerUUID, PendingWarehouseWrites.copyOf(items), creditsApplied);
+        SqliteDatabase db = database;
+        persistenceWorker.submit("warehouse_items", () -> writeDirty(db));
+    }
+
+    @Override
+    public boolean isSaved(UUID playerUUID) {
+        return dirty.isSaved(playerUUID);
+    }
+
+    /**
+     * Escribe todas las bodegas marcadas hasta ahora, cada una en su transacción.
+     */
+    private void writeDirty(SqliteDatabase db) {
+        Connection connection = db.getConnection();
+        dirty.writeAll((playerUUID, items, clearCredits) -> {
+            try {
+                connection.setAutoCommit(false);
+                writePlayer(connection, playerUUID, items);
+                connection.commit();
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException ignored) {
+                }
+                throw e;
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+            if (clearCredits) {
+                credits.clear(playerUUID);
+            }
+        });
+    }
+
+    /**
+     * Escribe lo marcado, incluidas las escrituras que fallaron antes, y espera a que termine.
+     */
+    @Override
+    public void flush() {
+        if (!dirty.isEmpty() && database != null) {
+            SqliteDatabase db = database;
+            persistenceWorker.submit("warehouse_items", () -> writeDirty(db));
+        }
+        persistenceWorker.awaitIdle();
+    }
+
+    @Override
+    public void close() {
+        persistenceWorker.shutdown();
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+    }
+}
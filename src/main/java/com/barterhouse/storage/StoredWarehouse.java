@@ -0,0 +1,20 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.manager.WarehouseManager.StoredItem;
+
+import java.util.List;
+
+/**
+ * Bodega de un jugador tal como está guardada: las entradas y los créditos que llegaron
+ * mientras no estaba cargada ({@link WarehouseCredits}), que el manager suma al cargarla.
+ */
+public class StoredWarehouse {
+
+    public final List<StoredItem> items;
+    public final List<StoredItem> credits;
+
+    public StoredWarehouse(List<StoredItem> items, List<StoredItem> credits) {
+        this.items = items;
+        this.credits = credits;
+    }
+}
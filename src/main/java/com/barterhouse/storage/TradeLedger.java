@@ -0,0 +1,437 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Registro append-only de trueques completados.
+ *
+ * Los trueques se agrupan en segmentos diarios ("ledger/2026-10-17.seg", fecha local del
+ * servidor). Cada segmento tiene un resumen (".sum") con sus fechas mínima y máxima y
+ * filtros de Bloom de items y jugadores, para que una consulta descarte los segmentos que
+ * no pueden contener resultados sin leerlos.
+ *
+ * Formato del segmento: [int magic "BHTL"][byte versión] y luego un {@link RecordFrame} (longitud +
+ * CRC32C) por trueque. Los segmentos de la versión 1 ([int longitud][trueque], sin checksum) se
+ * siguen leyendo.
+ * Formato del resumen: [int magic "BHTS"][int cantidad][long mínimo][long máximo][bloom items][bloom jugadores].
+ */
+public class TradeLedger implements Closeable {
+
+    public static final String DIRECTORY = "ledger";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String SUMMARY_SUFFIX = ".sum";
+    public static final int SEGMENT_MAGIC = 0x4248544C; // "BHTL"
+    private static final int SUMMARY_MAGIC = 0x42485453; // "BHTS"
+    public static final int VERSION = 2;
+    private static final int SEGMENT_HEADER_SIZE = 5;
+    private static final int BLOOM_WORDS = 64; // 4096 bits por filtro
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /**
+     * Filtros de una consulta. Los campos null no filtran.
+     */
+    public static class Query {
+        public final long from;
+        public final long to;
+        public final UUID playerUUID;
+        public final String itemId;
+        public final int limit;
+
+        /**
+         * @param from Inicio del rango (milisegundos, inclusive)
+         * @param to Fin del rango (milisegundos, inclusive)
+         * @param playerUUID Jugador que participó como vendedor o comprador, o null
+         * @param itemId Item entregado en cualquiera de los dos sentidos, o null
+         * @param limit Cantidad máxima de resultados
+         */
+        public Query(long from, long to, UUID playerUUID, String itemId, int limit) {
+            this.from = from;
+            this.to = to;
+            this.playerUUID = playerUUID;
+            this.itemId = itemId;
+            this.limit = limit;
+        }
+
+        boolean matches(TradeRecord trade) {
+            return trade.timestamp >= from && trade.timestamp <= to
+                    && (playerUUID == null || trade.involves(playerUUID))
+                    && (itemId == null || trade.involves(itemId));
+        }
+    }
+
+    /**
+     * Resumen de un segmento.
+     */
+    private static class Summary {
+        int count;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        BloomFilter items = new BloomFilter(BLOOM_WORDS);
+        BloomFilter players = new BloomFilter(BLOOM_WORDS);
+
+        void add(TradeRecord trade) {
+            count++;
+            minTime = Math.min(minTime, trade.timestamp);
+            maxTime = Math.max(maxTime, trade.timestamp);
+            items.add(trade.offeredItem);
+            items.add(trade.requestedItem);
+            players.add(trade.sellerUUID.toString());
+            players.add(trade.buyerUUID.toString());
+        }
+
+        boolean mayMatch(Query query) {
+            return count > 0 && maxTime >= query.from && minTime <= query.to
+                    && (query.itemId == null || items.mightContain(query.itemId))
+                    && (query.playerUUID == null || players.mightContain(query.playerUUID.toString()));
+        }
+    }
+
+    private final Path directory;
+    private final PersistenceWorker persistenceWorker;
+    private final List<TradeRecord> pending = new ArrayList<>();
+
+    // Segmento abierto para escribir (solo se toca dentro de métodos synchronized)
+    private String currentSegment;
+    private FileChannel channel;
+    private DataOutputStream out;
+    private Summary currentSummary;
+
+    public TradeLedger(Path dataDirectory) {
+        this.directory = dataDirectory.resolve(DIRECTORY);
+        this.persistenceWorker = new PersistenceWorker("BarterHouse-Trade-Ledger");
+    }
+
+    /**
+     * Registra un trueque completado. La escritura se hace en el hilo del registro.
+     */
+    public void record(TradeRecord trade) {
+        synchronized (pending) {
+            pending.add(trade);
+        }
+        persistenceWorker.submit("append", this::writePending);
+    }
+
+    private synchronized void writePending() {
+        List<TradeRecord> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            for (TradeRecord trade : batch) {
+                String segment = LocalDate.ofInstant(Instant.ofEpochMilli(trade.timestamp), ZONE).toString();
+                if (!segment.equals(currentSegment)) {
+                    sealCurrent();
+                    openSegment(segment);
+                }
+                RecordFrame.write(out, encode(trade));
+                currentSummary.add(trade);
+            }
+            if (out != null) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to record " + batch.size() + " trades: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abre un segmento para agregar trueques. Si ya existe (reinicio en el mismo día), se
+     * reconstruye su resumen leyéndolo y se descarta un registro final incompleto.
+     */
+    private void openSegment(String name) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(name + SEGMENT_SUFFIX);
+        currentSummary = new Summary();
+        long validLength = 0;
+        List<TradeRecord> upgraded = new ArrayList<>();
+        if (Files.exists(path)) {
+            if (segmentVersion(path) < VERSION) {
+                // Segmento sin checksums: se reescribe completo en el formato actual
+                forEachTrade(path, upgraded::add);
+            } else {
+                validLength = forEachTrade(path, currentSummary::add);
+            }
+            // El resumen se vuelve a escribir al cerrar el segmento
+            Files.deleteIfExists(directory.resolve(name + SUMMARY_SUFFIX));
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 16 * 1024));
+        if (validLength == 0) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeByte(VERSION);
+        }
+        for (TradeRecord trade : upgraded) {
+            RecordFrame.write(out, encode(trade));
+            currentSummary.add(trade);
+        }
+        currentSegment = name;
+    }
+
+    /**
+     * Cierra el segmento abierto y escribe su resumen.
+     */
+    private void sealCurrent() throws IOException {
+        if (out == null) {
+            return;
+        }
+        out.flush();
+        channel.force(false);
+        out.close();
+        out = null;
+        channel = null;
+        writeSummary(directory.resolve(currentSegment + SUMMARY_SUFFIX), currentSummary);
+        currentSegment = null;
+        currentSummary = null;
+    }
+
+    /**
+     * Busca trueques, del más reciente al más antiguo. Solo se leen los segmentos cuyo
+     * resumen puede contener resultados. Lee de disco; no debe llamarse en el hilo del servidor.
+     */
+    public List<TradeRecord> query(Query query) {
+        persistenceWorker.awaitIdle();
+        List<TradeRecord> results = new ArrayList<>();
+        synchronized (this) {
+            try {
+                for (String segment : listSegments()) {
+                    if (!summary(segment).mayMatch(query)) {
+                        continue;
+                    }
+                    List<TradeRecord> matches = new ArrayList<>();
+                    forEachTrade(directory.resolve(segment + SEGMENT_SUFFIX), trade -> {
+                        if (query.matches(trade)) {
+                            matches.add(trade);
+                        }
+                    });
+                    // Dentro de un segmento los trueques están en orden de escritura
+                    for (int i = matches.size() - 1; i >= 0 && results.size() < query.limit; i--) {
+                        results.add(matches.get(i));
+                    }
+                    if (results.size() >= query.limit) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to query trade ledger: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Resumen de un segmento: el de memoria para el segmento abierto, o el de su archivo
+     * ".sum" (reconstruido si falta, por ejemplo tras una caída).
+     */
+    private Summary summary(String segment) throws IOException {
+        if (segment.equals(currentSegment)) {
+            out.flush();
+            return currentSummary;
+        }
+        Path summaryPath = directory.resolve(segment + SUMMARY_SUFFIX);
+        if (Files.exists(summaryPath)) {
+            try {
+                return readSummary(summaryPath);
+            } catch (IOException e) {
+                LoggerUtil.warn("Rebuilding damaged ledger summary " + summaryPath.getFileName() + ": " + e.getMessage());
+            }
+        }
+        Summary summary = new Summary();
+        forEachTrade(directory.resolve(segment + SEGMENT_SUFFIX), summary::add);
+        writeSummary(summaryPath, summary);
+        return summary;
+    }
+
+    /**
+     * Recorre los trueques de un segmento en orden. Los registros dañados se saltan (y
+     * quedan en la cuarentena); un registro final incompleto (caída durante la escritura) se ignora.
+     *
+     * @return Posición donde termina el último registro válido
+     */
+    private static long forEachTrade(Path path, TradeVisitor visitor) throws IOException {
+        return forEachTrade(path, path, visitor);
+    }
+
+    /**
+     * @param quarantine Archivo al que se atribuyen los bytes dañados en la cuarentena, o null para no copiarlos
+     */
+    private static long forEachTrade(Path path, Path quarantine, TradeVisitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SEGMENT_MAGIC) {
+                throw new IOException("Not a trade ledger segment: " + path.getFileName());
+            }
+            int version = in.readUnsignedByte();
+            if (version > VERSION) {
+                throw new IOException("Unsupported ledger version " + version + " in " + path.getFileName());
+            }
+            if (version == VERSION) {
+                RecordFrame.Reader reader = new RecordFrame.Reader(in, quarantine);
+                byte[] payload;
+                while ((payload = reader.next()) != null) {
+                    visitor.visit(decode(payload));
+                }
+                return SEGMENT_HEADER_SIZE + reader.getValidEnd();
+            }
+
+            long position = SEGMENT_HEADER_SIZE;
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        throw new EOFException("Negative record length");
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return position;
+                }
+                visitor.visit(decode(payload));
+                position += 4 + payload.length;
+            }
+        } catch (EOFException e) {
+            // Segmento vacío o con la cabecera cortada
+            return 0;
+        }
+    }
+
+    /**
+     * Lee todos los trueques de un segmento en orden, sin modificar nada. Pensado para
+     * herramientas que inspeccionan el directorio de datos con el servidor apagado.
+     */
+    public static void readSegment(Path path, Consumer<TradeRecord> sink) throws IOException {
+        forEachTrade(path, null, sink::accept);
+    }
+
+    private static int segmentVersion(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            in.readInt();
+            return in.readUnsignedByte();
+        } catch (EOFException e) {
+            return VERSION;
+        }
+    }
+
+    private interface TradeVisitor {
+        void visit(TradeRecord trade) throws IOException;
+    }
+
+    private static Summary readSummary(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SUMMARY_MAGIC) {
+                throw new IOException("Not a ledger summary");
+            }
+            Summary summary = new Summary();
+            summary.count = in.readInt();
+            summary.minTime = in.readLong();
+            summary.maxTime = in.readLong();
+            summary.items = BloomFilter.read(in);
+            summary.players = BloomFilter.read(in);
+            return summary;
+        }
+    }
+
+    private static void writeSummary(Path path, Summary summary) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(SUMMARY_MAGIC);
+            out.writeInt(summary.count);
+            out.writeLong(summary.minTime);
+            out.writeLong(summary.maxTime);
+            summary.items.write(out);
+            summary.players.write(out);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Nombres de los segmentos en disco (sin extensión), del más reciente al más antiguo.
+     */
+    private List<String> listSegments() throws IOException {
+        List<String> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                segments.add(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+            }
+        }
+        segments.sort(Comparator.reverseOrder());
+        return segments;
+    }
+
+    private static byte[] encode(TradeRecord trade) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeUUID(out, trade.offerId);
+        writeUUID(out, trade.sellerUUID);
+        out.writeUTF(trade.sellerName != null ? trade.sellerName : "");
+        writeUUID(out, trade.buyerUUID);
+        out.writeUTF(trade.buyerName != null ? trade.buyerName : "");
+        out.writeUTF(trade.offeredItem);
+        BinaryOfferFormat.writeVarInt(out, trade.offeredCount);
+        out.writeUTF(trade.requestedItem);
+        BinaryOfferFormat.writeVarInt(out, trade.requestedCount);
+        out.writeLong(trade.timestamp);
+        return bytes.toByteArray();
+    }
+
+    private static TradeRecord decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        UUID offerId = readUUID(in);
+        UUID sellerUUID = readUUID(in);
+        String sellerName = in.readUTF();
+        UUID buyerUUID = readUUID(in);
+        String buyerName = in.readUTF();
+        String offeredItem = in.readUTF();
+        int offeredCount = BinaryOfferFormat.readVarInt(in);
+        String requestedItem = in.readUTF();
+        int requestedCount = BinaryOfferFormat.readVarInt(in);
+        long timestamp = in.readLong();
+        return new TradeRecord(offerId, sellerUUID, sellerName, buyerUUID, buyerName,
+                offeredItem, offeredCount, requestedItem, requestedCount, timestamp);
+    }
+
+    private static void writeUUID(DataOutput out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(DataInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    /**
+     * Escribe lo pendiente y cierra el segmento abierto.
+     */
+    @Override
+    public void close() {
+        persistenceWorker.shutdown();
+        synchronized (this) {
+            try {
+                sealCurrent();
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to close trade ledger: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.barterhouse.storage;
+
+import java.util.UUID;
+
+/**
+ * Trueque completado, tal como se guarda en el registro de trueques. Los items se guardan
+ * por su id de registro y su cantidad real.
+ */
+public class TradeRecord {
+
+    public final UUID offerId;
+    public final UUID sellerUUID;
+    public final String sellerName;
+    public final UUID buyerUUID;
+    public final String buyerName;
+    public final String offeredItem; // Lo que entregó el vendedor
+    public final int offeredCount;
+    public final String requestedItem; // Lo que entregó el comprador
+    public final int requestedCount;
+    public final long timestamp;
+
+    public TradeRecord(UUID offerId, UUID sellerUUID, String sellerName, UUID buyerUUID, String buyerName,
+                       String offeredItem, int offeredCount, String requestedItem, int requestedCount,
+                       long timestamp) {
+        this.offerId = offerId;
+        this.sellerUUID = sellerUUID;
+        this.sellerName = sellerName;
+        this.buyerUUID = buyerUUID;
+        this.buyerName = buyerName;
+        this.offeredItem = offeredItem;
+        this.offeredCount = offeredCount;
+        this.requestedItem = requestedItem;
+        this.requestedCount = requestedCount;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Indica si el jugador participó en el trueque, como vendedor o comprador.
+     */
+    public boolean involves(UUID playerUUID) {
+        return sellerUUID.equals(playerUUID) || buyerUUID.equals(playerUUID);
+    }
+
+    /**
+     * Indica si el item se entregó en cualquiera de los dos sentidos.
+     */
+    public boolean involves(String itemId) {
+        return offeredItem.equals(itemId) || requestedItem.equals(itemId);
+    }
+}
@@ -0,0 +1,151 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.manager.WarehouseManager.StoredItem;
+import com.barterhouse.util.LoggerUtil;
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Créditos pendientes de la bodega: items recibidos por jugadores cuya bodega no está cargada
+ * en memoria. Cada jugador tiene un archivo "warehouse-pending/&lt;uuid&gt;.pending" al que
+ * solo se agregan líneas, un item por línea con su checksum ({@link WarehouseLines}). Los
+ * créditos se suman a la bodega la próxima vez que se carga y el archivo se borra después
+ * de guardarla.
+ *
+ * Los backends llaman a estos métodos desde su hilo de persistencia, así un crédito queda
+ * ordenado respecto de las escrituras y las cargas de la misma bodega.
+ */
+public class WarehouseCredits {
+
+    public static final String DIRECTORY = "warehouse-pending";
+    private static final String SUFFIX = ".pending";
+
+    private final Path directory;
+    private final Gson gson = new Gson();
+
+    public WarehouseCredits(Path dataDirectory) {
+        this.directory = dataDirectory.resolve(DIRECTORY);
+    }
+
+    /**
+     * Agrega un crédito al archivo del jugador.
+     */
+    public void append(UUID playerUUID, StoredItem item) throws IOException {
+        Files.createDirectories(directory);
+        byte[] line = (WarehouseLines.encode(gson.toJson(item)) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(file(playerUUID),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer buffer;
+            if (size > 0 && !endsWithNewline(channel, size)) {
+                // Una línea cortada por un corte anterior no se junta con la nueva
+                buffer = ByteBuffer.allocate(line.length + 1).put((byte) '\n').put(line);
+                buffer.flip();
+            } else {
+                buffer = ByteBuffer.wrap(line);
+            }
+            channel.position(size);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static boolean endsWithNewline(FileChannel channel, long size) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        return last.get(0) == '\n';
+    }
+
+    /**
+     * Lee los créditos pendientes de un jugador, en el orden en que llegaron. Las líneas
+     * dañadas se saltan.
+     *
+     * @param quarantine Copiar las líneas dañadas a la cuarentena. Solo desde el hilo de
+     *                   persistencia: en otro hilo la última línea puede estar a medio escribir
+     * @return Los créditos, o una lista vacía si no hay
+     */
+    public List<StoredItem> read(UUID playerUUID, boolean quarantine) throws IOException {
+        Path file = file(playerUUID);
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+
+        List<StoredItem> credits = new ArrayList<>();
+        int damaged = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String json = WarehouseLines.decode(line);
+                StoredItem item = null;
+                if (json != null) {
+                    try {
+                        item = gson.fromJson(json, StoredItem.class);
+                    } catch (RuntimeException ignored) {
+                    }
+                }
+                if (item == null || item.itemName == null || item.count <= 0) {
+                    damaged++;
+                    if (!quarantine) {
+                        continue;
+                    }
+                    byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                    RecordFrame.quarantine(file, bytes, 0, bytes.length);
+                    continue;
+                }
+                credits.add(item);
+            }
+        }
+        if (damaged > 0 && quarantine) {
+            LoggerUtil.warn("Skipped " + damaged + " damaged pending warehouse credits of " + playerUUID);
+        }
+        return credits;
+    }
+
+    /**
+     * Borra los créditos de un jugador, una vez guardada la bodega que los incluye.
+     */
+    public void clear(UUID playerUUID) throws IOException {
+        Files.deleteIfExists(file(playerUUID));
+    }
+
+    /**
+     * Jugadores con créditos pendientes.
+     */
+    public Set<UUID> players() throws IOException {
+        Set<UUID> players = new HashSet<>();
+        if (!Files.isDirectory(directory)) {
+            return players;
+        }
+        try (Stream<Path> list = Files.list(directory)) {
+            list.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    try {
+                        players.add(UUID.fromString(name.substring(0, name.length() - SUFFIX.length())));
+                    } catch (IllegalArgumentException e) {
+                        LoggerUtil.warn("Ignoring unexpected file in " + DIRECTORY + "/: " + name);
+                    }
+                }
+            });
+        }
+        return players;
+    }
+
+    private Path file(UUID playerUUID) {
+        return directory.resolve(playerUUID + SUFFIX);
+    }
+}
@@ -0,0 +1,38 @@
+package com.barterhouse.storage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formato de línea de "warehouse.jsonl": {@code <crc32c hex> <json>}. El checksum cubre los
+ * bytes UTF-8 del JSON, así una línea dañada se detecta sin interpretarla.
+ */
+public class WarehouseLines {
+
+    /**
+     * Antepone el checksum al JSON de un jugador.
+     */
+    public static String encode(String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        return String.format("%08x ", RecordFrame.checksum(body, 0, body.length)) + json;
+    }
+
+    /**
+     * Verifica el checksum de una línea.
+     *
+     * @return El JSON de la línea, o null si está dañada
+     */
+    public static String decode(String line) {
+        int space = line.indexOf(' ');
+        if (space <= 0) {
+            return null;
+        }
+        try {
+            int expected = Integer.parseUnsignedInt(line.substring(0, space), 16);
+            String json = line.substring(space + 1);
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            return RecordFrame.checksum(body, 0, body.length) == expected ? json : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
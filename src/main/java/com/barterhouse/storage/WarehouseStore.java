@@ -0,0 +1,97 @@
+package com.barterhouse.storage;
+
+import com.barterhouse.manager.WarehouseManager.StoredItem;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Backend de persistencia de la bodega usado por {@link com.barterhouse.manager.WarehouseManager}.
+ * Todos los métodos se llaman desde el hilo del servidor, salvo en una recarga: el backend
+ * anterior se vacía y el nuevo se abre en otro hilo, sin que el manager los use mientras tanto.
+ * El anterior se cierra recién cuando el nuevo abrió bien; si falla, se cierra el nuevo.
+ *
+ * El manager solo tiene en memoria las bodegas de los jugadores activos: las pide con
+ * {@link #loadPlayer} y, mientras una bodega no está cargada, los items que recibe el
+ * jugador se anotan con {@link #appendCredit}.
+ */
+public interface WarehouseStore {
+
+    /**
+     * Prepara el almacenamiento (migraciones, tablas) sin cargar las bodegas.
+     */
+    void open() throws IOException;
+
+    /**
+     * Abre el almacenamiento y carga todas las bodegas guardadas, sin los créditos
+     * pendientes. Lo usan la importación entre backends y las herramientas.
+     *
+     * @param warehouses Mapa donde se colocan las bodegas cargadas, por jugador
+     */
+    void load(Map<UUID, List<StoredItem>> warehouses) throws IOException;
+
+    /**
+     * Lee la bodega de un jugador y sus créditos pendientes en el hilo de persistencia,
+     * después de las escrituras ya programadas.
+     *
+     * @return La bodega guardada; vacía si el jugador no tiene nada
+     */
+    CompletableFuture<StoredWarehouse> loadPlayer(UUID playerUUID);
+
+    /**
+     * Anota un item recibido por un jugador cuya bodega no está cargada.
+     */
+    void appendCredit(UUID playerUUID, StoredItem item);
+
+    /**
+     * Recorre todas las bodegas guardadas, con sus créditos pendientes agregados al final.
+     * Puede llamarse desde cualquier hilo; las bodegas que todavía no se escribieron se
+     * toman de su copia pendiente.
+     *
+     * @param visitor Recibe cada jugador con sus items
+     */
+    void forEachPlayer(BiConsumer<UUID, List<StoredItem>> visitor) throws IOException;
+
+    /**
+     * Guarda la bodega de un jugador después de un cambio. El backend copia las entradas en
+     * el hilo que llama.
+     *
+     * @param playerUUID Jugador cuya bodega cambió
+     * @param items Entradas de la bodega, en orden
+     */
+    default void save(UUID playerUUID, Collection<StoredItem> items) {
+        save(playerUUID, items, false);
+    }
+
+    /**
+     * Guarda la bodega de un jugador. Si una escritura falla, la copia queda pendiente y se
+     * repite con la próxima escritura o en {@link #flush}.
+     *
+     * @param creditsApplied La bodega ya incluye los créditos pendientes del jugador: se
+     *                       borran en el hilo de persistencia, recién cuando esta escritura
+     *                       (o una posterior) terminó bien
+     */
+    void save(UUID playerUUID, Collection<StoredItem> items, boolean creditsApplied);
+
+    /**
+     * Indica si la última bodega guardada del jugador ya está escrita: false mientras tiene
+     * una escritura pendiente, en curso o fallida. El manager no descarta de memoria una
+     * bodega que todavía no está escrita.
+     */
+    boolean isSaved(UUID playerUUID);
+
+    /**
+     * Escribe lo pendiente, incluidas las escrituras que fallaron antes, y espera a que termine.
+     */
+    void flush();
+
+    /**
+     * Libera archivos y recursos. El backend puede volver a usarse llamando a {@link #open}.
+     */
+    void close();
+}
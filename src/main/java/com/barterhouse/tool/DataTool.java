@@ -0,0 +1,1212 @@
+package com.barterhouse.tool;
+
+import com.barterhouse.storage.*;
+import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Herramienta de línea de comandos para el directorio de datos ("barterhouse/") con el
+ * servidor apagado. No arranca Minecraft ni Forge: solo usa los formatos de
+ * {@code com.barterhouse.storage}, así que revisar o reparar los datos no agrega tiempo
+ * al arranque del servidor.
+ *
+ * <pre>
+ * ./gradlew dataTool --args="inspect barterhouse"
+ * java -cp barterhouse-1.0.0.jar:gson.jar:slf4j-api.jar com.barterhouse.tool.DataTool verify barterhouse
+ *
+ * inspect &lt;archivo|directorio&gt;           tipo, tamaño, compresión, registros y estadísticas
+ * verify &lt;archivo|directorio&gt;            checksums y estructura; no modifica nada (sale con 1 si hay daños)
+ * compact &lt;directorio&gt; [--compression c]  reescribe snapshots y bodega sin los registros dañados
+ * convert &lt;origen&gt; &lt;destino&gt; [--compression c]   cambia de formato según la extensión del destino
+ * dump &lt;archivo&gt; [--limit n]              imprime cada registro como una línea JSON
+ * restore &lt;backups&gt; &lt;destino&gt; [--at fecha]  reconstruye offers.dat y warehouse.jsonl desde las copias
+ * </pre>
+ *
+ * Todos los comandos leen los archivos en streaming: la memoria usada no depende de su tamaño.
+ */
+public class DataTool {
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_DAMAGED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final String QUARANTINE_DIRECTORY = RecordFrame.QUARANTINE_DIRECTORY;
+    private static final String LEGACY_WAREHOUSE_FILE = "warehouse.json";
+    private static final String WAREHOUSE_FILE = "warehouse.jsonl";
+    private static final String WAREHOUSE_DIRECTORY = "warehouse";
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    /**
+     * Tipos de archivo del directorio de datos.
+     */
+    private enum Kind {
+        OFFERS_BINARY("offers, binary"),
+        OFFERS_JSON("offers, JSON"),
+        OFFERS_NBT("offers, legacy NBT"),
+        JOURNAL("offer journal"),
+        ARCHIVE("offer archive"),
+        LEDGER("trade ledger"),
+        WAREHOUSE("warehouse, JSON lines"),
+        WAREHOUSE_LEGACY("warehouse, legacy JSON"),
+        BLOB("NBT blob"),
+        OTHER("not inspected");
+
+        final String description;
+
+        Kind(String description) {
+            this.description = description;
+        }
+
+        boolean isOffers() {
+            return this == OFFERS_BINARY || this == OFFERS_JSON || this == OFFERS_NBT;
+        }
+
+        boolean isWarehouse() {
+            return this == WAREHOUSE || this == WAREHOUSE_LEGACY;
+        }
+    }
+
+    /**
+     * Receptor de los registros de un archivo. Cada tipo de archivo usa solo algunos métodos.
+     */
+    private interface Visitor {
+        default void offer(OfferRecord record) throws IOException {
+        }
+
+        default void removal(UUID offerId, boolean expired) throws IOException {
+        }
+
+        default void archived(OfferArchive.ArchivedOffer offer) throws IOException {
+        }
+
+        default void trade(TradeRecord trade) throws IOException {
+        }
+
+        default void warehouse(String player, JsonArray items) throws IOException {
+        }
+
+        default void blob(String hash, byte[] nbt) throws IOException {
+        }
+
+        /**
+         * Línea de bodega con checksum inválido o JSON ilegible.
+         */
+        default void damagedLine(String line) throws IOException {
+        }
+    }
+
+    /**
+     * Corta la lectura al llegar al límite de "dump".
+     */
+    private static class LimitReached extends RuntimeException {
+        LimitReached() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Error de un registro dentro de un receptor que no admite IOException.
+     */
+    private static class UncheckedRecordException extends RuntimeException {
+        UncheckedRecordException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Estadísticas de un archivo, acumuladas en una pasada.
+     */
+    private static class Stats {
+        long records;
+        long damagedRecords;
+        int damagedRegions;
+        long damagedBytes;
+        long frames;
+        long minFrame = Long.MAX_VALUE;
+        long maxFrame;
+        long frameBytes;
+        long oldest = Long.MAX_VALUE;
+        long newest = Long.MIN_VALUE;
+        long withNbt;
+        long maxNbt;
+        long stacks;
+        long units;
+        int version = -1;
+        final Set<String> items = new HashSet<>(); // Acotado por el registro de items del juego
+
+        void frame(int length) {
+            frames++;
+            frameBytes += length;
+            minFrame = Math.min(minFrame, length);
+            maxFrame = Math.max(maxFrame, length);
+        }
+
+        void time(long timestamp) {
+            oldest = Math.min(oldest, timestamp);
+            newest = Math.max(newest, timestamp);
+        }
+
+        void offer(OfferRecord record) {
+            records++;
+            time(record.createdTime);
+            items.add(record.offeredItem);
+            items.add(record.requestedItem);
+            tag(record.offeredTag);
+            tag(record.requestedTag);
+        }
+
+        void tag(byte[] tag) {
+            if (tag != null) {
+                withNbt++;
+                maxNbt = Math.max(maxNbt, tag.length);
+            }
+        }
+
+        boolean isDamaged() {
+            return damagedRegions > 0 || damagedRecords > 0;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        if (args.length < 2) {
+            return usage();
+        }
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    return usage();
+                }
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        try {
+            switch (args[0]) {
+                case "inspect":
+                    return positional.size() == 1 ? inspect(Paths.get(positional.get(0))) : usage();
+                case "verify":
+                    return positional.size() == 1 ? verify(Paths.get(positional.get(0))) : usage();
+                case "compact":
+                    return positional.size() == 1 ? compact(Paths.get(positional.get(0)), compression(options, null)) : usage();
+                case "convert":
+                    return positional.size() == 2
+                            ? convert(Paths.get(positional.get(0)), Paths.get(positional.get(1)), compression(options, DataCompression.Codec.NONE))
+                            : usage();
+                case "dump":
+                    return positional.size() == 1
+                            ? dump(Paths.get(positional.get(0)), Long.parseLong(options.getOrDefault("limit", String.valueOf(Long.MAX_VALUE))))
+                            : usage();
+                case "restore":
+                    return positional.size() == 2
+                            ? restore(Paths.get(positional.get(0)), Paths.get(positional.get(1)), pointInTime(options),
+                                    compression(options, DataCompression.Codec.NONE))
+                            : usage();
+                default:
+                    return usage();
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return EXIT_USAGE;
+        } catch (IOException | UncheckedRecordException e) {
+            System.err.println("Error: " + (e instanceof UncheckedRecordException ? e.getCause() : e).getMessage());
+            return EXIT_DAMAGED;
+        }
+    }
+
+    private static int usage() {
+        System.err.println("Usage: DataTool <command> ...");
+        System.err.println("  inspect <file|dir>                     record counts and size statistics");
+        System.err.println("  verify <file|dir>                      check checksums and structure (read-only)");
+        System.err.println("  compact <dir> [--compression c] [--level n]");
+        System.err.println("                                         rewrite snapshots and warehouse, dropping damaged records");
+        System.err.println("  convert <in> <out> [--compression c]   convert offers (.dat/.json/.nbt) or warehouse (.json/.jsonl)");
+        System.err.println("  dump <file> [--limit n]                print every record as one JSON line");
+        System.err.println("  restore <backups> <dir> [--at 2026-01-31T18:00] [--compression c]");
+        System.err.println("                                         rebuild offers.dat and warehouse.jsonl from a base and its deltas");
+        System.err.println("Compression: none, deflate, lz4. Run with the server stopped.");
+        return EXIT_USAGE;
+    }
+
+    /**
+     * @return La compresión pedida con --compression, o {@code fallback} (null = conservar la de cada archivo)
+     */
+    private static DataCompression compression(Map<String, String> options, DataCompression.Codec fallback) {
+        String name = options.get("compression");
+        int level = Integer.parseInt(options.getOrDefault("level", "6"));
+        if (name == null) {
+            return fallback != null ? new DataCompression(fallback, level) : null;
+        }
+        DataCompression.Codec codec = DataCompression.Codec.fromName(name);
+        if (codec == DataCompression.Codec.NONE && !name.equalsIgnoreCase("none")) {
+            throw new IllegalArgumentException("Unknown compression " + name);
+        }
+        return new DataCompression(codec, level);
+    }
+
+    // ---------------------------------------------------------------- inspect / verify
+
+    private static int inspect(Path path) throws IOException {
+        long totalSize = 0;
+        // Los blobs de NBT se resumen juntos: puede haber miles
+        Stats blobStats = new Stats();
+        int blobFiles = 0;
+        long blobSize = 0;
+        for (Path file : listFiles(path)) {
+            Kind kind = detect(file);
+            long size = Files.size(file);
+            totalSize += size;
+            if (kind == Kind.BLOB) {
+                blobFiles++;
+                blobSize += size;
+                try {
+                    scanFrames(file, kind, blobStats);
+                    collect(file, kind, blobStats);
+                } catch (IOException | UncheckedRecordException e) {
+                    System.out.println(relativeName(path, file) + " (" + kind.description + ")");
+                    System.out.println("  unreadable: " + message(e));
+                }
+                continue;
+            }
+            System.out.println(relativeName(path, file) + " (" + kind.description + describeCodec(file, kind) + ")");
+            System.out.println("  size: " + formatSize(size));
+            if (kind == Kind.OTHER) {
+                continue;
+            }
+
+            Stats stats = new Stats();
+            try {
+                scanFrames(file, kind, stats);
+                collect(file, kind, stats);
+            } catch (IOException | UncheckedRecordException e) {
+                System.out.println("  unreadable: " + message(e));
+                continue;
+            }
+            printStats(kind, stats, size);
+        }
+        if (blobFiles > 0) {
+            System.out.println(NbtBlobStore.DIRECTORY + "/ (" + Kind.BLOB.description + "s, " + blobFiles + " files)");
+            System.out.println("  size: " + formatSize(blobSize));
+            printStats(Kind.BLOB, blobStats, blobSize);
+        }
+        System.out.println("total: " + formatSize(totalSize));
+        return EXIT_OK;
+    }
+
+    private static int verify(Path path) throws IOException {
+        int damaged = 0;
+        int checked = 0;
+        int blobsOk = 0;
+        for (Path file : listFiles(path)) {
+            Kind kind = detect(file);
+            if (kind == Kind.OTHER) {
+                continue;
+            }
+            checked++;
+            long start = System.nanoTime();
+            Stats stats = new Stats();
+            String problem = null;
+            try {
+                if (!scanFrames(file, kind, stats)) {
+                    // Sin checksums: basta con que se pueda leer completo
+                    collect(file, kind, stats);
+                }
+            } catch (IOException | UncheckedRecordException e) {
+                problem = message(e);
+            }
+
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            long count = stats.frames > 0 ? stats.frames : stats.records;
+            if (problem != null) {
+                damaged++;
+                System.out.println("DAMAGED " + relativeName(path, file) + ": " + problem);
+            } else if (stats.isDamaged()) {
+                damaged++;
+                if (kind == Kind.BLOB) {
+                    System.out.println("DAMAGED " + relativeName(path, file) + ": damaged NBT blob (not repaired by 'compact')");
+                    continue;
+                }
+                System.out.println("DAMAGED " + relativeName(path, file) + ": " + count + " intact records, "
+                        + (stats.damagedRegions > 0 ? stats.damagedRegions + " damaged regions (" + formatSize(stats.damagedBytes) + ")"
+                                : stats.damagedRecords + " damaged records") + " [" + millis + " ms]");
+            } else if (kind == Kind.BLOB) {
+                // Los blobs sanos se resumen en una línea
+                blobsOk++;
+            } else {
+                System.out.println("OK      " + relativeName(path, file) + ": " + count + " records"
+                        + (hasChecksums(kind, stats) ? "" : " (no checksums)") + " [" + millis + " ms]");
+            }
+        }
+        if (blobsOk > 0) {
+            System.out.println("OK      " + NbtBlobStore.DIRECTORY + "/: " + blobsOk + " NBT blobs");
+        }
+        System.out.println(checked + " files checked, " + damaged + " damaged"
+                + (damaged > 0 ? "; run 'compact' to rewrite them without the damaged records" : ""));
+        return damaged > 0 ? EXIT_DAMAGED : EXIT_OK;
+    }
+
+    private static boolean hasChecksums(Kind kind, Stats stats) {
+        return kind == Kind.WAREHOUSE || kind == Kind.BLOB || stats.version >= 2;
+    }
+
+    /**
+     * Recorre los registros enmarcados ({@link RecordFrame}) de un archivo sin decodificarlos.
+     *
+     * @return false si el archivo no usa registros con checksum
+     */
+    private static boolean scanFrames(Path file, Kind kind, Stats stats) throws IOException {
+        if (kind == Kind.BLOB) {
+            // Un solo registro enmarcado, sin cabecera de archivo
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                RecordFrame.Reader reader = new RecordFrame.Reader(in, null);
+                long frames = stats.frames;
+                byte[] payload;
+                while ((payload = reader.next()) != null) {
+                    stats.frame(payload.length);
+                }
+                stats.damagedRegions += reader.getDamagedRegions();
+                stats.damagedBytes += reader.getDamagedBytes();
+                if (stats.frames == frames && reader.getDamagedRegions() == 0) {
+                    throw new IOException("empty NBT blob");
+                }
+            }
+            return true;
+        }
+        int magic;
+        int framedVersion;
+        switch (kind) {
+            case OFFERS_BINARY:
+                magic = BinaryOfferFormat.MAGIC;
+                framedVersion = BinaryOfferFormat.VERSION;
+                break;
+            case JOURNAL:
+                magic = OfferJournal.SEGMENT_MAGIC;
+                framedVersion = OfferJournal.VERSION;
+                break;
+            case ARCHIVE:
+                magic = OfferArchive.SEGMENT_MAGIC;
+                framedVersion = OfferArchive.VERSION;
+                break;
+            case LEDGER:
+                magic = TradeLedger.SEGMENT_MAGIC;
+                framedVersion = TradeLedger.VERSION;
+                break;
+            default:
+                return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(DataCompression.decompress(Files.newInputStream(file)))) {
+            if (in.readInt() != magic) {
+                if (kind == Kind.JOURNAL) {
+                    // Segmento del journal anterior a los checksums: no tiene cabecera
+                    stats.version = 1;
+                    return false;
+                }
+                throw new IOException("unexpected file header");
+            }
+            stats.version = in.readUnsignedByte();
+            if (stats.version > framedVersion) {
+                throw new IOException("unsupported version " + stats.version);
+            }
+            if (stats.version < framedVersion) {
+                return false;
+            }
+            RecordFrame.Reader reader = new RecordFrame.Reader(in, null);
+            byte[] payload;
+            while ((payload = reader.next()) != null) {
+                stats.frame(payload.length);
+            }
+            stats.damagedRegions = reader.getDamagedRegions();
+            stats.damagedBytes = reader.getDamagedBytes();
+            return true;
+        } catch (EOFException e) {
+            throw new IOException("file ends inside its header");
+        }
+    }
+
+    /**
+     * Decodifica todos los registros y acumula las estadísticas de contenido.
+     */
+    private static void collect(Path file, Kind kind, Stats stats) throws IOException {
+        read(file, kind, null, new Visitor() {
+            @Override
+            public void offer(OfferRecord record) {
+                stats.offer(record);
+            }
+
+            @Override
+            public void removal(UUID offerId, boolean expired) {
+                stats.records++;
+            }
+
+            @Override
+            public void archived(OfferArchive.ArchivedOffer offer) {
+                stats.offer(offer.record);
+            }
+
+            @Override
+            public void trade(TradeRecord trade) {
+                stats.records++;
+                stats.time(trade.timestamp);
+                stats.items.add(trade.offeredItem);
+                stats.items.add(trade.requestedItem);
+            }
+
+            @Override
+            public void warehouse(String player, JsonArray items) {
+                stats.records++;
+                stats.stacks += items.size();
+                for (JsonElement item : items) {
+                    if (!item.isJsonObject()) {
+                        continue;
+                    }
+                    JsonObject object = item.getAsJsonObject();
+                    if (object.has("itemName")) {
+                        stats.items.add(object.get("itemName").getAsString());
+                    }
+                    if (object.has("count")) {
+                        stats.units += object.get("count").getAsLong();
+                    }
+                    if (object.has("receivedTime")) {
+                        stats.time(object.get("receivedTime").getAsLong());
+                    }
+                    if (object.has("nbtData") && !object.get("nbtData").isJsonNull()) {
+                        stats.withNbt++;
+                        stats.maxNbt = Math.max(stats.maxNbt, object.get("nbtData").getAsString().length());
+                    } else if (object.has("nbtHash") && !object.get("nbtHash").isJsonNull()) {
+                        // NBT en un blob ("blobs/"): solo cuenta como item con NBT
+                        stats.withNbt++;
+                    }
+                }
+            }
+
+            @Override
+            public void blob(String hash, byte[] nbt) {
+                stats.records++;
+            }
+
+            @Override
+            public void damagedLine(String line) {
+                stats.damagedRecords++;
+            }
+        });
+    }
+
+    private static void printStats(Kind kind, Stats stats, long size) {
+        String unit = kind.isWarehouse() ? "players" : kind == Kind.LEDGER ? "trades" : kind == Kind.JOURNAL ? "operations"
+                : kind == Kind.BLOB ? "blobs" : "offers";
+        System.out.println("  " + unit + ": " + stats.records
+                + (stats.records > 0 ? " (" + formatSize(size / stats.records) + " per record on disk)" : ""));
+        if (stats.version >= 0) {
+            System.out.println("  format version: " + stats.version + (stats.frames > 0 || stats.version >= 2 ? "" : " (no checksums)"));
+        }
+        if (stats.frames > 0) {
+            System.out.println("  framed records: " + stats.frames + ", payload min/avg/max "
+                    + stats.minFrame + "/" + stats.frameBytes / stats.frames + "/" + stats.maxFrame + " bytes");
+        }
+        if (stats.isDamaged()) {
+            System.out.println("  damaged: " + (stats.damagedRegions > 0
+                    ? stats.damagedRegions + " regions (" + formatSize(stats.damagedBytes) + ")"
+                    : stats.damagedRecords + " records"));
+        }
+        if (kind.isWarehouse()) {
+            System.out.println("  stacks: " + stats.stacks + ", items: " + stats.units);
+        }
+        if (!stats.items.isEmpty()) {
+            System.out.println("  distinct item ids: " + stats.items.size());
+        }
+        if (stats.withNbt > 0) {
+            System.out.println("  items with NBT: " + stats.withNbt + " (largest " + formatSize(stats.maxNbt) + ")");
+        }
+        if (stats.oldest <= stats.newest) {
+            System.out.println("  time range: " + Instant.ofEpochMilli(stats.oldest) + " .. " + Instant.ofEpochMilli(stats.newest));
+        }
+    }
+
+    // ---------------------------------------------------------------- compact
+
+    /**
+     * Reescribe los snapshots de ofertas y la bodega descartando los registros dañados (que
+     * quedan en la cuarentena). El journal, el archivo y el ledger los consolida el propio servidor.
+     *
+     * @param compression Compresión de los archivos nuevos, o null para conservar la de cada uno
+     */
+    private static int compact(Path directory, DataCompression compression) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException(directory + " is not a directory");
+        }
+        long before = 0;
+        long after = 0;
+        int rewritten = 0;
+        for (Path file : listFiles(directory)) {
+            Kind kind = detect(file);
+            boolean snapshot = kind == Kind.OFFERS_BINARY || kind == Kind.OFFERS_JSON;
+            boolean legacyWarehouse = kind == Kind.WAREHOUSE_LEGACY && !Files.exists(file.resolveSibling(WAREHOUSE_FILE))
+                    && !Files.isDirectory(file.resolveSibling(WAREHOUSE_DIRECTORY));
+            if (!snapshot && kind != Kind.WAREHOUSE && !legacyWarehouse) {
+                continue;
+            }
+            DataCompression fileCompression = compression != null ? compression
+                    : new DataCompression(DataCompression.codecOf(file), 6);
+            Path target = legacyWarehouse ? file.resolveSibling(WAREHOUSE_FILE) : file;
+            long size = Files.size(file);
+
+            long start = System.nanoTime();
+            long records = write(file, kind, target, legacyWarehouse ? Kind.WAREHOUSE : kind, fileCompression, true, null);
+            if (legacyWarehouse) {
+                // Igual que el servidor al guardar: el archivo nuevo reemplaza al anterior
+                Files.delete(file);
+            }
+            long newSize = Files.size(target);
+            before += size;
+            after += newSize;
+            rewritten++;
+            System.out.println(relativeName(directory, target) + ": " + records + " records, "
+                    + formatSize(size) + " -> " + formatSize(newSize) + " [" + (System.nanoTime() - start) / 1_000_000 + " ms]");
+        }
+        System.out.println(rewritten + " files rewritten, " + formatSize(before) + " -> " + formatSize(after));
+        return EXIT_OK;
+    }
+
+    // ---------------------------------------------------------------- convert
+
+    private static int convert(Path source, Path target, DataCompression compression) throws IOException {
+        if (!Files.isRegularFile(source)) {
+            throw new IllegalArgumentException(source + " is not a file");
+        }
+        if (Files.exists(target) && Files.isSameFile(source, target)) {
+            throw new IllegalArgumentException("Source and target must be different files");
+        }
+        Kind kind = detect(source);
+        Kind targetKind = detect(target);
+        if (kind.isWarehouse() && targetKind == Kind.OFFERS_JSON) {
+            targetKind = Kind.WAREHOUSE_LEGACY;
+        }
+        boolean supported = kind.isOffers() && (targetKind == Kind.OFFERS_BINARY || targetKind == Kind.OFFERS_JSON)
+                || kind.isWarehouse() && targetKind.isWarehouse();
+        if (!supported) {
+            throw new IllegalArgumentException("Cannot convert " + kind.description + " to " + targetKind.description
+                    + "; use .dat or .json for offers and .jsonl or .json for the warehouse");
+        }
+        // Las ofertas convertidas llevan el NBT de sus blobs, así no dependen de "blobs/"
+        long records = write(source, kind, target, targetKind, compression, false, kind.isOffers() ? blobsFor(source) : null);
+        System.out.println("Wrote " + records + " records to " + target + " (" + formatSize(Files.size(target)) + ")");
+        return EXIT_OK;
+    }
+
+    /**
+     * Escribe los registros legibles de {@code source} en {@code target}, primero en un
+     * archivo temporal que luego se renombra.
+     *
+     * @param targetKind Formato de destino
+     * @param quarantine true para copiar los registros dañados a la cuarentena
+     * @param blobs Blobs con los que se reemplazan las referencias de NBT de las ofertas, o null para conservarlas
+     * @return Cantidad de registros escritos
+     */
+    private static long write(Path source, Kind kind, Path target, Kind targetKind, DataCompression compression,
+                              boolean quarantine, NbtBlobStore blobs) throws IOException {
+        Path quarantineSource = quarantine ? source : null;
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        long[] written = {0};
+        try (OutputStream out = compression.compress(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            if (targetKind == Kind.OFFERS_BINARY) {
+                // Primera pasada: la paleta de items y la cantidad van al principio del archivo
+                Set<String> itemIds = new LinkedHashSet<>();
+                long[] count = {0};
+                read(source, kind, quarantineSource, new Visitor() {
+                    @Override
+                    public void offer(OfferRecord record) {
+                        itemIds.add(record.offeredItem);
+                        itemIds.add(record.requestedItem);
+                        count[0]++;
+                    }
+                });
+                BinaryOfferFormat.Writer writer = new BinaryOfferFormat.Writer(out, itemIds, (int) count[0]);
+                read(source, kind, null, new Visitor() {
+                    @Override
+                    public void offer(OfferRecord record) throws IOException {
+                        writer.write(resolveBlobs(record, blobs));
+                        written[0]++;
+                    }
+                });
+                writer.finish();
+            } else if (targetKind == Kind.OFFERS_JSON) {
+                Writer text = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                JsonOfferFormat.RecordWriter writer = new JsonOfferFormat.RecordWriter(text);
+                read(source, kind, quarantineSource, new Visitor() {
+                    @Override
+                    public void offer(OfferRecord record) throws IOException {
+                        writer.write(resolveBlobs(record, blobs));
+                        written[0]++;
+                    }
+                });
+                writer.finish();
+            } else if (targetKind == Kind.WAREHOUSE) {
+                Writer text = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                read(source, kind, quarantineSource, new Visitor() {
+                    @Override
+                    public void warehouse(String player, JsonArray items) throws IOException {
+                        if (items.size() == 0) {
+                            return;
+                        }
+                        JsonObject line = new JsonObject();
+                        line.addProperty("player", player);
+                        line.add("items", items);
+                        text.write(WarehouseLines.encode(GSON.toJson(line)));
+                        text.write('\n');
+                        written[0]++;
+                    }
+                });
+                text.flush();
+            } else {
+                JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                writer.setIndent("  ");
+                writer.beginObject();
+                read(source, kind, quarantineSource, new Visitor() {
+                    @Override
+                    public void warehouse(String player, JsonArray items) throws IOException {
+                        if (items.size() == 0) {
+                            return;
+                        }
+                        writer.name(player);
+                        GSON.toJson(items, writer);
+                        written[0]++;
+                    }
+                });
+                writer.endObject();
+                writer.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written[0];
+    }
+
+    // ---------------------------------------------------------------- restore
+
+    /**
+     * @return La fecha pedida con --at (hora local), o Long.MAX_VALUE para la copia más reciente
+     */
+    private static long pointInTime(Map<String, String> options) {
+        String at = options.get("at");
+        if (at == null) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return LocalDateTime.parse(at).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid date " + at + ", expected e.g. 2026-01-31T18:00");
+        }
+    }
+
+    /**
+     * Reconstruye las ofertas y la bodega de un momento dado a partir de las copias de
+     * "backups/" y las escribe como snapshot del backend "file" en un directorio sin datos.
+     */
+    private static int restore(Path backups, Path target, long pointInTime, DataCompression compression) throws IOException {
+        if (!Files.isDirectory(backups)) {
+            throw new IllegalArgumentException(backups + " is not a directory");
+        }
+        Path offersFile = target.resolve("offers.dat");
+        Path warehouseFile = target.resolve(WAREHOUSE_FILE);
+        if (Files.exists(offersFile) || Files.exists(warehouseFile) || Files.exists(target.resolve(WAREHOUSE_DIRECTORY))) {
+            throw new IllegalArgumentException(target + " already has data; restore into an empty directory");
+        }
+
+        long start = System.nanoTime();
+        DataBackup.State state = DataBackup.restore(backups, pointInTime);
+        if (state == null) {
+            throw new IllegalArgumentException("No base backup " + (pointInTime == Long.MAX_VALUE ? "found" : "before that date"));
+        }
+        for (DataBackup.Entry entry : state.applied) {
+            System.out.println("Applied " + entry.file.getFileName() + " (" + Instant.ofEpochMilli(entry.time) + ")");
+        }
+
+        Files.createDirectories(target);
+        Path temp = offersFile.resolveSibling(offersFile.getFileName() + ".tmp");
+        try (OutputStream out = compression.compress(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            BinaryOfferFormat.write(out, state.offers.values());
+        }
+        Files.move(temp, offersFile, StandardCopyOption.ATOMIC_MOVE);
+
+        temp = warehouseFile.resolveSibling(warehouseFile.getFileName() + ".tmp");
+        try (Writer text = new BufferedWriter(new OutputStreamWriter(
+                compression.compress(new BufferedOutputStream(Files.newOutputStream(temp))), StandardCharsets.UTF_8))) {
+            for (Map.Entry<UUID, String> entry : state.warehouses.entrySet()) {
+                JsonObject line = new JsonObject();
+                line.addProperty("player", entry.getKey().toString());
+                line.add("items", JsonParser.parseString(entry.getValue()));
+                text.write(WarehouseLines.encode(GSON.toJson(line)));
+                text.write('\n');
+            }
+        }
+        Files.move(temp, warehouseFile, StandardCopyOption.ATOMIC_MOVE);
+
+        System.out.println("Restored " + state.offers.size() + " offers and " + state.warehouses.size() + " warehouses to "
+                + target + " [" + (System.nanoTime() - start) / 1_000_000 + " ms]");
+        return state.damagedRegions > 0 ? EXIT_DAMAGED : EXIT_OK;
+    }
+
+    // ---------------------------------------------------------------- dump
+
+    private static int dump(Path file, long limit) throws IOException {
+        Kind kind = detect(file);
+        if (kind == Kind.OTHER) {
+            throw new IllegalArgumentException("Unknown file type: " + file.getFileName());
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)), false, StandardCharsets.UTF_8);
+        NbtBlobStore blobs = blobsFor(file);
+        long[] printed = {0};
+        Visitor visitor = new Visitor() {
+            private void print(JsonObject object) {
+                if (printed[0]++ >= limit) {
+                    throw new LimitReached();
+                }
+                out.println(GSON.toJson(object));
+            }
+
+            @Override
+            public void offer(OfferRecord record) {
+                JsonObject object = new JsonObject();
+                if (kind == Kind.JOURNAL) {
+                    object.addProperty("op", "create");
+                }
+                addOffer(object, record, blobs);
+                print(object);
+            }
+
+            @Override
+            public void removal(UUID offerId, boolean expired) {
+                JsonObject object = new JsonObject();
+                object.addProperty("op", expired ? "expire" : "remove");
+                object.addProperty("offerId", offerId.toString());
+                print(object);
+            }
+
+            @Override
+            public void archived(OfferArchive.ArchivedOffer offer) {
+                JsonObject object = new JsonObject();
+                object.addProperty("reason", offer.reason.name());
+                object.addProperty("archivedTime", offer.archivedTime);
+                addOffer(object, offer.record, blobs);
+                print(object);
+            }
+
+            @Override
+            public void trade(TradeRecord trade) {
+                print(GSON.toJsonTree(trade).getAsJsonObject());
+            }
+
+            @Override
+            public void warehouse(String player, JsonArray items) {
+                JsonObject object = new JsonObject();
+                object.addProperty("player", player);
+                object.add("items", items);
+                print(object);
+            }
+
+            @Override
+            public void blob(String hash, byte[] nbt) {
+                JsonObject object = new JsonObject();
+                object.addProperty("hash", hash);
+                object.addProperty("nbt", Base64.getEncoder().encodeToString(nbt));
+                print(object);
+            }
+
+            @Override
+            public void damagedLine(String line) {
+                System.err.println("Skipping damaged warehouse line");
+            }
+        };
+        try {
+            read(file, kind, null, visitor);
+        } catch (LimitReached e) {
+            // Límite alcanzado
+        } finally {
+            out.flush();
+        }
+        return EXIT_OK;
+    }
+
+    private static void addOffer(JsonObject object, OfferRecord record, NbtBlobStore blobs) {
+        object.addProperty("offerId", record.offerId.toString());
+        object.addProperty("creatorUUID", record.creatorUUID.toString());
+        object.addProperty("creatorName", record.creatorName);
+        object.addProperty("createdTime", record.createdTime);
+        object.addProperty("offeredItem", record.offeredItem);
+        object.addProperty("offeredCount", record.offeredCount);
+        addNbt(object, "offered", record.offeredTag, blobs);
+        object.addProperty("requestedItem", record.requestedItem);
+        object.addProperty("requestedCount", record.requestedCount);
+        addNbt(object, "requested", record.requestedTag, blobs);
+    }
+
+    /**
+     * NBT de un item en base64. Si es una referencia a un blob, se indica su hash y se
+     * incluye el NBT del blob cuando se puede leer.
+     */
+    private static void addNbt(JsonObject object, String prefix, byte[] tag, NbtBlobStore blobs) {
+        if (tag == null) {
+            return;
+        }
+        String hash = NbtBlobStore.referencedHash(tag);
+        if (hash == null) {
+            object.addProperty(prefix + "Nbt", Base64.getEncoder().encodeToString(tag));
+            return;
+        }
+        object.addProperty(prefix + "NbtBlob", hash);
+        try {
+            object.addProperty(prefix + "Nbt", Base64.getEncoder().encodeToString(blobs.read(hash)));
+        } catch (IOException e) {
+            System.err.println("Cannot read NBT blob " + hash + ": " + e.getMessage());
+        }
+    }
+
+    // ---------------------------------------------------------------- lectura
+
+    /**
+     * Lee un archivo registro por registro y entrega cada uno al receptor.
+     *
+     * @param quarantine Archivo al que se atribuyen los registros dañados en la cuarentena, o null para no copiarlos
+     */
+    private static void read(Path file, Kind kind, Path quarantine, Visitor visitor) throws IOException {
+        try {
+            switch (kind) {
+                case OFFERS_BINARY:
+                    try (InputStream in = DataCompression.decompress(Files.newInputStream(file))) {
+                        BinaryOfferFormat.read(in, record -> accept(visitor, record), quarantine);
+                    }
+                    break;
+                case OFFERS_JSON:
+                    try (Reader in = new InputStreamReader(DataCompression.decompress(Files.newInputStream(file)), StandardCharsets.UTF_8)) {
+                        JsonOfferFormat.read(in, record -> accept(visitor, record));
+                    }
+                    break;
+                case OFFERS_NBT:
+                    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                        NbtOfferReader.readFile(in, record -> accept(visitor, record));
+                    }
+                    break;
+                case JOURNAL: {
+                    // El journal informa y salta los registros que fallan, así que el límite de "dump" se anota aparte
+                    boolean[] limitReached = {false};
+                    OfferJournal.readSegment(file, new OfferJournal.ReplayHandler() {
+                        @Override
+                        public void onCreate(byte[] payload) throws IOException {
+                            if (!limitReached[0]) {
+                                try {
+                                    visitor.offer(NbtOfferReader.readOffer(payload));
+                                } catch (LimitReached e) {
+                                    limitReached[0] = true;
+                                }
+                            }
+                        }
+
+                        @Override
+                        public void onRemove(UUID offerId, boolean expired) {
+                            if (!limitReached[0]) {
+                                try {
+                                    visitor.removal(offerId, expired);
+                                } catch (LimitReached e) {
+                                    limitReached[0] = true;
+                                } catch (IOException e) {
+                                    throw new UncheckedRecordException(e);
+                                }
+                            }
+                        }
+                    });
+                    if (limitReached[0]) {
+                        throw new LimitReached();
+                    }
+                    break;
+                }
+                case ARCHIVE:
+                    OfferArchive.readSegment(file, offer -> {
+                        try {
+                            visitor.archived(offer);
+                        } catch (IOException e) {
+                            throw new UncheckedRecordException(e);
+                        }
+                    });
+                    break;
+                case LEDGER:
+                    TradeLedger.readSegment(file, trade -> {
+                        try {
+                            visitor.trade(trade);
+                        } catch (IOException e) {
+                            throw new UncheckedRecordException(e);
+                        }
+                    });
+                    break;
+                case WAREHOUSE:
+                    readWarehouseLines(file, quarantine, visitor);
+                    break;
+                case WAREHOUSE_LEGACY:
+                    readLegacyWarehouse(file, visitor);
+                    break;
+                case BLOB:
+                    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                        byte[] payload = new RecordFrame.Reader(in, null).next();
+                        if (payload == null) {
+                            throw new IOException("damaged NBT blob");
+                        }
+                        String name = file.getFileName().toString();
+                        visitor.blob(name.substring(0, name.length() - ".nbt".length()), payload);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown file type: " + file.getFileName());
+            }
+        } catch (UncheckedRecordException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    private static void accept(Visitor visitor, OfferRecord record) {
+        try {
+            visitor.offer(record);
+        } catch (IOException e) {
+            throw new UncheckedRecordException(e);
+        }
+    }
+
+    /**
+     * Oferta con el NBT de sus blobs en lugar de las referencias ({@link NbtBlobStore#reference}).
+     *
+     * @param blobs Blobs del directorio de datos, o null para devolver la oferta como está
+     * @throws IOException si una referencia apunta a un blob que no se puede leer
+     */
+    private static OfferRecord resolveBlobs(OfferRecord record, NbtBlobStore blobs) throws IOException {
+        if (blobs == null) {
+            return record;
+        }
+        byte[] offeredTag = resolveBlob(record, record.offeredTag, blobs);
+        byte[] requestedTag = resolveBlob(record, record.requestedTag, blobs);
+        if (offeredTag == record.offeredTag && requestedTag == record.requestedTag) {
+            return record;
+        }
+        return new OfferRecord(record.offerId, record.creatorUUID, record.creatorName,
+                record.offeredItem, record.offeredCount, offeredTag,
+                record.requestedItem, record.requestedCount, requestedTag,
+                record.createdTime);
+    }
+
+    private static byte[] resolveBlob(OfferRecord record, byte[] tag, NbtBlobStore blobs) throws IOException {
+        String hash = NbtBlobStore.referencedHash(tag);
+        if (hash == null) {
+            return tag;
+        }
+        try {
+            return blobs.read(hash);
+        } catch (IOException e) {
+            throw new IOException("offer " + record.offerId + " references NBT blob " + hash + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void readWarehouseLines(Path file, Path quarantine, Visitor visitor) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                DataCompression.decompress(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                JsonObject entry = null;
+                String json = WarehouseLines.decode(line);
+                if (json != null) {
+                    try {
+                        entry = GSON.fromJson(json, JsonObject.class);
+                    } catch (JsonParseException e) {
+                        entry = null;
+                    }
+                }
+                if (entry == null || !entry.has("player") || !entry.has("items") || !entry.get("items").isJsonArray()) {
+                    if (quarantine != null) {
+                        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                        RecordFrame.quarantine(quarantine, bytes, 0, bytes.length);
+                    }
+                    visitor.damagedLine(line);
+                    continue;
+                }
+                visitor.warehouse(entry.get("player").getAsString(), entry.getAsJsonArray("items"));
+            }
+        }
+    }
+
+    /**
+     * Lee "warehouse.json" (un objeto con un arreglo por jugador) de a un jugador por vez.
+     */
+    private static void readLegacyWarehouse(Path file, Visitor visitor) throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                DataCompression.decompress(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            if (reader.peek() == JsonToken.END_DOCUMENT) {
+                return;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String player = reader.nextName();
+                JsonElement items = JsonParser.parseReader(reader);
+                if (items.isJsonArray()) {
+                    visitor.warehouse(player, items.getAsJsonArray());
+                } else {
+                    visitor.damagedLine(player);
+                }
+            }
+            reader.endObject();
+        } catch (JsonParseException e) {
+            throw new IOException("invalid JSON: " + e.getMessage(), e);
+        }
+    }
+
+    // ---------------------------------------------------------------- archivos
+
+    /**
+     * Archivos a procesar: el archivo indicado o todos los del directorio (sin la cuarentena
+     * ni los temporales), ordenados por ruta.
+     */
+    private static List<Path> listFiles(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            throw new IllegalArgumentException(path + " does not exist");
+        }
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> !path.relativize(file).toString().startsWith(QUARANTINE_DIRECTORY))
+                    .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static Kind detect(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".nbt")) {
+            // "blobs/<xx>/<hash>.nbt" es un blob de NBT; cualquier otro, el antiguo "trade_offers.nbt"
+            Path parent = file.toAbsolutePath().getParent();
+            Path blobDirectory = parent != null ? parent.getParent() : null;
+            if (blobDirectory != null && blobDirectory.getFileName() != null
+                    && blobDirectory.getFileName().toString().equals(NbtBlobStore.DIRECTORY)) {
+                return Kind.BLOB;
+            }
+            return Kind.OFFERS_NBT;
+        }
+        if (name.startsWith(OfferJournal.SEGMENT_PREFIX)) {
+            return Kind.JOURNAL;
+        }
+        if (name.endsWith(".jsonl")) {
+            return Kind.WAREHOUSE;
+        }
+        if (name.equals(LEGACY_WAREHOUSE_FILE)) {
+            return Kind.WAREHOUSE_LEGACY;
+        }
+        if (name.endsWith(".json")) {
+            return Files.isRegularFile(file) && isWarehouseJson(file) ? Kind.WAREHOUSE_LEGACY : Kind.OFFERS_JSON;
+        }
+        if (name.endsWith(".dat")) {
+            return Kind.OFFERS_BINARY;
+        }
+        if (name.endsWith(".seg") && Files.isRegularFile(file)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                int magic = in.readInt();
+                if (magic == OfferArchive.SEGMENT_MAGIC) {
+                    return Kind.ARCHIVE;
+                }
+                if (magic == TradeLedger.SEGMENT_MAGIC) {
+                    return Kind.LEDGER;
+                }
+            } catch (EOFException e) {
+                return Kind.OTHER;
+            }
+        }
+        return Kind.OTHER;
+    }
+
+    /**
+     * Blobs de NBT del directorio de datos al que pertenece un archivo (el primero hacia arriba
+     * que tiene "blobs/", o el del archivo si no hay ninguno), para resolver las referencias
+     * de las ofertas. Solo se leen los blobs que se piden.
+     */
+    private static NbtBlobStore blobsFor(Path file) {
+        Path parent = file.toAbsolutePath().getParent();
+        for (Path directory = parent; directory != null; directory = directory.getParent()) {
+            if (Files.isDirectory(directory.resolve(NbtBlobStore.DIRECTORY))) {
+                return new NbtBlobStore(directory);
+            }
+        }
+        return new NbtBlobStore(parent);
+    }
+
+    /**
+     * Distingue una bodega en JSON (claves UUID de jugador) de un snapshot de ofertas.
+     */
+    private static boolean isWarehouseJson(Path file) throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                DataCompression.decompress(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return false;
+            }
+            reader.beginObject();
+            if (!reader.hasNext()) {
+                return false;
+            }
+            UUID.fromString(reader.nextName());
+            return true;
+        } catch (IllegalArgumentException | IOException e) {
+            return false;
+        }
+    }
+
+    private static String describeCodec(Path file, Kind kind) throws IOException {
+        if (kind == Kind.OTHER) {
+            return "";
+        }
+        DataCompression.Codec codec = DataCompression.codecOf(file);
+        return codec == DataCompression.Codec.NONE ? "" : ", " + codec.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String relativeName(Path root, Path file) {
+        return root.equals(file) ? file.getFileName().toString() : root.relativize(file).toString();
+    }
+
+    private static String message(Exception e) {
+        Throwable cause = e instanceof UncheckedRecordException ? e.getCause() : e;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        }
+        if (bytes < 1024L * 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format(Locale.ROOT, "%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+}
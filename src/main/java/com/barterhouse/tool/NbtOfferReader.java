@@ -0,0 +1,269 @@
+package com.barterhouse.tool;
+
+import com.barterhouse.storage.OfferRecord;
+import com.barterhouse.util.LoggerUtil;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Lector en streaming del NBT de ofertas (el formato de TradeOffer#serializeNBT) que no
+ * depende de las clases de Minecraft. Se usa para "trade_offers.nbt" y para los registros
+ * del journal cuando el servidor no está corriendo.
+ *
+ * Los items se convierten igual que en OfferRecords: id de registro, "Count" y el compound
+ * "tag" serializado tal como lo escribe NbtIo.
+ */
+class NbtOfferReader {
+
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+
+    /**
+     * Lee "trade_offers.nbt" ({Offers: [{...}, ...]}) oferta por oferta.
+     *
+     * @param input Stream de origen (no se cierra)
+     * @param sink Receptor de cada oferta leída
+     * @return Cantidad de ofertas leídas correctamente
+     */
+    static int readFile(InputStream input, Consumer<OfferRecord> sink) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readUnsignedByte() != TAG_COMPOUND) {
+            throw new IOException("Not an NBT compound file");
+        }
+        in.readUTF();
+
+        int loaded = 0;
+        int type;
+        while ((type = in.readUnsignedByte()) != TAG_END) {
+            String name = in.readUTF();
+            if (!name.equals("Offers") || type != TAG_LIST) {
+                skip(in, type, null);
+                continue;
+            }
+            int elementType = in.readUnsignedByte();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                if (elementType != TAG_COMPOUND) {
+                    skip(in, elementType, null);
+                    continue;
+                }
+                Map<String, Object> fields = readOfferFields(in);
+                OfferRecord record;
+                try {
+                    record = toRecord(fields);
+                } catch (Exception e) {
+                    LoggerUtil.error("Skipping offer record #" + i + ": " + e.getMessage());
+                    continue;
+                }
+                sink.accept(record);
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Lee una oferta escrita con NbtIo.write (un compound raíz con nombre), como en el journal.
+     */
+    static OfferRecord readOffer(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readUnsignedByte() != TAG_COMPOUND) {
+            throw new IOException("Offer is not an NBT compound");
+        }
+        in.readUTF();
+        return toRecord(readOfferFields(in));
+    }
+
+    /**
+     * Lee los campos de una oferta. Los items quedan como {@link ItemFields}; los tags
+     * desconocidos se saltan.
+     */
+    private static Map<String, Object> readOfferFields(DataInput in) throws IOException {
+        Map<String, Object> fields = new HashMap<>();
+        int type;
+        while ((type = in.readUnsignedByte()) != TAG_END) {
+            String name = in.readUTF();
+            if (type == TAG_STRING) {
+                fields.put(name, in.readUTF());
+            } else if (type == TAG_LONG) {
+                fields.put(name, in.readLong());
+            } else if (type == TAG_COMPOUND && (name.equals("OfferedItem") || name.equals("RequestedItem"))) {
+                fields.put(name, readItem(in));
+            } else {
+                skip(in, type, null);
+            }
+        }
+        return fields;
+    }
+
+    private static class ItemFields {
+        String id;
+        int count = 1;
+        byte[] tag;
+    }
+
+    private static ItemFields readItem(DataInput in) throws IOException {
+        ItemFields item = new ItemFields();
+        int type;
+        while ((type = in.readUnsignedByte()) != TAG_END) {
+            String name = in.readUTF();
+            if (name.equals("id") && type == TAG_STRING) {
+                item.id = in.readUTF();
+            } else if (name.equals("Count") && type == TAG_BYTE) {
+                item.count = in.readByte();
+            } else if (name.equals("tag") && type == TAG_COMPOUND) {
+                // Mismo formato que NbtIo.write: tipo, nombre vacío y contenido
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+                DataOutputStream copy = new DataOutputStream(bytes);
+                copy.writeByte(TAG_COMPOUND);
+                copy.writeUTF("");
+                skip(in, TAG_COMPOUND, copy);
+                copy.flush();
+                item.tag = bytes.toByteArray();
+            } else {
+                skip(in, type, null);
+            }
+        }
+        return item;
+    }
+
+    private static OfferRecord toRecord(Map<String, Object> fields) throws IOException {
+        ItemFields offered = item(fields, "OfferedItem");
+        ItemFields requested = item(fields, "RequestedItem");
+        Object created = fields.get("CreationTime");
+        return new OfferRecord(
+                UUID.fromString(string(fields, "OfferId")),
+                UUID.fromString(string(fields, "CreatorUUID")),
+                fields.containsKey("CreatorName") ? (String) fields.get("CreatorName") : "",
+                offered.id, offered.count, offered.tag,
+                requested.id, requested.count, requested.tag,
+                created instanceof Long ? (Long) created : 0L);
+    }
+
+    private static String string(Map<String, Object> fields, String name) throws IOException {
+        Object value = fields.get(name);
+        if (!(value instanceof String) || ((String) value).isEmpty()) {
+            throw new IOException("missing field " + name);
+        }
+        return (String) value;
+    }
+
+    private static ItemFields item(Map<String, Object> fields, String name) throws IOException {
+        Object value = fields.get(name);
+        if (!(value instanceof ItemFields) || ((ItemFields) value).id == null) {
+            throw new IOException("missing field " + name);
+        }
+        ItemFields item = (ItemFields) value;
+        if (item.count <= 0) {
+            throw new IOException("invalid count " + item.count + " in " + name);
+        }
+        return item;
+    }
+
+    /**
+     * Salta el contenido de un tag, copiándolo a {@code copy} si no es null.
+     */
+    private static void skip(DataInput in, int type, DataOutput copy) throws IOException {
+        switch (type) {
+            case TAG_BYTE:
+                copyBytes(in, 1, copy);
+                break;
+            case TAG_SHORT:
+                copyBytes(in, 2, copy);
+                break;
+            case TAG_INT:
+            case TAG_FLOAT:
+                copyBytes(in, 4, copy);
+                break;
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                copyBytes(in, 8, copy);
+                break;
+            case TAG_BYTE_ARRAY:
+                copyBytes(in, copyInt(in, copy), copy);
+                break;
+            case TAG_INT_ARRAY:
+                copyBytes(in, copyInt(in, copy) * 4L, copy);
+                break;
+            case TAG_LONG_ARRAY:
+                copyBytes(in, copyInt(in, copy) * 8L, copy);
+                break;
+            case TAG_STRING:
+                copyBytes(in, copyShort(in, copy), copy);
+                break;
+            case TAG_LIST: {
+                int elementType = in.readUnsignedByte();
+                if (copy != null) {
+                    copy.writeByte(elementType);
+                }
+                int size = copyInt(in, copy);
+                for (int i = 0; i < size; i++) {
+                    skip(in, elementType, copy);
+                }
+                break;
+            }
+            case TAG_COMPOUND: {
+                int childType;
+                while ((childType = in.readUnsignedByte()) != TAG_END) {
+                    if (copy != null) {
+                        copy.writeByte(childType);
+                    }
+                    copyBytes(in, copyShort(in, copy), copy);
+                    skip(in, childType, copy);
+                }
+                if (copy != null) {
+                    copy.writeByte(TAG_END);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown NBT tag type " + type);
+        }
+    }
+
+    private static int copyInt(DataInput in, DataOutput copy) throws IOException {
+        int value = in.readInt();
+        if (value < 0) {
+            throw new IOException("Negative NBT length " + value);
+        }
+        if (copy != null) {
+            copy.writeInt(value);
+        }
+        return value;
+    }
+
+    private static int copyShort(DataInput in, DataOutput copy) throws IOException {
+        int value = in.readUnsignedShort();
+        if (copy != null) {
+            copy.writeShort(value);
+        }
+        return value;
+    }
+
+    private static void copyBytes(DataInput in, long length, DataOutput copy) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(length, 8192)];
+        while (length > 0) {
+            int chunk = (int) Math.min(length, buffer.length);
+            in.readFully(buffer, 0, chunk);
+            if (copy != null) {
+                copy.write(buffer, 0, chunk);
+            }
+            length -= chunk;
+        }
+    }
+}